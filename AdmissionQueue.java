@@ -0,0 +1,598 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Admits arriving cars to a CarPark, queueing them while no slot of their
+ * type is free instead of failing.
+ * <pre>
+ * AdmissionQueue admissions = new AdmissionQueue(carPark, 5000);
+ * admissions.admit(car, 10, TimeUnit.MINUTES)
+ *     .thenAccept(slot -&gt; openBarrier(slot))
+ *     .exceptionally(e -&gt; turnAway(car));
+ * </pre>
+ * {@link #admit(Car, long, TimeUnit)} parks the car at once if it can, as
+ * {@link CarPark#parkAnywhere(Car)} would. Otherwise the car joins a first-in,
+ * first-out queue for its slot type, bounded in length, and its future
+ * completes with the slot it is parked in once one frees up. When a car is
+ * removed from a slot, the slot is held for the car at the head of that
+ * type's queue before any other gate can take it, and the waiting car is
+ * parked in it on the executor given to the constructor. Waiting costs no
+ * thread: timeouts are scheduled on one timer thread shared by all queues,
+ * which hands them to the executor, and are cancelled as soon as a car's wait
+ * ends, so cars admitted quickly leave nothing behind. A waiting car's future
+ * fails with a {@link TimeoutException} when its timeout passes. Cancelling a future
+ * withdraws the car from the queue. Slots are handed to waiting cars in queue
+ * order; with an executor of several threads, their futures may complete
+ * slightly out of that order.
+ * <p>
+ * The queue installs itself as the car park's {@link ParkingRule}, keeping
+ * held slots for the cars they are held for and otherwise deferring to the
+ * rule already installed, so it should be created after any
+ * {@link ReservationBook}.
+ */
+public final class AdmissionQueue implements ParkingRule, CarParkListener {
+    /**
+     * Schedules the timeouts of every queue's waiting cars on one daemon
+     * thread; cancelled timeouts are dropped from it at once.
+     */
+    private static final ScheduledThreadPoolExecutor TIMEOUTS = createTimeouts();
+
+    /**
+     * The car park cars are admitted to.
+     */
+    private final CarPark carPark;
+
+    /**
+     * The rule that was installed before this queue.
+     */
+    private final ParkingRule previousRule;
+
+    /**
+     * Parks waiting cars in the slots held for them.
+     */
+    private final Executor executor;
+
+    /**
+     * Maximum number of cars waiting for each slot type.
+     */
+    private final int capacity;
+
+    /**
+     * Waiting cars of each slot type.
+     */
+    private final Map<ParkingSlot.SlotType, TypeQueue> queues =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Free slots held for waiting cars, until they are parked in them.
+     */
+    private final Map<ParkingSlot, Car> holds = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an admission queue for a car park that parks waiting cars on the
+     * common fork-join pool, and installs it as the car park's parking rule.
+     *
+     * @param carPark  the car park
+     * @param capacity the most cars that may wait for each slot type
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public AdmissionQueue(CarPark carPark, int capacity) {
+        this(carPark, capacity, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an admission queue for a car park and installs it as the car
+     * park's parking rule.
+     *
+     * @param carPark  the car park
+     * @param capacity the most cars that may wait for each slot type
+     * @param executor parks waiting cars in the slots held for them
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public AdmissionQueue(CarPark carPark, int capacity, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        this.carPark = carPark;
+        this.capacity = capacity;
+        this.executor = executor;
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            queues.put(type, new TypeQueue());
+        }
+        this.previousRule = carPark.getParkingRule();
+        carPark.addListener(this);
+        carPark.setParkingRule(this);
+    }
+
+    /**
+     * Admits a car to a slot of the type matching its owner: at once if one
+     * is free, or else once one frees up and every car that queued before it
+     * for that type has been admitted.
+     *
+     * @param car     the arriving car; if it has no park time it is stamped
+     *                with the time it is parked
+     * @param timeout how long the car may wait
+     * @param unit    the unit of the timeout
+     * @return a future completed with the slot the car was parked in; failed
+     *         with an {@link IllegalStateException} if the queue for the type is
+     *         full, or a {@link TimeoutException} if no slot was found in time
+     * @throws IllegalStateException if the car is already parked in the car park
+     */
+    public CompletableFuture<ParkingSlot> admit(Car car, long timeout, TimeUnit unit) {
+        ParkingSlot.SlotType type = car.isStaffOwner()
+            ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+        TypeQueue queue = queues.get(type);
+        if (queue.size == 0) {
+            ParkingSlot slot = carPark.parkAnywhere(car);
+            if (slot != null) {
+                queue.admitted.increment();
+                return CompletableFuture.completedFuture(slot);
+            }
+        } else {
+            carPark.checkNotParked(car);
+        }
+        Waiter waiter = new Waiter(car, type, System.nanoTime() + unit.toNanos(timeout));
+        synchronized (queue) {
+            if (queue.waiters.size() >= capacity) {
+                queue.rejected.increment();
+                return CompletableFuture.failedFuture(
+                    new IllegalStateException("Admission queue is full."));
+            }
+            queue.waiters.addLast(waiter);
+            queue.updateSize();
+        }
+        ScheduledFuture<?> expiry = TIMEOUTS.schedule(
+            () -> executor.execute(() -> expire(waiter)), timeout, unit);
+        waiter.future.whenComplete((slot, failure) -> {
+            expiry.cancel(false);
+            if (waiter.future.isCancelled()) {
+                withdraw(waiter, queue.cancelled);
+            }
+        });
+        drain(type);
+        return waiter.future;
+    }
+
+    /**
+     * Creates the timer thread's executor.
+     *
+     * @return the executor
+     */
+    private static ScheduledThreadPoolExecutor createTimeouts() {
+        ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "admission-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeouts.setRemoveOnCancelPolicy(true);
+        return timeouts;
+    }
+
+    /**
+     * Returns the number of cars waiting for a slot type.
+     *
+     * @param type the slot type
+     * @return the queue depth
+     */
+    public int getQueueDepth(ParkingSlot.SlotType type) {
+        return queues.get(type).size;
+    }
+
+    /**
+     * Returns the most cars that have waited for a slot type at once.
+     *
+     * @param type the slot type
+     * @return the highest queue depth
+     */
+    public int getMaxQueueDepth(ParkingSlot.SlotType type) {
+        TypeQueue queue = queues.get(type);
+        synchronized (queue) {
+            return queue.maxSize;
+        }
+    }
+
+    /**
+     * Returns the number of cars admitted to a slot type, with or without waiting.
+     *
+     * @param type the slot type
+     * @return the admitted count
+     */
+    public long getAdmittedCount(ParkingSlot.SlotType type) {
+        return queues.get(type).admitted.sum();
+    }
+
+    /**
+     * Returns the number of cars admitted to a slot type after waiting.
+     *
+     * @param type the slot type
+     * @return the count of cars admitted from the queue
+     */
+    public long getWaitedCount(ParkingSlot.SlotType type) {
+        return queues.get(type).waited.sum();
+    }
+
+    /**
+     * Returns the mean time cars admitted from the queue of a slot type waited.
+     *
+     * @param type the slot type
+     * @return the mean wait in nanoseconds, or 0 if none have waited
+     */
+    public long getMeanWaitNanos(ParkingSlot.SlotType type) {
+        TypeQueue queue = queues.get(type);
+        long waited = queue.waited.sum();
+        return waited == 0 ? 0 : queue.waitNanos.sum() / waited;
+    }
+
+    /**
+     * Returns the number of cars turned away from a slot type because its
+     * queue was full.
+     *
+     * @param type the slot type
+     * @return the rejected count
+     */
+    public long getRejectedCount(ParkingSlot.SlotType type) {
+        return queues.get(type).rejected.sum();
+    }
+
+    /**
+     * Returns the number of cars whose wait for a slot type timed out.
+     *
+     * @param type the slot type
+     * @return the timed out count
+     */
+    public long getTimedOutCount(ParkingSlot.SlotType type) {
+        return queues.get(type).timedOut.sum();
+    }
+
+    /**
+     * Returns the number of cars whose wait for a slot type was cancelled.
+     *
+     * @param type the slot type
+     * @return the cancelled count
+     */
+    public long getCancelledCount(ParkingSlot.SlotType type) {
+        return queues.get(type).cancelled.sum();
+    }
+
+    /**
+     * Keeps held slots for the cars they are held for, then applies the
+     * rule installed before this queue.
+     *
+     * @param slot the free slot
+     * @param car  the car about to be parked
+     * @return true if the car may use the slot
+     */
+    @Override
+    public boolean allows(ParkingSlot slot, Car car) {
+        Car holder = holds.get(slot);
+        if (holder != null && holder.getRegistrationCode() != car.getRegistrationCode()) {
+            return false;
+        }
+        return previousRule.allows(slot, car);
+    }
+
+    /**
+     * Holds a freed slot for the car at the head of its type's queue, and
+     * parks that car in it on the executor. Called under the slot's monitor,
+     * so the car cannot be parked here.
+     *
+     * @param slot the slot the car was removed from
+     * @param car  the removed car
+     */
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        TypeQueue queue = queues.get(slot.getType());
+        queue.freed.incrementAndGet();
+        if (queue.size == 0) {
+            return;
+        }
+        synchronized (queue) {
+            Waiter waiter = queue.claimHead();
+            if (waiter != null) {
+                holds.put(slot, waiter.car);
+                // Submitted in the order the cars were claimed.
+                executor.execute(() -> handOff(slot, waiter));
+            }
+        }
+    }
+
+    /**
+     * Offers a new slot to the cars waiting for its type.
+     *
+     * @param slot the new slot
+     */
+    @Override
+    public void slotAdded(ParkingSlot slot) {
+        TypeQueue queue = queues.get(slot.getType());
+        queue.freed.incrementAndGet();
+        if (queue.size > 0) {
+            executor.execute(() -> drain(slot.getType()));
+        }
+    }
+
+    /**
+     * Parks a waiting car in the slot held for it. If the slot can no longer
+     * be used, e.g. it was deleted or booked, the car goes back to the head of
+     * its queue.
+     *
+     * @param slot   the held slot
+     * @param waiter the car it is held for
+     */
+    private void handOff(ParkingSlot slot, Waiter waiter) {
+        Car car = waiter.car.hasParkTime() ? waiter.car
+            : waiter.car.parkedAt(carPark.nowEpochSecond());
+        try {
+            slot.parkCar(car);
+        } catch (IllegalStateException e) {
+            holds.remove(slot, waiter.car);
+            if (carPark.findCar(car.getRegistrationNumber()) != null) {
+                waiter.future.completeExceptionally(e);
+            } else {
+                requeue(waiter);
+                drain(waiter.type);
+            }
+            return;
+        }
+        holds.remove(slot, waiter.car);
+        complete(waiter, slot);
+    }
+
+    /**
+     * Parks waiting cars of a type in free slots, in queue order, until the
+     * queue is empty or no slot of the type is free.
+     *
+     * @param type the slot type
+     */
+    private void drain(ParkingSlot.SlotType type) {
+        TypeQueue queue = queues.get(type);
+        while (true) {
+            Waiter waiter;
+            long freed;
+            synchronized (queue) {
+                waiter = queue.claimHead();
+                if (waiter == null) {
+                    return;
+                }
+                freed = queue.freed.get();
+            }
+            ParkingSlot slot;
+            try {
+                slot = carPark.parkAnywhere(waiter.car);
+            } catch (IllegalStateException e) {
+                waiter.future.completeExceptionally(e);
+                continue;
+            }
+            if (slot != null) {
+                complete(waiter, slot);
+                continue;
+            }
+            requeue(waiter);
+            // A slot freed while the car was out of the queue was not handed
+            // to it, so look again; otherwise wait for the next one.
+            if (queue.freed.get() == freed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Completes a waiting car's future with the slot it was parked in. If the
+     * wait was cancelled meanwhile, the car is removed again, which hands the
+     * slot to the next car in the queue.
+     *
+     * @param waiter the admitted car
+     * @param slot   the slot it was parked in
+     */
+    private void complete(Waiter waiter, ParkingSlot slot) {
+        TypeQueue queue = queues.get(waiter.type);
+        if (!waiter.future.complete(slot)) {
+            queue.cancelled.increment();
+            slot.removeCar();
+            return;
+        }
+        queue.admitted.increment();
+        queue.waited.increment();
+        queue.waitNanos.add(System.nanoTime() - waiter.enqueuedNanos);
+    }
+
+    /**
+     * Returns a claimed car to the head of its queue, so that it keeps its
+     * place, and releases it. If its timeout passed while it was claimed, it
+     * is timed out now.
+     *
+     * @param waiter the car
+     */
+    private void requeue(Waiter waiter) {
+        TypeQueue queue = queues.get(waiter.type);
+        synchronized (queue) {
+            queue.waiters.addFirst(waiter);
+            queue.updateSize();
+            waiter.claimed.set(false);
+        }
+        if (System.nanoTime() - waiter.deadlineNanos >= 0) {
+            expire(waiter);
+        }
+    }
+
+    /**
+     * Times out a waiting car, unless it is being admitted.
+     *
+     * @param waiter the car
+     */
+    private void expire(Waiter waiter) {
+        if (withdraw(waiter, queues.get(waiter.type).timedOut)) {
+            waiter.future.completeExceptionally(new TimeoutException(
+                "No " + waiter.type.name().toLowerCase() + " slot became free in time."));
+        }
+    }
+
+    /**
+     * Takes a car out of its queue, unless it is being admitted.
+     *
+     * @param waiter  the car
+     * @param counter counts the withdrawal
+     * @return true if the car was withdrawn
+     */
+    private boolean withdraw(Waiter waiter, LongAdder counter) {
+        if (!waiter.claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        TypeQueue queue = queues.get(waiter.type);
+        synchronized (queue) {
+            queue.waiters.remove(waiter);
+            queue.updateSize();
+        }
+        counter.increment();
+        return true;
+    }
+
+    /**
+     * The cars waiting for one slot type, and its counters.
+     */
+    private static final class TypeQueue {
+        /**
+         * Waiting cars, in arrival order. Guarded by this monitor.
+         */
+        final Deque<Waiter> waiters = new ArrayDeque<>();
+
+        /**
+         * Number of waiting cars, readable without the monitor.
+         */
+        volatile int size;
+
+        /**
+         * Most cars that have waited at once. Guarded by this monitor.
+         */
+        int maxSize;
+
+        /**
+         * Number of slots of the type freed or added, so that a car that was
+         * briefly out of the queue can tell whether it missed one.
+         */
+        final AtomicLong freed = new AtomicLong();
+
+        /**
+         * Cars admitted, with or without waiting.
+         */
+        final LongAdder admitted = new LongAdder();
+
+        /**
+         * Cars admitted after waiting.
+         */
+        final LongAdder waited = new LongAdder();
+
+        /**
+         * Total time cars admitted after waiting spent waiting, in nanoseconds.
+         */
+        final LongAdder waitNanos = new LongAdder();
+
+        /**
+         * Cars turned away because the queue was full.
+         */
+        final LongAdder rejected = new LongAdder();
+
+        /**
+         * Cars whose wait timed out.
+         */
+        final LongAdder timedOut = new LongAdder();
+
+        /**
+         * Cars whose wait was cancelled.
+         */
+        final LongAdder cancelled = new LongAdder();
+
+        /**
+         * Removes the first car that is not being withdrawn from the queue and
+         * claims it for admission. Must hold this monitor.
+         *
+         * @return the claimed car, or null if none is waiting
+         */
+        Waiter claimHead() {
+            Waiter waiter;
+            while ((waiter = waiters.pollFirst()) != null) {
+                if (waiter.claimed.compareAndSet(false, true)) {
+                    break;
+                }
+            }
+            updateSize();
+            return waiter;
+        }
+
+        /**
+         * Publishes the number of waiting cars and updates the highest. Must
+         * hold this monitor.
+         */
+        void updateSize() {
+            size = waiters.size();
+            maxSize = Math.max(maxSize, size);
+        }
+    }
+
+    /**
+     * A car waiting for a slot.
+     */
+    private static final class Waiter {
+        /**
+         * The waiting car.
+         */
+        final Car car;
+
+        /**
+         * The slot type it waits for.
+         */
+        final ParkingSlot.SlotType type;
+
+        /**
+         * Completed with the slot the car is parked in.
+         */
+        final CompletableFuture<ParkingSlot> future = new CompletableFuture<>();
+
+        /**
+         * When the car joined the queue, from {@link System#nanoTime()}.
+         */
+        final long enqueuedNanos = System.nanoTime();
+
+        /**
+         * When the car's wait times out, from {@link System#nanoTime()}.
+         */
+        final long deadlineNanos;
+
+        /**
+         * Set while the car is being admitted, and for good once it has been
+         * withdrawn, so that admission and withdrawal never both happen.
+         */
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        /**
+         * Constructs a waiter.
+         *
+         * @param car           the waiting car
+         * @param type          the slot type it waits for
+         * @param deadlineNanos when its wait times out
+         */
+        Waiter(Car car, ParkingSlot.SlotType type, long deadlineNanos) {
+            this.car = car;
+            this.type = type;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
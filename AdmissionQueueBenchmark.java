@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures {@link AdmissionQueue} with thousands of cars waiting at once.
+ * <p>
+ * For each waiter count, a full car park of {@value #SLOTS} visitor slots is
+ * given that many waiting cars, and the time taken to queue them is noted.
+ * Gate threads then remove cars as fast as they
+ * can, and every removal hands its slot to the next waiting car, until all
+ * have been admitted. Reports the admission rate, the mean wait, the live
+ * thread count while the cars waited, and how long it took every car of a
+ * second queue of the same size, given a {@value #TIMEOUT_MILLIS} ms timeout,
+ * to time out. Run with
+ * {@code java AdmissionQueueBenchmark [gates [waiterCounts...]]}.
+ */
+public class AdmissionQueueBenchmark {
+    /**
+     * Number of slots in the car park.
+     */
+    private static final int SLOTS = 1000;
+
+    /**
+     * Timeout of the cars in the timeout run.
+     */
+    private static final int TIMEOUT_MILLIS = 200;
+
+    /**
+     * Waiter counts measured when none are given.
+     */
+    private static final int[] DEFAULT_WAITERS = {1000, 10_000, 100_000};
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args gate threads, then waiter counts
+     * @throws InterruptedException if interrupted while waiting for the gates
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int gates = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int[] waiterCounts = DEFAULT_WAITERS;
+        if (args.length > 1) {
+            waiterCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                waiterCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%d slots, %d gates%n", SLOTS, gates);
+        System.out.printf("%-9s %-10s %-12s %-12s %-10s %-9s %-12s%n", "Waiters",
+            "QueueMs", "Admitted/s", "MeanWaitMs", "MaxDepth", "Threads", "TimeoutMs");
+        for (int waiters : waiterCounts) {
+            run(waiters, gates);
+        }
+    }
+
+    /**
+     * Runs one measurement and prints its row.
+     *
+     * @param waiters number of waiting cars
+     * @param gates   number of gate threads removing cars
+     * @throws InterruptedException if interrupted while waiting for the gates
+     */
+    private static void run(int waiters, int gates) throws InterruptedException {
+        CarPark carPark = new CarPark(0, 0);
+        List<ParkingSlot> slots = new ArrayList<>(SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            slots.add(new ParkingSlot(SlotAddress.fromCode(ParkingSlot.ID_SPACE + i),
+                ParkingSlot.SlotType.VISITOR));
+        }
+        carPark.addSlots(slots);
+        AdmissionQueue admissions = new AdmissionQueue(carPark, waiters);
+        ConcurrentLinkedQueue<ParkingSlot> occupied = new ConcurrentLinkedQueue<>();
+        int registration = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            occupied.add(admissions.admit(newCar(registration++), 1, TimeUnit.MINUTES).join());
+        }
+
+        List<CompletableFuture<ParkingSlot>> futures = new ArrayList<>(waiters);
+        long queueStart = System.nanoTime();
+        for (int i = 0; i < waiters; i++) {
+            CompletableFuture<ParkingSlot> future =
+                admissions.admit(newCar(registration++), 10, TimeUnit.MINUTES);
+            future.thenAccept(occupied::add);
+            futures.add(future);
+        }
+        long queueElapsed = System.nanoTime() - queueStart;
+        int threads = Thread.activeCount();
+        long start = System.nanoTime();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] threadArray = new Thread[gates];
+        for (int g = 0; g < gates; g++) {
+            threadArray[g] = new Thread(() -> {
+                while (running.get()) {
+                    ParkingSlot slot = occupied.poll();
+                    if (slot == null) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    slot.removeCar();
+                }
+            }, "gate-" + g);
+            threadArray[g].start();
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        for (Thread thread : threadArray) {
+            thread.join();
+        }
+        ParkingSlot.SlotType visitor = ParkingSlot.SlotType.VISITOR;
+
+        // Fill the car park, then queue cars that will all time out.
+        for (ParkingSlot slot : carPark.getAllSlots()) {
+            if (slot.isOccupied()) {
+                slot.removeCar();
+            }
+        }
+        for (int i = 0; i < SLOTS; i++) {
+            admissions.admit(newCar(i), 1, TimeUnit.MINUTES).join();
+        }
+        long timeoutStart = System.nanoTime();
+        List<CompletableFuture<ParkingSlot>> expiring = new ArrayList<>(waiters);
+        for (int i = 0; i < waiters; i++) {
+            expiring.add(admissions.admit(newCar(SLOTS + i),
+                TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        CompletableFuture.allOf(expiring.toArray(new CompletableFuture<?>[0]))
+            .exceptionally(e -> null).join();
+        long timeoutElapsed = System.nanoTime() - timeoutStart;
+
+        System.out.printf("%-9d %-10.1f %-12.0f %-12.1f %-10d %-9d %-12.0f%n", waiters,
+            queueElapsed / 1e6, waiters * 1e9 / elapsed, admissions.getMeanWaitNanos(visitor) / 1e6,
+            admissions.getMaxQueueDepth(visitor), threads, timeoutElapsed / 1e6);
+        if (admissions.getTimedOutCount(visitor) != waiters
+            || admissions.getQueueDepth(visitor) != 0) {
+            System.out.println("  expected " + waiters + " timeouts, saw "
+                + admissions.getTimedOutCount(visitor));
+        }
+    }
+
+    /**
+     * Creates a visitor car.
+     *
+     * @param registration the packed registration
+     * @return the car, stamped with its park time when parked
+     */
+    private static Car newCar(int registration) {
+        return new Car(Car.decodeRegistration(registration % Car.REGISTRATION_SPACE),
+            "Driver", false);
+    }
+}
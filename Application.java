@@ -1,8 +1,19 @@
-import java.time.Duration;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * @author Tung Tran <103432596>
@@ -32,55 +43,365 @@ public class Application {
      */
     private Scanner scanner = new Scanner(System.in);
 
+    /**
+     * Journal persisting the car park, or null when running without a data directory.
+     */
+    private CarParkJournal journal;
+
+    /**
+     * History of completed sessions, or null when running without a data directory.
+     */
+    private SessionHistoryStore history;
+
+    /**
+     * Site layout to create the car park from, or null to prompt for slot counts.
+     */
+    private SiteLayout layout;
+
+    /**
+     * Number of commands read and executed per batch in batch mode.
+     */
+    private static final int BATCH_SIZE = 1024;
+
     /**
      * Program entry point.
+     * With no arguments, runs the interactive console menu. With
+     * {@code --data <dir>}, runs the menu on a car park persisted in that
+     * directory, restoring it if it already holds saved state. Either may be
+     * followed by {@code --layout <file>} to create a new car park from a
+     * {@link SiteLayout} file or image instead of prompting for slot counts;
+     * {@code --compile-layout <file> <image>} saves a layout file as an image. With
+     * {@code --batch <file|-> [staffSlots visitorSlots]}, runs the commands
+     * in the file (or standard input for {@code -}) without prompting;
+     * see {@link CommandProcessor} for the command syntax. With
+     * {@code --serve <port> [staffSlots visitorSlots | --layout <file>] [--replicate <replicationPort>]},
+     * serves the same commands over TCP with {@link CarParkServer} until the
+     * process is stopped, optionally as a {@link ReplicationPrimary}. With
+     * {@code --replica <host:replicationPort> <port> [--failover <replicationPort>]},
+     * serves read-only commands from a {@link ReplicationReplica} of that
+     * primary, and with {@code --failover} takes over as primary if it is lost.
      *
-     * @param args command-line arguments (not used)
+     * @param args command-line arguments
+     * @throws IOException if the batch input cannot be read or output cannot be written
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && "--replica".equals(args[0])) {
+            runReplica(args);
+            return;
+        }
+        if (args.length > 0 && "--compile-layout".equals(args[0])) {
+            compileLayout(args);
+            return;
+        }
         Application app = new Application();
-        app.initCarPark();
+        int layoutArg = Arrays.asList(args).indexOf("--layout");
+        if (layoutArg >= 0 && layoutArg + 1 < args.length) {
+            app.layout = SiteLayout.read(Paths.get(args[layoutArg + 1]));
+        }
+        if (args.length > 1 && "--data".equals(args[0])) {
+            app.openCarPark(args[1]);
+        } else {
+            app.initCarPark();
+        }
         app.runMenuLoop();
+        if (app.journal != null) {
+            app.journal.close();
+        }
+        if (app.history != null) {
+            app.history.close();
+        }
+    }
+
+    /**
+     * Runs batch mode: reads commands in batches of {@link #BATCH_SIZE} lines,
+     * executes them against a new CarPark, writes responses through a buffered
+     * writer, and reports throughput at the end.
+     *
+     * @param args command-line arguments, starting with {@code --batch}
+     * @throws IOException if the input cannot be read or output cannot be written
+     */
+    private static void runBatch(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Application --batch <file|-> [staffSlots visitorSlots]");
+            return;
+        }
+        int staffCount = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int visitorCount = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        CommandProcessor processor = new CommandProcessor(new CarPark(staffCount, visitorCount));
+        Reader source = "-".equals(args[1])
+            ? new InputStreamReader(System.in)
+            : new FileReader(args[1]);
+        long commands = 0;
+        long start = System.nanoTime();
+        try (BufferedReader in = new BufferedReader(source, 1 << 16);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)) {
+            String[] batch = new String[BATCH_SIZE];
+            int n;
+            do {
+                n = 0;
+                String line;
+                while (n < BATCH_SIZE && (line = in.readLine()) != null) {
+                    if (CommandProcessor.isCommand(line)) {
+                        batch[n++] = line;
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    out.write(processor.execute(batch[i]));
+                    out.newLine();
+                }
+                commands += n;
+            } while (n == BATCH_SIZE);
+            long elapsed = System.nanoTime() - start;
+            out.write(String.format("Processed %d commands in %.3f s (%.0f commands/s)",
+                commands, elapsed / 1e9, elapsed == 0 ? 0.0 : commands * 1e9 / elapsed));
+            out.newLine();
+        }
+    }
+
+    /**
+     * Reads a layout file and saves it as a binary layout image, reporting
+     * how long each takes to load.
+     *
+     * @param args command-line arguments, starting with {@code --compile-layout}
+     * @throws IOException if the layout cannot be read or the image written
+     */
+    private static void compileLayout(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: Application --compile-layout <layoutFile> <imageFile>");
+            return;
+        }
+        long start = System.nanoTime();
+        SiteLayout text = SiteLayout.read(Paths.get(args[1]));
+        long parsed = System.nanoTime() - start;
+        text.writeImage(Paths.get(args[2]));
+        start = System.nanoTime();
+        SiteLayout image = SiteLayout.read(Paths.get(args[2]));
+        long loaded = System.nanoTime() - start;
+        System.out.printf("Wrote %d ranges, %d bays, to %s (layout file %.2f ms, image %.2f ms).%n",
+            image.getRanges().size(), image.getSlotCount(), args[2], parsed / 1e6, loaded / 1e6);
+    }
+
+    /**
+     * Runs server mode: serves a new CarPark over TCP until the process is
+     * stopped, replicating it if asked, and closes the server on shutdown.
+     *
+     * @param args command-line arguments, starting with {@code --serve}
+     * @throws IOException if a port cannot be bound
+     */
+    private static void runServer(String[] args) throws IOException {
+        int replicate = Arrays.asList(args).indexOf("--replicate");
+        if (args.length < 2 || replicate == 1 || replicate == args.length - 1) {
+            System.err.println("Usage: Application --serve <port>"
+                + " [staffSlots visitorSlots | --layout <file>] [--replicate <replicationPort>]");
+            return;
+        }
+        int replicationPort = replicate < 0 ? -1 : Integer.parseInt(args[replicate + 1]);
+        if (replicate >= 0) {
+            args = Arrays.copyOf(args, replicate);
+        }
+        CarPark carPark;
+        if (args.length > 3 && "--layout".equals(args[2])) {
+            carPark = new CarPark(SiteLayout.read(Paths.get(args[3])));
+        } else {
+            int staffCount = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            int visitorCount = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            carPark = new CarPark(staffCount, visitorCount);
+        }
+        CarParkServer server = new CarParkServer(carPark, Integer.parseInt(args[1]));
+        ReplicationPrimary primary = replicationPort < 0
+            ? null : new ReplicationPrimary(carPark, replicationPort);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (primary != null) {
+                    primary.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }));
+        System.out.println("Serving car park on port " + server.getPort() + ".");
+        if (primary != null) {
+            System.out.println("Replicating on port " + primary.getPort() + ".");
+        }
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs replica mode: replicates a primary's CarPark and serves read-only
+     * commands from it over TCP until the process is stopped. With
+     * {@code --failover}, promotes the replica when the primary is lost,
+     * serving every command and replicating to replicas of its own.
+     *
+     * @param args command-line arguments, starting with {@code --replica}
+     * @throws IOException if the primary cannot be reached or a port cannot be bound
+     */
+    private static void runReplica(String[] args) throws IOException {
+        int colon = args.length < 3 ? -1 : args[1].lastIndexOf(':');
+        if (colon <= 0 || (args.length > 3 && (args.length < 5 || !"--failover".equals(args[3])))) {
+            System.err.println("Usage: Application --replica <host:replicationPort> <port>"
+                + " [--failover <replicationPort>]");
+            return;
+        }
+        int failoverPort = args.length > 4 ? Integer.parseInt(args[4]) : -1;
+        CountDownLatch primaryLost = new CountDownLatch(1);
+        ReplicationReplica replica = ReplicationReplica.connect(args[1].substring(0, colon),
+            Integer.parseInt(args[1].substring(colon + 1)), primaryLost::countDown);
+        CommandProcessor processor = new CommandProcessor(replica.getCarPark());
+        processor.setReadOnly(true);
+        CarParkServer server = new CarParkServer(processor, Integer.parseInt(args[2]));
+        ReplicationPrimary[] promoted = new ReplicationPrimary[1];
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            replica.close();
+            try {
+                server.close();
+                if (promoted[0] != null) {
+                    promoted[0].close();
+                }
+            } catch (IOException ignored) {
+            }
+        }));
+        System.out.println("Replicating " + args[1] + " from sequence "
+            + replica.getAppliedSequence() + "; serving read-only on port " + server.getPort() + ".");
+        try {
+            primaryLost.await();
+            if (failoverPort < 0) {
+                System.out.println("Primary lost at sequence " + replica.getAppliedSequence()
+                    + "; still serving read-only.");
+            } else {
+                CarPark carPark = replica.promote();
+                processor.setReadOnly(false);
+                promoted[0] = new ReplicationPrimary(carPark, failoverPort);
+                System.out.println("Primary lost; promoted at sequence " + replica.getAppliedSequence()
+                    + ", replicating on port " + promoted[0].getPort() + ".");
+            }
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
      * Initializes the CarPark by prompting the user for the number
      * of staff and visitor slots, creates the slots, and lists them.
+     * A car park created from a layout is not listed, as it may have
+     * thousands of slots.
      */
     private void initCarPark() {
+        carPark = createCarPark();
+        if (layout == null) {
+            System.out.println("Current parking slots and status:");
+            listAllSlots();
+            System.out.println();
+        }
+    }
+
+    /**
+     * Opens the CarPark persisted in a data directory, restoring its slots and
+     * parked cars, or prompting for a new one if the directory holds no state.
+     * Completed sessions are recorded in the directory's {@code history}
+     * subdirectory. Lists the slots afterwards, unless a site layout was given.
+     *
+     * @param dataDir the data directory
+     * @throws IOException if the saved state cannot be read or written
+     */
+    private void openCarPark(String dataDir) throws IOException {
+        journal = CarParkJournal.open(Paths.get(dataDir), this::createCarPark);
+        carPark = journal.getCarPark();
+        history = SessionHistoryStore.open(Paths.get(dataDir, "history"));
+        carPark.addListener(history);
+        if (journal.isRecovered()) {
+            System.out.println("Car park restored from " + dataDir + ".\n");
+        }
+        if (layout == null) {
+            System.out.println("Current parking slots and status:");
+            listAllSlots();
+            System.out.println();
+        }
+    }
+
+    /**
+     * Prompts the user for the number of staff and visitor slots
+     * and creates a CarPark with them, or creates it from the site layout
+     * if one was given.
+     *
+     * @return the new CarPark
+     */
+    private CarPark createCarPark() {
+        if (layout != null) {
+            System.out.println("Car park created with "
+                + layout.getSlotCount(ParkingSlot.SlotType.STAFF) + " staff slots and "
+                + layout.getSlotCount(ParkingSlot.SlotType.VISITOR)
+                + " visitor slots from the site layout.\n");
+            return new CarPark(layout);
+        }
         System.out.println("=== Initialize Car Park ===");
         int staffCount = readNonNegativeInt("Enter number of staff slots: ");
         int visitorCount = readNonNegativeInt("Enter number of visitor slots: ");
-        carPark = new CarPark(staffCount, visitorCount);
+        CarPark created = new CarPark(staffCount, visitorCount);
         System.out.println("Car park created with " + staffCount +
             " staff slots and " + visitorCount + " visitor slots.\n");
-        System.out.println("Current parking slots and status:");
-        listAllSlots();
-        System.out.println();
+        return created;
     }
 
     /**
      * Displays the main menu and processes user choices
-     * until the user selects the exit option.
+     * until the user selects the exit option. With a data directory, each
+     * change is saved to disk before the next prompt.
      */
     private void runMenuLoop() {
         while (true) {
             printMenu();
             int choice = readNonNegativeInt("Select option: ");
-            switch (choice) {
-                case 1: addParkingSlot(); break;
-                case 2: deleteParkingSlot(); break;
-                case 3: listAllSlots(); break;
-                case 4: deleteAllUnoccupied(); break;
-                case 5: parkCar(); break;
-                case 6: findCar(); break;
-                case 7: removeCar(); break;
-                case 8:
-                    System.out.println("Program end!");
-                    return;
-                default:
-                    System.out.println("Invalid choice. Please select 1 to 8.");
+            try {
+                switch (choice) {
+                    case 1: addParkingSlot(); break;
+                    case 2: deleteParkingSlot(); break;
+                    case 3: listAllSlots(); break;
+                    case 4: deleteAllUnoccupied(); break;
+                    case 5: parkCar(); break;
+                    case 6: findCar(); break;
+                    case 7: removeCar(); break;
+                    case 8: showMetrics(); break;
+                    case 9: showHistoryReport(); break;
+                    case 10: exportReport(); break;
+                    case 11:
+                        System.out.println("Program end!");
+                        return;
+                    default:
+                        System.out.println("Invalid choice. Please select 1 to 11.");
+                }
+            } catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
             }
+            saveChanges();
+        }
+    }
+
+    /**
+     * Forces the journal to disk, if there is one, so that the changes just
+     * reported to the user survive a crash. Reports a failure, after which
+     * the car park accepts no more changes.
+     */
+    private void saveChanges() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            System.out.println("Changes could not be saved: " + e.getMessage());
         }
     }
 
@@ -96,7 +417,10 @@ public class Application {
         System.out.println("5. Park a car");
         System.out.println("6. Find a car");
         System.out.println("7. Remove a car");
-        System.out.println("8. Exit");
+        System.out.println("8. Show occupancy and metrics");
+        System.out.println("9. Show session history report");
+        System.out.println("10. Export report to a file");
+        System.out.println("11. Exit");
     }
 
     /**
@@ -154,37 +478,44 @@ public class Application {
     /**
      * Retrieves and displays all parking slots in a tabular format.
      * Includes slot ID, type, occupancy, registration, owner, park time, and fee.
+     * Slots are read in slot ID order from a snapshot of the car park, so the
+     * listing is consistent even while cars come and go, and written through
+     * a buffered writer. The ID column is as wide as the longest slot ID, so
+     * level/zone/bay addresses line up too.
      */
     private void listAllSlots() {
         System.out.println("--- List All Slots ---");
-        List<ParkingSlot> slots = carPark.getAllSlots();
-        if (slots.isEmpty()) {
+        CarParkSnapshot snapshot = carPark.snapshot();
+        if (snapshot.size() == 0) {
             System.out.println("No slots in the car park.");
             return;
         }
-        LocalDateTime now = LocalDateTime.now();
-        System.out.printf("%-5s %-7s %-9s %-10s %-8s %-20s %-6s%n",
-            "ID", "Type", "Occupied", "RegNum", "Owner", "ParkTime", "Fee");
-        for (ParkingSlot slot : slots) {
+        PrintWriter out = new PrintWriter(
+            new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        long now = carPark.nowEpochSecond();
+        Tariff tariff = carPark.getTariff();
+        int idWidth = 5;
+        for (CarParkSnapshot.SlotState slot : snapshot) {
+            idWidth = Math.max(idWidth, slot.getId().length());
+        }
+        String row = "%-" + idWidth + "s %-7s %-9s %-10s %-8s %-20s %-6s%n";
+        out.printf(row, "ID", "Type", "Occupied", "RegNum", "Owner", "ParkTime", "Fee");
+        for (CarParkSnapshot.SlotState slot : snapshot) {
             String occupied = slot.isOccupied() ? "Yes" : "No";
             String reg = "-", owner = "-", bookTime = "-", fee = "-";
             if (slot.isOccupied()) {
-                Car car = slot.getParkedCar();
-                reg = car.getRegistrationNumber();
-                owner = car.getOwner();
-                bookTime = car.getParkTime().format(DATE_TIME_FORMAT);
-                Duration d = Duration.between(car.getParkTime(), now);
-                long h = d.toHours();
-                long m = d.toMinutes() - h * 60;
-                long s = d.getSeconds() - d.toMinutes() * 60;
-                long charged = h + ((m > 0 || s > 0) ? 1 : 0);
-                fee = String.format("%dh %dm %ds $%d", h, m, s, charged * 6);
+                reg = slot.getRegistrationNumber();
+                owner = slot.getOwner();
+                bookTime = slot.getParkTime().format(DATE_TIME_FORMAT);
+                fee = formatDuration(now - slot.getParkEpochSecond()) + " " + Tariff.formatCents(
+                    tariff.fee(slot.getType(), slot.getParkEpochSecond(), now));
             }
-            System.out.printf("%-5s %-7s %-9s %-10s %-8s %-20s %-6s%n",
+            out.printf(row,
                 slot.getId(),
                 slot.getType().name().toLowerCase(),
                 occupied, reg, owner, bookTime, fee);
         }
+        out.flush();
     }
 
     /**
@@ -217,6 +548,11 @@ public class Application {
             return;
         }
         String reg = readRegistration("Enter car registration (e.g. T1234): ");
+        if (carPark.findCar(reg) != null) {
+            System.out.println("Car is already parked in slot " +
+                carPark.findCar(reg).getId() + ".");
+            return;
+        }
         System.out.print("Enter owner name: ");
         String owner = scanner.nextLine().trim();
         System.out.print("Is owner staff? (yes/no): ");
@@ -226,8 +562,7 @@ public class Application {
             System.out.println("Car type doesn't match slot type.");
             return;
         }
-        Car car = new Car(reg, owner, isStaff);
-        car.setParkTime(LocalDateTime.now());
+        Car car = new Car(reg, owner, isStaff, carPark.now());
         slot.parkCar(car);
         System.out.println("Car parked at " +
             car.getParkTime().format(DATE_TIME_FORMAT));
@@ -250,13 +585,19 @@ public class Application {
         Car car = slot.getParkedCar();
         System.out.println("Found in slot " + slot.getId() +
             ", owner: " + car.getOwner());
-        Duration d = Duration.between(car.getParkTime(), LocalDateTime.now());
-        long h = d.toHours();
-        long m = d.toMinutes() - h * 60;
-        long s = d.getSeconds() - d.toMinutes() * 60;
-        long charged = h + ((m > 0 || s > 0) ? 1 : 0);
-        System.out.printf("Parked for %dh %dm %ds, Fee: $%d%n",
-            h, m, s, charged * 6);
+        long now = carPark.nowEpochSecond();
+        System.out.println("Parked for " + formatDuration(now - car.getParkEpochSecond()) +
+            ", Fee: " + Tariff.formatCents(carPark.getTariff().fee(slot, now)));
+    }
+
+    /**
+     * Formats a number of seconds as hours, minutes and seconds, e.g. "2h 5m 30s".
+     *
+     * @param seconds the duration in seconds
+     * @return the formatted duration
+     */
+    private static String formatDuration(long seconds) {
+        return (seconds / 3600) + "h " + (seconds % 3600 / 60) + "m " + (seconds % 60) + "s";
     }
 
     /**
@@ -277,8 +618,82 @@ public class Application {
     }
 
     /**
-     * Reads a slot ID from the user, ensuring it matches the pattern [A-Z][0-9]{2}.
-     * Reprompts on invalid format.
+     * Displays the live occupancy per slot type and the latency and
+     * throughput of the main car park operations.
+     */
+    private void showMetrics() {
+        System.out.println("--- Occupancy and Metrics ---");
+        System.out.print(carPark.getMetrics().snapshot());
+    }
+
+    /**
+     * Prompts for a number of days and reports the completed sessions that
+     * ended in them: revenue, revenue per hour, average time parked per slot
+     * type and peak occupancy. Only available with a data directory.
+     */
+    private void showHistoryReport() {
+        System.out.println("--- Session History Report ---");
+        if (history == null) {
+            System.out.println("Session history is only kept when started with --data <dir>.");
+            return;
+        }
+        int days = readNonNegativeInt("Enter number of days to report: ");
+        long to = carPark.nowEpochSecond() + 1;
+        long from = to - days * 86_400L;
+        try {
+            long[] revenue = history.revenuePerHour(from, to);
+            long total = 0;
+            for (long cents : revenue) {
+                total += cents;
+            }
+            System.out.println("Revenue: " + Tariff.formatCents(total));
+            for (int hour = 0; hour < revenue.length; hour++) {
+                if (revenue[hour] > 0) {
+                    System.out.printf("  %s  %s%n",
+                        LocalDateTime.ofEpochSecond(from + hour * 3600L, 0, ZoneOffset.UTC)
+                            .format(DATE_TIME_FORMAT),
+                        Tariff.formatCents(revenue[hour]));
+                }
+            }
+            history.averageDwellSeconds(from, to).forEach((type, seconds) ->
+                System.out.println("Average stay (" + type.name().toLowerCase() + "): "
+                    + formatDuration(seconds)));
+            System.out.println("Peak occupancy: " + history.peakOccupancy(from, to) + " cars");
+        } catch (IOException e) {
+            System.out.println("Cannot read session history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exports slot status and fees, or the occupancy summary, to a CSV or
+     * JSON file chosen by its extension, rendering the slots in parallel.
+     */
+    private void exportReport() {
+        System.out.println("--- Export Report ---");
+        int report;
+        do {
+            report = readNonNegativeInt("Enter report (1 = slots and fees, 2 = occupancy summary): ");
+        } while (report != 1 && report != 2);
+        System.out.print("Enter file name (.csv or .json): ");
+        String name = scanner.nextLine().trim();
+        ReportExporter.Format format = name.toLowerCase().endsWith(".json")
+            ? ReportExporter.Format.JSON : ReportExporter.Format.CSV;
+        ReportExporter exporter = new ReportExporter();
+        try {
+            long start = System.nanoTime();
+            ReportExporter.Summary summary = report == 1
+                ? exporter.exportSlots(carPark, Paths.get(name), format)
+                : exporter.exportSummary(carPark, Paths.get(name), format);
+            System.out.printf("Exported to %s in %d ms. Fees accrued: %s%n", name,
+                (System.nanoTime() - start) / 1_000_000, Tariff.formatCents(summary.getFeeCents()));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Cannot export report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a slot ID from the user, ensuring it matches the pattern [A-Z][0-9]{2}
+     * or is a level/zone/bay address such as L01-A-0001. Reprompts on invalid format.
      *
      * @param prompt message to display
      * @return the validated slot ID
@@ -287,11 +702,11 @@ public class Application {
         while (true) {
             System.out.print(prompt);
             String id = scanner.nextLine().trim();
-            if (id.matches("[A-Z][0-9]{2}")) {
+            if (id.matches("[A-Z][0-9]{2}") || SlotAddress.isAddress(id)) {
                 return id;
             }
             System.out.println(
-                "Incorrect format, please enter the correct slot format e.g. S01");
+                "Incorrect format, please enter the correct slot format e.g. S01 or L01-A-0001");
         }
     }
 
@@ -1,4 +1,5 @@
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
  * @author Tung Tran <103432596>
@@ -10,30 +11,67 @@ import java.time.LocalDateTime;
  * Represents a car that can be parked in a parking slot.
  * Each Car has a registration number, an owner name,
  * a flag indicating staff status, and a timestamp of when it was parked.
+ * <p>
+ * A Car is immutable and compact, since one is created for every arrival:
+ * the registration is packed into an int with
+ * {@link #encodeRegistration(String)}, owner names are deduplicated through a
+ * small bounded table, and the park time is held as local epoch seconds.
+ * Parking at a time yields a new Car from {@link #parkedAt(long)}.
  */
-public class Car {
+public final class Car {
     /**
-     * The car's registration number, matching pattern [A-Z][0-9]{4}.
+     * Number of distinct registrations of the form [A-Z][0-9]{4}; encoded
+     * registrations from {@link #encodeRegistration(String)} lie in
+     * {@code [0, REGISTRATION_SPACE)}.
      */
-    private String registrationNumber;
+    public static final int REGISTRATION_SPACE = 26 * 10000;
+
+    /**
+     * Park time of a car that has not been parked.
+     */
+    private static final long NOT_PARKED = Long.MIN_VALUE;
+
+    /**
+     * Number of entries in {@link #OWNER_TABLE}, a power of two.
+     */
+    private static final int OWNER_TABLE_SIZE = 4096;
+
+    /**
+     * Recently seen owner names, indexed by hash. A name replaces whatever
+     * shares its entry, so the table stays bounded however many distinct
+     * names pass through, while frequent names share one String.
+     */
+    private static final String[] OWNER_TABLE = new String[OWNER_TABLE_SIZE];
+
+    /**
+     * Registration strings decoded so far, by packed registration, so that
+     * each registration is materialised at most once.
+     */
+    private static final String[] REGISTRATIONS = new String[REGISTRATION_SPACE];
+
+    /**
+     * The car's registration number, packed with {@link #encodeRegistration(String)}.
+     */
+    private final int registration;
 
     /**
      * The name of the car's owner.
      */
-    private String owner;
+    private final String owner;
 
     /**
      * True if the owner is a staff member; false for a visitor.
      */
-    private boolean staffOwner;
+    private final boolean staffOwner;
 
     /**
-     * Timestamp when the car was parked.
+     * When the car was parked, in local epoch seconds, or {@link #NOT_PARKED}.
      */
-    private LocalDateTime parkTime;
+    private final long parkEpochSecond;
 
     /**
-     * Constructs a Car with the given registration number, owner, and staff status.
+     * Constructs a Car with the given registration number, owner, and staff
+     * status, not yet parked.
      *
      * @param registrationNumber the car's registration number; must match [A-Z][0-9]{4}
      * @param owner              the owner's name
@@ -41,13 +79,50 @@ public class Car {
      * @throws IllegalArgumentException if registrationNumber is not a capital letter followed by four digits
      */
     public Car(String registrationNumber, String owner, boolean staffOwner) {
-        if (!registrationNumber.matches("[A-Z][0-9]{4}")) {
-            throw new IllegalArgumentException(
-                "Registration must be a capital letter followed by four digits.");
+        this(encodeRegistration(registrationNumber), owner, staffOwner, NOT_PARKED);
+    }
+
+    /**
+     * Constructs a Car parked at a given time.
+     *
+     * @param registrationNumber the car's registration number; must match [A-Z][0-9]{4}
+     * @param owner              the owner's name
+     * @param staffOwner         true if the owner is a staff member
+     * @param parkTime           when the car was parked
+     * @throws IllegalArgumentException if registrationNumber is not a capital letter followed by four digits
+     */
+    public Car(String registrationNumber, String owner, boolean staffOwner, LocalDateTime parkTime) {
+        this(encodeRegistration(registrationNumber), owner, staffOwner,
+            parkTime.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * Constructs a Car from its packed form.
+     *
+     * @param registration    the registration, packed with {@link #encodeRegistration(String)}
+     * @param owner           the owner's name
+     * @param staffOwner      true if the owner is a staff member
+     * @param parkEpochSecond when the car was parked, in local epoch seconds
+     * @throws IllegalArgumentException if the registration is out of range
+     */
+    public Car(int registration, String owner, boolean staffOwner, long parkEpochSecond) {
+        if (registration < 0 || registration >= REGISTRATION_SPACE) {
+            throw new IllegalArgumentException("Registration code out of range.");
         }
-        this.registrationNumber = registrationNumber;
-        this.owner = owner;
+        this.registration = registration;
+        this.owner = dedupOwner(owner);
         this.staffOwner = staffOwner;
+        this.parkEpochSecond = parkEpochSecond;
+    }
+
+    /**
+     * Returns this car parked at a given time.
+     *
+     * @param epochSecond the park time, in local epoch seconds
+     * @return a car equal to this one but for its park time
+     */
+    public Car parkedAt(long epochSecond) {
+        return new Car(registration, owner, staffOwner, epochSecond);
     }
 
     /**
@@ -56,7 +131,22 @@ public class Car {
      * @return the registration number
      */
     public String getRegistrationNumber() {
-        return registrationNumber;
+        String name = REGISTRATIONS[registration];
+        if (name == null) {
+            // Strings are safely published, so a racing decode is only wasted work.
+            name = decodeRegistration(registration);
+            REGISTRATIONS[registration] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Returns the car's registration number in packed form.
+     *
+     * @return the registration, as from {@link #encodeRegistration(String)}
+     */
+    public int getRegistrationCode() {
+        return registration;
     }
 
     /**
@@ -77,21 +167,97 @@ public class Car {
         return staffOwner;
     }
 
+    /**
+     * Indicates whether the car has a park time.
+     *
+     * @return true if the car has been parked
+     */
+    public boolean hasParkTime() {
+        return parkEpochSecond != NOT_PARKED;
+    }
+
     /**
      * Returns the timestamp when the car was parked.
      *
      * @return the park time, or null if not yet parked
      */
     public LocalDateTime getParkTime() {
-        return parkTime;
+        return hasParkTime() ? LocalDateTime.ofEpochSecond(parkEpochSecond, 0, ZoneOffset.UTC) : null;
+    }
+
+    /**
+     * Returns the park time as epoch seconds of the local date-time, i.e. the
+     * local date-time read as if it were UTC. Used for fee arithmetic.
+     *
+     * @return the park time in local epoch seconds
+     * @throws IllegalStateException if the car has not been parked
+     */
+    public long getParkEpochSecond() {
+        if (!hasParkTime()) {
+            throw new IllegalStateException("Car has not been parked.");
+        }
+        return parkEpochSecond;
+    }
+
+    /**
+     * Returns a shared copy of an owner name from the bounded owner table,
+     * adding the name if its entry holds a different one.
+     *
+     * @param owner the owner's name
+     * @return an equal name, shared with earlier cars where possible
+     */
+    private static String dedupOwner(String owner) {
+        if (owner == null) {
+            return null;
+        }
+        int h = owner.hashCode();
+        int index = (h ^ (h >>> 16)) & (OWNER_TABLE_SIZE - 1);
+        String shared = OWNER_TABLE[index];
+        if (owner.equals(shared)) {
+            return shared;
+        }
+        OWNER_TABLE[index] = owner;
+        return owner;
+    }
+
+    /**
+     * Packs a registration number of the form [A-Z][0-9]{4} into an int,
+     * as letter index * 10000 + number (e.g. "T1234" becomes 191234).
+     *
+     * @param registrationNumber the registration number
+     * @return the encoded registration, in {@code [0, REGISTRATION_SPACE)}
+     * @throws IllegalArgumentException if the registration is not a capital letter followed by four digits
+     */
+    public static int encodeRegistration(String registrationNumber) {
+        if (registrationNumber.length() != 5
+            || registrationNumber.charAt(0) < 'A' || registrationNumber.charAt(0) > 'Z') {
+            throw new IllegalArgumentException(
+                "Registration must be a capital letter followed by four digits.");
+        }
+        int number = 0;
+        for (int i = 1; i < 5; i++) {
+            char c = registrationNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException(
+                    "Registration must be a capital letter followed by four digits.");
+            }
+            number = number * 10 + (c - '0');
+        }
+        return (registrationNumber.charAt(0) - 'A') * 10000 + number;
     }
 
     /**
-     * Records the time at which the car was parked.
+     * Unpacks a registration number encoded by {@link #encodeRegistration(String)}.
      *
-     * @param parkTime the LocalDateTime when parking occurred
+     * @param code the encoded registration
+     * @return the registration number string
      */
-    public void setParkTime(LocalDateTime parkTime) {
-        this.parkTime = parkTime;
+    public static String decodeRegistration(int code) {
+        int number = code % 10000;
+        return new String(new char[] {
+            (char) ('A' + code / 10000),
+            (char) ('0' + number / 1000), (char) ('0' + number / 100 % 10),
+            (char) ('0' + number / 10 % 10), (char) ('0' + number % 10)
+        });
     }
 }
\ No newline at end of file
@@ -1,6 +1,31 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * @author Tung Tran <103432596>
@@ -11,30 +36,285 @@ import java.util.List;
 /**
  * Manages a collection of ParkingSlot objects.
  * Provides operations to create, add, remove, list slots, and locate parked cars.
+ * <p>
+ * A CarPark is safe to use from several threads, e.g. concurrent entry and exit
+ * gates. Parking and removing cars take the shared side of a read-write lock and
+ * claim the slot with a compare-and-set, so gates never block each other;
+ * structural changes (adding and deleting slots) take the exclusive side.
+ * Changes are reported to registered {@link CarParkListener}s; a park or remove
+ * and its notification run under the slot's own monitor so that listeners see
+ * each slot's changes in order, and a removed car's registration is released
+ * only after its removal has been reported, so listeners see each car's moves
+ * in order too.
+ * <p>
+ * A car park built from a {@link SiteLayout} creates its slots lazily, a chunk
+ * of {@value #LAZY_CHUNK_SIZE} consecutive bays at a time, when one of them is
+ * first looked up, listed or needed for parking, so that opening a site with
+ * hundreds of thousands of bays costs little more than reading its layout.
+ * Slot counts include slots not yet created; anything that needs every slot,
+ * such as {@link #getAllSlots()} or {@link #snapshot()}, creates them all.
  */
-public class CarPark {
+public final class CarPark {
     /**
-     * Internal list of all parking slots in this car park.
+     * Internal list of all parking slots in this car park. Changed under
+     * {@link #structureLock}'s write lock, or by lazy slot creation; every
+     * access also holds the {@link #lazyChunks} monitor.
      */
-    private List<ParkingSlot> slots = new ArrayList<>();
+    private ArrayList<ParkingSlot> slots = new ArrayList<>();
+
+    /**
+     * Lock guarding structural changes to {@link #slots}. Park and remove
+     * operations hold the read lock; adding and deleting slots hold the write lock.
+     */
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    /**
+     * Index of slots by slot ID, kept in step with {@link #slots}.
+     */
+    private Map<String, ParkingSlot> slotsById = new ConcurrentHashMap<>();
+
+    /**
+     * Slots sorted by slot ID, used for filtered listings and ID-cursor pagination.
+     */
+    private NavigableMap<String, ParkingSlot> slotsInIdOrder = new ConcurrentSkipListMap<>();
+
+    /**
+     * Index of occupied slots by the registration number of the parked car.
+     * Updated by {@link ParkingSlot#parkCar(Car)} and {@link ParkingSlot#removeCar()}.
+     */
+    private Map<String, ParkingSlot> slotsByRegistration = new ConcurrentHashMap<>();
+
+    /**
+     * Registrations parked anywhere on a site this car park is one part of,
+     * shared with the site's other parts, or null for a stand-alone car park.
+     * A registration is claimed here as the car parks and released once its
+     * removal has been reported, so that it is parked once across the site
+     * however the park is made. Set only by {@link #CarPark(Set)}.
+     */
+    private Set<String> siteRegistrations;
+
+    /**
+     * Free slots of each type, ordered by slot ID so the lowest-numbered
+     * free slot is always first.
+     */
+    private Map<ParkingSlot.SlotType, NavigableSet<ParkingSlot>> freeSlots =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Listeners notified of every change to this car park.
+     */
+    private List<CarParkListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Tariff used to charge parked cars.
+     */
+    private volatile Tariff tariff = Tariff.standard();
+
+    /**
+     * Clock giving the current time for park times and fees.
+     */
+    private volatile Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Rule deciding which cars may use which slots.
+     */
+    private volatile ParkingRule parkingRule = ParkingRule.ANY;
+
+    /**
+     * Live slot counts and operation latencies.
+     */
+    private final CarParkMetrics metrics = new CarParkMetrics();
+
+    /**
+     * Index of parked cars for partial registration searches, created on
+     * first use by {@link #getRegistrationIndex()}.
+     */
+    private volatile RegistrationIndex registrationIndex;
+
+    /**
+     * Why this car park refuses changes, set by {@link #halt(Throwable)};
+     * null while it accepts them.
+     */
+    private volatile Throwable haltCause;
+
+    /**
+     * Most changes held in {@link #changeLog} before logging stops and the
+     * next snapshot is rebuilt from the slots instead.
+     */
+    private static final int MAX_CHANGE_LOG = 1 << 20;
+
+    /**
+     * How long after the last {@link #snapshot()} changes stop being logged,
+     * so a car park snapshotted once does not keep logging for nothing.
+     */
+    private static final long CHANGE_LOG_IDLE_NANOS = 60_000_000_000L;
+
+    /**
+     * The change log checks how long ago the last snapshot was taken once
+     * every this many changes.
+     */
+    private static final int CHANGE_LOG_IDLE_CHECK = 1024;
+
+    /**
+     * New states of the slots changed since {@link #lastSnapshot}, oldest
+     * first. Only written while {@link #changeLogging} is set, so a car park
+     * that is never snapshotted logs nothing.
+     */
+    private final Queue<CarParkSnapshot.SlotState> changeLog = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of changes appended to {@link #changeLog} and not yet applied.
+     * Incremented after each append, so at least this many are always queued.
+     */
+    private final AtomicInteger changeLogSize = new AtomicInteger();
+
+    /**
+     * Whether changes are being logged for the next snapshot. Only set under
+     * {@link #changeLog}'s monitor.
+     */
+    private volatile boolean changeLogging;
+
+    /**
+     * {@link System#nanoTime()} when {@link #snapshot()} last returned.
+     */
+    private volatile long lastSnapshotNanos;
+
+    /**
+     * The snapshot last returned by {@link #snapshot()}.
+     * Guarded by {@link #changeLog}'s monitor.
+     */
+    private CarParkSnapshot lastSnapshot = CarParkSnapshot.EMPTY;
+
+    /**
+     * Number of consecutive layout bays whose slots are created together.
+     */
+    static final int LAZY_CHUNK_SIZE = 1024;
+
+    /**
+     * Layout bays whose slots have not been created yet, by the ID of each
+     * chunk's first bay. Its monitor guards it, {@link #lazyChunksByType},
+     * {@link #lazySlotCounts} and {@link #slots}. Lazy slots are created under
+     * this monitor alone, never the structure lock, and nothing is called out
+     * to while it is held, so callers holding locks of their own, such as a
+     * {@link ReservationBook}, may look up slots without risking a deadlock.
+     */
+    private final NavigableMap<String, LazyChunk> lazyChunks = new TreeMap<>();
+
+    /**
+     * The chunks of {@link #lazyChunks} split by slot type.
+     */
+    private final Map<ParkingSlot.SlotType, NavigableMap<String, LazyChunk>> lazyChunksByType =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Number of slots not yet created, by slot type ordinal.
+     */
+    private final int[] lazySlotCounts = new int[ParkingSlot.SlotType.values().length];
+
+    /**
+     * Number of slots not yet created, of every type; read without locking
+     * to skip the lazy paths once everything is created.
+     */
+    private volatile int lazySlotCount;
+
+    /**
+     * First ID of the lowest chunk not yet created, by slot type ordinal,
+     * or null; replaced whole so that parking can read it without locking.
+     */
+    private volatile String[] lowestLazyIds = new String[ParkingSlot.SlotType.values().length];
+
+    /**
+     * The site layout this car park was built from, or null.
+     */
+    private SiteLayout layout;
+
+    /**
+     * Codes of the layout bays whose slots have been deleted, even if a slot
+     * with the same ID was added again later. Guarded by the write lock.
+     */
+    private final Set<Integer> deletedLayoutBays = new HashSet<>();
 
     /**
      * Constructs a CarPark populated with the given number of staff-only
      * and visitor-only slots. Staff slots are labeled S01, S02, …;
-     * visitor slots are labeled V01, V02, ….
+     * visitor slots are labeled V01, V02, …. A type with more than 99 slots
+     * has them all labeled as addresses in zone S or V instead, 10,000 bays
+     * per level: L00-S-0001, L00-S-0002, … L01-S-0000, ….
      *
      * @param staffSlots   number of staff-only slots to create
      * @param visitorSlots number of visitor-only slots to create
+     * @throws IllegalArgumentException if either count is more than 999,999
      */
     public CarPark(int staffSlots, int visitorSlots) {
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            freeSlots.put(type,
+                new ConcurrentSkipListSet<>(Comparator.comparing(ParkingSlot::getId)));
+        }
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            lazyChunksByType.put(type, new TreeMap<>());
+        }
         for (int i = 1; i <= staffSlots; i++) {
-            String id = String.format("S%02d", i);
-            slots.add(new ParkingSlot(id, ParkingSlot.SlotType.STAFF));
+            attach(new ParkingSlot(numberedId('S', i, staffSlots), ParkingSlot.SlotType.STAFF));
         }
         for (int i = 1; i <= visitorSlots; i++) {
-            String id = String.format("V%02d", i);
-            slots.add(new ParkingSlot(id, ParkingSlot.SlotType.VISITOR));
+            attach(new ParkingSlot(numberedId('V', i, visitorSlots),
+                ParkingSlot.SlotType.VISITOR));
+        }
+    }
+
+    /**
+     * Constructs an empty CarPark that is one part of a larger site, e.g. a
+     * shard of a {@link ShardedCarPark}, and refuses a car whose registration
+     * is parked in any other part.
+     *
+     * @param siteRegistrations the registrations parked anywhere on the site,
+     *                          shared by every part and safe for concurrent use
+     */
+    CarPark(Set<String> siteRegistrations) {
+        this(0, 0);
+        this.siteRegistrations = siteRegistrations;
+    }
+
+    /**
+     * Constructs a CarPark with the bays of a site layout. No slot object is
+     * created yet: each chunk of bays gets its slots when one of them is first used.
+     *
+     * @param layout the site layout
+     */
+    public CarPark(SiteLayout layout) {
+        this(0, 0);
+        this.layout = layout;
+        for (SiteLayout.BayRange range : layout.getRanges()) {
+            for (int offset = 0; offset < range.getCount(); offset += LAZY_CHUNK_SIZE) {
+                LazyChunk chunk = new LazyChunk(range, offset,
+                    Math.min(LAZY_CHUNK_SIZE, range.getCount() - offset));
+                lazyChunks.put(chunk.firstId, chunk);
+                lazyChunksByType.get(chunk.type).put(chunk.firstId, chunk);
+            }
+            lazySlotCounts[range.getType().ordinal()] += range.getCount();
+            lazySlotCount += range.getCount();
+            metrics.slotsAdded(range.getType(), range.getCount());
+        }
+        updateLowestLazyIds();
+    }
+
+    /**
+     * Returns the ID of a numbered slot: e.g. S01, the same as
+     * {@code String.format("%c%02d", letter, number)}, if there are at most
+     * 99 slots with the letter, or else the address of bay {@code number} of
+     * zone {@code letter}, counting on across levels, e.g. L00-S-0100.
+     *
+     * @param letter the slot letter
+     * @param number the slot number
+     * @param count  the number of slots with the letter
+     * @return the slot ID
+     * @throws IllegalArgumentException if the number is past the last level
+     */
+    private static String numberedId(char letter, int number, int count) {
+        if (count > 99) {
+            return new SlotAddress(number / 10_000, letter, number % 10_000).toString();
         }
+        return number < 10 ? letter + "0" + number : letter + Integer.toString(number);
     }
 
     /**
@@ -42,13 +322,45 @@ public class CarPark {
      *
      * @param slot the ParkingSlot to add
      * @return true if the slot was added; false if a slot with the same ID already exists
+     * @throws IllegalStateException if the car park has been halted
      */
     public boolean addSlot(ParkingSlot slot) {
-        if (findSlotById(slot.getId()) != null) {
-            return false;
+        long start = System.nanoTime();
+        structureLock.writeLock().lock();
+        try {
+            checkNotHalted();
+            return addLocked(slot);
+        } finally {
+            structureLock.writeLock().unlock();
+            metrics.record(CarParkMetrics.Operation.ADD_SLOT, start);
+        }
+    }
+
+    /**
+     * Adds many slots in one structural change, skipping any whose ID already
+     * exists in the car park or earlier in the batch.
+     *
+     * @param newSlots the slots to add
+     * @return the number of slots added
+     * @throws IllegalStateException if the car park has been halted
+     */
+    public int addSlots(Collection<ParkingSlot> newSlots) {
+        structureLock.writeLock().lock();
+        try {
+            checkNotHalted();
+            synchronized (lazyChunks) {
+                slots.ensureCapacity(slots.size() + newSlots.size());
+            }
+            int added = 0;
+            for (ParkingSlot slot : newSlots) {
+                if (addLocked(slot)) {
+                    added++;
+                }
+            }
+            return added;
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        slots.add(slot);
-        return true;
     }
 
     /**
@@ -56,22 +368,169 @@ public class CarPark {
      *
      * @param id the identifier of the slot to delete
      * @return true if the slot was found and deleted; false if not found or if occupied
+     * @throws IllegalStateException if the car park has been halted
      */
     public boolean deleteSlot(String id) {
-        ParkingSlot slot = findSlotById(id);
-        if (slot == null || slot.isOccupied()) {
-            return false;
+        structureLock.writeLock().lock();
+        try {
+            checkNotHalted();
+            ParkingSlot slot = findSlotById(id);
+            if (slot == null || slot.isOccupied()) {
+                return false;
+            }
+            detach(slot);
+            synchronized (lazyChunks) {
+                return slots.remove(slot);
+            }
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        return slots.remove(slot);
     }
 
     /**
-     * Returns a snapshot list of all parking slots in this car park.
+     * Returns a snapshot list of all parking slots in this car park, in the
+     * order they were added; layout slots are listed in the order first used.
      *
      * @return a new List containing all ParkingSlot objects
      */
     public List<ParkingSlot> getAllSlots() {
-        return new ArrayList<>(slots);
+        materialiseAll();
+        synchronized (lazyChunks) {
+            return new ArrayList<>(slots);
+        }
+    }
+
+    /**
+     * Returns the site layout this car park was built from.
+     *
+     * @return the layout, or null if the car park was not built from one
+     */
+    public SiteLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the slots created so far, without creating the slots of the
+     * layout bays not yet used.
+     *
+     * @return a new List of the created slots
+     */
+    List<ParkingSlot> getCreatedSlots() {
+        synchronized (lazyChunks) {
+            return new ArrayList<>(slots);
+        }
+    }
+
+    /**
+     * Returns the codes of the layout bays whose slots have been deleted;
+     * a slot since added with one of these IDs is not the layout's bay.
+     * The caller holds the write lock, e.g. through {@link #runExclusive(Runnable)}.
+     *
+     * @return the deleted bay codes, in no particular order
+     */
+    int[] getDeletedLayoutBays() {
+        return deletedLayoutBays.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the index of parked cars for prefix, wildcard and near-miss
+     * registration searches, creating it on first use. Once created, it is
+     * kept up to date by every park and remove.
+     *
+     * @return the registration index
+     */
+    public RegistrationIndex getRegistrationIndex() {
+        RegistrationIndex index = registrationIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = registrationIndex;
+                if (index == null) {
+                    index = new RegistrationIndex(this);
+                    registrationIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns an immutable, point-in-time view of every slot and parked car.
+     * Writers are not blocked: each snapshot is derived from the previous one
+     * by applying the changes logged since, so its cost grows with the number
+     * of changes rather than the number of slots. The first snapshot, and the
+     * first after more than {@value #MAX_CHANGE_LOG} unsnapshotted changes or
+     * a minute without a snapshot, is built from all the slots under the
+     * exclusive structure lock.
+     *
+     * @return the snapshot
+     */
+    public CarParkSnapshot snapshot() {
+        while (true) {
+            if (!changeLogging) {
+                runExclusive(() -> {
+                    synchronized (changeLog) {
+                        if (!changeLogging) {
+                            rebuildSnapshot();
+                        }
+                    }
+                });
+            }
+            synchronized (changeLog) {
+                if (changeLogging) {
+                    int pending = changeLogSize.get();
+                    if (pending > 0) {
+                        lastSnapshot = lastSnapshot.apply(changeLog, pending,
+                            lastSnapshot.getVersion() + 1);
+                        changeLogSize.addAndGet(-pending);
+                    }
+                    lastSnapshotNanos = System.nanoTime();
+                    return lastSnapshot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the slots matching a filter in slot ID order, without copying
+     * the slot list. The stream reflects changes made while it is consumed.
+     *
+     * @param filter the criteria slots must meet
+     * @return a stream of matching slots
+     */
+    public Stream<ParkingSlot> querySlots(SlotFilter filter) {
+        materialise(filter);
+        return idRange(filter).values().stream().filter(filter::matches);
+    }
+
+    /**
+     * Returns one page of the slots matching a filter, in slot ID order.
+     * Pass the previous page's {@link SlotPage#getNextCursor()} to continue;
+     * pages stay correct when slots are added or deleted in between.
+     *
+     * @param filter the criteria slots must meet
+     * @param cursor the ID after which the page starts, or null for the first page
+     * @param limit  the maximum number of slots in the page
+     * @return the page of matching slots
+     */
+    public SlotPage querySlots(SlotFilter filter, String cursor, int limit) {
+        materialise(filter);
+        NavigableMap<String, ParkingSlot> range = idRange(filter);
+        if (cursor != null) {
+            range = range.tailMap(cursor, false);
+        }
+        List<ParkingSlot> page = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+        for (ParkingSlot slot : range.values()) {
+            if (!filter.matches(slot)) {
+                continue;
+            }
+            if (page.size() == limit) {
+                return new SlotPage(page, last);
+            }
+            page.add(slot);
+            last = slot.getId();
+        }
+        return new SlotPage(page, null);
     }
 
     /**
@@ -80,15 +539,117 @@ public class CarPark {
      * @return true if at least one unoccupied slot was deleted; false otherwise
      */
     public boolean deleteAllUnoccupied() {
-        boolean removedAny = false;
-        Iterator<ParkingSlot> it = slots.iterator();
-        while (it.hasNext()) {
-            if (!it.next().isOccupied()) {
-                it.remove();
-                removedAny = true;
+        return deleteSlots(slot -> true) > 0;
+    }
+
+    /**
+     * Deletes every unoccupied slot whose ID lies in a range, e.g. to re-zone
+     * a level or clear a visitor area. Occupied slots are kept.
+     *
+     * @param fromId the lowest slot ID to delete
+     * @param toId   the highest slot ID to delete
+     * @return the number of slots deleted
+     */
+    public int deleteSlotRange(String fromId, String toId) {
+        return deleteSlots(slot -> slot.getId().compareTo(fromId) >= 0
+            && slot.getId().compareTo(toId) <= 0);
+    }
+
+    /**
+     * Deletes every unoccupied slot matching a predicate in a single pass over
+     * the slot list, rebuilding the list once. Occupied slots are never deleted.
+     *
+     * @param predicate selects the slots to delete
+     * @return the number of slots deleted
+     * @throws IllegalStateException if the car park has been halted
+     */
+    public int deleteSlots(Predicate<ParkingSlot> predicate) {
+        structureLock.writeLock().lock();
+        try {
+            checkNotHalted();
+            materialiseAll();
+            // Every slot now exists, so nothing else changes the list until
+            // the write lock is released, and listeners are told of each
+            // deletion without holding the lazyChunks monitor.
+            List<ParkingSlot> current;
+            synchronized (lazyChunks) {
+                current = new ArrayList<>(slots);
+            }
+            ArrayList<ParkingSlot> kept = new ArrayList<>(current.size());
+            for (ParkingSlot slot : current) {
+                if (!slot.isOccupied() && predicate.test(slot)) {
+                    detach(slot);
+                } else {
+                    kept.add(slot);
+                }
+            }
+            int deleted = current.size() - kept.size();
+            if (deleted > 0) {
+                synchronized (lazyChunks) {
+                    slots = kept;
+                }
+            }
+            return deleted;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Parks a batch of cars, each in the lowest-numbered free slot matching its
+     * owner type, holding the shared lock once for the whole batch.
+     * Cars that are already parked or find no free slot are skipped.
+     *
+     * @param cars the cars to park
+     * @return the slot each car was parked in, in the same order; null where skipped
+     * @throws IllegalStateException if the car park has been halted
+     */
+    public List<ParkingSlot> parkAll(List<Car> cars) {
+        List<ParkingSlot> placed = new ArrayList<>(cars.size());
+        structureLock.readLock().lock();
+        try {
+            checkNotHalted();
+            for (Car car : cars) {
+                ParkingSlot slot;
+                try {
+                    slot = parkAnywhere(car);
+                } catch (IllegalStateException e) {
+                    slot = null;
+                }
+                placed.add(slot);
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        return placed;
+    }
+
+    /**
+     * Removes a batch of cars by registration number, holding the shared lock
+     * once for the whole batch. Registrations that are not parked are skipped.
+     *
+     * @param registrationNumbers the registrations of the cars to remove
+     * @return the number of cars removed
+     * @throws IllegalStateException if the car park has been halted
+     */
+    public int removeAll(Collection<String> registrationNumbers) {
+        int removed = 0;
+        structureLock.readLock().lock();
+        try {
+            for (String reg : registrationNumbers) {
+                ParkingSlot slot = slotsByRegistration.get(reg);
+                Car car = slot == null ? null : slot.getParkedCar();
+                // Skipped if another gate removed the car in the meantime,
+                // even if a different car has taken its slot since.
+                if (car != null && car.getRegistrationNumber().equals(reg)
+                    && removeCar(slot, car)) {
+                    removed++;
+                }
             }
+        } finally {
+            structureLock.readLock().unlock();
         }
-        return removedAny;
+        return removed;
     }
 
     /**
@@ -98,27 +659,777 @@ public class CarPark {
      * @return the ParkingSlot with the matching ID, or null if none exists
      */
     public ParkingSlot findSlotById(String id) {
-        for (ParkingSlot slot : slots) {
-            if (slot.getId().equals(id)) {
-                return slot;
-            }
+        ParkingSlot slot = slotsById.get(id);
+        if (slot == null && lazySlotCount > 0 && materialiseChunkOf(id)) {
+            slot = slotsById.get(id);
         }
-        return null;
+        return slot;
     }
 
     /**
-     * Searches all slots for a parked car with the given registration number.
+     * Looks up the slot holding a parked car with the given registration number.
      *
      * @param registrationNumber the registration number of the car to find
      * @return the ParkingSlot where the car is parked, or null if the car is not in any slot
      */
     public ParkingSlot findCar(String registrationNumber) {
-        for (ParkingSlot slot : slots) {
-            if (slot.isOccupied()
-                && slot.getParkedCar().getRegistrationNumber().equals(registrationNumber)) {
-                return slot;
+        long start = System.nanoTime();
+        ParkingSlot slot = slotsByRegistration.get(registrationNumber);
+        metrics.record(CarParkMetrics.Operation.FIND_CAR, start);
+        return slot;
+    }
+
+    /**
+     * Parks a car in the lowest-numbered free slot whose type matches the
+     * car's owner (staff cars go to staff slots, visitor cars to visitor slots)
+     * and that the {@link ParkingRule} allows it to use.
+     * If the car has no park time yet, a copy stamped with the current time is
+     * parked instead; the slot's {@link ParkingSlot#getParkedCar()} returns it.
+     *
+     * @param car the car to park
+     * @return the slot the car was parked in, or null if no matching slot is free
+     * @throws IllegalStateException if the car is already parked in this car park,
+     *                               or the car park has been halted
+     */
+    public ParkingSlot parkAnywhere(Car car) {
+        long start = System.nanoTime();
+        try {
+            checkNotParked(car);
+            ParkingSlot.SlotType type = car.isStaffOwner()
+                ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+            Car parked = car.hasParkTime() ? car : car.parkedAt(nowEpochSecond());
+            ParkingRule rule = parkingRule;
+            while (true) {
+                // A lazy chunk below the next free slot is created first, so
+                // the lowest-numbered free slot is still the one chosen.
+                String lazyId = lowestLazyIds[type.ordinal()];
+                for (ParkingSlot slot : freeSlots.get(type)) {
+                    if (lazyId != null && lazyId.compareTo(slot.getId()) < 0) {
+                        break;
+                    }
+                    if (rule.allows(slot, parked) && tryPark(slot, parked)) {
+                        return slot;
+                    }
+                }
+                if (lazyId == null) {
+                    return null;
+                }
+                materialiseChunkOf(lazyId);
+            }
+        } finally {
+            metrics.record(CarParkMetrics.Operation.PARK_CAR, start);
+        }
+    }
+
+    /**
+     * Returns the number of free slots of the given type.
+     *
+     * @param type the slot type to count
+     * @return the number of unoccupied slots of that type
+     */
+    public int getFreeCount(ParkingSlot.SlotType type) {
+        int free = freeSlots.get(type).size();
+        if (lazySlotCount > 0) {
+            synchronized (lazyChunks) {
+                free += lazySlotCounts[type.ordinal()];
             }
         }
-        return null;
+        return free;
+    }
+
+    /**
+     * Returns the number of free slots of every type.
+     *
+     * @return a map from each slot type to its number of unoccupied slots
+     */
+    public Map<ParkingSlot.SlotType, Integer> getFreeCounts() {
+        Map<ParkingSlot.SlotType, Integer> counts = new EnumMap<>(ParkingSlot.SlotType.class);
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            counts.put(type, getFreeCount(type));
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the live metrics of this car park: slot counts per type,
+     * and latency and throughput of parkCar, findCar, removeCar and addSlot.
+     *
+     * @return the metrics; call {@link CarParkMetrics#snapshot()} to read them
+     */
+    public CarParkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the tariff used to charge cars in this car park.
+     *
+     * @return the tariff
+     */
+    public Tariff getTariff() {
+        return tariff;
+    }
+
+    /**
+     * Replaces the tariff used to charge cars in this car park.
+     *
+     * @param tariff the new tariff
+     */
+    public void setTariff(Tariff tariff) {
+        this.tariff = tariff;
+    }
+
+    /**
+     * Returns the clock giving the current time for park times and fees.
+     *
+     * @return the clock
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Replaces the clock giving the current time, e.g. with a
+     * {@link SimulatedClock} to replay or speed up time.
+     *
+     * @param clock the new clock
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the current local date-time according to this car park's clock.
+     *
+     * @return the current time
+     */
+    public LocalDateTime now() {
+        return LocalDateTime.now(clock);
+    }
+
+    /**
+     * Returns the current time of this car park's clock as local epoch
+     * seconds, without building a LocalDateTime.
+     *
+     * @return the current time in local epoch seconds
+     */
+    public long nowEpochSecond() {
+        Clock current = clock;
+        long second = Math.floorDiv(current.millis(), 1000);
+        ZoneRules rules = current.getZone().getRules();
+        ZoneOffset offset = rules.isFixedOffset()
+            ? rules.getOffset(Instant.EPOCH) : rules.getOffset(Instant.ofEpochSecond(second));
+        return second + offset.getTotalSeconds();
+    }
+
+    /**
+     * Returns the rule deciding which cars may use which slots.
+     *
+     * @return the parking rule
+     */
+    public ParkingRule getParkingRule() {
+        return parkingRule;
+    }
+
+    /**
+     * Replaces the rule deciding which cars may use which slots.
+     * {@link #parkAnywhere(Car)} skips slots the rule refuses, and parking in
+     * a refused slot directly fails.
+     *
+     * @param parkingRule the new rule, or {@link ParkingRule#ANY}
+     */
+    public void setParkingRule(ParkingRule parkingRule) {
+        this.parkingRule = parkingRule;
+    }
+
+    /**
+     * Returns the part of the sorted slot index within a filter's ID range.
+     *
+     * @param filter the filter
+     * @return a view of the index
+     */
+    private NavigableMap<String, ParkingSlot> idRange(SlotFilter filter) {
+        NavigableMap<String, ParkingSlot> range = slotsInIdOrder;
+        if (filter.getFromId() != null) {
+            range = range.tailMap(filter.getFromId(), true);
+        }
+        if (filter.getToId() != null) {
+            range = range.headMap(filter.getToId(), true);
+        }
+        return range;
+    }
+
+    /**
+     * Registers a listener to be notified of changes to this car park.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(CarParkListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a previously added listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(CarParkListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Runs an action while holding the exclusive structure lock, so that no
+     * slot is added, deleted, parked in or emptied while it runs. Used to take
+     * consistent snapshots of the whole car park.
+     *
+     * @param action the action to run
+     */
+    void runExclusive(Runnable action) {
+        structureLock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops this car park accepting changes, e.g. once the journal recording
+     * them has failed, so that nothing more is changed in memory that could
+     * not be made durable. Every later add, delete, park or removal throws
+     * an IllegalStateException; reads still work. A change already under way
+     * completes.
+     *
+     * @param cause why changes are refused
+     */
+    void halt(Throwable cause) {
+        haltCause = cause;
+    }
+
+    /**
+     * Rejects a change once the car park has been halted. Called under the
+     * structure lock, before anything is changed.
+     *
+     * @throws IllegalStateException if {@link #halt(Throwable)} has been called
+     */
+    private void checkNotHalted() {
+        Throwable cause = haltCause;
+        if (cause != null) {
+            throw new IllegalStateException("Car park is halted: " + cause, cause);
+        }
+    }
+
+    /**
+     * Rebuilds {@link #lastSnapshot} from all the slots, discards the change
+     * log and starts logging. The caller holds the write lock, so no change
+     * is in flight, and {@link #changeLog}'s monitor.
+     */
+    private void rebuildSnapshot() {
+        materialiseAll();
+        changeLog.clear();
+        Queue<CarParkSnapshot.SlotState> states;
+        synchronized (lazyChunks) {
+            states = new ArrayDeque<>(slots.size());
+            for (ParkingSlot slot : slots) {
+                states.add(CarParkSnapshot.SlotState.of(slot, slot.getParkedCar()));
+            }
+        }
+        lastSnapshot = CarParkSnapshot.EMPTY.apply(states, states.size(), lastSnapshot.getVersion() + 1);
+        changeLogSize.set(0);
+        changeLogging = true;
+    }
+
+    /**
+     * Appends a slot's new state to the change log. Callers check
+     * {@link #changeLogging} first, and call this under the slot's monitor or
+     * the write lock. A park is logged after its registration is claimed in
+     * the registration index and a removal before its registration is
+     * released, so a car's moves between slots are logged in the order they
+     * happened.
+     * <p>
+     * Logging stops, and the log is discarded, once it holds more than
+     * {@value #MAX_CHANGE_LOG} changes or no snapshot has been taken for a
+     * minute; the next snapshot is then rebuilt from the slots. A change that
+     * checked {@link #changeLogging} just before may still be appended after
+     * the log is discarded, and is discarded by that rebuild.
+     *
+     * @param state the slot's new state
+     */
+    private void logChange(CarParkSnapshot.SlotState state) {
+        changeLog.add(state);
+        int size = changeLogSize.incrementAndGet();
+        if (size > MAX_CHANGE_LOG || size % CHANGE_LOG_IDLE_CHECK == 0
+            && System.nanoTime() - lastSnapshotNanos > CHANGE_LOG_IDLE_NANOS) {
+            stopChangeLogging();
+        }
+    }
+
+    /**
+     * Stops logging changes and discards the log. Takes {@link #changeLog}'s
+     * monitor, which is always taken after the structure lock, so that a
+     * snapshot is not applying the log meanwhile.
+     */
+    private void stopChangeLogging() {
+        synchronized (changeLog) {
+            if (changeLogging) {
+                changeLogging = false;
+                changeLog.clear();
+                changeLogSize.set(0);
+            }
+        }
+    }
+
+    /**
+     * Adds a slot unless its ID or its parked car's registration is already
+     * present, and notifies listeners. The caller holds the write lock.
+     *
+     * @param slot the slot to add
+     * @return true if the slot was added
+     */
+    private boolean addLocked(ParkingSlot slot) {
+        if (lazySlotCount > 0) {
+            materialiseChunkOf(slot.getId());
+        }
+        if (slotsById.containsKey(slot.getId())) {
+            return false;
+        }
+        if (slot.isOccupied()
+            && slotsByRegistration.containsKey(slot.getParkedCar().getRegistrationNumber())) {
+            return false;
+        }
+        if (slot.isOccupied() && siteRegistrations != null
+            && !siteRegistrations.add(slot.getParkedCar().getRegistrationNumber())) {
+            return false;
+        }
+        attach(slot);
+        for (CarParkListener listener : listeners) {
+            listener.slotAdded(slot);
+            if (slot.isOccupied()) {
+                listener.carParked(slot, slot.getParkedCar());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a slot to the list and indexes, and records this car park as its owner.
+     * Callers hold the write lock, except the constructor.
+     *
+     * @param slot the slot to attach
+     */
+    private void attach(ParkingSlot slot) {
+        index(slot);
+        metrics.slotAdded(slot);
+        if (changeLogging) {
+            logChange(CarParkSnapshot.SlotState.of(slot, slot.getParkedCar()));
+        }
+    }
+
+    /**
+     * Adds a slot to the list and indexes, and records this car park as its owner.
+     *
+     * @param slot the slot to index
+     */
+    private void index(ParkingSlot slot) {
+        synchronized (lazyChunks) {
+            slots.add(slot);
+        }
+        slotsById.put(slot.getId(), slot);
+        slotsInIdOrder.put(slot.getId(), slot);
+        if (slot.isOccupied()) {
+            slotsByRegistration.put(slot.getParkedCar().getRegistrationNumber(), slot);
+        } else {
+            freeSlots.get(slot.getType()).add(slot);
+        }
+        slot.setCarPark(this);
+    }
+
+    /**
+     * Creates the slots of the lazy chunk holding a slot ID, if there is one.
+     *
+     * @param id the slot ID
+     * @return true if a chunk was created, by this call or a concurrent one
+     */
+    private boolean materialiseChunkOf(String id) {
+        synchronized (lazyChunks) {
+            Map.Entry<String, LazyChunk> entry = lazyChunks.floorEntry(id);
+            if (entry == null || entry.getValue().lastId.compareTo(id) < 0) {
+                return false;
+            }
+            materialise(entry.getValue());
+            return true;
+        }
+    }
+
+    /**
+     * Creates the slots of every lazy chunk a filter could match. Occupied
+     * slots are never lazy, so a filter for occupied slots creates none.
+     *
+     * @param filter the filter about to be run
+     */
+    private void materialise(SlotFilter filter) {
+        if (lazySlotCount == 0 || Boolean.TRUE.equals(filter.getOccupied())) {
+            return;
+        }
+        synchronized (lazyChunks) {
+            NavigableMap<String, LazyChunk> candidates = filter.getType() == null
+                ? lazyChunks : lazyChunksByType.get(filter.getType());
+            if (filter.getToId() != null) {
+                candidates = candidates.headMap(filter.getToId(), true);
+            }
+            List<LazyChunk> matching = new ArrayList<>();
+            for (LazyChunk chunk : candidates.values()) {
+                if (filter.getFromId() == null || chunk.lastId.compareTo(filter.getFromId()) >= 0) {
+                    matching.add(chunk);
+                }
+            }
+            for (LazyChunk chunk : matching) {
+                materialise(chunk);
+            }
+        }
+    }
+
+    /**
+     * Creates the slots of every lazy chunk.
+     */
+    private void materialiseAll() {
+        materialise(SlotFilter.all());
+    }
+
+    /**
+     * Creates and indexes the slots of a lazy chunk. They are already counted
+     * in the metrics and part of the car park, so no listener is told. The
+     * caller holds the {@link #lazyChunks} monitor.
+     *
+     * @param chunk the chunk
+     */
+    private void materialise(LazyChunk chunk) {
+        lazyChunks.remove(chunk.firstId);
+        lazyChunksByType.get(chunk.type).remove(chunk.firstId);
+        for (int i = 0; i < chunk.count; i++) {
+            index(new ParkingSlot(SlotAddress.fromCode(chunk.firstCode + i), chunk.type));
+        }
+        lazySlotCounts[chunk.type.ordinal()] -= chunk.count;
+        lazySlotCount -= chunk.count;
+        updateLowestLazyIds();
+    }
+
+    /**
+     * Republishes the first ID of each type's lowest lazy chunk. The caller
+     * holds the {@link #lazyChunks} monitor, or is the constructor.
+     */
+    private void updateLowestLazyIds() {
+        String[] lowest = new String[ParkingSlot.SlotType.values().length];
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            NavigableMap<String, LazyChunk> chunks = lazyChunksByType.get(type);
+            lowest[type.ordinal()] = chunks.isEmpty() ? null : chunks.firstKey();
+        }
+        lowestLazyIds = lowest;
+    }
+
+    /**
+     * Removes an unoccupied slot from the indexes, clears its owner and
+     * notifies listeners.
+     * The caller removes it from {@link #slots} and holds the write lock.
+     *
+     * @param slot the slot to detach
+     */
+    private void detach(ParkingSlot slot) {
+        slotsById.remove(slot.getId());
+        slotsInIdOrder.remove(slot.getId());
+        freeSlots.get(slot.getType()).remove(slot);
+        slot.setCarPark(null);
+        if (layout != null) {
+            int code = SlotAddress.toCode(slot.getId());
+            if (layout.contains(code)) {
+                deletedLayoutBays.add(code);
+            }
+        }
+        metrics.slotDeleted(slot);
+        if (changeLogging) {
+            logChange(CarParkSnapshot.SlotState.deleted(slot));
+        }
+        for (CarParkListener listener : listeners) {
+            listener.slotDeleted(slot);
+        }
+    }
+
+    /**
+     * Rejects a car that is already parked in another slot of this car park,
+     * or of the site it is part of, so that each registration maps to exactly
+     * one slot.
+     *
+     * @param car the car about to be parked
+     * @throws IllegalStateException if a car with the same registration is already parked
+     */
+    void checkNotParked(Car car) {
+        if (slotsByRegistration.containsKey(car.getRegistrationNumber())
+            || siteRegistrations != null && siteRegistrations.contains(car.getRegistrationNumber())) {
+            throw new IllegalStateException("Car is already parked.");
+        }
+    }
+
+    /**
+     * Parks a car in one of this car park's slots.
+     * Called by {@link ParkingSlot#parkCar(Car)}.
+     *
+     * @param slot the slot to park in
+     * @param car  the car to park
+     * @throws IllegalStateException if the slot is occupied, reserved for another car
+     *                               or no longer in this car park, or the car is
+     *                               already parked elsewhere
+     */
+    void parkCar(ParkingSlot slot, Car car) {
+        long start = System.nanoTime();
+        try {
+            if (!slot.isOccupied() && !parkingRule.allows(slot, car)) {
+                throw new IllegalStateException("Slot is reserved.");
+            }
+            if (!tryPark(slot, car)) {
+                throw new IllegalStateException(slot.getCarPark() == this
+                    ? "Slot is already occupied."
+                    : "Slot is not in this car park.");
+            }
+        } finally {
+            metrics.record(CarParkMetrics.Operation.PARK_CAR, start);
+        }
+    }
+
+    /**
+     * Attempts to claim a slot for a car with a compare-and-set on the slot,
+     * then records the car in the registration index.
+     *
+     * @param slot the slot to park in
+     * @param car  the car to park
+     * @return true if the car was parked; false if the slot was occupied
+     *         or has been deleted from this car park
+     * @throws IllegalStateException if the car is already parked elsewhere
+     */
+    private boolean tryPark(ParkingSlot slot, Car car) {
+        String reg = car.getRegistrationNumber();
+        structureLock.readLock().lock();
+        try {
+            checkNotHalted();
+            if (slot.getCarPark() != this) {
+                return false;
+            }
+            checkNotParked(car);
+            synchronized (slot) {
+                if (!slot.compareAndSetParkedCar(null, car)) {
+                    return false;
+                }
+                if (slotsByRegistration.putIfAbsent(reg, slot) != null) {
+                    // Lost a race with another gate parking the same registration.
+                    slot.compareAndSetParkedCar(car, null);
+                    syncFreeSlot(slot);
+                    throw new IllegalStateException("Car is already parked.");
+                }
+                if (siteRegistrations != null && !siteRegistrations.add(reg)) {
+                    // Parked, or being parked, in another part of the site.
+                    slotsByRegistration.remove(reg, slot);
+                    slot.compareAndSetParkedCar(car, null);
+                    syncFreeSlot(slot);
+                    throw new IllegalStateException("Car is already parked.");
+                }
+                syncFreeSlot(slot);
+                if (changeLogging) {
+                    logChange(CarParkSnapshot.SlotState.of(slot, car));
+                }
+                metrics.carParked(slot);
+                for (CarParkListener listener : listeners) {
+                    listener.carParked(slot, car);
+                }
+            }
+            return true;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the car parked in one of this car park's slots.
+     * Called by {@link ParkingSlot#removeCar()}.
+     *
+     * @param slot the slot to empty
+     * @return the car that was removed
+     * @throws IllegalStateException if the slot is empty, or the car park has been halted
+     */
+    Car removeCar(ParkingSlot slot) {
+        Car car = remove(slot, null);
+        if (car == null) {
+            throw new IllegalStateException("Slot is empty.");
+        }
+        return car;
+    }
+
+    /**
+     * Removes a car from one of this car park's slots only if it is still
+     * the car parked there, so that a caller who looked the car up first
+     * never removes a different car that has taken the slot since.
+     *
+     * @param slot     the slot to empty
+     * @param expected the car expected to be parked in it
+     * @return true if the car was removed; false if the slot is empty or
+     *         holds a different car
+     */
+    boolean removeCar(ParkingSlot slot, Car expected) {
+        if (expected == null) {
+            throw new IllegalArgumentException("Expected car must not be null.");
+        }
+        return remove(slot, expected) != null;
+    }
+
+    /**
+     * Empties a slot under its monitor and notifies listeners.
+     *
+     * @param slot     the slot to empty
+     * @param expected the car that must be parked in it, or null for any car
+     * @return the car that was removed, or null if the slot is empty or holds
+     *         a car other than {@code expected}
+     */
+    private Car remove(ParkingSlot slot, Car expected) {
+        long start = System.nanoTime();
+        structureLock.readLock().lock();
+        try {
+            checkNotHalted();
+            synchronized (slot) {
+                Car car;
+                do {
+                    car = slot.getParkedCar();
+                    if (car == null || expected != null && car != expected) {
+                        return null;
+                    }
+                } while (!slot.compareAndSetParkedCar(car, null));
+                if (changeLogging) {
+                    logChange(CarParkSnapshot.SlotState.of(slot, null));
+                }
+                syncFreeSlot(slot);
+                metrics.carRemoved(slot);
+                try {
+                    for (CarParkListener listener : listeners) {
+                        listener.carRemoved(slot, car);
+                    }
+                } finally {
+                    // Released only now, so no listener hears of the car parking
+                    // elsewhere before it hears of this removal.
+                    slotsByRegistration.remove(car.getRegistrationNumber(), slot);
+                    if (siteRegistrations != null) {
+                        siteRegistrations.remove(car.getRegistrationNumber());
+                    }
+                }
+                return car;
+            }
+        } finally {
+            structureLock.readLock().unlock();
+            metrics.record(CarParkMetrics.Operation.REMOVE_CAR, start);
+        }
+    }
+
+    /**
+     * Brings a slot's membership of the free set in line with its occupancy.
+     * Re-reads the occupancy after each update so that a racing park or
+     * remove on the same slot can never leave the free set stale.
+     *
+     * @param slot the slot whose occupancy changed
+     */
+    private void syncFreeSlot(ParkingSlot slot) {
+        NavigableSet<ParkingSlot> free = freeSlots.get(slot.getType());
+        boolean occupied;
+        do {
+            occupied = slot.isOccupied();
+            if (occupied) {
+                free.remove(slot);
+            } else {
+                free.add(slot);
+            }
+        } while (occupied != slot.isOccupied());
+    }
+
+    /**
+     * Consecutive layout bays of one type whose slots have not been created yet.
+     */
+    private static final class LazyChunk {
+        /**
+         * Slot code of the first bay.
+         */
+        final int firstCode;
+
+        /**
+         * Number of bays.
+         */
+        final int count;
+
+        /**
+         * Type of every bay.
+         */
+        final ParkingSlot.SlotType type;
+
+        /**
+         * ID of the first bay.
+         */
+        final String firstId;
+
+        /**
+         * ID of the last bay.
+         */
+        final String lastId;
+
+        /**
+         * Constructs a chunk of a layout range.
+         *
+         * @param range  the range
+         * @param offset index of the chunk's first bay in the range
+         * @param count  number of bays in the chunk
+         */
+        LazyChunk(SiteLayout.BayRange range, int offset, int count) {
+            this.firstCode = range.getFirstCode() + offset;
+            this.count = count;
+            this.type = range.getType();
+            this.firstId = range.getId(offset);
+            this.lastId = range.getId(offset + count - 1);
+        }
+    }
+
+    /**
+     * One page of a slot query, with the cursor for the next page.
+     */
+    public static class SlotPage {
+        /**
+         * The slots on this page.
+         */
+        private final List<ParkingSlot> slots;
+
+        /**
+         * The cursor for the next page, or null if this is the last page.
+         */
+        private final String nextCursor;
+
+        /**
+         * Constructs a page.
+         *
+         * @param slots      the slots on the page
+         * @param nextCursor the cursor for the next page, or null if last
+         */
+        SlotPage(List<ParkingSlot> slots, String nextCursor) {
+            this.slots = slots;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * Returns the slots on this page.
+         *
+         * @return the slots, in slot ID order
+         */
+        public List<ParkingSlot> getSlots() {
+            return slots;
+        }
+
+        /**
+         * Returns the cursor to pass for the next page.
+         *
+         * @return the cursor, or null if there are no more matching slots
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
     }
 }
\ No newline at end of file
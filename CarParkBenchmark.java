@@ -0,0 +1,494 @@
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Micro-benchmark suite for CarPark operations: construction, addSlot and
+ * bulk addSlots, findSlotById, findCar, park/remove cycles, deleteAllUnoccupied
+ * and getAllSlots.
+ * <p>
+ * Two cases track GC pressure from cars: park/remove(churn) builds a new car
+ * per cycle from registration and owner text, as a gate does, so its B/op is
+ * the garbage each arrival leaves behind; parkedCar(retained) reports the
+ * heap each parked car keeps alive. heap(CarPark) and heap(CompactCarPark)
+ * compare the heap a whole park keeps alive, per slot, for parks small enough
+ * for {@link CompactCarPark}'s [A-Z][0-9]{2} IDs.
+ * <p>
+ * Each operation is run across park sizes and occupancy ratios. After a
+ * warm-up period, several timed iterations are run and the average time per
+ * operation, throughput and bytes allocated per operation (from the
+ * thread allocation counter) are reported, so changes to these paths can be
+ * compared against a baseline run.
+ * <p>
+ * Sizes run from 100 to 1,000,000 slots by default. Run with
+ * {@code java CarParkBenchmark [size...]}. The first 2,600 slots use
+ * [A-Z][0-9]{2} IDs and any beyond that use level/zone/bay addresses.
+ * At most {@value #CHURN_REGISTRATION_BASE} cars are parked, one per
+ * registration below the churn range, so the largest parks are less
+ * occupied than the Occ% column asks for.
+ */
+public class CarParkBenchmark {
+    /**
+     * Park sizes measured when no arguments are given.
+     */
+    private static final int[] DEFAULT_SIZES = {100, 1_000, 2_600, 100_000, 1_000_000};
+
+    /**
+     * Occupancy ratios measured, in percent.
+     */
+    private static final int[] OCCUPANCY_PERCENTS = {0, 50, 90};
+
+    /**
+     * Warm-up time per benchmark, in milliseconds.
+     */
+    private static final long WARMUP_MILLIS = 300;
+
+    /**
+     * Number of timed iterations per benchmark.
+     */
+    private static final int ITERATIONS = 5;
+
+    /**
+     * Duration of each timed iteration, in milliseconds.
+     */
+    private static final long ITERATION_MILLIS = 200;
+
+    /**
+     * First packed registration used by the churn benchmark, above those of
+     * {@link #buildCarPark(int, int)}.
+     */
+    private static final int CHURN_REGISTRATION_BASE = 200_000;
+
+    /**
+     * Number of distinct registrations cycled through by the churn benchmark.
+     */
+    private static final int CHURN_REGISTRATIONS = 50_000;
+
+    /**
+     * Owner names given to churned and retained cars.
+     */
+    private static final String[] OWNER_NAMES = ownerNames(1_000);
+
+    /**
+     * Number of slots kept alive together when comparing heap use.
+     */
+    private static final int HEAP_SLOTS = 200_000;
+
+    /**
+     * Thread MXBean used to read the allocation counter, or null if unsupported.
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /**
+     * Accumulates results so the JIT cannot discard benchmarked work.
+     */
+    private static long sink;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args park sizes to measure; defaults if empty
+     */
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-22s %-9s %-5s %-12s %-14s %-10s %-10s%n",
+            "Benchmark", "Slots", "Occ%", "ns/op", "ops/s", "B/op", "MB/s");
+        for (int size : sizes) {
+            for (int occupancy : OCCUPANCY_PERCENTS) {
+                runAll(size, occupancy);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Runs every benchmark for one park size and occupancy.
+     *
+     * @param size      the number of slots
+     * @param occupancy the percentage of occupied slots
+     */
+    private static void runAll(int size, int occupancy) {
+        if (size <= ParkingSlot.ID_SPACE) {
+            measureHeap(size, occupancy);
+        }
+        measure("construct", size, occupancy,
+            () -> null, state -> buildCarPark(size, occupancy).getAllSlots().size());
+
+        CarPark carPark = buildCarPark(size, occupancy);
+        String[] ids = new String[size];
+        String[] regs = new String[size];
+        int index = 0;
+        for (ParkingSlot slot : carPark.getAllSlots()) {
+            ids[index] = slot.getId();
+            if (slot.isOccupied()) {
+                regs[index] = slot.getParkedCar().getRegistrationNumber();
+            }
+            index++;
+        }
+        int[] cursor = new int[1];
+
+        measure("findSlotById", size, occupancy, () -> {
+            ParkingSlot slot = carPark.findSlotById(ids[cursor[0]++ % size]);
+            return slot == null ? 0 : 1;
+        });
+        measure("findCar(miss)", size, occupancy, () -> {
+            ParkingSlot slot = carPark.findCar("Z9999");
+            return slot == null ? 0 : 1;
+        });
+        List<String> parkedRegs = new ArrayList<>();
+        for (String reg : regs) {
+            if (reg != null) {
+                parkedRegs.add(reg);
+            }
+        }
+        if (!parkedRegs.isEmpty()) {
+            measure("findCar(hit)", size, occupancy, () -> {
+                ParkingSlot slot = carPark.findCar(parkedRegs.get(cursor[0]++ % parkedRegs.size()));
+                return slot == null ? 0 : 1;
+            });
+        }
+        if (occupancy < 100) {
+            LocalDateTime now = LocalDateTime.now();
+            measure("park/remove", size, occupancy, () -> {
+                Car car = new Car("Y0001", "Bench", false, now);
+                ParkingSlot slot = carPark.parkAnywhere(car);
+                if (slot == null) {
+                    return 0;
+                }
+                slot.removeCar();
+                return 1;
+            });
+            String[] churnRegs = new String[CHURN_REGISTRATIONS];
+            for (int i = 0; i < churnRegs.length; i++) {
+                churnRegs[i] = Car.decodeRegistration(CHURN_REGISTRATION_BASE + i);
+            }
+            measure("park/remove(churn)", size, occupancy, () -> {
+                // As a gate does: a new car per arrival, from the text it was given.
+                int i = cursor[0]++;
+                Car car = new Car(Car.encodeRegistration(churnRegs[i % churnRegs.length]),
+                    OWNER_NAMES[i % OWNER_NAMES.length], false, carPark.nowEpochSecond());
+                ParkingSlot slot = carPark.parkAnywhere(car);
+                if (slot == null) {
+                    return 0;
+                }
+                slot.removeCar();
+                return 1;
+            });
+        }
+        if (occupancy == 0) {
+            measureRetained(size);
+        }
+        measure("getAllSlots", size, occupancy, () -> carPark.getAllSlots().size());
+        measure("addSlot", size, occupancy,
+            () -> buildCarPark(size - 1, occupancy),
+            park -> park.addSlot(new ParkingSlot(slotId(size - 1), ParkingSlot.SlotType.VISITOR))
+                ? 1 : 0);
+        measure("addSlots(bulk)", size, occupancy,
+            () -> {
+                List<ParkingSlot> batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(new ParkingSlot(slotId(i), ParkingSlot.SlotType.VISITOR));
+                }
+                return batch;
+            },
+            batch -> new CarPark(0, 0).addSlots(batch));
+        measure("deleteAllUnoccupied", size, occupancy,
+            () -> buildCarPark(size, occupancy),
+            park -> park.deleteAllUnoccupied() ? 1 : 0);
+    }
+
+    /**
+     * Measures a cheap, repeatable operation by calling it in a tight loop.
+     *
+     * @param name      the benchmark name
+     * @param size      the park size, for the report
+     * @param occupancy the occupancy percentage, for the report
+     * @param operation the operation; its result is consumed
+     */
+    private static void measure(String name, int size, int occupancy, LongSupplier operation) {
+        long deadline = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                sink += operation.getAsLong();
+            }
+        }
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + ITERATION_MILLIS * 1_000_000;
+            long now;
+            do {
+                for (int i = 0; i < 1000; i++) {
+                    sink += operation.getAsLong();
+                }
+                ops += 1000;
+                now = System.nanoTime();
+            } while (now < end);
+            nanos += now - start;
+            bytes += allocatedBytes() - allocatedBefore;
+        }
+        report(name, size, occupancy, ops, nanos, bytes);
+    }
+
+    /**
+     * Measures an operation that needs fresh state for every call, such as one
+     * that consumes the car park. Only the operation itself is timed.
+     *
+     * @param name      the benchmark name
+     * @param size      the park size, for the report
+     * @param occupancy the occupancy percentage, for the report
+     * @param setup     creates the state for one call; not timed
+     * @param operation the operation; its result is consumed
+     * @param <T>       the state type
+     */
+    private static <T> void measure(String name, int size, int occupancy,
+                                    Supplier<T> setup, ToLongFunction<T> operation) {
+        long deadline = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            sink += operation.applyAsLong(setup.get());
+        }
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long end = System.nanoTime() + ITERATIONS * ITERATION_MILLIS * 1_000_000;
+        while (System.nanoTime() < end) {
+            T state = setup.get();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sink += operation.applyAsLong(state);
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocatedBefore;
+            ops++;
+        }
+        report(name, size, occupancy, ops, nanos, bytes);
+    }
+
+    /**
+     * Measures the heap retained per parked car: fills an empty park of the
+     * given size with cars whose owner names arrive as fresh strings, as if
+     * just read from input, and compares used heap after a full GC before and
+     * after. Reported as parkedCar(retained), with B/op the retained bytes
+     * per car. Parks with more slots than there are registrations are filled
+     * only as far as the registrations go.
+     *
+     * @param size the number of slots
+     */
+    private static void measureRetained(int size) {
+        CarPark carPark = buildCarPark(size, 0);
+        int cars = Math.min(size, Car.REGISTRATION_SPACE);
+        long before = usedHeapAfterGc();
+        long start = System.nanoTime();
+        for (int i = 0; i < cars; i++) {
+            Car car = new Car(Car.decodeRegistration(i),
+                new String(OWNER_NAMES[i % OWNER_NAMES.length]), false, carPark.now());
+            carPark.parkAnywhere(car);
+        }
+        long nanos = System.nanoTime() - start;
+        long retained = usedHeapAfterGc() - before;
+        sink += carPark.getFreeCount(ParkingSlot.SlotType.VISITOR);
+        report("parkedCar(retained)", size, (int) (cars * 100L / size), cars, nanos, retained);
+    }
+
+    /**
+     * Compares the heap retained by CarParks and by CompactCarParks holding
+     * the same slots and cars. Enough copies of each are kept alive together
+     * to hold about {@value #HEAP_SLOTS} slots, so that small parks still
+     * retain a measurable amount. Reported as heap(CarPark) and
+     * heap(CompactCarPark), with B/op the retained bytes per slot and ns/op
+     * the build time per slot.
+     *
+     * @param size      the number of slots
+     * @param occupancy the percentage of occupied slots
+     */
+    private static void measureHeap(int size, int occupancy) {
+        int copies = Math.max(1, HEAP_SLOTS / size);
+        measureHeap("heap(CarPark)", size, occupancy, copies,
+            () -> buildCarPark(size, occupancy));
+        measureHeap("heap(CompactCarPark)", size, occupancy, copies,
+            () -> buildCompactCarPark(size, occupancy));
+    }
+
+    /**
+     * Builds copies of a park and reports the heap they retain, from used
+     * heap after a full GC before and after.
+     *
+     * @param name      the benchmark name
+     * @param size      the number of slots per park
+     * @param occupancy the occupancy percentage, for the report
+     * @param copies    the number of parks to keep alive
+     * @param build     builds one park
+     */
+    private static void measureHeap(String name, int size, int occupancy, int copies,
+                                    Supplier<?> build) {
+        build.get();
+        Object[] parks = new Object[copies];
+        long before = usedHeapAfterGc();
+        long start = System.nanoTime();
+        for (int i = 0; i < copies; i++) {
+            parks[i] = build.get();
+        }
+        long nanos = System.nanoTime() - start;
+        long retained = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(parks);
+        report(name, size, occupancy, (long) size * copies, nanos, retained);
+    }
+
+    /**
+     * Runs a full garbage collection and returns the heap then in use.
+     *
+     * @return the used heap, in bytes
+     */
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Builds a list of distinct owner names.
+     *
+     * @param count the number of names
+     * @return the names
+     */
+    private static String[] ownerNames(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "Owner" + i;
+        }
+        return names;
+    }
+
+    /**
+     * Prints one result row.
+     *
+     * @param name      the benchmark name
+     * @param size      the park size
+     * @param occupancy the occupancy percentage
+     * @param ops       the number of operations measured
+     * @param nanos     the total measured time
+     * @param bytes     the total bytes allocated, or negative if unknown
+     */
+    private static void report(String name, int size, int occupancy,
+                               long ops, long nanos, long bytes) {
+        double nsPerOp = (double) nanos / ops;
+        System.out.printf("%-22s %-9d %-5d %-12.1f %-14.0f %-10.1f %-10.1f%n",
+            name, size, occupancy, nsPerOp, ops * 1e9 / nanos,
+            bytes < 0 ? -1.0 : (double) bytes / ops,
+            bytes < 0 ? -1.0 : bytes * 1e3 / nanos);
+    }
+
+    /**
+     * Builds a car park with the given number of visitor slots, of which the
+     * given percentage are occupied, spread evenly, up to
+     * {@value #CHURN_REGISTRATION_BASE} cars.
+     *
+     * @param size      the number of slots
+     * @param occupancy the percentage of occupied slots
+     * @return the car park
+     */
+    static CarPark buildCarPark(int size, int occupancy) {
+        CarPark carPark = new CarPark(0, 0);
+        LocalDateTime now = LocalDateTime.now();
+        long cars = carCount(size, occupancy);
+        int parked = 0;
+        for (int i = 0; i < size; i++) {
+            ParkingSlot slot = new ParkingSlot(slotId(i), ParkingSlot.SlotType.VISITOR);
+            carPark.addSlot(slot);
+            if ((i + 1L) * cars / size != i * cars / size) {
+                slot.parkCar(new Car(Car.decodeRegistration(parked++), "Owner", false, now));
+            }
+        }
+        return carPark;
+    }
+
+    /**
+     * Builds a CompactCarPark with the same slots and cars as
+     * {@link #buildCarPark(int, int)}.
+     *
+     * @param size      the number of slots, at most {@link ParkingSlot#ID_SPACE}
+     * @param occupancy the percentage of occupied slots
+     * @return the car park
+     */
+    static CompactCarPark buildCompactCarPark(int size, int occupancy) {
+        CompactCarPark carPark = new CompactCarPark(0, 0);
+        LocalDateTime now = LocalDateTime.now();
+        long cars = carCount(size, occupancy);
+        int parked = 0;
+        for (int i = 0; i < size; i++) {
+            carPark.addSlot(slotId(i), ParkingSlot.SlotType.VISITOR);
+            if ((i + 1L) * cars / size != i * cars / size) {
+                carPark.parkCar(slotId(i),
+                    new Car(Car.decodeRegistration(parked++), "Owner", false, now));
+            }
+        }
+        return carPark;
+    }
+
+    /**
+     * Returns the number of cars to park for a size and occupancy, capped so
+     * that every car has its own registration below the churn range.
+     *
+     * @param size      the number of slots
+     * @param occupancy the percentage of occupied slots
+     * @return the number of cars
+     */
+    private static long carCount(int size, int occupancy) {
+        return Math.min((long) size * occupancy / 100, CHURN_REGISTRATION_BASE);
+    }
+
+    /**
+     * Returns the i-th slot ID in A00, A01, …, Z99, L00-A-0000, L00-A-0001, … order.
+     *
+     * @param i the slot number
+     * @return the slot ID
+     */
+    static String slotId(int i) {
+        return SlotAddress.fromCode(i);
+    }
+
+    /**
+     * Reads the current thread's allocation counter.
+     *
+     * @return bytes allocated so far, or -1 if unsupported
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Returns the HotSpot thread MXBean with allocation measurement enabled.
+     *
+     * @return the bean, or null if the JVM does not support it
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+            && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
\ No newline at end of file
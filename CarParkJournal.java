@@ -0,0 +1,1057 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Durable store for a CarPark: a write-ahead journal of every change plus
+ * periodic snapshots of the whole car park.
+ * <p>
+ * Each change reported through {@link CarParkListener} is encoded as a compact
+ * binary record (length, type, packed slot ID, payload, CRC32C) into an
+ * in-memory buffer. A background thread writes the buffer to the journal's
+ * {@link FileChannel} and forces it to disk every commit interval, so many
+ * changes share one disk flush (group commit); {@link #sync()} flushes at once.
+ * <p>
+ * A change is therefore complete, and visible to every gate, before its
+ * record is on disk: a crash loses the changes of up to the last commit
+ * interval. A caller that must not lose a change calls {@link #sync()} after
+ * making it. If the journal cannot be written or forced, the car park is
+ * halted ({@link CarPark#halt(Throwable)}), so that no later change is made
+ * in memory only; the change being journaled when the write failed, and any
+ * already under way, are applied but not saved, and {@link #sync()},
+ * {@link #snapshot()} and {@link #close()} report the failure.
+ * <p>
+ * Files live in one directory. {@code snapshot-N.bin} holds the state at the
+ * start of journal generation N, and {@code journal-N.log} holds the changes
+ * made during it. Taking a snapshot starts a new generation and deletes older
+ * files, which bounds recovery time. Opening the store rebuilds the exact state
+ * from the latest snapshot plus the journals from that generation on; a torn
+ * record at the end of a journal (from a crash mid-write) is ignored.
+ * <p>
+ * A car park built from a {@link SiteLayout} is saved as its layout plus only
+ * the slots that differ from it (occupied, added or deleted), and restored the
+ * same way, so that neither taking a snapshot nor restarting creates a slot
+ * for every bay of a large site.
+ */
+public class CarParkJournal implements CarParkListener, Closeable {
+    /** Record type for an added slot. */
+    static final byte ADD_SLOT = 1;
+    /** Record type for a deleted slot. */
+    static final byte DELETE_SLOT = 2;
+    /** Record type for a parked car. */
+    static final byte PARK = 3;
+    /** Record type for a removed car. */
+    static final byte REMOVE = 4;
+
+    /**
+     * Marks the start of a snapshot file ("CPS2").
+     */
+    private static final int SNAPSHOT_MAGIC = 0x43505332;
+
+    /**
+     * Marks the start of a snapshot file of a car park built from a site
+     * layout ("CPS3").
+     */
+    private static final int LAYOUT_SNAPSHOT_MAGIC = 0x43505333;
+
+    /**
+     * Most deleted layout bays restored one at a time; above this, they are
+     * deleted in one pass over every slot.
+     */
+    private static final int MAX_SINGLE_DELETES = CarPark.LAZY_CHUNK_SIZE;
+
+    /**
+     * Park time value written for a car that has none.
+     */
+    private static final long NO_PARK_TIME = Long.MIN_VALUE;
+
+    /**
+     * Size of the in-memory journal buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Default interval between group commits, in milliseconds.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 5;
+
+    /**
+     * Default journal size after which a snapshot is taken automatically.
+     */
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD_BYTES = 64L << 20;
+
+    /**
+     * Directory holding the snapshot and journal files.
+     */
+    private final Path directory;
+
+    /**
+     * The car park whose changes are journaled.
+     */
+    private final CarPark carPark;
+
+    /**
+     * True if the state was restored from existing files.
+     */
+    private final boolean recovered;
+
+    /**
+     * Journal size after which the commit thread takes a snapshot.
+     */
+    private final long snapshotThresholdBytes;
+
+    /**
+     * Guards {@link #buffer}, {@link #channel}, {@link #generation},
+     * {@link #journalBytes}, {@link #crc} and {@link #failure}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Records appended since the last write to the channel.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Checksum calculator for journal records.
+     */
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Channel of the current journal file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Current journal generation.
+     */
+    private long generation;
+
+    /**
+     * Bytes written to the current journal generation, including buffered bytes.
+     */
+    private long journalBytes;
+
+    /**
+     * The error that made the journal fail, or null while it is healthy.
+     */
+    private IOException failure;
+
+    /**
+     * Thread performing group commits and automatic snapshots.
+     */
+    private final ScheduledExecutorService committer;
+
+    /**
+     * Creates a journal for a recovered or newly created car park and starts
+     * a new generation with a fresh snapshot.
+     *
+     * @param directory              the data directory
+     * @param carPark                the car park to journal
+     * @param generation             the last generation found on disk, or 0
+     * @param recovered              true if the state came from existing files
+     * @param commitIntervalMillis   interval between group commits
+     * @param snapshotThresholdBytes journal size that triggers a snapshot
+     * @throws IOException if the snapshot or journal cannot be written
+     */
+    private CarParkJournal(Path directory, CarPark carPark, long generation, boolean recovered,
+                           long commitIntervalMillis, long snapshotThresholdBytes)
+        throws IOException {
+        this.directory = directory;
+        this.carPark = carPark;
+        this.generation = generation;
+        this.recovered = recovered;
+        this.snapshotThresholdBytes = snapshotThresholdBytes;
+        carPark.addListener(this);
+        snapshot();
+        committer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "carpark-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit,
+            commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the store in a directory with the default commit interval and
+     * snapshot threshold.
+     *
+     * @param directory the data directory, created if missing
+     * @param initial   supplies the car park to use when the directory holds no state
+     * @return the open journal
+     * @throws IOException if the files cannot be read or written
+     */
+    public static CarParkJournal open(Path directory, Supplier<CarPark> initial)
+        throws IOException {
+        return open(directory, initial,
+            DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_SNAPSHOT_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Opens the store in a directory, rebuilding the car park from the latest
+     * snapshot and journal tail, or taking it from {@code initial} if there is none.
+     *
+     * @param directory              the data directory, created if missing
+     * @param initial                supplies the car park to use when there is no saved state
+     * @param commitIntervalMillis   interval between group commits, in milliseconds
+     * @param snapshotThresholdBytes journal size after which a snapshot is taken
+     * @return the open journal
+     * @throws IOException if the files cannot be read or written
+     */
+    public static CarParkJournal open(Path directory, Supplier<CarPark> initial,
+                                      long commitIntervalMillis, long snapshotThresholdBytes)
+        throws IOException {
+        Files.createDirectories(directory);
+        long snapshotGeneration = latestGeneration(directory, "snapshot-", ".bin");
+        if (snapshotGeneration == 0) {
+            return new CarParkJournal(directory, initial.get(), 0, false,
+                commitIntervalMillis, snapshotThresholdBytes);
+        }
+        CarPark carPark = readSnapshot(directory.resolve(snapshotName(snapshotGeneration)));
+        long last = latestGeneration(directory, "journal-", ".log");
+        for (long gen = snapshotGeneration; gen <= last; gen++) {
+            Path journal = directory.resolve(journalName(gen));
+            if (Files.exists(journal)) {
+                replay(journal, carPark);
+            }
+        }
+        return new CarParkJournal(directory, carPark, Math.max(snapshotGeneration, last), true,
+            commitIntervalMillis, snapshotThresholdBytes);
+    }
+
+    /**
+     * Returns the journaled car park.
+     *
+     * @return the car park
+     */
+    public CarPark getCarPark() {
+        return carPark;
+    }
+
+    /**
+     * Indicates whether the car park was restored from existing files.
+     *
+     * @return true if recovered; false if it came from the initial supplier
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Returns the size of the current journal generation.
+     *
+     * @return the journal size in bytes, including records not yet written
+     */
+    public long getJournalBytes() {
+        synchronized (lock) {
+            return journalBytes;
+        }
+    }
+
+    @Override
+    public void slotAdded(ParkingSlot slot) {
+        append(ADD_SLOT, slot, null);
+    }
+
+    @Override
+    public void slotDeleted(ParkingSlot slot) {
+        append(DELETE_SLOT, slot, null);
+    }
+
+    @Override
+    public void carParked(ParkingSlot slot, Car car) {
+        append(PARK, slot, car);
+    }
+
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        append(REMOVE, slot, null);
+    }
+
+    /**
+     * Writes all buffered records to the journal file and forces them to disk,
+     * so that every change made before the call survives a crash.
+     *
+     * @throws IOException if the journal cannot be written, or has failed before
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            checkNotFailed();
+            try {
+                flush();
+                channel.force(false);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the whole car park and starts a new journal
+     * generation, then deletes the files of older generations.
+     * Changes are held off only while the state is copied into memory.
+     * A snapshot file that cannot be written loses nothing, as the journals
+     * are kept until one is; a journal that cannot be written fails the journal.
+     *
+     * @throws IOException if the snapshot or journal cannot be written, or
+     *                     the journal has failed before
+     */
+    public synchronized void snapshot() throws IOException {
+        byte[][] image = new byte[1][];
+        long[] newGeneration = new long[1];
+        try {
+            carPark.runExclusive(() -> {
+                synchronized (lock) {
+                    try {
+                        checkNotFailed();
+                        image[0] = encodeSnapshot(carPark);
+                        if (channel != null) {
+                            flush();
+                            channel.force(false);
+                            channel.close();
+                        } else {
+                            // First snapshot: everything so far is in the image.
+                            buffer.clear();
+                        }
+                        generation++;
+                        channel = FileChannel.open(directory.resolve(journalName(generation)),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                        journalBytes = 0;
+                        newGeneration[0] = generation;
+                    } catch (IOException e) {
+                        if (failure == null && channel != null) {
+                            fail(e);
+                        }
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Path tmp = directory.resolve(snapshotName(newGeneration[0]) + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(image[0]);
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(snapshotName(newGeneration[0])),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (long gen = newGeneration[0] - 1; gen > 0; gen--) {
+            boolean deleted = Files.deleteIfExists(directory.resolve(snapshotName(gen)));
+            deleted |= Files.deleteIfExists(directory.resolve(journalName(gen)));
+            if (!deleted) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops the commit thread, flushes outstanding records to disk and stops
+     * journaling the car park.
+     *
+     * @throws IOException if the journal cannot be written, or has failed before
+     */
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        carPark.removeListener(this);
+        synchronized (lock) {
+            try {
+                if (failure == null) {
+                    flush();
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                channel.close();
+            }
+            checkNotFailed();
+        }
+    }
+
+    /**
+     * Group commit, run on the commit thread: flushes buffered records,
+     * and takes a snapshot once the journal exceeds the threshold.
+     */
+    private void commit() {
+        try {
+            boolean snapshotDue;
+            synchronized (lock) {
+                if (failure != null || !channel.isOpen()) {
+                    return;
+                }
+                if (buffer.position() > 0) {
+                    try {
+                        flush();
+                        channel.force(false);
+                    } catch (IOException e) {
+                        fail(e);
+                        return;
+                    }
+                }
+                snapshotDue = journalBytes >= snapshotThresholdBytes;
+            }
+            if (snapshotDue) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("Car park journal commit failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes one change into the buffer, writing the buffer out first if it
+     * is full. Never throws: the change has already been made, so a failed
+     * write fails the journal, which halts the car park against later changes.
+     *
+     * @param type the record type
+     * @param slot the slot that changed
+     * @param car  the parked car for {@link #PARK} records; otherwise null
+     */
+    private void append(byte type, ParkingSlot slot, Car car) {
+        byte[] owner = car == null ? null : ownerBytes(car);
+        int size = recordSize(owner);
+        synchronized (lock) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                if (buffer.remaining() < size) {
+                    flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            putRecord(buffer, crc, type, slot, car, owner);
+            journalBytes += size;
+        }
+    }
+
+    /**
+     * Fails the journal after a write or force error: halts the car park so
+     * that no later change is made that could not be saved, and stops
+     * buffering records. The caller holds {@link #lock}.
+     *
+     * @param e the error
+     */
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            carPark.halt(e);
+            System.err.println("Car park journal failed, changes halted: " + e);
+        }
+    }
+
+    /**
+     * Rejects an operation once the journal has failed.
+     * The caller holds {@link #lock}.
+     *
+     * @throws IOException if the journal has failed
+     */
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Car park journal has failed: " + failure, failure);
+        }
+    }
+
+    /**
+     * Returns the encoded size of a record, including its length and checksum.
+     *
+     * @param owner the owner name from {@link #ownerBytes(Car)} for a
+     *              {@link #PARK} record; otherwise null
+     * @return the record size in bytes
+     */
+    static int recordSize(byte[] owner) {
+        return 4 + 1 + 4 + 1 + (owner == null ? 0 : 4 + 1 + 8 + 4 + 2 + owner.length) + 4;
+    }
+
+    /**
+     * Encodes one change as a record: length, type, packed slot ID, slot type,
+     * the car for {@link #PARK} records, and a CRC32C of everything after the length.
+     *
+     * @param out   the buffer to write to, with at least {@link #recordSize(byte[])} bytes left
+     * @param crc   checksum calculator to use
+     * @param type  the record type
+     * @param slot  the slot that changed
+     * @param car   the parked car for {@link #PARK} records; otherwise null
+     * @param owner the car's owner name from {@link #ownerBytes(Car)}, or null
+     */
+    static void putRecord(ByteBuffer out, CRC32C crc, byte type, ParkingSlot slot, Car car,
+                          byte[] owner) {
+        int start = out.position();
+        out.putInt(recordSize(owner) - 8);
+        out.put(type);
+        out.putInt(SlotAddress.toCode(slot.getId()));
+        out.put((byte) slot.getType().ordinal());
+        if (car != null) {
+            putCar(out, car, owner);
+        }
+        crc.reset();
+        crc.update(out.duplicate().position(start + 4).limit(out.position()));
+        out.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads the next record from a sequence of records, checking its checksum.
+     *
+     * @param data  the records, positioned at the next one; advanced past it
+     * @param check checksum calculator to use
+     * @return the record body for {@link #apply(ByteBuffer, CarPark)}, or null
+     *         if the rest of the data is not an intact record (torn or corrupt)
+     */
+    static ByteBuffer nextRecord(ByteBuffer data, CRC32C check) {
+        if (data.remaining() < 4) {
+            return null;
+        }
+        int length = data.getInt();
+        if (length <= 0 || data.remaining() < length + 4) {
+            return null;
+        }
+        check.reset();
+        check.update(data.duplicate().limit(data.position() + length));
+        ByteBuffer record = data.slice(data.position(), length);
+        data.position(data.position() + length);
+        return data.getInt() == (int) check.getValue() ? record : null;
+    }
+
+    /**
+     * Writes the buffered records to the journal channel. Caller holds {@link #lock}.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Replays the intact records of one journal file onto a car park.
+     *
+     * @param journal the journal file
+     * @param carPark the car park to apply changes to
+     * @throws IOException if the file cannot be read
+     */
+    private static void replay(Path journal, CarPark carPark) throws IOException {
+        try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ)) {
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            CRC32C check = new CRC32C();
+            ByteBuffer record;
+            while ((record = nextRecord(data, check)) != null) {
+                apply(record, carPark);
+            }
+        }
+    }
+
+    /**
+     * Applies one decoded journal record to a car park.
+     *
+     * @param record  the record body (type, slot ID, slot type, payload)
+     * @param carPark the car park to change
+     */
+    static void apply(ByteBuffer record, CarPark carPark) {
+        byte type = record.get();
+        String id = SlotAddress.fromCode(record.getInt());
+        ParkingSlot.SlotType slotType = ParkingSlot.SlotType.values()[record.get()];
+        switch (type) {
+            case ADD_SLOT:
+                carPark.addSlot(new ParkingSlot(id, slotType));
+                break;
+            case DELETE_SLOT:
+                carPark.deleteSlot(id);
+                break;
+            case PARK:
+                carPark.findSlotById(id).parkCar(getCar(record));
+                break;
+            case REMOVE:
+                carPark.findSlotById(id).removeCar();
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Applies one decoded record as the new state of its slot, whatever the
+     * slot holds now: a park record replaces any car in the slot and moves
+     * the car from any other slot, a removal or deletion of a slot already
+     * empty or gone does nothing, and a park or removal in a missing slot
+     * adds it. A replica applies the stream this way because its snapshot may
+     * already hold some of the first changes streamed after it; replaying a
+     * slot's changes over a later state of that slot ends at the same state.
+     *
+     * @param record  the record body (type, slot ID, slot type, payload)
+     * @param carPark the car park to change
+     */
+    static void applyAsState(ByteBuffer record, CarPark carPark) {
+        byte type = record.get();
+        String id = SlotAddress.fromCode(record.getInt());
+        ParkingSlot.SlotType slotType = ParkingSlot.SlotType.values()[record.get()];
+        ParkingSlot slot = carPark.findSlotById(id);
+        if (slot != null && (type == DELETE_SLOT || slot.getType() != slotType)) {
+            if (slot.isOccupied()) {
+                slot.removeCar();
+            }
+            carPark.deleteSlot(id);
+            slot = null;
+        }
+        if (type == DELETE_SLOT) {
+            return;
+        }
+        if (slot == null) {
+            slot = new ParkingSlot(id, slotType);
+            carPark.addSlot(slot);
+        } else if (slot.isOccupied()) {
+            slot.removeCar();
+        }
+        switch (type) {
+            case ADD_SLOT:
+            case REMOVE:
+                break;
+            case PARK:
+                Car car = getCar(record);
+                ParkingSlot other = carPark.findCar(car.getRegistrationNumber());
+                if (other != null) {
+                    other.removeCar();
+                }
+                slot.parkCar(car);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Encodes every slot into a snapshot image with a trailing checksum.
+     *
+     * @param slots the slots to save
+     * @return the snapshot bytes
+     * @throws IOException never, as the image is built in memory
+     */
+    static byte[] encodeSnapshot(List<ParkingSlot> slots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + slots.size() * 8);
+        CheckedOutputStream checked = new CheckedOutputStream(bytes, new CRC32C());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(SNAPSHOT_MAGIC);
+        writeSlots(out, slots);
+        out.flush();
+        out.writeInt((int) checked.getChecksum().getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a car park into a snapshot image with a trailing checksum. A car
+     * park built from a site layout is saved as the layout's ranges, the codes
+     * of its deleted bays, and only the slots that are occupied or are not the
+     * layout's own bays, without creating the slots of untouched bays. The
+     * caller holds the car park's write lock.
+     *
+     * @param carPark the car park to save
+     * @return the snapshot bytes
+     * @throws IOException never, as the image is built in memory
+     */
+    static byte[] encodeSnapshot(CarPark carPark) throws IOException {
+        SiteLayout layout = carPark.getLayout();
+        if (layout == null) {
+            return encodeSnapshot(carPark.getAllSlots());
+        }
+        int[] deleted = carPark.getDeletedLayoutBays();
+        Set<Integer> deletedSet = new HashSet<>();
+        for (int code : deleted) {
+            deletedSet.add(code);
+        }
+        List<ParkingSlot> changed = new ArrayList<>();
+        for (ParkingSlot slot : carPark.getCreatedSlots()) {
+            int code = SlotAddress.toCode(slot.getId());
+            if (slot.isOccupied() || !layout.contains(code) || deletedSet.contains(code)) {
+                changed.add(slot);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            32 + layout.getRanges().size() * 9 + deleted.length * 4 + changed.size() * 8);
+        CheckedOutputStream checked = new CheckedOutputStream(bytes, new CRC32C());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(LAYOUT_SNAPSHOT_MAGIC);
+        out.writeInt(layout.getRanges().size());
+        for (SiteLayout.BayRange range : layout.getRanges()) {
+            out.writeInt(range.getFirstCode());
+            out.writeInt(range.getCount());
+            out.writeByte(range.getType().ordinal());
+        }
+        out.writeInt(deleted.length);
+        for (int code : deleted) {
+            out.writeInt(code);
+        }
+        writeSlots(out, changed);
+        out.flush();
+        out.writeInt((int) checked.getChecksum().getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the slots of a car park snapshot into an image in the same
+     * format as {@link #encodeSnapshot(List)}, without touching the car park.
+     *
+     * @param snapshot the snapshot to save
+     * @return the snapshot bytes
+     * @throws IOException never, as the image is built in memory
+     */
+    static byte[] encodeSnapshot(CarParkSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + snapshot.size() * 8);
+        CheckedOutputStream checked = new CheckedOutputStream(bytes, new CRC32C());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(snapshot.size());
+        ByteBuffer carBuffer = newCarBuffer();
+        for (CarParkSnapshot.SlotState state : snapshot) {
+            Car car = !state.isOccupied() ? null : new Car(
+                Car.encodeRegistration(state.getRegistrationNumber()), state.getOwner(),
+                state.isStaffOwner(), state.getParkEpochSecond());
+            writeSlot(out, SlotAddress.toCode(state.getId()), state.getType(), car, carBuffer);
+        }
+        out.flush();
+        out.writeInt((int) checked.getChecksum().getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a slot count, then each slot's code, type and parked car.
+     *
+     * @param out   the stream to write to
+     * @param slots the slots
+     * @throws IOException never, as callers write to memory
+     */
+    private static void writeSlots(DataOutputStream out, List<ParkingSlot> slots)
+        throws IOException {
+        out.writeInt(slots.size());
+        ByteBuffer carBuffer = newCarBuffer();
+        for (ParkingSlot slot : slots) {
+            writeSlot(out, SlotAddress.toCode(slot.getId()), slot.getType(), slot.getParkedCar(),
+                carBuffer);
+        }
+    }
+
+    /**
+     * Writes one slot's code, type and parked car.
+     *
+     * @param out       the stream to write to
+     * @param code      the packed slot ID
+     * @param type      the slot type
+     * @param car       the parked car, or null
+     * @param carBuffer scratch buffer from {@link #newCarBuffer()}
+     * @throws IOException never, as callers write to memory
+     */
+    private static void writeSlot(DataOutputStream out, int code, ParkingSlot.SlotType type,
+                                  Car car, ByteBuffer carBuffer) throws IOException {
+        out.writeInt(code);
+        out.writeByte(type.ordinal());
+        out.writeBoolean(car != null);
+        if (car != null) {
+            carBuffer.clear();
+            putCar(carBuffer, car, ownerBytes(car));
+            out.write(carBuffer.array(), 0, carBuffer.position());
+        }
+    }
+
+    /**
+     * Allocates a buffer large enough for any encoded car.
+     *
+     * @return the buffer
+     */
+    private static ByteBuffer newCarBuffer() {
+        return ByteBuffer.allocate(1 + 4 + 1 + 8 + 4 + 2 + 0xFFFF);
+    }
+
+    /**
+     * Reads slots written by {@link #writeSlots(DataOutputStream, List)}.
+     *
+     * @param in     the stream to read from
+     * @param source names the image's origin in error messages
+     * @return the slots, with their cars parked
+     * @throws IOException if the slots cannot be read or are corrupt
+     */
+    private static List<ParkingSlot> readSlots(DataInputStream in, String source)
+        throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+        List<ParkingSlot> slots = new ArrayList<>(Math.min(count, 1 << 16));
+        byte[] carHeader = new byte[4 + 1 + 8 + 4 + 2];
+        for (int i = 0; i < count; i++) {
+            ParkingSlot slot = new ParkingSlot(SlotAddress.fromCode(in.readInt()),
+                slotType(in.readByte(), source));
+            if (in.readBoolean()) {
+                in.readFully(carHeader);
+                int ownerLength = ByteBuffer.wrap(carHeader).getShort(carHeader.length - 2) & 0xFFFF;
+                ByteBuffer carData = ByteBuffer.allocate(carHeader.length + ownerLength);
+                carData.put(carHeader);
+                in.readFully(carData.array(), carHeader.length, ownerLength);
+                carData.rewind();
+                slot.parkCar(getCar(carData));
+            }
+            slots.add(slot);
+        }
+        return slots;
+    }
+
+    /**
+     * Decodes a slot type ordinal read from a snapshot.
+     *
+     * @param ordinal the ordinal
+     * @param source  names the image's origin in error messages
+     * @return the slot type
+     * @throws IOException if no slot type has that ordinal
+     */
+    private static ParkingSlot.SlotType slotType(int ordinal, String source) throws IOException {
+        ParkingSlot.SlotType[] types = ParkingSlot.SlotType.values();
+        if (ordinal < 0 || ordinal >= types.length) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+        return types[ordinal];
+    }
+
+    /**
+     * Rebuilds a car park from a snapshot file.
+     *
+     * @param snapshot the snapshot file
+     * @return the restored car park
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    private static CarPark readSnapshot(Path snapshot) throws IOException {
+        try (InputStream file = Files.newInputStream(snapshot)) {
+            return readSnapshot(new BufferedInputStream(file, 1 << 16), snapshot.toString());
+        }
+    }
+
+    /**
+     * Rebuilds a car park from a snapshot image written by
+     * {@link #encodeSnapshot(List)} or {@link #encodeSnapshot(CarPark)},
+     * reading exactly the image's bytes. A car park saved with its layout is
+     * restored with the layout's bays still to be created.
+     *
+     * @param input  the stream holding the image
+     * @param source names the image's origin in error messages
+     * @return the restored car park
+     * @throws IOException if the image cannot be read or is corrupt
+     */
+    static CarPark readSnapshot(InputStream input, String source) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(input, new CRC32C());
+        DataInputStream in = new DataInputStream(checked);
+        int magic = in.readInt();
+        if (magic == LAYOUT_SNAPSHOT_MAGIC) {
+            return readLayoutSnapshot(checked, in, source);
+        }
+        if (magic != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a car park snapshot: " + source);
+        }
+        List<ParkingSlot> slots = readSlots(in, source);
+        long expected = checked.getChecksum().getValue();
+        if (in.readInt() != (int) expected) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+        CarPark carPark = new CarPark(0, 0);
+        for (ParkingSlot slot : slots) {
+            carPark.addSlot(slot);
+        }
+        return carPark;
+    }
+
+    /**
+     * Rebuilds a car park from the rest of a snapshot image written by
+     * {@link #encodeSnapshot(CarPark)} for a car park built from a layout,
+     * after its magic number.
+     *
+     * @param checked the checksummed stream under {@code in}
+     * @param in      the stream to read from
+     * @param source  names the image's origin in error messages
+     * @return the restored car park
+     * @throws IOException if the image cannot be read or is corrupt
+     */
+    private static CarPark readLayoutSnapshot(CheckedInputStream checked, DataInputStream in,
+                                              String source) throws IOException {
+        int rangeCount = in.readInt();
+        if (rangeCount < 0) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+        int[] rangeData = new int[Math.min(rangeCount, 1 << 16) * 3];
+        for (int i = 0; i < rangeCount; i++) {
+            if (i * 3 == rangeData.length) {
+                rangeData = Arrays.copyOf(rangeData, rangeData.length * 2);
+            }
+            rangeData[i * 3] = in.readInt();
+            rangeData[i * 3 + 1] = in.readInt();
+            rangeData[i * 3 + 2] = slotType(in.readByte(), source).ordinal();
+        }
+        int deletedCount = in.readInt();
+        if (deletedCount < 0) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+        Set<Integer> deleted = new HashSet<>();
+        for (int i = 0; i < deletedCount; i++) {
+            deleted.add(in.readInt());
+        }
+        List<ParkingSlot> slots = readSlots(in, source);
+        long expected = checked.getChecksum().getValue();
+        if (in.readInt() != (int) expected) {
+            throw new IOException("Corrupt car park snapshot: " + source);
+        }
+
+        List<SiteLayout.BayRange> ranges = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            ranges.add(new SiteLayout.BayRange(rangeData[i * 3], rangeData[i * 3 + 1],
+                ParkingSlot.SlotType.values()[rangeData[i * 3 + 2]]));
+        }
+        SiteLayout layout = new SiteLayout(ranges);
+        CarPark carPark = new CarPark(layout);
+        if (deleted.size() <= MAX_SINGLE_DELETES) {
+            for (int code : deleted) {
+                carPark.deleteSlot(SlotAddress.fromCode(code));
+            }
+        } else {
+            carPark.deleteSlots(slot -> deleted.contains(SlotAddress.toCode(slot.getId())));
+        }
+        for (ParkingSlot slot : slots) {
+            int code = SlotAddress.toCode(slot.getId());
+            if (layout.contains(code) && !deleted.contains(code)) {
+                carPark.findSlotById(slot.getId()).parkCar(slot.getParkedCar());
+            } else {
+                carPark.addSlot(slot);
+            }
+        }
+        return carPark;
+    }
+
+    /**
+     * Writes a car's registration, staff flag, park time and owner name.
+     *
+     * @param out   the buffer to write to
+     * @param car   the car
+     * @param owner the owner name as UTF-8, at most 65,535 bytes
+     */
+    private static void putCar(ByteBuffer out, Car car, byte[] owner) {
+        out.putInt(car.getRegistrationCode());
+        out.put((byte) (car.isStaffOwner() ? 1 : 0));
+        out.putLong(car.hasParkTime() ? car.getParkEpochSecond() : NO_PARK_TIME);
+        // Park times are whole seconds; the nanosecond field is kept for format compatibility.
+        out.putInt(0);
+        out.putShort((short) owner.length);
+        out.put(owner);
+    }
+
+    /**
+     * Reads a car written by {@link #putCar(ByteBuffer, Car, byte[])}.
+     *
+     * @param in the buffer to read from
+     * @return the decoded car
+     */
+    private static Car getCar(ByteBuffer in) {
+        int reg = in.getInt();
+        boolean staff = in.get() != 0;
+        long seconds = in.getLong();
+        in.getInt();
+        byte[] owner = new byte[in.getShort() & 0xFFFF];
+        in.get(owner);
+        return new Car(reg, new String(owner, StandardCharsets.UTF_8), staff, seconds);
+    }
+
+    /**
+     * Returns a car's owner name as UTF-8, truncated to fit a 16-bit length.
+     *
+     * @param car the car
+     * @return the encoded owner name
+     */
+    static byte[] ownerBytes(Car car) {
+        byte[] owner = car.getOwner().getBytes(StandardCharsets.UTF_8);
+        return owner.length <= 0xFFFF ? owner : Arrays.copyOf(owner, 0xFFFF);
+    }
+
+    /**
+     * Finds the highest generation number among files with a prefix and suffix.
+     *
+     * @param directory the data directory
+     * @param prefix    the file name prefix
+     * @param suffix    the file name suffix
+     * @return the highest generation, or 0 if there are no such files
+     * @throws IOException if the directory cannot be listed
+     */
+    private static long latestGeneration(Path directory, String prefix, String suffix)
+        throws IOException {
+        long latest = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        latest = Math.max(latest, Long.parseLong(
+                            name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the file name of a snapshot generation.
+     *
+     * @param generation the generation
+     * @return the file name
+     */
+    private static String snapshotName(long generation) {
+        return "snapshot-" + generation + ".bin";
+    }
+
+    /**
+     * Returns the file name of a journal generation.
+     *
+     * @param generation the generation
+     * @return the file name
+     */
+    private static String journalName(long generation) {
+        return "journal-" + generation + ".log";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,51 @@
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Receives notifications of changes to a {@link CarPark}.
+ * Register with {@link CarPark#addListener(CarParkListener)}.
+ * <p>
+ * Notifications are delivered on the thread that made the change, after the
+ * change has been applied and while the car park still orders it against
+ * other changes to the same slot, so a listener sees each slot's changes in
+ * the order they happened. Listeners should return quickly and must not add
+ * or delete slots from within a notification.
+ */
+public interface CarParkListener {
+    /**
+     * Called after a slot has been added.
+     *
+     * @param slot the new slot
+     */
+    default void slotAdded(ParkingSlot slot) {
+    }
+
+    /**
+     * Called after a slot has been deleted.
+     *
+     * @param slot the deleted slot
+     */
+    default void slotDeleted(ParkingSlot slot) {
+    }
+
+    /**
+     * Called after a car has been parked.
+     *
+     * @param slot the slot the car was parked in
+     * @param car  the parked car
+     */
+    default void carParked(ParkingSlot slot, Car car) {
+    }
+
+    /**
+     * Called after a car has been removed.
+     *
+     * @param slot the slot the car was removed from
+     * @param car  the removed car
+     */
+    default void carRemoved(ParkingSlot slot, Car car) {
+    }
+}
\ No newline at end of file
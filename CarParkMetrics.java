@@ -0,0 +1,502 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Live metrics of a CarPark: slot counts per type, kept up to date on every
+ * change, and latency histograms of the main operations.
+ * <p>
+ * Counting costs one atomic increment per change, and timing one
+ * {@link System#nanoTime()} pair plus two atomic increments per operation,
+ * so metrics can stay on in production. Read them with {@link #snapshot()}.
+ */
+public class CarParkMetrics {
+    /**
+     * Operations whose latency is recorded.
+     */
+    public enum Operation {
+        /** Parking a car, in a given slot or anywhere. */
+        PARK_CAR,
+        /** Finding a parked car by registration. */
+        FIND_CAR,
+        /** Removing a car from its slot. */
+        REMOVE_CAR,
+        /** Adding a slot. */
+        ADD_SLOT
+    }
+
+    /**
+     * Number of slots of each type.
+     */
+    private final Map<ParkingSlot.SlotType, AtomicInteger> totals =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Number of occupied slots of each type.
+     */
+    private final Map<ParkingSlot.SlotType, AtomicInteger> occupied =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Latency histogram of each operation.
+     */
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    /**
+     * Time the metrics were created or last reset, from {@link System#nanoTime()}.
+     */
+    private volatile long sinceNanos = System.nanoTime();
+
+    /**
+     * Constructs empty metrics.
+     */
+    public CarParkMetrics() {
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            totals.put(type, new AtomicInteger());
+            occupied.put(type, new AtomicInteger());
+        }
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records that a slot was added.
+     *
+     * @param slot the new slot
+     */
+    void slotAdded(ParkingSlot slot) {
+        totals.get(slot.getType()).incrementAndGet();
+        if (slot.isOccupied()) {
+            occupied.get(slot.getType()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that free slots were added.
+     *
+     * @param type  the type of the new slots
+     * @param count the number of slots
+     */
+    void slotsAdded(ParkingSlot.SlotType type, int count) {
+        totals.get(type).addAndGet(count);
+    }
+
+    /**
+     * Records that an unoccupied slot was deleted.
+     *
+     * @param slot the deleted slot
+     */
+    void slotDeleted(ParkingSlot slot) {
+        totals.get(slot.getType()).decrementAndGet();
+    }
+
+    /**
+     * Records that a slot became occupied.
+     *
+     * @param slot the slot
+     */
+    void carParked(ParkingSlot slot) {
+        occupied.get(slot.getType()).incrementAndGet();
+    }
+
+    /**
+     * Records that a slot became free.
+     *
+     * @param slot the slot
+     */
+    void carRemoved(ParkingSlot slot) {
+        occupied.get(slot.getType()).decrementAndGet();
+    }
+
+    /**
+     * Records the latency of an operation that started at {@code startNanos}.
+     *
+     * @param operation  the operation
+     * @param startNanos the start time, from {@link System#nanoTime()}
+     */
+    void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Clears the latency histograms and restarts the throughput clock.
+     * Slot counts are not affected.
+     */
+    public void resetLatencies() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        sinceNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the current number of slots of a type, without taking a snapshot.
+     *
+     * @param type the slot type
+     * @return the number of slots
+     */
+    public int getTotal(ParkingSlot.SlotType type) {
+        return totals.get(type).get();
+    }
+
+    /**
+     * Returns the current number of occupied slots of a type, without taking a snapshot.
+     *
+     * @param type the slot type
+     * @return the number of occupied slots
+     */
+    public int getOccupied(ParkingSlot.SlotType type) {
+        return occupied.get(type).get();
+    }
+
+    /**
+     * Returns a point-in-time copy of all metrics.
+     *
+     * @return the metrics snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Immutable copy of the metrics at one point in time.
+     */
+    public static class Snapshot {
+        /**
+         * Percentiles reported for each operation.
+         */
+        private static final double[] PERCENTILES = {0.50, 0.99};
+
+        /**
+         * Slot totals, indexed by slot type ordinal.
+         */
+        private final int[] totals = new int[ParkingSlot.SlotType.values().length];
+
+        /**
+         * Occupied slot counts, indexed by slot type ordinal.
+         */
+        private final int[] occupied = new int[ParkingSlot.SlotType.values().length];
+
+        /**
+         * Operation counts, indexed by operation ordinal.
+         */
+        private final long[] counts = new long[Operation.values().length];
+
+        /**
+         * Mean latency in nanoseconds, indexed by operation ordinal.
+         */
+        private final double[] means = new double[Operation.values().length];
+
+        /**
+         * Latency percentiles in nanoseconds, indexed by operation ordinal then percentile.
+         */
+        private final long[][] percentiles = new long[Operation.values().length][];
+
+        /**
+         * Maximum latency in nanoseconds, indexed by operation ordinal.
+         */
+        private final long[] maxima = new long[Operation.values().length];
+
+        /**
+         * Seconds covered by the operation counts.
+         */
+        private final double elapsedSeconds;
+
+        /**
+         * Copies the current values of a metrics instance.
+         *
+         * @param metrics the metrics to copy
+         */
+        private Snapshot(CarParkMetrics metrics) {
+            for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                totals[type.ordinal()] = metrics.totals.get(type).get();
+                occupied[type.ordinal()] = metrics.occupied.get(type).get();
+            }
+            for (Operation operation : Operation.values()) {
+                int i = operation.ordinal();
+                LatencyHistogram histogram = metrics.latencies.get(operation);
+                long[] buckets = histogram.copyBuckets();
+                counts[i] = LatencyHistogram.count(buckets);
+                means[i] = counts[i] == 0 ? 0 : (double) histogram.totalNanos() / counts[i];
+                percentiles[i] = new long[PERCENTILES.length];
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    percentiles[i][p] = LatencyHistogram.percentile(buckets, PERCENTILES[p]);
+                }
+                maxima[i] = histogram.maxNanos();
+            }
+            elapsedSeconds = Math.max(1e-9, (System.nanoTime() - metrics.sinceNanos) / 1e9);
+        }
+
+        /**
+         * Returns the number of slots of a type.
+         *
+         * @param type the slot type
+         * @return the total slot count
+         */
+        public int getTotal(ParkingSlot.SlotType type) {
+            return totals[type.ordinal()];
+        }
+
+        /**
+         * Returns the number of occupied slots of a type.
+         *
+         * @param type the slot type
+         * @return the occupied slot count
+         */
+        public int getOccupied(ParkingSlot.SlotType type) {
+            return occupied[type.ordinal()];
+        }
+
+        /**
+         * Returns the number of free slots of a type.
+         *
+         * @param type the slot type
+         * @return the free slot count
+         */
+        public int getFree(ParkingSlot.SlotType type) {
+            return totals[type.ordinal()] - occupied[type.ordinal()];
+        }
+
+        /**
+         * Returns how many times an operation ran.
+         *
+         * @param operation the operation
+         * @return the operation count
+         */
+        public long getCount(Operation operation) {
+            return counts[operation.ordinal()];
+        }
+
+        /**
+         * Returns the throughput of an operation since the metrics were created or reset.
+         *
+         * @param operation the operation
+         * @return operations per second
+         */
+        public double getThroughput(Operation operation) {
+            return counts[operation.ordinal()] / elapsedSeconds;
+        }
+
+        /**
+         * Returns the median latency of an operation.
+         *
+         * @param operation the operation
+         * @return the approximate median latency in nanoseconds
+         */
+        public long getMedianNanos(Operation operation) {
+            return percentiles[operation.ordinal()][0];
+        }
+
+        /**
+         * Returns the 99th percentile latency of an operation.
+         *
+         * @param operation the operation
+         * @return the approximate 99th percentile latency in nanoseconds
+         */
+        public long getP99Nanos(Operation operation) {
+            return percentiles[operation.ordinal()][1];
+        }
+
+        /**
+         * Returns the maximum latency of an operation.
+         *
+         * @param operation the operation
+         * @return the maximum latency in nanoseconds
+         */
+        public long getMaxNanos(Operation operation) {
+            return maxima[operation.ordinal()];
+        }
+
+        /**
+         * Formats the snapshot as two tables: occupancy per slot type, and
+         * count, throughput and latency per operation.
+         *
+         * @return the formatted metrics
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-8s %-7s %-9s %-6s%n", "Type", "Total", "Occupied", "Free"));
+            for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                sb.append(String.format("%-8s %-7d %-9d %-6d%n", type.name().toLowerCase(),
+                    getTotal(type), getOccupied(type), getFree(type)));
+            }
+            sb.append(String.format("%-11s %-9s %-10s %-10s %-10s %-10s %-10s%n",
+                "Operation", "Count", "Ops/s", "Mean(us)", "p50(us)", "p99(us)", "Max(us)"));
+            for (Operation operation : Operation.values()) {
+                int i = operation.ordinal();
+                sb.append(String.format("%-11s %-9d %-10.1f %-10.2f %-10.2f %-10.2f %-10.2f%n",
+                    operation.name().toLowerCase(), counts[i], getThroughput(operation),
+                    means[i] / 1e3, percentiles[i][0] / 1e3, percentiles[i][1] / 1e3,
+                    maxima[i] / 1e3));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with log-linear buckets: each power of two
+     * is split into 8 linear sub-buckets, giving about 12% relative precision.
+     */
+    static class LatencyHistogram {
+        /**
+         * Linear sub-buckets per power of two.
+         */
+        private static final int SUB_BUCKETS = 8;
+
+        /**
+         * Number of buckets needed to cover every non-negative long.
+         */
+        private static final int BUCKETS = (64 - 2) * SUB_BUCKETS;
+
+        /**
+         * Sample count per bucket.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Sum of all recorded latencies.
+         */
+        private final LongAdder total = new LongAdder();
+
+        /**
+         * Largest recorded latency.
+         */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records one latency sample.
+         *
+         * @param nanos the latency in nanoseconds
+         */
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketOf(nanos));
+            total.add(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Clears all samples.
+         */
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            total.reset();
+            max.set(0);
+        }
+
+        /**
+         * Returns a copy of the bucket counts.
+         *
+         * @return the bucket counts
+         */
+        long[] copyBuckets() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return copy;
+        }
+
+        /**
+         * Returns the sum of all recorded latencies.
+         *
+         * @return the total in nanoseconds
+         */
+        long totalNanos() {
+            return total.sum();
+        }
+
+        /**
+         * Returns the largest recorded latency.
+         *
+         * @return the maximum in nanoseconds
+         */
+        long maxNanos() {
+            return max.get();
+        }
+
+        /**
+         * Sums the bucket counts.
+         *
+         * @param buckets the bucket counts
+         * @return the number of samples
+         */
+        static long count(long[] buckets) {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * Estimates a percentile from bucket counts.
+         *
+         * @param buckets  the bucket counts
+         * @param fraction the percentile as a fraction, e.g. 0.99
+         * @return the lower bound of the bucket holding the percentile, in nanoseconds
+         */
+        static long percentile(long[] buckets, double fraction) {
+            long count = count(buckets);
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return lowerBound(i);
+                }
+            }
+            return lowerBound(buckets.length - 1);
+        }
+
+        /**
+         * Returns the bucket a latency falls into.
+         *
+         * @param nanos the latency, non-negative
+         * @return the bucket index
+         */
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Returns the smallest latency that falls into a bucket.
+         *
+         * @param bucket the bucket index
+         * @return the lower bound in nanoseconds
+         */
+        static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 2;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Embedded TCP server exposing a CarPark to gate controllers, pay stations and
+ * signage over a line protocol. Each request is one {@link CommandProcessor}
+ * command line, e.g. {@code park * A1234 visitor Jane Doe} or
+ * {@code occupancy}, and each response starts with {@code OK} or {@code ERR}.
+ * A {@code list} response is followed by one line per slot, as counted in its
+ * first line. {@code quit} closes the connection; blank lines and comments get
+ * no response.
+ * <p>
+ * Every connection is served by its own virtual thread, so thousands of
+ * mostly idle gate connections cost little more than their socket buffers.
+ * Responses are flushed only once the client has no further requests
+ * waiting, so pipelined requests share one write.
+ */
+public class CarParkServer implements Closeable {
+    /**
+     * Size of the per-connection read and write buffers.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Runs the protocol's commands; stateless, so shared by all connections.
+     */
+    private final CommandProcessor processor;
+
+    /**
+     * The listening socket.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Sockets of the connections currently open, closed by {@link #close()}.
+     */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Platform thread accepting connections.
+     */
+    private final Thread acceptor;
+
+    /**
+     * Starts a server for a car park.
+     *
+     * @param carPark the car park to serve
+     * @param port    the TCP port, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public CarParkServer(CarPark carPark, int port) throws IOException {
+        this(new CommandProcessor(carPark), port);
+    }
+
+    /**
+     * Starts a server running commands through a given processor, e.g. a
+     * read-only one.
+     *
+     * @param processor runs each request's command
+     * @param port      the TCP port, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public CarParkServer(CommandProcessor processor, int port) throws IOException {
+        this.processor = processor;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), 1024);
+        this.acceptor = new Thread(this::acceptLoop, "carpark-server");
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return the connection count
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Waits until the server has been closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops accepting connections and closes every open connection.
+     *
+     * @throws IOException if the listening socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Accepts connections until the listening socket is closed, starting a
+     * virtual thread for each.
+     */
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread.ofVirtual().name("carpark-connection").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves one connection until the client disconnects or sends {@code quit}.
+     *
+     * @param socket the connection
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                 socket.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if ("quit".equals(line.trim())) {
+                    out.write("OK bye");
+                    out.newLine();
+                    break;
+                }
+                String response = processor.execute(line);
+                if (!response.isEmpty()) {
+                    out.write(response);
+                    out.newLine();
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // Client went away or the server was closed.
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            connections.remove(socket);
+        }
+    }
+}
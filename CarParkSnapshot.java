@@ -0,0 +1,633 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Immutable, point-in-time view of every slot and parked car of a CarPark,
+ * taken with {@link CarPark#snapshot()}. Unlike the live ParkingSlot objects,
+ * nothing in a snapshot changes after it is taken, so a long report can
+ * read it at leisure while gates keep parking and removing cars.
+ * <p>
+ * Slots are held in persistent search trees keyed by slot ID and by the
+ * registration of the parked car. Each new snapshot is derived from the
+ * previous one by applying the changes logged since, copying only the tree
+ * nodes on the paths to the changed slots and sharing the rest, so taking a
+ * snapshot costs time proportional to the changes since the last one rather
+ * than to the size of the car park.
+ */
+public final class CarParkSnapshot implements Iterable<CarParkSnapshot.SlotState> {
+    /**
+     * The snapshot of a car park with no slots.
+     */
+    static final CarParkSnapshot EMPTY = new CarParkSnapshot(0, null, null, 0,
+        new int[ParkingSlot.SlotType.values().length], new int[ParkingSlot.SlotType.values().length]);
+
+    /**
+     * Sequence number of this snapshot among those of its car park.
+     */
+    private final long version;
+
+    /**
+     * Root of the tree of slots by slot ID.
+     */
+    private final Node slots;
+
+    /**
+     * Root of the tree of occupied slots by registration number.
+     */
+    private final Node cars;
+
+    /**
+     * Number of slots.
+     */
+    private final int size;
+
+    /**
+     * Number of slots of each type, indexed by slot type ordinal.
+     */
+    private final int[] totals;
+
+    /**
+     * Number of occupied slots of each type, indexed by slot type ordinal.
+     */
+    private final int[] occupied;
+
+    /**
+     * Constructs a snapshot from its trees and counts.
+     *
+     * @param version  sequence number of the snapshot
+     * @param slots    tree of slots by ID
+     * @param cars     tree of occupied slots by registration
+     * @param size     number of slots
+     * @param totals   slots of each type; not copied
+     * @param occupied occupied slots of each type; not copied
+     */
+    private CarParkSnapshot(long version, Node slots, Node cars, int size,
+                            int[] totals, int[] occupied) {
+        this.version = version;
+        this.slots = slots;
+        this.cars = cars;
+        this.size = size;
+        this.totals = totals;
+        this.occupied = occupied;
+    }
+
+    /**
+     * Returns the sequence number of this snapshot. Each snapshot of a car
+     * park that reflects new changes has a higher version than the last;
+     * when nothing has changed, {@link CarPark#snapshot()} returns the same
+     * snapshot again.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the slot count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots of a type.
+     *
+     * @param type the slot type
+     * @return the slot count
+     */
+    public int getTotal(ParkingSlot.SlotType type) {
+        return totals[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of occupied slots of a type.
+     *
+     * @param type the slot type
+     * @return the occupied count
+     */
+    public int getOccupied(ParkingSlot.SlotType type) {
+        return occupied[type.ordinal()];
+    }
+
+    /**
+     * Finds a slot by its ID.
+     *
+     * @param id the slot ID
+     * @return the slot's state, or null if there was no such slot
+     */
+    public SlotState findSlotById(String id) {
+        Node node = find(slots, id);
+        return node == null ? null : node.state;
+    }
+
+    /**
+     * Finds the slot a car was parked in.
+     *
+     * @param registrationNumber the car's registration number
+     * @return the slot's state, or null if the car was not parked
+     */
+    public SlotState findCar(String registrationNumber) {
+        Node node = find(cars, registrationNumber);
+        return node == null ? null : node.state;
+    }
+
+    /**
+     * Iterates over the slots in slot ID order.
+     *
+     * @return an iterator over the slots
+     */
+    @Override
+    public Iterator<SlotState> iterator() {
+        return new InOrder(slots, null, null);
+    }
+
+    /**
+     * Streams the slots in slot ID order.
+     *
+     * @return a stream of the slots
+     */
+    public Stream<SlotState> stream() {
+        return StreamSupport.stream(Spliterators.spliterator(iterator(), size,
+            Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT
+                | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    /**
+     * Iterates over the slots with IDs in a range, in slot ID order.
+     *
+     * @param fromId the lowest ID to include, or null to start at the first slot
+     * @param toId   the ID to stop before, or null to run to the last slot
+     * @return the slots in the range
+     */
+    Iterable<SlotState> range(String fromId, String toId) {
+        return () -> new InOrder(slots, fromId, toId);
+    }
+
+    /**
+     * Chooses slot IDs that divide the slots into roughly equal ID ranges,
+     * for {@link #range(String, String)}, from the keys in the top levels of
+     * the tree. The tree is a treap, so the ranges are balanced only in
+     * expectation; asking for several times as many as will be worked on at
+     * once evens out the work.
+     *
+     * @param parts the number of ranges wanted
+     * @return fewer than {@code parts} ascending IDs, each the start of a range
+     *         after the first
+     */
+    List<String> splitPoints(int parts) {
+        int depth = 0;
+        while ((1 << depth) < parts && depth < 30) {
+            depth++;
+        }
+        List<String> points = new ArrayList<>((1 << depth) - 1);
+        collectKeys(slots, depth, points);
+        return points;
+    }
+
+    /**
+     * Derives the snapshot reached by applying changes to this one, which is
+     * left unchanged.
+     *
+     * @param changes    the new states of the changed slots, oldest first;
+     *                   the changes applied are removed from the queue
+     * @param count      the number of changes to apply
+     * @param newVersion the version of the new snapshot
+     * @return the new snapshot
+     */
+    CarParkSnapshot apply(Queue<SlotState> changes, int count, long newVersion) {
+        Node newSlots = slots;
+        Node newCars = cars;
+        int newSize = size;
+        int[] newTotals = totals.clone();
+        int[] newOccupied = occupied.clone();
+        for (int i = 0; i < count; i++) {
+            SlotState state = changes.remove();
+            Node old = find(newSlots, state.id);
+            if (old != null) {
+                newTotals[old.state.type.ordinal()]--;
+                newSize--;
+                if (old.state.isOccupied()) {
+                    newOccupied[old.state.type.ordinal()]--;
+                    newCars = remove(newCars, old.state.registrationNumber);
+                }
+            }
+            if (state.deleted) {
+                newSlots = remove(newSlots, state.id);
+                continue;
+            }
+            newSlots = put(newSlots, state.id, state);
+            newTotals[state.type.ordinal()]++;
+            newSize++;
+            if (state.isOccupied()) {
+                newOccupied[state.type.ordinal()]++;
+                newCars = put(newCars, state.registrationNumber, state);
+            }
+        }
+        return new CarParkSnapshot(newVersion, newSlots, newCars, newSize,
+            newTotals, newOccupied);
+    }
+
+    /**
+     * Finds the node with a key.
+     *
+     * @param node the root of the tree
+     * @param key  the key
+     * @return the node, or null if absent
+     */
+    private static Node find(Node node, String key) {
+        while (node != null) {
+            int c = key.compareTo(node.key);
+            if (c == 0) {
+                return node;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a tree with a key mapped to a state, copying only the nodes on
+     * the path to the key. The tree is a treap whose priorities derive from
+     * the keys, so its shape does not depend on insertion order.
+     *
+     * @param node  the root of the tree
+     * @param key   the key
+     * @param state the state to map it to
+     * @return the root of the new tree
+     */
+    private static Node put(Node node, String key, SlotState state) {
+        if (node == null) {
+            return new Node(key, state, priority(key), null, null);
+        }
+        int c = key.compareTo(node.key);
+        if (c == 0) {
+            return new Node(key, state, node.priority, node.left, node.right);
+        }
+        if (c < 0) {
+            Node left = put(node.left, key, state);
+            if (left.priority > node.priority) {
+                return new Node(left.key, left.state, left.priority, left.left,
+                    new Node(node.key, node.state, node.priority, left.right, node.right));
+            }
+            return new Node(node.key, node.state, node.priority, left, node.right);
+        }
+        Node right = put(node.right, key, state);
+        if (right.priority > node.priority) {
+            return new Node(right.key, right.state, right.priority,
+                new Node(node.key, node.state, node.priority, node.left, right.left), right.right);
+        }
+        return new Node(node.key, node.state, node.priority, node.left, right);
+    }
+
+    /**
+     * Returns a tree without a key, copying only the nodes on the path to it.
+     *
+     * @param node the root of the tree
+     * @param key  the key
+     * @return the root of the new tree
+     */
+    private static Node remove(Node node, String key) {
+        if (node == null) {
+            return null;
+        }
+        int c = key.compareTo(node.key);
+        if (c == 0) {
+            return merge(node.left, node.right);
+        }
+        if (c < 0) {
+            return new Node(node.key, node.state, node.priority, remove(node.left, key), node.right);
+        }
+        return new Node(node.key, node.state, node.priority, node.left, remove(node.right, key));
+    }
+
+    /**
+     * Joins two trees whose keys are all ordered before one another.
+     *
+     * @param left  the tree of lower keys
+     * @param right the tree of higher keys
+     * @return the root of the joined tree
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return new Node(left.key, left.state, left.priority, left.left, merge(left.right, right));
+        }
+        return new Node(right.key, right.state, right.priority, merge(left, right.left), right.right);
+    }
+
+    /**
+     * Adds the keys in the top levels of a tree to a list, in key order.
+     *
+     * @param node  the root of the tree
+     * @param depth the number of levels to visit
+     * @param keys  receives the keys
+     */
+    private static void collectKeys(Node node, int depth, List<String> keys) {
+        if (node == null || depth == 0) {
+            return;
+        }
+        collectKeys(node.left, depth - 1, keys);
+        keys.add(node.key);
+        collectKeys(node.right, depth - 1, keys);
+    }
+
+    /**
+     * Derives a well-mixed treap priority from a key.
+     *
+     * @param key the key
+     * @return the priority
+     */
+    private static int priority(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Immutable state of one slot, and of the car parked in it, when a
+     * snapshot was taken.
+     */
+    public static final class SlotState {
+        /**
+         * The slot ID.
+         */
+        private final String id;
+
+        /**
+         * The slot type.
+         */
+        private final ParkingSlot.SlotType type;
+
+        /**
+         * Registration of the parked car, or null if the slot was free.
+         */
+        private final String registrationNumber;
+
+        /**
+         * Owner of the parked car, or null if the slot was free.
+         */
+        private final String owner;
+
+        /**
+         * Whether the parked car belonged to staff.
+         */
+        private final boolean staffOwner;
+
+        /**
+         * When the car was parked, in local epoch seconds; 0 if the slot was free.
+         */
+        private final long parkEpochSecond;
+
+        /**
+         * Whether this records the deletion of the slot rather than a state.
+         */
+        private final boolean deleted;
+
+        /**
+         * Captures the state of a slot.
+         *
+         * @param slot    the slot
+         * @param car     the car parked in it, or null
+         * @param deleted true if the slot has been deleted
+         */
+        private SlotState(ParkingSlot slot, Car car, boolean deleted) {
+            this.id = slot.getId();
+            this.type = slot.getType();
+            this.registrationNumber = car == null ? null : car.getRegistrationNumber();
+            this.owner = car == null ? null : car.getOwner();
+            this.staffOwner = car != null && car.isStaffOwner();
+            this.parkEpochSecond = car == null || !car.hasParkTime() ? 0 : car.getParkEpochSecond();
+            this.deleted = deleted;
+        }
+
+        /**
+         * Captures the state of a slot holding a given car.
+         *
+         * @param slot the slot
+         * @param car  the car parked in it, or null if it is free
+         * @return the state
+         */
+        static SlotState of(ParkingSlot slot, Car car) {
+            return new SlotState(slot, car, false);
+        }
+
+        /**
+         * Records the deletion of a slot.
+         *
+         * @param slot the deleted slot
+         * @return the change
+         */
+        static SlotState deleted(ParkingSlot slot) {
+            return new SlotState(slot, null, true);
+        }
+
+        /**
+         * Returns the slot ID.
+         *
+         * @return the slot ID
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the slot type.
+         *
+         * @return the slot type
+         */
+        public ParkingSlot.SlotType getType() {
+            return type;
+        }
+
+        /**
+         * Returns whether a car was parked in the slot.
+         *
+         * @return true if occupied
+         */
+        public boolean isOccupied() {
+            return registrationNumber != null;
+        }
+
+        /**
+         * Returns the registration of the parked car.
+         *
+         * @return the registration number, or null if the slot was free
+         */
+        public String getRegistrationNumber() {
+            return registrationNumber;
+        }
+
+        /**
+         * Returns the owner of the parked car.
+         *
+         * @return the owner, or null if the slot was free
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Returns whether the parked car belonged to staff.
+         *
+         * @return true for a staff car; false for a visitor car or a free slot
+         */
+        public boolean isStaffOwner() {
+            return staffOwner;
+        }
+
+        /**
+         * Returns when the parked car was parked.
+         *
+         * @return the park time, or null if the slot was free
+         */
+        public LocalDateTime getParkTime() {
+            return isOccupied() ? LocalDateTime.ofEpochSecond(parkEpochSecond, 0, ZoneOffset.UTC) : null;
+        }
+
+        /**
+         * Returns the park time as local epoch seconds, for fee arithmetic.
+         *
+         * @return the park time in local epoch seconds, or 0 if the slot was free
+         */
+        public long getParkEpochSecond() {
+            return parkEpochSecond;
+        }
+    }
+
+    /**
+     * Immutable treap node.
+     */
+    private static final class Node {
+        /**
+         * The key.
+         */
+        final String key;
+
+        /**
+         * The slot state mapped to the key.
+         */
+        final SlotState state;
+
+        /**
+         * Heap priority; a parent's is never lower than its children's.
+         */
+        final int priority;
+
+        /**
+         * Subtree of lower keys.
+         */
+        final Node left;
+
+        /**
+         * Subtree of higher keys.
+         */
+        final Node right;
+
+        /**
+         * Constructs a node.
+         *
+         * @param key      the key
+         * @param state    the slot state
+         * @param priority the heap priority
+         * @param left     the subtree of lower keys
+         * @param right    the subtree of higher keys
+         */
+        Node(String key, SlotState state, int priority, Node left, Node right) {
+            this.key = key;
+            this.state = state;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * In-order iterator over the keys of a tree in a range, using an explicit
+     * stack of the nodes whose left subtrees are being visited.
+     */
+    private static final class InOrder implements Iterator<SlotState> {
+        /**
+         * Nodes still to visit, nearest first.
+         */
+        private final Deque<Node> stack = new ArrayDeque<>();
+
+        /**
+         * The lowest key to visit, or null for no lower bound.
+         */
+        private final String from;
+
+        /**
+         * The key to stop before, or null for no upper bound.
+         */
+        private final String to;
+
+        /**
+         * Constructs an iterator over the keys of a tree in a range.
+         *
+         * @param root the root of the tree
+         * @param from the lowest key to visit, or null
+         * @param to   the key to stop before, or null
+         */
+        InOrder(Node root, String from, String to) {
+            this.from = from;
+            this.to = to;
+            descend(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty() && (to == null || stack.peek().key.compareTo(to) < 0);
+        }
+
+        @Override
+        public SlotState next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack.pop();
+            descend(node.right);
+            return node.state;
+        }
+
+        /**
+         * Pushes a node and its chain of left children, skipping those below
+         * the lower bound.
+         *
+         * @param node the node to start from
+         */
+        private void descend(Node node) {
+            while (node != null) {
+                if (from != null && node.key.compareTo(from) < 0) {
+                    node = node.right;
+                } else {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+        }
+    }
+}
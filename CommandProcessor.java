@@ -0,0 +1,399 @@
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Executes text commands against a CarPark, one command per line.
+ * Used by the non-interactive batch mode of {@link Application} and by
+ * {@link CarParkServer}.
+ * <p>
+ * Supported commands (words are separated by whitespace):
+ * <pre>
+ * add-slot &lt;id&gt; &lt;staff|visitor&gt;
+ * delete-slot &lt;id&gt;
+ * delete-unoccupied
+ * delete-range &lt;fromId&gt;-&lt;toId&gt;
+ * park &lt;id|*&gt; &lt;registration&gt; &lt;staff|visitor&gt; &lt;owner name&gt;
+ * remove &lt;registration&gt;
+ * find &lt;registration&gt;
+ * list [staff|visitor] [occupied|free] [&lt;fromId&gt;-&lt;toId&gt;]
+ * occupancy
+ * search &lt;pattern&gt;
+ * search ~&lt;plate read&gt;
+ * </pre>
+ * A search pattern is a registration prefix in which {@code ?} matches any
+ * character, e.g. {@code T12} or {@code T12?4}; {@code ~} instead finds
+ * registrations within one character edit of a partial read.
+ * A slot ID of {@code *} parks in the lowest-numbered free slot of the matching type.
+ * Blank lines and lines starting with {@code #} are ignored. Every other line
+ * produces a response starting with {@code OK} or {@code ERR}.
+ * <p>
+ * A read-only processor, e.g. serving a {@link ReplicationReplica}, answers
+ * {@code find}, {@code list}, {@code occupancy} and {@code search} and
+ * rejects every other command.
+ */
+public class CommandProcessor {
+    /**
+     * Formatter for date-time output (yyyy-MM-dd HH:mm:ss).
+     */
+    private static final DateTimeFormatter DATE_TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The CarPark commands are run against.
+     */
+    private CarPark carPark;
+
+    /**
+     * True if commands that change the car park are rejected.
+     */
+    private volatile boolean readOnly;
+
+    /**
+     * Constructs a CommandProcessor for the given car park.
+     *
+     * @param carPark the car park to run commands against
+     */
+    public CommandProcessor(CarPark carPark) {
+        this.carPark = carPark;
+    }
+
+    /**
+     * Indicates whether commands that change the car park are rejected.
+     *
+     * @return true if read-only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets whether commands that change the car park are rejected, e.g. until
+     * a replica is promoted.
+     *
+     * @param readOnly true to reject changes
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Indicates whether a line holds a command, as opposed to a blank line or comment.
+     *
+     * @param line the input line
+     * @return true if {@link #execute(String)} would run a command for this line
+     */
+    public static boolean isCommand(String line) {
+        String trimmed = line.trim();
+        return !trimmed.isEmpty() && !trimmed.startsWith("#");
+    }
+
+    /**
+     * Executes one command line and returns its response.
+     *
+     * @param line the command line
+     * @return the response text, without a trailing line separator;
+     *         empty for blank lines and comments
+     */
+    public String execute(String line) {
+        if (!isCommand(line)) {
+            return "";
+        }
+        String[] words = line.trim().split("\\s+", 5);
+        if (readOnly && !isQuery(words[0])) {
+            return "ERR read-only replica";
+        }
+        try {
+            switch (words[0]) {
+                case "add-slot": return addSlot(words);
+                case "delete-slot": return deleteSlot(words);
+                case "delete-unoccupied": return deleteAllUnoccupied();
+                case "delete-range": return deleteSlotRange(words);
+                case "park": return parkCar(words);
+                case "remove": return removeCar(words);
+                case "find": return findCar(words);
+                case "list": return listAllSlots(line.trim().split("\\s+"));
+                case "occupancy": return occupancy();
+                case "search": return search(words);
+                default: return "ERR unknown command " + words[0];
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Indicates whether a command only reads the car park.
+     *
+     * @param command the command name
+     * @return true for {@code find}, {@code list}, {@code occupancy} and {@code search}
+     */
+    private static boolean isQuery(String command) {
+        switch (command) {
+            case "find":
+            case "list":
+            case "occupancy":
+            case "search":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Handles {@code add-slot <id> <staff|visitor>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String addSlot(String[] words) {
+        requireArgs(words, 3);
+        ParkingSlot slot = new ParkingSlot(words[1], parseType(words[2]));
+        return carPark.addSlot(slot)
+            ? "OK added " + slot.getId()
+            : "ERR slot " + slot.getId() + " already exists";
+    }
+
+    /**
+     * Handles {@code delete-slot <id>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String deleteSlot(String[] words) {
+        requireArgs(words, 2);
+        return carPark.deleteSlot(words[1])
+            ? "OK deleted " + words[1]
+            : "ERR slot " + words[1] + " not found or occupied";
+    }
+
+    /**
+     * Handles {@code delete-unoccupied}.
+     *
+     * @return the response
+     */
+    private String deleteAllUnoccupied() {
+        return carPark.deleteAllUnoccupied()
+            ? "OK deleted unoccupied slots"
+            : "OK no unoccupied slots";
+    }
+
+    /**
+     * Handles {@code delete-range <fromId>-<toId>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String deleteSlotRange(String[] words) {
+        requireArgs(words, 2);
+        String[] range = splitRange(words[1]);
+        if (range == null) {
+            return "ERR range must be <fromId>-<toId>";
+        }
+        return "OK deleted " + carPark.deleteSlotRange(range[0], range[1]) + " slots";
+    }
+
+    /**
+     * Handles {@code park <id|*> <registration> <staff|visitor> <owner name>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String parkCar(String[] words) {
+        requireArgs(words, 5);
+        boolean isStaff = parseType(words[3]) == ParkingSlot.SlotType.STAFF;
+        Car car = new Car(Car.encodeRegistration(words[2]), words[4], isStaff,
+            carPark.nowEpochSecond());
+        ParkingSlot slot;
+        if ("*".equals(words[1])) {
+            slot = carPark.parkAnywhere(car);
+            if (slot == null) {
+                return "ERR no free " + words[3] + " slot";
+            }
+        } else {
+            slot = carPark.findSlotById(words[1]);
+            if (slot == null) {
+                return "ERR slot " + words[1] + " not found";
+            }
+            if (slot.getType() != parseType(words[3])) {
+                return "ERR car type doesn't match slot type";
+            }
+            slot.parkCar(car);
+        }
+        return "OK parked " + car.getRegistrationNumber() + " " + slot.getId() + " "
+            + car.getParkTime().format(DATE_TIME_FORMAT);
+    }
+
+    /**
+     * Handles {@code remove <registration>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String removeCar(String[] words) {
+        requireArgs(words, 2);
+        ParkingSlot slot = carPark.findCar(words[1]);
+        Car car = slot == null ? null : slot.getParkedCar();
+        // Another gate may remove the car, and a different car take its slot,
+        // between the lookup and the removal.
+        if (car == null || !car.getRegistrationNumber().equals(words[1])
+            || !carPark.removeCar(slot, car)) {
+            return "ERR car " + words[1] + " not found";
+        }
+        return "OK removed " + words[1] + " " + slot.getId();
+    }
+
+    /**
+     * Handles {@code find <registration>}.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String findCar(String[] words) {
+        requireArgs(words, 2);
+        ParkingSlot slot = carPark.findCar(words[1]);
+        Car car = slot == null ? null : slot.getParkedCar();
+        if (car == null) {
+            return "ERR car " + words[1] + " not found";
+        }
+        long now = carPark.nowEpochSecond();
+        long fee = carPark.getTariff().fee(slot.getType(), car.getParkEpochSecond(), now);
+        return "OK found " + words[1] + " " + slot.getId() + " "
+            + car.getParkTime().format(DATE_TIME_FORMAT) + " " + Tariff.formatCents(fee)
+            + " " + car.getOwner();
+    }
+
+    /**
+     * Handles {@code list [staff|visitor] [occupied|free] [<fromId>-<toId>]}:
+     * one line per matching slot, in slot ID order, after a count line.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String listAllSlots(String[] words) {
+        SlotFilter filter = SlotFilter.all();
+        for (int i = 1; i < words.length; i++) {
+            String word = words[i];
+            if ("occupied".equalsIgnoreCase(word) || "free".equalsIgnoreCase(word)) {
+                filter = filter.withOccupied("occupied".equalsIgnoreCase(word));
+            } else if (splitRange(word) != null) {
+                String[] range = splitRange(word);
+                filter = filter.withIdRange(range[0], range[1]);
+            } else {
+                filter = filter.withType(parseType(word));
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        for (ParkingSlot slot : (Iterable<ParkingSlot>) carPark.querySlots(filter)::iterator) {
+            Car car = slot.getParkedCar();
+            sb.append(System.lineSeparator())
+                .append(slot.getId()).append(' ')
+                .append(slot.getType().name().toLowerCase());
+            if (car != null) {
+                sb.append(' ').append(car.getRegistrationNumber())
+                    .append(' ').append(car.getParkTime().format(DATE_TIME_FORMAT))
+                    .append(' ').append(car.getOwner());
+            } else {
+                sb.append(" -");
+            }
+            count++;
+        }
+        return "OK " + count + " slots" + sb;
+    }
+
+    /**
+     * Handles {@code occupancy}: free and total slots of each type,
+     * e.g. {@code OK staff 3/10 visitor 0/25}.
+     *
+     * @return the response
+     */
+    private String occupancy() {
+        CarParkMetrics metrics = carPark.getMetrics();
+        StringBuilder sb = new StringBuilder("OK");
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            int total = metrics.getTotal(type);
+            sb.append(' ').append(type.name().toLowerCase())
+                .append(' ').append(total - metrics.getOccupied(type))
+                .append('/').append(total);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handles {@code search <pattern>} and {@code search ~<plate read>}: one
+     * line per matching car, in registration order, after a count line.
+     *
+     * @param words the command words
+     * @return the response
+     */
+    private String search(String[] words) {
+        requireArgs(words, 2);
+        RegistrationIndex index = carPark.getRegistrationIndex();
+        List<ParkingSlot> slots = words[1].startsWith("~")
+            ? index.findWithinOneEdit(words[1].substring(1))
+            : index.findByPattern(words[1]);
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        for (ParkingSlot slot : slots) {
+            Car car = slot.getParkedCar();
+            if (car != null) {
+                sb.append(System.lineSeparator())
+                    .append(car.getRegistrationNumber()).append(' ').append(slot.getId());
+                count++;
+            }
+        }
+        return "OK " + count + " cars" + sb;
+    }
+
+    /**
+     * Splits a {@code <fromId>-<toId>} range. Level/zone/bay addresses contain
+     * dashes of their own, so an address bound is recognised by its fixed length.
+     *
+     * @param word the range word, e.g. "S01-S10" or "L01-A-0001-L01-A-0500"
+     * @return the two bounds, or null if the word is not a range
+     */
+    private static String[] splitRange(String word) {
+        int dash = SlotAddress.isAddress(word.substring(0, Math.min(word.length(), 10)))
+            ? 10 : word.indexOf('-');
+        if (dash <= 0 || dash >= word.length() - 1 || word.charAt(dash) != '-') {
+            return null;
+        }
+        return new String[] {word.substring(0, dash), word.substring(dash + 1)};
+    }
+
+    /**
+     * Checks that a command has at least the given number of words.
+     *
+     * @param words    the command words
+     * @param expected the required number of words, including the command name
+     * @throws IllegalArgumentException if there are too few words
+     */
+    private static void requireArgs(String[] words, int expected) {
+        if (words.length < expected) {
+            throw new IllegalArgumentException("missing arguments for " + words[0]);
+        }
+    }
+
+    /**
+     * Parses a slot or owner type word.
+     *
+     * @param word "staff" or "visitor" (case-insensitive)
+     * @return the matching slot type
+     * @throws IllegalArgumentException if the word is neither
+     */
+    private static ParkingSlot.SlotType parseType(String word) {
+        if ("staff".equalsIgnoreCase(word)) {
+            return ParkingSlot.SlotType.STAFF;
+        }
+        if ("visitor".equalsIgnoreCase(word)) {
+            return ParkingSlot.SlotType.VISITOR;
+        }
+        throw new IllegalArgumentException("type must be staff or visitor");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,491 @@
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * A memory-compact alternative to {@link CarPark} that stores slots as a
+ * struct of primitive arrays instead of one ParkingSlot and Car object per bay.
+ * Slot IDs are packed into shorts with {@link ParkingSlot#encodeId(String)} and
+ * registrations into ints with {@link Car#encodeRegistration(String)}; park
+ * times are kept as epoch seconds of the local date-time. Slots are found by
+ * ID through a direct-addressed table of positions, and cars by registration
+ * through a hashed one.
+ * <p>
+ * ParkingSlot and Car objects are only created on demand, as detached views:
+ * changing a returned view does not change this car park. All methods are
+ * synchronized, so a CompactCarPark can be shared between gates.
+ */
+public class CompactCarPark {
+    /**
+     * Value in {@link #positionById} for an ID that has no slot.
+     */
+    private static final int NO_SLOT = -1;
+
+    /**
+     * Initial capacity of the slot arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Encoded slot ID of each slot, in insertion order.
+     */
+    private short[] ids = new short[INITIAL_CAPACITY];
+
+    /**
+     * Slot type of each slot, as the {@link ParkingSlot.SlotType} ordinal.
+     */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Occupancy of each slot, one bit per slot position.
+     */
+    private long[] occupied = new long[1];
+
+    /**
+     * Encoded registration of the car parked in each slot; undefined when free.
+     */
+    private int[] registrations = new int[INITIAL_CAPACITY];
+
+    /**
+     * Park time of the car in each slot, in epoch seconds of the local date-time.
+     */
+    private long[] parkEpochSeconds = new long[INITIAL_CAPACITY];
+
+    /**
+     * True where the parked car belongs to a staff member.
+     */
+    private boolean[] staffOwners = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Owner name of the car parked in each slot, or null when free.
+     */
+    private String[] owners = new String[INITIAL_CAPACITY];
+
+    /**
+     * Position of each encoded slot ID in the arrays above, or {@link #NO_SLOT}.
+     * Direct-addressed since the whole ID space is only 2,600 entries.
+     */
+    private final int[] positionById = new int[ParkingSlot.ID_SPACE];
+
+    /**
+     * Positions of the occupied slots, hashed by the registration parked in
+     * each, with linear probing; empty entries hold {@link #NO_SLOT}. The keys
+     * are not stored, as {@link #registrations} already holds them. Twice the
+     * length of the slot arrays, so it is at most half full.
+     */
+    private int[] registrationTable = newRegistrationTable(INITIAL_CAPACITY * 2);
+
+    /**
+     * Number of slots in use in the arrays.
+     */
+    private int size;
+
+    /**
+     * Clock giving the park time of cars parked without one.
+     */
+    private Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Constructs a CompactCarPark with the given number of staff-only and
+     * visitor-only slots, labeled S01, S02, … and V01, V02, … as in {@link CarPark}.
+     *
+     * @param staffSlots   number of staff-only slots to create
+     * @param visitorSlots number of visitor-only slots to create
+     * @throws IllegalArgumentException if either count exceeds 99
+     */
+    public CompactCarPark(int staffSlots, int visitorSlots) {
+        if (staffSlots > 99 || visitorSlots > 99) {
+            throw new IllegalArgumentException("At most 99 slots per prefix are supported.");
+        }
+        Arrays.fill(positionById, NO_SLOT);
+        short staffBase = ParkingSlot.encodeId("S00");
+        short visitorBase = ParkingSlot.encodeId("V00");
+        for (int i = 1; i <= staffSlots; i++) {
+            append((short) (staffBase + i), ParkingSlot.SlotType.STAFF);
+        }
+        for (int i = 1; i <= visitorSlots; i++) {
+            append((short) (visitorBase + i), ParkingSlot.SlotType.VISITOR);
+        }
+    }
+
+    /**
+     * Replaces the clock giving the park time of cars parked without one.
+     *
+     * @param clock the new clock
+     */
+    public synchronized void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Adds a new, empty slot if no existing slot has the same ID.
+     *
+     * @param id   the slot ID, matching [A-Z][0-9]{2}
+     * @param type the slot type
+     * @return true if the slot was added; false if a slot with the same ID already exists
+     */
+    public synchronized boolean addSlot(String id, ParkingSlot.SlotType type) {
+        short code = ParkingSlot.encodeId(id);
+        if (positionById[code] != NO_SLOT) {
+            return false;
+        }
+        append(code, type);
+        return true;
+    }
+
+    /**
+     * Deletes an unoccupied slot identified by its ID.
+     *
+     * @param id the identifier of the slot to delete
+     * @return true if the slot was found and deleted; false if not found or if occupied
+     */
+    public synchronized boolean deleteSlot(String id) {
+        int pos = positionOf(id);
+        if (pos == NO_SLOT || isOccupiedAt(pos)) {
+            return false;
+        }
+        positionById[ids[pos]] = NO_SLOT;
+        int write = pos;
+        for (int read = pos + 1; read < size; read++) {
+            moveSlot(read, write++);
+        }
+        clearSlot(--size);
+        return true;
+    }
+
+    /**
+     * Deletes every slot that is currently unoccupied, compacting the
+     * remaining slots in a single pass.
+     *
+     * @return true if at least one unoccupied slot was deleted; false otherwise
+     */
+    public synchronized boolean deleteAllUnoccupied() {
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (isOccupiedAt(read)) {
+                moveSlot(read, write++);
+            } else {
+                positionById[ids[read]] = NO_SLOT;
+            }
+        }
+        boolean removedAny = write < size;
+        for (int i = write; i < size; i++) {
+            clearSlot(i);
+        }
+        size = write;
+        return removedAny;
+    }
+
+    /**
+     * Parks a car in the slot with the given ID.
+     *
+     * @param slotId the ID of the slot to park in
+     * @param car    the car to park; its park time is stored, or the current time if it has none
+     * @throws IllegalArgumentException if no slot has the given ID
+     * @throws IllegalStateException    if the slot is occupied or the car is already parked
+     */
+    public synchronized void parkCar(String slotId, Car car) {
+        int pos = positionOf(slotId);
+        if (pos == NO_SLOT) {
+            throw new IllegalArgumentException("Slot not found.");
+        }
+        if (isOccupiedAt(pos)) {
+            throw new IllegalStateException("Slot is already occupied.");
+        }
+        int reg = car.getRegistrationCode();
+        if (positionOfRegistration(reg) != NO_SLOT) {
+            throw new IllegalStateException("Car is already parked.");
+        }
+        registrations[pos] = reg;
+        registrationTable[registrationEntry(reg)] = pos;
+        parkEpochSeconds[pos] = car.hasParkTime()
+            ? car.getParkEpochSecond() : LocalDateTime.now(clock).toEpochSecond(ZoneOffset.UTC);
+        staffOwners[pos] = car.isStaffOwner();
+        owners[pos] = car.getOwner();
+        occupied[pos >>> 6] |= 1L << pos;
+    }
+
+    /**
+     * Removes the car parked in the slot with the given ID.
+     *
+     * @param slotId the ID of the slot to empty
+     * @return a view of the car that was removed
+     * @throws IllegalStateException if the slot does not exist or is empty
+     */
+    public synchronized Car removeCar(String slotId) {
+        int pos = positionOf(slotId);
+        if (pos == NO_SLOT || !isOccupiedAt(pos)) {
+            throw new IllegalStateException("Slot is empty.");
+        }
+        Car car = carAt(pos);
+        removeRegistrationEntry(registrationEntry(registrations[pos]));
+        occupied[pos >>> 6] &= ~(1L << pos);
+        owners[pos] = null;
+        return car;
+    }
+
+    /**
+     * Returns a view of the slot with the given ID.
+     *
+     * @param id the slot ID to search for
+     * @return a detached ParkingSlot view, or null if none exists
+     */
+    public synchronized ParkingSlot findSlotById(String id) {
+        int pos = positionOf(id);
+        return pos == NO_SLOT ? null : slotAt(pos);
+    }
+
+    /**
+     * Returns a view of the slot holding the car with the given registration number.
+     *
+     * @param registrationNumber the registration number of the car to find
+     * @return a detached ParkingSlot view, or null if the car is not in any slot
+     */
+    public synchronized ParkingSlot findCar(String registrationNumber) {
+        int pos = positionOfRegistration(Car.encodeRegistration(registrationNumber));
+        return pos == NO_SLOT ? null : slotAt(pos);
+    }
+
+    /**
+     * Returns views of all slots in insertion order.
+     *
+     * @return a new List of detached ParkingSlot views
+     */
+    public synchronized List<ParkingSlot> getAllSlots() {
+        List<ParkingSlot> views = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            views.add(slotAt(i));
+        }
+        return views;
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the slot count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of free slots of the given type.
+     *
+     * @param type the slot type to count
+     * @return the number of unoccupied slots of that type
+     */
+    public synchronized int getFreeCount(ParkingSlot.SlotType type) {
+        int count = 0;
+        byte ordinal = (byte) type.ordinal();
+        for (int i = 0; i < size; i++) {
+            if (types[i] == ordinal && !isOccupiedAt(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends an empty slot, growing the arrays if needed.
+     *
+     * @param code the encoded slot ID
+     * @param type the slot type
+     */
+    private void append(short code, ParkingSlot.SlotType type) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            registrations = Arrays.copyOf(registrations, capacity);
+            parkEpochSeconds = Arrays.copyOf(parkEpochSeconds, capacity);
+            staffOwners = Arrays.copyOf(staffOwners, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            rebuildRegistrationTable(capacity * 2);
+        }
+        if ((size >>> 6) == occupied.length) {
+            occupied = Arrays.copyOf(occupied, occupied.length * 2);
+        }
+        ids[size] = code;
+        types[size] = (byte) type.ordinal();
+        positionById[code] = size;
+        size++;
+    }
+
+    /**
+     * Copies the slot at {@code from} to position {@code to} (where {@code to <= from}).
+     *
+     * @param from the source position
+     * @param to   the destination position
+     */
+    private void moveSlot(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        ids[to] = ids[from];
+        types[to] = types[from];
+        registrations[to] = registrations[from];
+        parkEpochSeconds[to] = parkEpochSeconds[from];
+        staffOwners[to] = staffOwners[from];
+        owners[to] = owners[from];
+        if (isOccupiedAt(from)) {
+            occupied[to >>> 6] |= 1L << to;
+            registrationTable[registrationEntry(registrations[to])] = to;
+        } else {
+            occupied[to >>> 6] &= ~(1L << to);
+        }
+        positionById[ids[to]] = to;
+    }
+
+    /**
+     * Resets a position that is no longer in use.
+     *
+     * @param pos the position to clear
+     */
+    private void clearSlot(int pos) {
+        occupied[pos >>> 6] &= ~(1L << pos);
+        owners[pos] = null;
+    }
+
+    /**
+     * Returns the array position of a slot ID.
+     *
+     * @param id the slot ID
+     * @return the position, or {@link #NO_SLOT} if the ID is malformed or unused
+     */
+    private int positionOf(String id) {
+        try {
+            return positionById[ParkingSlot.encodeId(id)];
+        } catch (IllegalArgumentException e) {
+            return NO_SLOT;
+        }
+    }
+
+    /**
+     * Returns the position of the slot holding an encoded registration.
+     *
+     * @param reg the encoded registration
+     * @return the position, or {@link #NO_SLOT} if that car is not parked
+     */
+    private int positionOfRegistration(int reg) {
+        return registrationTable[registrationEntry(reg)];
+    }
+
+    /**
+     * Finds the entry of {@link #registrationTable} for an encoded registration.
+     *
+     * @param reg the encoded registration
+     * @return the index of the entry holding the position of the slot where
+     *         that car is parked, or else of the empty entry ending its probe
+     */
+    private int registrationEntry(int reg) {
+        int mask = registrationTable.length - 1;
+        int index = hashRegistration(reg) & mask;
+        while (true) {
+            int pos = registrationTable[index];
+            if (pos == NO_SLOT || registrations[pos] == reg) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties an entry of {@link #registrationTable}, moving later entries of
+     * the same probe run back so that every entry stays reachable.
+     *
+     * @param index the index of the entry to empty
+     */
+    private void removeRegistrationEntry(int index) {
+        int mask = registrationTable.length - 1;
+        int hole = index;
+        for (int i = (hole + 1) & mask; registrationTable[i] != NO_SLOT; i = (i + 1) & mask) {
+            int home = hashRegistration(registrations[registrationTable[i]]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                registrationTable[hole] = registrationTable[i];
+                hole = i;
+            }
+        }
+        registrationTable[hole] = NO_SLOT;
+    }
+
+    /**
+     * Rebuilds {@link #registrationTable} at a new length from the occupied slots.
+     *
+     * @param length the new length, a power of two
+     */
+    private void rebuildRegistrationTable(int length) {
+        registrationTable = newRegistrationTable(length);
+        for (int i = 0; i < size; i++) {
+            if (isOccupiedAt(i)) {
+                registrationTable[registrationEntry(registrations[i])] = i;
+            }
+        }
+    }
+
+    /**
+     * Creates an empty registration table.
+     *
+     * @param length the table length, a power of two
+     * @return the table, every entry {@link #NO_SLOT}
+     */
+    private static int[] newRegistrationTable(int length) {
+        int[] table = new int[length];
+        Arrays.fill(table, NO_SLOT);
+        return table;
+    }
+
+    /**
+     * Spreads an encoded registration's bits for {@link #registrationTable}.
+     *
+     * @param reg the encoded registration
+     * @return the hash
+     */
+    private static int hashRegistration(int reg) {
+        int hash = reg * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Indicates whether the slot at a position is occupied.
+     *
+     * @param pos the slot position
+     * @return true if a car is parked there
+     */
+    private boolean isOccupiedAt(int pos) {
+        return (occupied[pos >>> 6] & (1L << pos)) != 0;
+    }
+
+    /**
+     * Builds a detached ParkingSlot view of the slot at a position.
+     *
+     * @param pos the slot position
+     * @return the view, holding a Car view if occupied
+     */
+    private ParkingSlot slotAt(int pos) {
+        ParkingSlot slot = new ParkingSlot(ParkingSlot.decodeId(ids[pos]),
+            ParkingSlot.SlotType.values()[types[pos]]);
+        if (isOccupiedAt(pos)) {
+            slot.parkCar(carAt(pos));
+        }
+        return slot;
+    }
+
+    /**
+     * Builds a Car view of the car parked at a position.
+     *
+     * @param pos the slot position
+     * @return the Car view
+     */
+    private Car carAt(int pos) {
+        return new Car(registrations[pos], owners[pos], staffOwners[pos], parkEpochSeconds[pos]);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Checks that a CarPark stays consistent when many gate threads park and
+ * remove cars at once, contending for a few slots and registrations, while
+ * another thread keeps deleting and re-adding a slot.
+ * <p>
+ * A listener checks every change as it is reported: a registration is never
+ * parked while it is already parked, a slot never takes a second car, and
+ * every removal is of the car last parked there. Once the threads finish, the
+ * check confirms that no registration was lost or duplicated (every car the
+ * threads parked and did not remove is in exactly one slot and found by its
+ * registration) and that the free counts and metrics add up to the slots.
+ * Run with {@code java ConcurrencyStressCheck [threads [operationsPerThread]]};
+ * it throws on the first inconsistency found.
+ */
+public class ConcurrencyStressCheck {
+    /**
+     * Number of gate threads when none is given.
+     */
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Operations per gate thread when none is given.
+     */
+    private static final int DEFAULT_OPERATIONS = 200_000;
+
+    /**
+     * Number of slots of each type.
+     */
+    private static final int SLOTS_PER_TYPE = 50;
+
+    /**
+     * Number of distinct registrations, few enough that gates often try to
+     * park or remove the same car at once.
+     */
+    private static final int REGISTRATIONS = 300;
+
+    /**
+     * ID of the slot repeatedly deleted and re-added.
+     */
+    private static final String CHURNED_SLOT = "S99";
+
+    /**
+     * Check entry point.
+     *
+     * @param args the number of gate threads, then operations per thread
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_OPERATIONS;
+        CarPark carPark = new CarPark(SLOTS_PER_TYPE, SLOTS_PER_TYPE);
+        ChangeChecker checker = new ChangeChecker();
+        carPark.addListener(checker);
+        AtomicLong parked = new AtomicLong();
+        AtomicLong removed = new AtomicLong();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> gates = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            gates.add(new Thread(() -> {
+                try {
+                    start.await();
+                    runGate(carPark, new Random(seed), operations, parked, removed);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "gate-" + t));
+        }
+        Thread restructurer = new Thread(() -> {
+            try {
+                start.await();
+                while (gates.stream().anyMatch(Thread::isAlive)) {
+                    carPark.deleteSlot(CHURNED_SLOT);
+                    carPark.addSlot(new ParkingSlot(CHURNED_SLOT, ParkingSlot.SlotType.STAFF));
+                    Thread.sleep(1);
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }, "restructurer");
+        for (Thread gate : gates) {
+            gate.start();
+        }
+        restructurer.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread gate : gates) {
+            gate.join();
+        }
+        restructurer.join();
+        long elapsed = System.nanoTime() - begin;
+        if (!failures.isEmpty()) {
+            IllegalStateException failure = new IllegalStateException(
+                failures.size() + " thread(s) failed", failures.peek());
+            failures.forEach(failure::addSuppressed);
+            throw failure;
+        }
+        checkFinalState(carPark, checker, parked.get() - removed.get());
+        System.out.printf("OK: %d threads, %d operations, %d parks, %d removes, %d still parked,"
+                + " %.0f ops/s%n", threads, (long) threads * operations, parked.get(),
+            removed.get(), parked.get() - removed.get(),
+            threads * (double) operations * 1e9 / elapsed);
+    }
+
+    /**
+     * Runs one gate thread's random parks and removes.
+     *
+     * @param carPark    the car park
+     * @param random     the thread's random source
+     * @param operations the number of operations
+     * @param parked     counts cars this and other gates parked
+     * @param removed    counts cars this and other gates removed
+     */
+    private static void runGate(CarPark carPark, Random random, int operations,
+                                AtomicLong parked, AtomicLong removed) {
+        for (int i = 0; i < operations; i++) {
+            String registration = Car.decodeRegistration(random.nextInt(REGISTRATIONS));
+            int choice = random.nextInt(10);
+            if (choice < 4) {
+                try {
+                    if (carPark.parkAnywhere(new Car(registration, "Owner", random.nextBoolean()))
+                        != null) {
+                        parked.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // Already parked, by this gate or another.
+                }
+            } else if (choice < 5) {
+                boolean staff = random.nextBoolean();
+                ParkingSlot slot = carPark.findSlotById((staff ? "S" : "V")
+                    + String.format("%02d", 1 + random.nextInt(SLOTS_PER_TYPE)));
+                try {
+                    slot.parkCar(new Car(registration, "Owner", staff));
+                    parked.incrementAndGet();
+                } catch (IllegalStateException e) {
+                    // Slot taken, or the car is already parked.
+                }
+            } else if (choice < 9) {
+                ParkingSlot slot = carPark.findCar(registration);
+                Car car = slot == null ? null : slot.getParkedCar();
+                if (car != null && car.getRegistrationNumber().equals(registration)
+                    && carPark.removeCar(slot, car)) {
+                    removed.incrementAndGet();
+                }
+            } else {
+                List<String> batch = new ArrayList<>();
+                for (int j = 0; j < 5; j++) {
+                    batch.add(Car.decodeRegistration(random.nextInt(REGISTRATIONS)));
+                }
+                removed.addAndGet(carPark.removeAll(new HashSet<>(batch)));
+            }
+        }
+    }
+
+    /**
+     * Checks the car park once every gate has finished.
+     *
+     * @param carPark  the car park
+     * @param checker  the listener that followed every change
+     * @param expected the number of cars parked and not removed
+     * @throws IllegalStateException if the final state is inconsistent
+     */
+    private static void checkFinalState(CarPark carPark, ChangeChecker checker, long expected) {
+        List<ParkingSlot> slots = carPark.getAllSlots();
+        Set<String> registrations = new HashSet<>();
+        int occupied = 0;
+        for (ParkingSlot slot : slots) {
+            Car car = slot.getParkedCar();
+            if (car == null) {
+                continue;
+            }
+            occupied++;
+            String registration = car.getRegistrationNumber();
+            require(registrations.add(registration), registration + " is parked twice");
+            require(carPark.findCar(registration) == slot,
+                "findCar(" + registration + ") does not give " + slot.getId());
+            require(checker.slotsByRegistration.get(registration) == slot,
+                "listener did not see " + registration + " park in " + slot.getId());
+        }
+        require(occupied == expected, occupied + " cars parked, expected " + expected);
+        require(checker.slotsByRegistration.size() == occupied,
+            "listener saw " + checker.slotsByRegistration.size() + " cars parked, found " + occupied);
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            String registration = Car.decodeRegistration(i);
+            require(registrations.contains(registration) == (carPark.findCar(registration) != null),
+                "findCar(" + registration + ") finds a car that is not parked");
+        }
+        CarParkMetrics metrics = carPark.getMetrics();
+        int free = 0;
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            int total = 0;
+            int typeOccupied = 0;
+            for (ParkingSlot slot : slots) {
+                if (slot.getType() == type) {
+                    total++;
+                    if (slot.isOccupied()) {
+                        typeOccupied++;
+                    }
+                }
+            }
+            require(carPark.getFreeCount(type) == total - typeOccupied, type + " free count "
+                + carPark.getFreeCount(type) + ", expected " + (total - typeOccupied));
+            require(metrics.getTotal(type) == total && metrics.getOccupied(type) == typeOccupied,
+                type + " metrics " + metrics.getOccupied(type) + "/" + metrics.getTotal(type)
+                    + ", expected " + typeOccupied + "/" + total);
+            free += total - typeOccupied;
+        }
+        require(free + occupied == slots.size(),
+            free + " free and " + occupied + " occupied of " + slots.size() + " slots");
+    }
+
+    /**
+     * Fails the check unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message   describes the inconsistency
+     * @throws IllegalStateException if the condition is false
+     */
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("Inconsistent car park: " + message);
+        }
+    }
+
+    /**
+     * Listener checking each park and removal as it is reported. A slot's
+     * changes are reported in order, and a car's removal before it parks
+     * again, so any double park or unmatched removal is a real one.
+     */
+    private static final class ChangeChecker implements CarParkListener {
+        /**
+         * Slot of each parked registration, as reported.
+         */
+        private final Map<String, ParkingSlot> slotsByRegistration = new ConcurrentHashMap<>();
+
+        /**
+         * Car parked in each occupied slot, as reported.
+         */
+        private final Map<ParkingSlot, Car> carsBySlot = new ConcurrentHashMap<>();
+
+        @Override
+        public void carParked(ParkingSlot slot, Car car) {
+            ParkingSlot other = slotsByRegistration.putIfAbsent(car.getRegistrationNumber(), slot);
+            require(other == null, car.getRegistrationNumber() + " parked in " + slot.getId()
+                + " while parked in " + (other == null ? null : other.getId()));
+            require(carsBySlot.putIfAbsent(slot, car) == null,
+                slot.getId() + " took " + car.getRegistrationNumber() + " while occupied");
+        }
+
+        @Override
+        public void carRemoved(ParkingSlot slot, Car car) {
+            require(carsBySlot.remove(slot, car),
+                car.getRegistrationNumber() + " removed from " + slot.getId()
+                    + " but not parked there");
+            require(slotsByRegistration.remove(car.getRegistrationNumber(), slot),
+                car.getRegistrationNumber() + " removed from " + slot.getId()
+                    + " but reported parked elsewhere");
+        }
+    }
+}
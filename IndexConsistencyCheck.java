@@ -0,0 +1,501 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Checks that a CarPark's indexes stay consistent with its slots through a
+ * long random run of parks, removes, batch parks and removes, and slot adds
+ * and deletes.
+ * <p>
+ * The same operations are applied to a plain model of the car park (slot ID
+ * to type and parked registration). The car park is cross-checked against it
+ * regularly: lookups by slot ID and by registration, the slot listing in ID
+ * order, the free slot counts and the choice of the lowest-numbered free slot,
+ * and the metrics' slot totals and occupied counts. It is run once on a car
+ * park whose slots are all added up front and once on one built from a
+ * {@link SiteLayout}, whose slots are created as they are first used; the
+ * latter is only fully listed at the end, so that most of the run exercises
+ * the slots still to be created. Run with
+ * {@code java IndexConsistencyCheck [operations [seed]]}; it throws on the
+ * first inconsistency found.
+ */
+public class IndexConsistencyCheck {
+    /**
+     * Number of operations when none is given.
+     */
+    private static final int DEFAULT_OPERATIONS = 200_000;
+
+    /**
+     * Number of distinct registrations parked and removed.
+     */
+    private static final int REGISTRATIONS = 3_000;
+
+    /**
+     * Number of operations between checks.
+     */
+    private static final int CHECK_INTERVAL = 2_000;
+
+    /**
+     * Number of staff slots the car park starts with, with IDs A00 to O99.
+     */
+    private static final int STAFF_SLOTS = 1_500;
+
+    /**
+     * Number of visitor slots the car park starts with, with level/zone/bay addresses.
+     */
+    private static final int VISITOR_SLOTS = 2_500;
+
+    /**
+     * Slot codes added and deleted during the run lie below this bound.
+     */
+    private static final int CODE_LIMIT = ParkingSlot.ID_SPACE + VISITOR_SLOTS + 500;
+
+    /**
+     * The car park being checked.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Whether the car park creates its slots lazily, in which case full
+     * listings are left to the end of the run.
+     */
+    private final boolean lazy;
+
+    /**
+     * Source of the random operations.
+     */
+    private final Random random;
+
+    /**
+     * Type of every slot, by slot ID.
+     */
+    private final TreeMap<String, ParkingSlot.SlotType> types = new TreeMap<>();
+
+    /**
+     * Registration parked in each occupied slot, by slot ID.
+     */
+    private final Map<String, String> parkedBySlot = new HashMap<>();
+
+    /**
+     * Slot ID of each parked registration.
+     */
+    private final Map<String, String> slotByRegistration = new HashMap<>();
+
+    /**
+     * Check entry point.
+     *
+     * @param args the number of operations, then the random seed
+     */
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPERATIONS;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        List<SiteLayout.BayRange> ranges = new ArrayList<>();
+        for (int code = 0; code < STAFF_SLOTS; code += 100) {
+            ranges.add(new SiteLayout.BayRange(code, 100, ParkingSlot.SlotType.STAFF));
+        }
+        ranges.add(new SiteLayout.BayRange(ParkingSlot.ID_SPACE, VISITOR_SLOTS,
+            ParkingSlot.SlotType.VISITOR));
+        SiteLayout layout = new SiteLayout(ranges);
+
+        CarPark eager = new CarPark(0, 0);
+        List<ParkingSlot> slots = new ArrayList<>();
+        for (SiteLayout.BayRange range : layout.getRanges()) {
+            for (int i = 0; i < range.getCount(); i++) {
+                slots.add(new ParkingSlot(range.getId(i), range.getType()));
+            }
+        }
+        eager.addSlots(slots);
+        new IndexConsistencyCheck(eager, false, layout, seed).run("eager", operations);
+        new IndexConsistencyCheck(new CarPark(layout), true, layout, seed).run("layout", operations);
+    }
+
+    /**
+     * Creates a check of a car park holding exactly the bays of a layout.
+     *
+     * @param carPark the car park
+     * @param lazy    whether it creates its slots lazily
+     * @param layout  its bays
+     * @param seed    the random seed
+     */
+    private IndexConsistencyCheck(CarPark carPark, boolean lazy, SiteLayout layout, long seed) {
+        this.carPark = carPark;
+        this.lazy = lazy;
+        this.random = new Random(seed);
+        for (SiteLayout.BayRange range : layout.getRanges()) {
+            for (int i = 0; i < range.getCount(); i++) {
+                types.put(range.getId(i), range.getType());
+            }
+        }
+    }
+
+    /**
+     * Runs the operations, checking regularly, and prints a summary line.
+     *
+     * @param name        names the car park in the summary
+     * @param operations  the number of operations
+     * @throws IllegalStateException if the car park and model disagree
+     */
+    private void run(String name, int operations) {
+        long start = System.nanoTime();
+        int checks = 0;
+        for (int op = 1; op <= operations; op++) {
+            step();
+            if (op % CHECK_INTERVAL == 0) {
+                check(!lazy);
+                checks++;
+            }
+        }
+        check(true);
+        checks++;
+        System.out.printf("%-7s OK: %d operations, %d checks, %d slots, %d parked, %.0f ms%n",
+            name, operations, checks, types.size(), slotByRegistration.size(),
+            (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Applies one random operation to the car park and the model.
+     */
+    private void step() {
+        int choice = random.nextInt(100);
+        if (choice < 35) {
+            parkAnywhere(randomRegistration(), random.nextBoolean());
+        } else if (choice < 45) {
+            parkInSlot();
+        } else if (choice < 75) {
+            remove(randomRegistration());
+        } else if (choice < 80) {
+            parkBatch();
+        } else if (choice < 85) {
+            removeBatch();
+        } else if (choice < 92) {
+            addSlot();
+        } else if (choice < 99) {
+            deleteSlot();
+        } else {
+            deleteRange();
+        }
+    }
+
+    /**
+     * Parks a car in the lowest-numbered free slot of its type, checking that
+     * the car park picks the same slot as the model.
+     *
+     * @param registration the car's registration
+     * @param staff        whether the owner is staff
+     */
+    private void parkAnywhere(String registration, boolean staff) {
+        ParkingSlot.SlotType type = staff ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+        String expected = slotByRegistration.containsKey(registration) ? null : lowestFree(type);
+        ParkingSlot slot;
+        try {
+            slot = carPark.parkAnywhere(newCar(registration, staff));
+        } catch (IllegalStateException e) {
+            require(slotByRegistration.containsKey(registration),
+                "parkAnywhere rejected " + registration + ", which is not parked");
+            return;
+        }
+        require(!slotByRegistration.containsKey(registration),
+            "parkAnywhere parked " + registration + " twice");
+        require(slot == null ? expected == null : slot.getId().equals(expected),
+            "parkAnywhere chose " + (slot == null ? null : slot.getId()) + ", expected " + expected);
+        if (slot != null) {
+            parked(slot.getId(), registration);
+        }
+    }
+
+    /**
+     * Parks a car in a randomly chosen slot.
+     */
+    private void parkInSlot() {
+        String id = randomSlotId();
+        String registration = randomRegistration();
+        ParkingSlot slot = carPark.findSlotById(id);
+        require(slot != null, "slot " + id + " not found");
+        boolean allowed = !parkedBySlot.containsKey(id)
+            && !slotByRegistration.containsKey(registration);
+        try {
+            slot.parkCar(newCar(registration, types.get(id) == ParkingSlot.SlotType.STAFF));
+            require(allowed, "parked " + registration + " in " + id + " when it should be refused");
+            parked(id, registration);
+        } catch (IllegalStateException e) {
+            require(!allowed,
+                "parking " + registration + " in " + id + " refused: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a car by registration, as a gate does.
+     *
+     * @param registration the car's registration
+     */
+    private void remove(String registration) {
+        ParkingSlot slot = carPark.findCar(registration);
+        String expected = slotByRegistration.get(registration);
+        require(slot == null ? expected == null : slot.getId().equals(expected),
+            "findCar(" + registration + ") gave " + (slot == null ? null : slot.getId())
+                + ", expected " + expected);
+        if (slot != null) {
+            slot.removeCar();
+            removed(registration);
+        }
+    }
+
+    /**
+     * Parks a batch of cars with {@link CarPark#parkAll(List)}.
+     */
+    private void parkBatch() {
+        List<Car> cars = new ArrayList<>();
+        for (int i = random.nextInt(20); i >= 0; i--) {
+            cars.add(newCar(randomRegistration(), random.nextBoolean()));
+        }
+        List<ParkingSlot> placed = carPark.parkAll(cars);
+        for (int i = 0; i < cars.size(); i++) {
+            Car car = cars.get(i);
+            String registration = car.getRegistrationNumber();
+            ParkingSlot.SlotType type = car.isStaffOwner()
+                ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+            String expected = slotByRegistration.containsKey(registration) ? null : lowestFree(type);
+            ParkingSlot slot = placed.get(i);
+            require(slot == null ? expected == null : slot.getId().equals(expected),
+                "parkAll placed " + registration + " in " + (slot == null ? null : slot.getId())
+                    + ", expected " + expected);
+            if (slot != null) {
+                parked(slot.getId(), registration);
+            }
+        }
+    }
+
+    /**
+     * Removes a batch of cars with {@link CarPark#removeAll(java.util.Collection)},
+     * some of them not parked.
+     */
+    private void removeBatch() {
+        List<String> registrations = new ArrayList<>();
+        for (int i = random.nextInt(20); i >= 0; i--) {
+            String registration = randomRegistration();
+            if (!registrations.contains(registration)) {
+                registrations.add(registration);
+            }
+        }
+        int expected = 0;
+        for (String registration : registrations) {
+            if (slotByRegistration.containsKey(registration)) {
+                removed(registration);
+                expected++;
+            }
+        }
+        int removed = carPark.removeAll(registrations);
+        require(removed == expected, "removeAll removed " + removed + ", expected " + expected);
+    }
+
+    /**
+     * Adds a slot with a random ID, which may already exist.
+     */
+    private void addSlot() {
+        String id = SlotAddress.fromCode(random.nextInt(CODE_LIMIT));
+        ParkingSlot.SlotType type = random.nextBoolean()
+            ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+        boolean added = carPark.addSlot(new ParkingSlot(id, type));
+        require(added == !types.containsKey(id), "addSlot(" + id + ") returned " + added);
+        if (added) {
+            types.put(id, type);
+        }
+    }
+
+    /**
+     * Deletes a slot with a random ID, which may be missing or occupied.
+     */
+    private void deleteSlot() {
+        String id = SlotAddress.fromCode(random.nextInt(CODE_LIMIT));
+        boolean expected = types.containsKey(id) && !parkedBySlot.containsKey(id);
+        boolean deleted = carPark.deleteSlot(id);
+        require(deleted == expected, "deleteSlot(" + id + ") returned " + deleted);
+        if (deleted) {
+            types.remove(id);
+        }
+    }
+
+    /**
+     * Deletes the unoccupied slots of a short random ID range.
+     */
+    private void deleteRange() {
+        int from = random.nextInt(CODE_LIMIT - 20);
+        int to = from + random.nextInt(20);
+        if (from < ParkingSlot.ID_SPACE) {
+            // Short IDs sort after addresses, so a range stays on one side.
+            to = Math.min(to, ParkingSlot.ID_SPACE - 1);
+        }
+        String fromId = SlotAddress.fromCode(from);
+        String toId = SlotAddress.fromCode(to);
+        List<String> expected = new ArrayList<>();
+        for (String id : types.subMap(fromId, true, toId, true).keySet()) {
+            if (!parkedBySlot.containsKey(id)) {
+                expected.add(id);
+            }
+        }
+        int deleted = carPark.deleteSlotRange(fromId, toId);
+        require(deleted == expected.size(), "deleteSlotRange(" + fromId + ", " + toId
+            + ") deleted " + deleted + ", expected " + expected.size());
+        types.keySet().removeAll(expected);
+    }
+
+    /**
+     * Cross-checks the car park against the model.
+     *
+     * @param full whether to list every slot too, which creates every lazy slot
+     * @throws IllegalStateException if they disagree
+     */
+    private void check(boolean full) {
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            String registration = Car.decodeRegistration(i);
+            ParkingSlot slot = carPark.findCar(registration);
+            String expected = slotByRegistration.get(registration);
+            require(slot == null ? expected == null : slot.getId().equals(expected)
+                    && slot.getParkedCar() != null
+                    && registration.equals(slot.getParkedCar().getRegistrationNumber()),
+                "findCar(" + registration + ") gave " + (slot == null ? null : slot.getId())
+                    + ", expected " + expected);
+        }
+        for (Map.Entry<String, String> entry : parkedBySlot.entrySet()) {
+            ParkingSlot slot = carPark.findSlotById(entry.getKey());
+            require(slot != null && slot.isOccupied()
+                    && slot.getParkedCar().getRegistrationNumber().equals(entry.getValue()),
+                "slot " + entry.getKey() + " should hold " + entry.getValue());
+        }
+        CarParkMetrics metrics = carPark.getMetrics();
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            int total = 0;
+            int occupied = 0;
+            for (Map.Entry<String, ParkingSlot.SlotType> entry : types.entrySet()) {
+                if (entry.getValue() == type) {
+                    total++;
+                    if (parkedBySlot.containsKey(entry.getKey())) {
+                        occupied++;
+                    }
+                }
+            }
+            require(carPark.getFreeCount(type) == total - occupied, type + " free count "
+                + carPark.getFreeCount(type) + ", expected " + (total - occupied));
+            require(metrics.getTotal(type) == total,
+                type + " metrics total " + metrics.getTotal(type) + ", expected " + total);
+            require(metrics.getOccupied(type) == occupied,
+                type + " metrics occupied " + metrics.getOccupied(type) + ", expected " + occupied);
+        }
+        if (!full) {
+            return;
+        }
+        List<ParkingSlot> all = carPark.getAllSlots();
+        require(all.size() == types.size(),
+            "getAllSlots has " + all.size() + " slots, expected " + types.size());
+        for (ParkingSlot slot : all) {
+            require(carPark.findSlotById(slot.getId()) == slot,
+                "findSlotById(" + slot.getId() + ") is not the listed slot");
+            require(slot.getType() == types.get(slot.getId()), "slot " + slot.getId() + " has type "
+                + slot.getType() + ", expected " + types.get(slot.getId()));
+            String registration = parkedBySlot.get(slot.getId());
+            Car car = slot.getParkedCar();
+            require(registration == null ? car == null
+                    : car != null && registration.equals(car.getRegistrationNumber()),
+                "slot " + slot.getId() + " holds " + car + ", expected " + registration);
+            require(car == null || carPark.findCar(car.getRegistrationNumber()) == slot,
+                "findCar does not give slot " + slot.getId());
+        }
+        List<String> listed = new ArrayList<>();
+        carPark.querySlots(SlotFilter.all()).forEach(slot -> listed.add(slot.getId()));
+        require(listed.equals(new ArrayList<>(types.keySet())),
+            "querySlots does not list every slot in ID order");
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            long free = carPark.querySlots(SlotFilter.all().withType(type).withOccupied(false))
+                .count();
+            require(free == carPark.getFreeCount(type), type + " free listing has " + free
+                + " slots, free count " + carPark.getFreeCount(type));
+        }
+    }
+
+    /**
+     * Returns the lowest free slot ID of a type in the model.
+     *
+     * @param type the slot type
+     * @return the slot ID, or null if none is free
+     */
+    private String lowestFree(ParkingSlot.SlotType type) {
+        for (Map.Entry<String, ParkingSlot.SlotType> entry : types.entrySet()) {
+            if (entry.getValue() == type && !parkedBySlot.containsKey(entry.getKey())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a park in the model.
+     *
+     * @param id           the slot ID
+     * @param registration the registration parked
+     */
+    private void parked(String id, String registration) {
+        parkedBySlot.put(id, registration);
+        slotByRegistration.put(registration, id);
+    }
+
+    /**
+     * Records a removal in the model.
+     *
+     * @param registration the registration removed
+     */
+    private void removed(String registration) {
+        parkedBySlot.remove(slotByRegistration.remove(registration));
+    }
+
+    /**
+     * Returns a random registration from the pool.
+     *
+     * @return the registration
+     */
+    private String randomRegistration() {
+        return Car.decodeRegistration(random.nextInt(REGISTRATIONS));
+    }
+
+    /**
+     * Returns the ID of a random existing slot.
+     *
+     * @return the slot ID
+     */
+    private String randomSlotId() {
+        String id = types.ceilingKey(SlotAddress.fromCode(random.nextInt(CODE_LIMIT)));
+        return id == null ? types.firstKey() : id;
+    }
+
+    /**
+     * Creates a car with a fixed park time.
+     *
+     * @param registration the registration
+     * @param staff        whether the owner is staff
+     * @return the car
+     */
+    private static Car newCar(String registration, boolean staff) {
+        return new Car(Car.encodeRegistration(registration), "Owner", staff, 1_000_000L);
+    }
+
+    /**
+     * Fails the check unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message   describes the inconsistency
+     * @throws IllegalStateException if the condition is false
+     */
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("Inconsistent index: " + message);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures how long {@link CarParkJournal} takes to rebuild a car park
+ * as the journal tail grows.
+ * <p>
+ * For each journal size, writes that many park/remove records against a
+ * 99 + 99 slot car park with automatic snapshots disabled, closes the store,
+ * then times reopening it. Run with {@code java JournalRecoveryBenchmark [records...]}.
+ */
+public class JournalRecoveryBenchmark {
+    /**
+     * Journal sizes measured when no arguments are given, in records.
+     */
+    private static final int[] DEFAULT_RECORDS = {10_000, 100_000, 1_000_000};
+
+    /**
+     * Number of timed recoveries per journal size; the fastest is reported.
+     */
+    private static final int RUNS = 3;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args journal sizes to measure, in records; defaults if empty
+     * @throws IOException if the temporary data directory cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_RECORDS;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-12s %-14s %-12s %-14s%n",
+            "Records", "JournalBytes", "RecoveryMs", "Records/s");
+        for (int records : sizes) {
+            Path dir = Files.createTempDirectory("carpark-journal-bench");
+            try {
+                long bytes = writeJournal(dir, records);
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    Path copy = Files.createTempDirectory("carpark-journal-run");
+                    try {
+                        copyFiles(dir, copy);
+                        long start = System.nanoTime();
+                        CarParkJournal journal = CarParkJournal.open(copy, () -> {
+                            throw new IllegalStateException("No saved state found.");
+                        });
+                        best = Math.min(best, System.nanoTime() - start);
+                        journal.close();
+                    } finally {
+                        deleteRecursively(copy);
+                    }
+                }
+                System.out.printf("%-12d %-14d %-12.1f %-14.0f%n",
+                    records, bytes, best / 1e6, records * 1e9 / best);
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+    }
+
+    /**
+     * Fills a data directory with a journal of the given number of records.
+     *
+     * @param dir     the data directory
+     * @param records the number of park and remove records to write
+     * @return the size of the journal in bytes
+     * @throws IOException if the journal cannot be written
+     */
+    private static long writeJournal(Path dir, int records) throws IOException {
+        CarParkJournal journal = CarParkJournal.open(dir, () -> new CarPark(99, 99),
+            CarParkJournal.DEFAULT_COMMIT_INTERVAL_MILLIS, Long.MAX_VALUE);
+        CarPark carPark = journal.getCarPark();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < records / 2; i++) {
+            Car car = new Car(String.format("T%04d", i % 10_000), "Owner" + (i % 100), i % 2 == 0, now);
+            ParkingSlot slot = carPark.parkAnywhere(car);
+            slot.removeCar();
+        }
+        long bytes = journal.getJournalBytes();
+        journal.close();
+        return bytes;
+    }
+
+    /**
+     * Copies the files of one directory into another.
+     *
+     * @param from the source directory
+     * @param to   the destination directory
+     * @throws IOException if a file cannot be copied
+     */
+    private static void copyFiles(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param dir the directory to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
\ No newline at end of file
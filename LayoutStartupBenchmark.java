@@ -0,0 +1,96 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures how long a large site takes to open: creating every slot up front
+ * with {@link CarPark#addSlots(java.util.Collection)}, against building a
+ * lazily created {@link CarPark#CarPark(SiteLayout)} from a layout file and
+ * from a layout image. Also times the first park and the first lookup of a
+ * far bay in the lazy car park, which create one chunk of slots each.
+ * <p>
+ * The site has the given number of levels, each with 26 zones of the given
+ * number of bays, alternating staff and visitor zones. Run with
+ * {@code java LayoutStartupBenchmark [levels [baysPerZone]]}.
+ */
+public class LayoutStartupBenchmark {
+    /**
+     * Number of timed runs of each method; the fastest is reported.
+     */
+    private static final int RUNS = 3;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args levels and bays per zone; default 20 and 2000
+     * @throws IOException if the temporary layout files cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        int levels = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int bays = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path text = Files.createTempFile("carpark-layout", ".txt");
+        Path image = Files.createTempFile("carpark-layout", ".img");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(text)) {
+                for (int level = 1; level <= levels; level++) {
+                    for (char zone = 'A'; zone <= 'Z'; zone++) {
+                        String prefix = new SlotAddress(level, zone, 0).toString().substring(0, 6);
+                        out.write(String.format("%s0001-%s%04d %s%n", prefix, prefix, bays,
+                            zone % 2 == 0 ? "staff" : "visitor"));
+                    }
+                }
+            }
+            SiteLayout layout = SiteLayout.read(text);
+            layout.writeImage(image);
+            System.out.printf("%d bays in %d ranges; layout file %d bytes, image %d bytes%n",
+                layout.getSlotCount(), layout.getRanges().size(), Files.size(text), Files.size(image));
+            System.out.printf("%-24s %-10s%n", "Startup", "Ms");
+
+            long eager = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                List<ParkingSlot> slots = new ArrayList<>(layout.getSlotCount());
+                for (SiteLayout.BayRange range : layout.getRanges()) {
+                    for (int i = 0; i < range.getCount(); i++) {
+                        slots.add(new ParkingSlot(range.getId(i), range.getType()));
+                    }
+                }
+                new CarPark(0, 0).addSlots(slots);
+                eager = Math.min(eager, System.nanoTime() - start);
+            }
+            System.out.printf("%-24s %-10.2f%n", "eager addSlots", eager / 1e6);
+
+            CarPark lazy = null;
+            for (Path file : new Path[] {text, image}) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = System.nanoTime();
+                    lazy = new CarPark(SiteLayout.read(file));
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%-24s %-10.2f%n",
+                    file == text ? "lazy from layout file" : "lazy from layout image", best / 1e6);
+            }
+
+            long start = System.nanoTime();
+            lazy.parkAnywhere(new Car("A0001", "First", false));
+            System.out.printf("%-24s %-10.2f%n", "first park", (System.nanoTime() - start) / 1e6);
+            String far = new SlotAddress(levels, 'Z', bays).toString();
+            start = System.nanoTime();
+            lazy.findSlotById(far);
+            System.out.printf("%-24s %-10.2f%n", "first lookup of far bay", (System.nanoTime() - start) / 1e6);
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(image);
+        }
+    }
+}
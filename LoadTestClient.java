@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Load-test client for {@link CarParkServer}. Opens a number of connections,
+ * each on its own virtual thread, and has every connection repeat the cycle a
+ * gate and a pay station would: park a car anywhere, find it, check occupancy
+ * and remove it. Reports throughput and p50/p99/max round-trip latency.
+ * <p>
+ * With a target rate, requests are sent on a fixed schedule and latency is
+ * measured from the time each request was due rather than when it was sent,
+ * so a stalled server is not hidden by the client slowing down with it.
+ * <p>
+ * Run with {@code java LoadTestClient [host:port] [connections] [seconds] [requestsPerSecond]}.
+ * Without a host, an in-process server with enough visitor slots is started.
+ * A rate of 0 sends as fast as responses arrive.
+ */
+public class LoadTestClient {
+    /**
+     * Default number of connections.
+     */
+    private static final int DEFAULT_CONNECTIONS = 64;
+
+    /**
+     * Default test duration, in seconds.
+     */
+    private static final int DEFAULT_SECONDS = 10;
+
+    /**
+     * Warm-up time before latencies are recorded, in milliseconds.
+     */
+    private static final long WARMUP_MILLIS = 2000;
+
+    /**
+     * Latency of every request after warm-up.
+     */
+    private final CarParkMetrics.LatencyHistogram latency = new CarParkMetrics.LatencyHistogram();
+
+    /**
+     * Number of requests answered with {@code ERR}.
+     */
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Load-test entry point.
+     *
+     * @param args {@code [host:port] [connections] [seconds] [requestsPerSecond]}
+     * @throws Exception if the server cannot be reached or started
+     */
+    public static void main(String[] args) throws Exception {
+        int argIndex = 0;
+        String target = args.length > 0 && args[0].contains(":") ? args[argIndex++] : null;
+        int connections = args.length > argIndex
+            ? Integer.parseInt(args[argIndex++]) : DEFAULT_CONNECTIONS;
+        int seconds = args.length > argIndex ? Integer.parseInt(args[argIndex++]) : DEFAULT_SECONDS;
+        int rate = args.length > argIndex ? Integer.parseInt(args[argIndex]) : 0;
+
+        CarParkServer server = null;
+        String host = "localhost";
+        int port;
+        if (target == null) {
+            CarPark carPark = new CarPark(0, 0);
+            List<ParkingSlot> slots = new ArrayList<>(connections);
+            for (int i = 0; i < connections; i++) {
+                slots.add(new ParkingSlot(SlotAddress.fromCode(ParkingSlot.ID_SPACE + i),
+                    ParkingSlot.SlotType.VISITOR));
+            }
+            carPark.addSlots(slots);
+            server = new CarParkServer(carPark, 0);
+            port = server.getPort();
+        } else {
+            host = target.substring(0, target.lastIndexOf(':'));
+            port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        }
+        try {
+            new LoadTestClient().run(host, port, connections, seconds, rate);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the load test and prints the report.
+     *
+     * @param host        the server host
+     * @param port        the server port
+     * @param connections the number of connections
+     * @param seconds     the measured duration, after warm-up
+     * @param rate        the target total requests per second, or 0 for unlimited
+     * @throws InterruptedException if interrupted while waiting for connections
+     */
+    private void run(String host, int port, int connections, int seconds, int rate)
+        throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + WARMUP_MILLIS * 1_000_000;
+        long end = measureFrom + seconds * 1_000_000_000L;
+        long intervalNanos = rate > 0 ? 1_000_000_000L * connections / rate : 0;
+        List<Thread> threads = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            String registration = Car.decodeRegistration(i);
+            threads.add(Thread.ofVirtual().start(() ->
+                drive(host, port, registration, measureFrom, end, intervalNanos)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] buckets = latency.copyBuckets();
+        long requests = CarParkMetrics.LatencyHistogram.count(buckets);
+        System.out.printf("Connections %d, %d s, target %s%n", connections, seconds,
+            rate > 0 ? rate + " req/s" : "unlimited");
+        System.out.printf("Requests %d (%d errors), %.0f req/s%n",
+            requests, errors.sum(), requests * 1e9 / (end - measureFrom));
+        System.out.printf("Latency p50 %.1f us, p99 %.1f us, max %.1f us%n",
+            CarParkMetrics.LatencyHistogram.percentile(buckets, 0.50) / 1e3,
+            CarParkMetrics.LatencyHistogram.percentile(buckets, 0.99) / 1e3,
+            latency.maxNanos() / 1e3);
+    }
+
+    /**
+     * Drives one connection through park, find, occupancy and remove cycles
+     * until the end time.
+     *
+     * @param host          the server host
+     * @param port          the server port
+     * @param registration  the registration of this connection's car
+     * @param measureFrom   time after which latencies are recorded
+     * @param end           time at which to stop
+     * @param intervalNanos time between requests, or 0 for back-to-back
+     */
+    private void drive(String host, int port, String registration,
+                       long measureFrom, long end, long intervalNanos) {
+        String[] cycle = {
+            "park * " + registration + " visitor Load Test",
+            "find " + registration,
+            "occupancy",
+            "remove " + registration
+        };
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                 socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            long due = System.nanoTime();
+            for (int i = 0; ; i++) {
+                if (intervalNanos > 0) {
+                    due += intervalNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    due = System.nanoTime();
+                }
+                if (due >= end) {
+                    break;
+                }
+                out.write(cycle[i & 3]);
+                out.newLine();
+                out.flush();
+                String response = in.readLine();
+                if (response == null) {
+                    break;
+                }
+                long now = System.nanoTime();
+                if (due >= measureFrom) {
+                    latency.record(now - due);
+                    if (response.startsWith("ERR")) {
+                        errors.increment();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,428 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Reports cars parked longer than the limit set for their slot type, e.g.
+ * visitors staying over four hours, without scanning the slots:
+ * <pre>
+ * OverstayMonitor monitor = new OverstayMonitor(carPark,
+ *     (slot, car, limit) -&gt; System.out.println(car.getRegistrationNumber() + " overstayed"));
+ * monitor.setLimit(ParkingSlot.SlotType.VISITOR, 4 * 3600);
+ * ...
+ * monitor.advance();   // e.g. once a second from a scheduler
+ * </pre>
+ * Registered as a {@link CarParkListener}, the monitor schedules a timer at
+ * each park, due when the stay reaches the limit, and cancels it when the car
+ * is removed. Timers are kept in a hierarchical timing wheel: {@value #LEVELS}
+ * levels of {@value #WHEEL_SIZE} buckets, the first one second per bucket and
+ * each next level {@value #WHEEL_SIZE} times coarser, so scheduling and
+ * cancelling are O(1) and each timer is moved down a level at most
+ * {@value #LEVELS} - 1 times before it fires, however many cars are parked.
+ * <p>
+ * Time is the car park's clock, in local epoch seconds, so the monitor follows
+ * a simulated clock too. The wheel moves only when {@link #advance()} or
+ * {@link #advanceTo(long)} is called; handlers run on that thread, after the
+ * monitor's lock is released, so they may remove the car.
+ */
+public final class OverstayMonitor implements CarParkListener {
+    /**
+     * Receives overstay notifications.
+     */
+    @FunctionalInterface
+    public interface OverstayHandler {
+        /**
+         * Called once per stay when a car's stay reaches its slot type's limit.
+         *
+         * @param slot         the slot the car is parked in
+         * @param car          the car that overstayed
+         * @param limitSeconds the limit it reached
+         */
+        void overstayed(ParkingSlot slot, Car car, long limitSeconds);
+    }
+
+    /**
+     * Number of bits of a timer's due time indexing the buckets of one level.
+     */
+    private static final int WHEEL_BITS = 6;
+
+    /**
+     * Number of buckets per level.
+     */
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    /**
+     * Number of levels; together they span 64^5 seconds, about 34 years.
+     */
+    private static final int LEVELS = 5;
+
+    /**
+     * Longest delay the top level can hold; later timers are parked at the
+     * end of the top level and re-placed when it cascades.
+     */
+    private static final long MAX_DELAY = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    /**
+     * The car park watched.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Called for each overstay.
+     */
+    private final OverstayHandler handler;
+
+    /**
+     * Overstay limit of each slot type, in seconds; types without one are
+     * not watched.
+     */
+    private final Map<ParkingSlot.SlotType, Long> limits = new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Bucket heads, level by level: bucket {@code b} of level {@code l} is at
+     * index {@code l * WHEEL_SIZE + b}. Guarded by this monitor.
+     */
+    private final Timer[] buckets = new Timer[LEVELS * WHEEL_SIZE];
+
+    /**
+     * Pending timer of each watched slot. Guarded by this monitor.
+     */
+    private final Map<ParkingSlot, Timer> timers = new HashMap<>();
+
+    /**
+     * Fired timer of each slot whose car has been reported and is still
+     * parked, so that setting the same limit again does not report the stay
+     * twice. Guarded by this monitor.
+     */
+    private final Map<ParkingSlot, Timer> reported = new HashMap<>();
+
+    /**
+     * Next second the wheel will process. Guarded by this monitor.
+     */
+    private long nextTick;
+
+    /**
+     * Number of overstays reported.
+     */
+    private long overstays;
+
+    /**
+     * Creates a monitor with no limits and registers it with a car park.
+     *
+     * @param carPark the car park to watch
+     * @param handler called for each overstay
+     */
+    public OverstayMonitor(CarPark carPark, OverstayHandler handler) {
+        this.carPark = carPark;
+        this.handler = handler;
+        this.nextTick = carPark.nowEpochSecond() + 1;
+        carPark.addListener(this);
+    }
+
+    /**
+     * Sets the overstay limit of a slot type, and times the cars already
+     * parked in slots of that type against it. Cars timed or reported under
+     * a different limit are re-timed, and reported at once if they have
+     * already stayed longer than the new one; a car already reported against
+     * the same limit is not reported again.
+     *
+     * @param type         the slot type
+     * @param limitSeconds the longest stay allowed, in seconds
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    public void setLimit(ParkingSlot.SlotType type, long limitSeconds) {
+        if (limitSeconds <= 0) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        synchronized (this) {
+            limits.put(type, limitSeconds);
+        }
+        carPark.querySlots(SlotFilter.all().withType(type).withOccupied(true)).forEach(slot -> {
+            Car car = slot.getParkedCar();
+            if (car != null) {
+                schedule(slot, car);
+            }
+        });
+    }
+
+    /**
+     * Stops watching a slot type and cancels the pending timers of its cars.
+     *
+     * @param type the slot type
+     */
+    public synchronized void clearLimit(ParkingSlot.SlotType type) {
+        if (limits.remove(type) == null) {
+            return;
+        }
+        timers.values().removeIf(timer -> {
+            if (timer.slot.getType() != type) {
+                return false;
+            }
+            unlink(timer);
+            return true;
+        });
+    }
+
+    /**
+     * Returns the number of cars being timed.
+     *
+     * @return the number of pending timers
+     */
+    public synchronized int getPendingCount() {
+        return timers.size();
+    }
+
+    /**
+     * Returns the number of overstays reported so far.
+     *
+     * @return the overstay count
+     */
+    public synchronized long getOverstayCount() {
+        return overstays;
+    }
+
+    /**
+     * Advances the wheel to the car park's current time, reporting every car
+     * whose limit has passed.
+     *
+     * @return the number of overstays reported
+     */
+    public int advance() {
+        return advanceTo(carPark.nowEpochSecond());
+    }
+
+    /**
+     * Advances the wheel second by second up to a time, reporting every car
+     * whose limit has passed by then.
+     *
+     * @param epochSecond the time to advance to, in local epoch seconds
+     * @return the number of overstays reported
+     */
+    public int advanceTo(long epochSecond) {
+        List<Timer> due = null;
+        synchronized (this) {
+            while (nextTick <= epochSecond) {
+                int index = (int) (nextTick & (WHEEL_SIZE - 1));
+                if (index == 0) {
+                    cascade(1);
+                }
+                Timer timer = buckets[index];
+                buckets[index] = null;
+                while (timer != null) {
+                    Timer next = timer.next;
+                    timer.prev = null;
+                    timer.next = null;
+                    timer.bucket = -1;
+                    timers.remove(timer.slot, timer);
+                    reported.put(timer.slot, timer);
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(timer);
+                    timer = next;
+                }
+                nextTick++;
+            }
+        }
+        if (due == null) {
+            return 0;
+        }
+        int reported = 0;
+        for (Timer timer : due) {
+            // The car may have left between the timer firing and this call.
+            if (timer.slot.getParkedCar() == timer.car) {
+                handler.overstayed(timer.slot, timer.car, timer.limit);
+                reported++;
+            }
+        }
+        synchronized (this) {
+            overstays += reported;
+        }
+        return reported;
+    }
+
+    @Override
+    public void carParked(ParkingSlot slot, Car car) {
+        schedule(slot, car);
+    }
+
+    @Override
+    public synchronized void carRemoved(ParkingSlot slot, Car car) {
+        Timer timer = timers.get(slot);
+        if (timer != null && timer.car == car) {
+            timers.remove(slot);
+            unlink(timer);
+        }
+        Timer fired = reported.get(slot);
+        if (fired != null && fired.car == car) {
+            reported.remove(slot);
+        }
+    }
+
+    /**
+     * Starts timing a parked car if its slot type has a limit and it is not
+     * already timed or reported against that limit, replacing any timer of
+     * the slot's previous car or previous limit.
+     *
+     * @param slot the slot the car is parked in
+     * @param car  the parked car
+     */
+    private synchronized void schedule(ParkingSlot slot, Car car) {
+        Long limit = limits.get(slot.getType());
+        if (limit == null || !car.hasParkTime()) {
+            return;
+        }
+        Timer fired = reported.get(slot);
+        if (fired != null) {
+            if (fired.car == car && fired.limit == limit) {
+                return;
+            }
+            reported.remove(slot);
+        }
+        Timer existing = timers.get(slot);
+        if (existing != null) {
+            if (existing.car == car && existing.limit == limit) {
+                return;
+            }
+            unlink(existing);
+        }
+        Timer timer = new Timer(slot, car, limit, car.getParkEpochSecond() + limit);
+        timers.put(slot, timer);
+        place(timer);
+    }
+
+    /**
+     * Moves every timer in the current bucket of a level down to the levels
+     * below, first cascading the next level up when this level has wrapped.
+     *
+     * @param level the level to cascade, at least 1
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int index = (int) ((nextTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1));
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        int head = level * WHEEL_SIZE + index;
+        Timer timer = buckets[head];
+        buckets[head] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Puts a timer in the bucket covering its due time relative to
+     * {@link #nextTick}: the finest level whose span reaches it. A timer
+     * already due goes in the bucket processed next.
+     *
+     * @param timer the timer to place
+     */
+    private void place(Timer timer) {
+        long due = Math.max(timer.due, nextTick);
+        long delay = Math.min(due - nextTick, MAX_DELAY);
+        due = nextTick + delay;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int head = level * WHEEL_SIZE + (int) ((due >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1));
+        timer.bucket = head;
+        timer.next = buckets[head];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        buckets[head] = timer;
+    }
+
+    /**
+     * Removes a timer from its bucket.
+     *
+     * @param timer the timer to remove
+     */
+    private void unlink(Timer timer) {
+        if (timer.bucket < 0) {
+            return;
+        }
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+    }
+
+    /**
+     * Pending overstay of one stay, linked into a wheel bucket.
+     */
+    private static final class Timer {
+        /**
+         * The slot the car is parked in.
+         */
+        final ParkingSlot slot;
+
+        /**
+         * The car being timed.
+         */
+        final Car car;
+
+        /**
+         * The limit being enforced, in seconds.
+         */
+        final long limit;
+
+        /**
+         * When the limit passes, in local epoch seconds.
+         */
+        final long due;
+
+        /**
+         * Index of the bucket holding this timer, or -1 if none.
+         */
+        int bucket = -1;
+
+        /**
+         * Previous timer in the bucket.
+         */
+        Timer prev;
+
+        /**
+         * Next timer in the bucket.
+         */
+        Timer next;
+
+        /**
+         * Constructs a timer.
+         *
+         * @param slot  the slot the car is parked in
+         * @param car   the car being timed
+         * @param limit the limit being enforced
+         * @param due   when the limit passes
+         */
+        Timer(ParkingSlot slot, Car car, long limit, long due) {
+            this.slot = slot;
+            this.car = car;
+            this.limit = limit;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Bounded, lock-free change feed of a CarPark. Registered as a
+ * {@link CarParkListener}, it publishes every slot added or deleted and every
+ * car parked or removed into a preallocated ring of events, which any number
+ * of subscribers read independently and in batches:
+ * <pre>
+ * ParkingEventRing feed = new ParkingEventRing(carPark, 4096,
+ *     ParkingEventRing.Backpressure.DROP);
+ * carPark.addListener(feed);
+ * ParkingEventRing.Subscription billing = feed.subscribe();
+ * billing.poll((event, sequence, endOfBatch) -&gt; ..., 256);
+ * </pre>
+ * Publishing writes the event's fields into an existing ring entry and
+ * allocates nothing. Gates publish concurrently, so a publisher claims its
+ * sequence with a compare-and-set on the cursor; each subscriber only ever
+ * writes its own sequence. When the slowest subscriber is a full ring
+ * behind, the {@link Backpressure} policy decides whether the gate waits or
+ * the event is dropped.
+ * <p>
+ * Events of one slot are published in the order they happened, since
+ * CarPark notifies listeners under the slot's monitor. Under
+ * {@link Backpressure#BLOCK} a waiting gate still holds that monitor, so
+ * subscribers must consume on their own threads and must not add or delete
+ * slots while handling an event.
+ */
+public class ParkingEventRing implements CarParkListener {
+    /**
+     * Kinds of change published to the feed.
+     */
+    public enum Kind {
+        /** A slot was added. */
+        SLOT_ADDED,
+        /** A slot was deleted. */
+        SLOT_DELETED,
+        /** A car was parked. */
+        CAR_PARKED,
+        /** A car was removed. */
+        CAR_REMOVED
+    }
+
+    /**
+     * What a publisher does when the ring is full.
+     */
+    public enum Backpressure {
+        /** Wait for the slowest subscriber to catch up. */
+        BLOCK,
+        /** Discard the event and count it in {@link #getDropped()}. */
+        DROP
+    }
+
+    /**
+     * Receives the events of one batch.
+     */
+    @FunctionalInterface
+    public interface EventHandler {
+        /**
+         * Called for each event, in sequence order.
+         *
+         * @param event      the event; only valid until this call returns
+         * @param sequence   the event's sequence number
+         * @param endOfBatch true for the last event of the batch
+         */
+        void onEvent(Event event, long sequence, boolean endOfBatch);
+    }
+
+    /**
+     * Event kinds by ordinal, so views can decode them without copying
+     * {@link Kind#values()}.
+     */
+    private static final Kind[] KINDS = Kind.values();
+
+    /**
+     * Number of entries in the ring, a power of two.
+     */
+    private final int capacity;
+
+    /**
+     * {@link #capacity} minus one, to map sequences to entries.
+     */
+    private final int mask;
+
+    /**
+     * Policy for a full ring.
+     */
+    private final Backpressure backpressure;
+
+    /**
+     * The car park whose clock stamps the events.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Kind of each entry's event, as the {@link Kind} ordinal.
+     */
+    private final byte[] kinds;
+
+    /**
+     * Slot ID of each entry's event.
+     */
+    private final String[] slotIds;
+
+    /**
+     * Slot type of each entry's event.
+     */
+    private final ParkingSlot.SlotType[] slotTypes;
+
+    /**
+     * Car of each entry's event, or null for slot events.
+     */
+    private final Car[] cars;
+
+    /**
+     * Time of each entry's event on the car park's clock, in epoch milliseconds.
+     */
+    private final long[] timestamps;
+
+    /**
+     * Sequence last published into each entry; an entry is readable for
+     * sequence {@code s} once this holds {@code s}.
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Highest sequence claimed by a publisher.
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * Last known lowest subscriber sequence; refreshed only when a publisher
+     * would otherwise wrap past it.
+     */
+    private volatile long cachedGatingSequence = -1;
+
+    /**
+     * Current subscribers, replaced as a whole on subscribe and close so
+     * publishers can scan it without allocating.
+     */
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * Number of events discarded under {@link Backpressure#DROP}.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Constructs an empty feed for a car park. Register it with
+     * {@link CarPark#addListener(CarParkListener)} to start publishing.
+     *
+     * @param carPark      the car park whose clock stamps the events
+     * @param capacity     number of events the ring holds; rounded up to a power of two
+     * @param backpressure what publishers do when the ring is full
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    public ParkingEventRing(CarPark carPark, int capacity, Backpressure backpressure) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.backpressure = backpressure;
+        this.carPark = carPark;
+        this.kinds = new byte[this.capacity];
+        this.slotIds = new String[this.capacity];
+        this.slotTypes = new ParkingSlot.SlotType[this.capacity];
+        this.cars = new Car[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    @Override
+    public void slotAdded(ParkingSlot slot) {
+        publish(Kind.SLOT_ADDED, slot, null);
+    }
+
+    @Override
+    public void slotDeleted(ParkingSlot slot) {
+        publish(Kind.SLOT_DELETED, slot, null);
+    }
+
+    @Override
+    public void carParked(ParkingSlot slot, Car car) {
+        publish(Kind.CAR_PARKED, slot, car);
+    }
+
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        publish(Kind.CAR_REMOVED, slot, car);
+    }
+
+    /**
+     * Subscribes to events published from now on.
+     *
+     * @return the new subscription
+     */
+    public synchronized Subscription subscribe() {
+        Subscription subscription = new Subscription(cursor.get());
+        Subscription[] current = subscriptions;
+        Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+        return subscription;
+    }
+
+    /**
+     * Returns the number of events the ring holds.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the sequence of the last event published.
+     *
+     * @return the sequence, or -1 if none
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Returns the number of events discarded because the ring was full.
+     *
+     * @return the drop count; always 0 under {@link Backpressure#BLOCK}
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Claims the next sequence, writes the event into its entry and publishes it.
+     *
+     * @param kind the kind of change
+     * @param slot the slot changed
+     * @param car  the car parked or removed, or null
+     */
+    private void publish(Kind kind, ParkingSlot slot, Car car) {
+        long next;
+        int idle = 0;
+        while (true) {
+            long current = cursor.get();
+            next = current + 1;
+            long wrapPoint = next - capacity;
+            if (wrapPoint > cachedGatingSequence) {
+                long gating = minimumSequence(current);
+                cachedGatingSequence = gating;
+                if (wrapPoint > gating) {
+                    if (backpressure == Backpressure.DROP) {
+                        dropped.increment();
+                        return;
+                    }
+                    idle = backOff(idle);
+                    continue;
+                }
+            }
+            if (cursor.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        int index = (int) next & mask;
+        kinds[index] = (byte) kind.ordinal();
+        slotIds[index] = slot.getId();
+        slotTypes[index] = slot.getType();
+        cars[index] = car;
+        timestamps[index] = carPark.getClock().millis();
+        published.setRelease(index, next);
+    }
+
+    /**
+     * Returns the lowest sequence consumed by any subscriber.
+     *
+     * @param defaultSequence the value to return when there are no subscribers
+     * @return the gating sequence
+     */
+    private long minimumSequence(long defaultSequence) {
+        long minimum = defaultSequence;
+        for (Subscription subscription : subscriptions) {
+            minimum = Math.min(minimum, subscription.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Waits briefly: spins first, then yields, then parks.
+     *
+     * @param idle the number of times the caller has already waited
+     * @return the updated wait count
+     */
+    private static int backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+
+    /**
+     * Read-only view of one ring entry, reused for every event a subscription
+     * delivers.
+     */
+    public final class Event {
+        /**
+         * Index of the entry currently viewed.
+         */
+        private int index;
+
+        /**
+         * Returns the kind of change.
+         *
+         * @return the event kind
+         */
+        public Kind getKind() {
+            return KINDS[kinds[index]];
+        }
+
+        /**
+         * Returns the ID of the slot changed.
+         *
+         * @return the slot ID
+         */
+        public String getSlotId() {
+            return slotIds[index];
+        }
+
+        /**
+         * Returns the type of the slot changed.
+         *
+         * @return the slot type
+         */
+        public ParkingSlot.SlotType getSlotType() {
+            return slotTypes[index];
+        }
+
+        /**
+         * Returns the car parked or removed.
+         *
+         * @return the car, or null for slot events
+         */
+        public Car getCar() {
+            return cars[index];
+        }
+
+        /**
+         * Returns when the change was published, on the car park's clock.
+         *
+         * @return the time in epoch milliseconds
+         */
+        public long getTimestamp() {
+            return timestamps[index];
+        }
+    }
+
+    /**
+     * One subscriber's position in the feed. Each subscription sees every
+     * event published after it was created, and should be polled by a single
+     * thread.
+     */
+    public final class Subscription implements AutoCloseable {
+        /**
+         * Sequence of the last event consumed.
+         */
+        private final AtomicLong sequence;
+
+        /**
+         * View passed to the handler.
+         */
+        private final Event event = new Event();
+
+        /**
+         * Constructs a subscription positioned after a sequence.
+         *
+         * @param sequence the last sequence already published
+         */
+        private Subscription(long sequence) {
+            this.sequence = new AtomicLong(sequence);
+        }
+
+        /**
+         * Delivers the events available now, up to a batch limit, then
+         * releases their entries to publishers.
+         *
+         * @param handler  receives each event
+         * @param maxBatch the most events to deliver
+         * @return the number of events delivered
+         */
+        public int poll(EventHandler handler, int maxBatch) {
+            long start = sequence.get() + 1;
+            long end = start;
+            while (end - start < maxBatch && published.getAcquire((int) end & mask) == end) {
+                end++;
+            }
+            for (long s = start; s < end; s++) {
+                event.index = (int) s & mask;
+                handler.onEvent(event, s, s == end - 1);
+            }
+            if (end > start) {
+                sequence.setRelease(end - 1);
+            }
+            return (int) (end - start);
+        }
+
+        /**
+         * Waits until at least one event is available, then delivers a batch
+         * as {@link #poll(EventHandler, int)} does.
+         *
+         * @param handler  receives each event
+         * @param maxBatch the most events to deliver
+         * @return the number of events delivered, at least 1
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public int take(EventHandler handler, int maxBatch) throws InterruptedException {
+            int idle = 0;
+            int delivered;
+            while ((delivered = poll(handler, maxBatch)) == 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                idle = backOff(idle);
+            }
+            return delivered;
+        }
+
+        /**
+         * Returns the number of published events not yet consumed.
+         *
+         * @return the lag
+         */
+        public long getLag() {
+            return cursor.get() - sequence.get();
+        }
+
+        /**
+         * Unsubscribes, so publishers no longer wait for this subscription.
+         */
+        @Override
+        public void close() {
+            synchronized (ParkingEventRing.this) {
+                Subscription[] current = subscriptions;
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i] == this) {
+                        Subscription[] updated = new Subscription[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        subscriptions = updated;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Decides whether a car may use a slot, beyond the slot being free and of
+ * the right type, e.g. to keep reserved slots for the cars that booked them.
+ * Set with {@link CarPark#setParkingRule(ParkingRule)}.
+ * <p>
+ * The rule is consulted on every park, so it should answer quickly and must
+ * not change the car park.
+ */
+@FunctionalInterface
+public interface ParkingRule {
+    /**
+     * Rule allowing any car to use any slot.
+     */
+    ParkingRule ANY = (slot, car) -> true;
+
+    /**
+     * Tests whether a car may be parked in a slot.
+     *
+     * @param slot the free slot
+     * @param car  the car about to be parked
+     * @return true if the car may use the slot
+     */
+    boolean allows(ParkingSlot slot, Car car);
+}
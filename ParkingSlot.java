@@ -1,3 +1,6 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * @author Tung Tran <103432596>
  * @version JDK 21
@@ -8,8 +11,24 @@
  * Represents a parking slot in the car park.
  * Each slot has a unique identifier, a type (staff or visitor),
  * and may hold at most one Car at a time.
+ * Parking and removing are compare-and-set operations on the parked car,
+ * so concurrent gates cannot double-book a slot.
  */
 public class ParkingSlot {
+    /**
+     * Handle used to compare-and-set {@link #parkedCar}.
+     */
+    private static final VarHandle PARKED_CAR;
+
+    static {
+        try {
+            PARKED_CAR = MethodHandles.lookup()
+                .findVarHandle(ParkingSlot.class, "parkedCar", Car.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * Types of parking slots.
      * STAFF slots are reserved for staff members.
@@ -23,7 +42,14 @@ public class ParkingSlot {
     }
 
     /**
-     * Unique identifier for this slot, matching pattern [A-Z][0-9]{2}.
+     * Number of distinct slot IDs of the form [A-Z][0-9]{2}; encoded IDs
+     * from {@link #encodeId(String)} lie in {@code [0, ID_SPACE)}.
+     */
+    public static final int ID_SPACE = 26 * 100;
+
+    /**
+     * Unique identifier for this slot, matching pattern [A-Z][0-9]{2},
+     * or a hierarchical {@link SlotAddress} such as L01-A-0001.
      */
     private String id;
 
@@ -35,20 +61,28 @@ public class ParkingSlot {
     /**
      * The Car currently parked in this slot, or {@code null} if empty.
      */
-    private Car parkedCar;
+    private volatile Car parkedCar;
+
+    /**
+     * The CarPark this slot belongs to, or {@code null} if it has not been added
+     * to one. Used to keep the car park's lookup indexes in step with this slot.
+     */
+    private volatile CarPark carPark;
 
     /**
      * Constructs a ParkingSlot with the specified ID and type.
-     * The ID must consist of an uppercase letter followed by two digits.
+     * The ID must consist of an uppercase letter followed by two digits,
+     * or be a level/zone/bay address such as L01-A-0001.
      *
-     * @param id   the slot identifier (e.g. "A01")
+     * @param id   the slot identifier (e.g. "A01" or "L01-A-0001")
      * @param type the slot type, either {@link SlotType#STAFF} or {@link SlotType#VISITOR}
-     * @throws IllegalArgumentException if {@code id} does not match [A-Z][0-9]{2}
+     * @throws IllegalArgumentException if {@code id} is neither form
      */
     public ParkingSlot(String id, SlotType type) {
-        if (!id.matches("[A-Z][0-9]{2}")) {
+        if (!isShortId(id) && !SlotAddress.isAddress(id)) {
             throw new IllegalArgumentException(
-                "Slot ID must be a capital letter followed by two digits.");
+                "Slot ID must be a capital letter followed by two digits, "
+                    + "or an address such as L01-A-0001.");
         }
         this.id = id;
         this.type = type;
@@ -91,28 +125,114 @@ public class ParkingSlot {
         return parkedCar;
     }
 
+    /**
+     * Returns the CarPark this slot belongs to.
+     *
+     * @return the owning {@link CarPark}, or {@code null} if not added to one
+     */
+    CarPark getCarPark() {
+        return carPark;
+    }
+
+    /**
+     * Sets the CarPark this slot belongs to. Called by {@link CarPark}
+     * when the slot is added or deleted.
+     *
+     * @param carPark the owning car park, or {@code null} to detach
+     */
+    void setCarPark(CarPark carPark) {
+        this.carPark = carPark;
+    }
+
+    /**
+     * Atomically replaces the parked car if it is currently {@code expected}.
+     *
+     * @param expected the car expected to be parked, or {@code null} for an empty slot
+     * @param car      the new parked car, or {@code null} to empty the slot
+     * @return true if the slot was updated; false if it held a different car
+     */
+    boolean compareAndSetParkedCar(Car expected, Car car) {
+        return PARKED_CAR.compareAndSet(this, expected, car);
+    }
+
     /**
      * Parks the specified Car in this slot.
      *
      * @param car the {@link Car} to park
-     * @throws IllegalStateException if this slot is already occupied
+     * @throws IllegalStateException if this slot is already occupied,
+     *                               the car is already parked elsewhere in the car park,
+     *                               or the car park has been halted
      */
     public void parkCar(Car car) {
-        if (isOccupied()) {
+        CarPark owner = carPark;
+        if (owner != null) {
+            owner.parkCar(this, car);
+            return;
+        }
+        if (!compareAndSetParkedCar(null, car)) {
             throw new IllegalStateException("Slot is already occupied.");
         }
-        this.parkedCar = car;
     }
 
     /**
      * Removes the parked Car from this slot.
      *
-     * @throws IllegalStateException if this slot is empty
+     * @throws IllegalStateException if this slot is empty, or its car park has been halted
      */
     public void removeCar() {
-        if (!isOccupied()) {
+        CarPark owner = carPark;
+        if (owner != null) {
+            owner.removeCar(this);
+            return;
+        }
+        Car car = parkedCar;
+        if (car == null || !compareAndSetParkedCar(car, null)) {
             throw new IllegalStateException("Slot is empty.");
         }
-        this.parkedCar = null;
+    }
+
+    /**
+     * Packs a slot ID of the form [A-Z][0-9]{2} into a short,
+     * as letter index * 100 + number (e.g. "S01" becomes 1801).
+     *
+     * @param id the slot ID
+     * @return the encoded ID, in {@code [0, ID_SPACE)}
+     * @throws IllegalArgumentException if {@code id} does not match [A-Z][0-9]{2}
+     */
+    public static short encodeId(String id) {
+        if (id.length() != 3
+            || id.charAt(0) < 'A' || id.charAt(0) > 'Z'
+            || !Character.isDigit(id.charAt(1)) || !Character.isDigit(id.charAt(2))) {
+            throw new IllegalArgumentException(
+                "Slot ID must be a capital letter followed by two digits.");
+        }
+        return (short) ((id.charAt(0) - 'A') * 100
+            + (id.charAt(1) - '0') * 10 + (id.charAt(2) - '0'));
+    }
+
+    /**
+     * Indicates whether a slot ID has the form [A-Z][0-9]{2}.
+     *
+     * @param id the slot ID
+     * @return true if it is a capital letter followed by two digits
+     */
+    private static boolean isShortId(String id) {
+        return id.length() == 3
+            && id.charAt(0) >= 'A' && id.charAt(0) <= 'Z'
+            && id.charAt(1) >= '0' && id.charAt(1) <= '9'
+            && id.charAt(2) >= '0' && id.charAt(2) <= '9';
+    }
+
+    /**
+     * Unpacks a slot ID encoded by {@link #encodeId(String)}.
+     *
+     * @param code the encoded ID
+     * @return the slot ID string
+     */
+    public static String decodeId(short code) {
+        int number = code % 100;
+        return new String(new char[] {
+            (char) ('A' + code / 100), (char) ('0' + number / 10), (char) ('0' + number % 10)
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,361 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Index of parked cars by registration for partial plate reads, e.g. from
+ * cameras that miss or misread a character. Supports three queries:
+ * <ul>
+ * <li>{@link #findByPrefix(String)}: "T12" matches T1200 to T1299;</li>
+ * <li>{@link #findByPattern(String)}: {@code ?} matches any one character, so
+ *     "T12?4" matches T1204, T1214, …; a pattern shorter than a registration
+ *     matches as a prefix;</li>
+ * <li>{@link #findWithinOneEdit(String)}: registrations one substitution,
+ *     insertion or deletion away from a read, e.g. "T124" or "T12354" for T1234.</li>
+ * </ul>
+ * Registrations of the form [A-Z][0-9]{4} pack into the dense range
+ * {@code [0, Car.REGISTRATION_SPACE)} with {@link Car#encodeRegistration(String)},
+ * and that packing preserves registration order. The index is a bitmap over
+ * that range with the slot of each parked car, so a prefix is a contiguous
+ * range of bits, a pattern is a few such ranges, and an edit query is a few
+ * dozen direct lookups. Each costs time proportional to the range scanned
+ * and the matches, well under a millisecond with hundreds of thousands of
+ * cars parked.
+ * <p>
+ * Obtain the index with {@link CarPark#getRegistrationIndex()}. It is a
+ * {@link CarParkListener}, so every park and remove updates it; queries take
+ * no lock and may run concurrently with gates.
+ */
+public class RegistrationIndex implements CarParkListener {
+    /**
+     * Registrations of parked cars, one bit per packed registration.
+     */
+    private final AtomicLongArray present = new AtomicLongArray((Car.REGISTRATION_SPACE + 63) >>> 6);
+
+    /**
+     * Slot of each parked car, by packed registration.
+     */
+    private final AtomicReferenceArray<ParkingSlot> slots =
+        new AtomicReferenceArray<>(Car.REGISTRATION_SPACE);
+
+    /**
+     * Number of cars indexed.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates an index of a car park's parked cars and registers it, while
+     * no car is parked or removed, so that it misses no change.
+     *
+     * @param carPark the car park to index
+     */
+    RegistrationIndex(CarPark carPark) {
+        carPark.runExclusive(() -> {
+            carPark.querySlots(SlotFilter.all().withOccupied(true)).forEach(slot -> {
+                Car car = slot.getParkedCar();
+                if (car != null) {
+                    carParked(slot, car);
+                }
+            });
+            carPark.addListener(this);
+        });
+    }
+
+    /**
+     * Returns the number of cars indexed.
+     *
+     * @return the number of parked cars
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Finds the cars whose registrations start with a prefix.
+     *
+     * @param prefix up to five characters: a capital letter then digits
+     * @return the matching slots, in registration order
+     * @throws IllegalArgumentException if the prefix cannot start a registration
+     */
+    public List<ParkingSlot> findByPrefix(String prefix) {
+        if (prefix.indexOf('?') >= 0) {
+            throw new IllegalArgumentException("Prefix must not contain wildcards.");
+        }
+        return findByPattern(prefix);
+    }
+
+    /**
+     * Finds the cars whose registrations match a pattern, where {@code ?}
+     * matches any one character. A pattern shorter than five characters
+     * matches as a prefix.
+     *
+     * @param pattern up to five characters: a capital letter or {@code ?},
+     *                then digits or {@code ?}
+     * @return the matching slots, in registration order
+     * @throws IllegalArgumentException if the pattern cannot match a registration
+     */
+    public List<ParkingSlot> findByPattern(String pattern) {
+        if (pattern.isEmpty() || pattern.length() > 5) {
+            throw new IllegalArgumentException("Pattern must be 1 to 5 characters.");
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '?' && (i == 0 ? c < 'A' || c > 'Z' : c < '0' || c > '9')) {
+                throw new IllegalArgumentException(
+                    "Pattern must be a capital letter then digits, with ? for any character.");
+            }
+        }
+        List<ParkingSlot> matches = new ArrayList<>();
+        match(pattern, 0, 0, matches);
+        return matches;
+    }
+
+    /**
+     * Finds the cars whose registrations are at most one edit (substitution,
+     * insertion or deletion of a character) away from a plate read.
+     *
+     * @param read the plate as read, of 4 to 6 characters
+     * @return the matching slots, in registration order
+     * @throws IllegalArgumentException if the read is not 4 to 6 characters
+     */
+    public List<ParkingSlot> findWithinOneEdit(String read) {
+        if (read.length() < 4 || read.length() > 6) {
+            throw new IllegalArgumentException("Read must be 4 to 6 characters.");
+        }
+        // At most 6 deletions, 66 insertions or 67 substitutions.
+        int[] candidates = new int[72];
+        int count = 0;
+        char[] buffer = new char[5];
+        if (read.length() == 6) {
+            for (int skip = 0; skip < 6; skip++) {
+                for (int i = 0, j = 0; i < 6; i++) {
+                    if (i != skip) {
+                        buffer[j++] = read.charAt(i);
+                    }
+                }
+                count = addCandidate(buffer, candidates, count);
+            }
+        } else if (read.length() == 4) {
+            for (int insert = 0; insert < 5; insert++) {
+                for (int i = 0, j = 0; i < 5; i++) {
+                    buffer[i] = i == insert ? '?' : read.charAt(j++);
+                }
+                count = addSubstitutions(buffer, insert, candidates, count);
+            }
+        } else {
+            read.getChars(0, 5, buffer, 0);
+            count = addCandidate(buffer, candidates, count);
+            for (int position = 0; position < 5; position++) {
+                char original = buffer[position];
+                count = addSubstitutions(buffer, position, candidates, count);
+                buffer[position] = original;
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+        List<ParkingSlot> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && candidates[i] == candidates[i - 1]) {
+                continue;
+            }
+            ParkingSlot slot = slots.get(candidates[i]);
+            if (slot != null) {
+                matches.add(slot);
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public void carParked(ParkingSlot slot, Car car) {
+        int code = car.getRegistrationCode();
+        if (slots.getAndSet(code, slot) == null) {
+            size.incrementAndGet();
+        }
+        setBit(code);
+    }
+
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        int code = car.getRegistrationCode();
+        // Only clear the entry if the car has not since been parked elsewhere.
+        if (slots.compareAndSet(code, slot, null)) {
+            clearBit(code);
+            size.decrementAndGet();
+            if (slots.get(code) != null) {
+                setBit(code);
+            }
+        }
+    }
+
+    /**
+     * Collects the matches of a pattern from a position on, for a given
+     * value of the positions before it. Once only wildcards remain, the
+     * matches are one contiguous range of packed registrations.
+     *
+     * @param pattern  the pattern
+     * @param position the next position to expand
+     * @param base     the packed value of the positions already fixed
+     * @param matches  receives the matching slots
+     */
+    private void match(String pattern, int position, int base, List<ParkingSlot> matches) {
+        boolean restWild = true;
+        for (int i = position; i < pattern.length(); i++) {
+            restWild &= pattern.charAt(i) == '?';
+        }
+        if (restWild) {
+            int span = weight(position - 1);
+            scan(base, base + span, matches);
+            return;
+        }
+        char c = pattern.charAt(position);
+        int weight = weight(position);
+        if (c != '?') {
+            match(pattern, position + 1, base + digitValue(c, position) * weight, matches);
+            return;
+        }
+        int choices = position == 0 ? 26 : 10;
+        for (int value = 0; value < choices; value++) {
+            match(pattern, position + 1, base + value * weight, matches);
+        }
+    }
+
+    /**
+     * Returns the packed weight of a position: 10000 for the letter, then
+     * 1000, 100, 10 and 1 for the digits. Position -1 stands for the whole
+     * range.
+     *
+     * @param position the position, -1 to 4
+     * @return the weight
+     */
+    private static int weight(int position) {
+        switch (position) {
+            case -1: return Car.REGISTRATION_SPACE;
+            case 0: return 10000;
+            case 1: return 1000;
+            case 2: return 100;
+            case 3: return 10;
+            default: return 1;
+        }
+    }
+
+    /**
+     * Returns the value of a character at a position.
+     *
+     * @param c        the character
+     * @param position 0 for the letter, 1 to 4 for digits
+     * @return the letter index or digit value
+     */
+    private static int digitValue(char c, int position) {
+        return position == 0 ? c - 'A' : c - '0';
+    }
+
+    /**
+     * Collects the parked cars in a range of packed registrations.
+     *
+     * @param from    the first packed registration, inclusive
+     * @param to      the last packed registration, exclusive
+     * @param matches receives the slots found
+     */
+    private void scan(int from, int to, List<ParkingSlot> matches) {
+        int word = from >>> 6;
+        long bits = present.get(word) & (-1L << (from & 63));
+        while (true) {
+            while (bits != 0) {
+                int code = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (code >= to) {
+                    return;
+                }
+                ParkingSlot slot = slots.get(code);
+                if (slot != null) {
+                    matches.add(slot);
+                }
+                bits &= bits - 1;
+            }
+            word++;
+            if (word << 6 >= to) {
+                return;
+            }
+            bits = present.get(word);
+        }
+    }
+
+    /**
+     * Adds every valid substitution at one position of a five-character
+     * buffer to the candidates.
+     *
+     * @param buffer     the candidate registration
+     * @param position   the position to substitute
+     * @param candidates receives packed candidates
+     * @param count      the number of candidates so far
+     * @return the new number of candidates
+     */
+    private static int addSubstitutions(char[] buffer, int position, int[] candidates, int count) {
+        char first = position == 0 ? 'A' : '0';
+        char last = position == 0 ? 'Z' : '9';
+        for (char c = first; c <= last; c++) {
+            buffer[position] = c;
+            count = addCandidate(buffer, candidates, count);
+        }
+        return count;
+    }
+
+    /**
+     * Adds a five-character buffer to the candidates if it is a valid registration.
+     *
+     * @param buffer     the candidate registration
+     * @param candidates receives packed candidates
+     * @param count      the number of candidates so far
+     * @return the new number of candidates
+     */
+    private static int addCandidate(char[] buffer, int[] candidates, int count) {
+        if (buffer[0] < 'A' || buffer[0] > 'Z') {
+            return count;
+        }
+        int code = buffer[0] - 'A';
+        for (int i = 1; i < 5; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9') {
+                return count;
+            }
+            code = code * 10 + buffer[i] - '0';
+        }
+        candidates[count] = code;
+        return count + 1;
+    }
+
+    /**
+     * Marks a registration as present.
+     *
+     * @param code the packed registration
+     */
+    private void setBit(int code) {
+        long mask = 1L << code;
+        int word = code >>> 6;
+        long current;
+        do {
+            current = present.get(word);
+        } while ((current & mask) == 0 && !present.compareAndSet(word, current, current | mask));
+    }
+
+    /**
+     * Marks a registration as absent.
+     *
+     * @param code the packed registration
+     */
+    private void clearBit(int code) {
+        long mask = 1L << code;
+        int word = code >>> 6;
+        long current;
+        do {
+            current = present.get(word);
+        } while ((current & mask) != 0 && !present.compareAndSet(word, current, current & ~mask));
+    }
+}
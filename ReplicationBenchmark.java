@@ -0,0 +1,268 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures {@link ReplicationPrimary} throughput and replication lag on one
+ * machine, over loopback TCP.
+ * <p>
+ * For each replica count, gate threads park and remove cars on a primary car
+ * park of {@value #SLOTS} slots for the run time, while replicas apply the
+ * change stream. Reports the changes made per second, the mean and maximum lag
+ * from a change being made to a replica acknowledging it, and how long the
+ * replicas took to catch up once the gates stopped. In-process replicas are
+ * then checked against the primary slot by slot. With {@code --processes},
+ * each replica is instead a separate {@code Application --replica} JVM.
+ * Run with
+ * {@code java ReplicationBenchmark [--processes] [--rate changesPerSecond]
+ * [seconds [gates [replicaCounts...]]]}; without {@code --rate} the gates run
+ * flat out, which on a machine with few cores starves the replicas and
+ * measures backlog rather than lag.
+ */
+public class ReplicationBenchmark {
+    /**
+     * Number of slots in the primary car park.
+     */
+    private static final int SLOTS = 2000;
+
+    /**
+     * Replica counts measured when none are given.
+     */
+    private static final int[] DEFAULT_REPLICAS = {0, 1, 2};
+
+    /**
+     * Registrations each gate cycles through; gates use disjoint ranges.
+     */
+    private static final int REGISTRATIONS_PER_GATE = 10_000;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args {@code --processes}, then run seconds, gate threads and replica counts
+     * @throws Exception if a replica cannot be started or the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        boolean processes = false;
+        long rate = 0;
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--processes".equals(args[i])) {
+                processes = true;
+            } else if ("--rate".equals(args[i]) && i + 1 < args.length) {
+                rate = Long.parseLong(args[++i]);
+            } else {
+                numbers.add(Integer.parseInt(args[i]));
+            }
+        }
+        int seconds = numbers.size() > 0 ? numbers.get(0) : 5;
+        int gates = numbers.size() > 1 ? numbers.get(1) : 2;
+        int[] replicaCounts = DEFAULT_REPLICAS;
+        if (numbers.size() > 2) {
+            replicaCounts = numbers.subList(2, numbers.size()).stream().mapToInt(n -> n).toArray();
+        }
+        System.out.printf("%d gates, %d s per run, %s replicas, %s%n", gates, seconds,
+            processes ? "process" : "in-process",
+            rate == 0 ? "unpaced" : rate + " changes/s offered");
+        System.out.printf("%-9s %-12s %-12s %-12s %-10s %-8s%n",
+            "Replicas", "Changes/s", "MeanLagUs", "MaxLagUs", "DrainMs", "Match");
+        for (int replicas : replicaCounts) {
+            run(replicas, seconds, gates, rate, processes);
+        }
+    }
+
+    /**
+     * Runs one measurement and prints its row.
+     *
+     * @param replicaCount number of replicas
+     * @param seconds      run time
+     * @param gates        number of gate threads
+     * @param rate         changes per second to offer across all gates, or 0 for as many as possible
+     * @param processes    true to run replicas as separate processes
+     * @throws Exception if a replica cannot be started or the run is interrupted
+     */
+    private static void run(int replicaCount, int seconds, int gates, long rate, boolean processes)
+        throws Exception {
+        CarPark carPark = new CarPark(0, 0);
+        for (int i = 0; i < SLOTS; i++) {
+            carPark.addSlot(new ParkingSlot(SlotAddress.fromCode(ParkingSlot.ID_SPACE + i),
+                ParkingSlot.SlotType.VISITOR));
+        }
+        ReplicationPrimary primary = new ReplicationPrimary(carPark, 0);
+        List<ReplicationReplica> replicas = new ArrayList<>();
+        List<Process> children = new ArrayList<>();
+        try {
+            for (int i = 0; i < replicaCount; i++) {
+                if (processes) {
+                    children.add(startReplicaProcess(primary.getPort()));
+                } else {
+                    replicas.add(ReplicationReplica.connect("localhost", primary.getPort(), null));
+                }
+            }
+            while (primary.getReplicaCount() < replicaCount) {
+                Thread.sleep(10);
+            }
+            LongAdder changes = new LongAdder();
+            runGates(carPark, gates, 1000, rate, false, changes);
+            awaitAcknowledged(primary);
+            primary.resetLagStatistics();
+            changes.reset();
+            long start = System.nanoTime();
+            runGates(carPark, gates, seconds * 1000L, rate, true, changes);
+            long elapsed = System.nanoTime() - start;
+            long drainStart = System.nanoTime();
+            awaitAcknowledged(primary);
+            long drain = System.nanoTime() - drainStart;
+            String match = "-";
+            if (!replicas.isEmpty()) {
+                match = "yes";
+                for (ReplicationReplica replica : replicas) {
+                    if (!sameState(carPark, replica.getCarPark())) {
+                        match = "NO";
+                    }
+                }
+            }
+            System.out.printf("%-9d %-12.0f %-12.1f %-12.1f %-10.1f %-8s%n", replicaCount,
+                changes.sum() * 1e9 / elapsed, primary.getMeanLagNanos() / 1e3,
+                primary.getMaxLagNanos() / 1e3, drain / 1e6, match);
+        } finally {
+            for (ReplicationReplica replica : replicas) {
+                replica.close();
+            }
+            for (Process child : children) {
+                child.destroy();
+                child.waitFor();
+            }
+            primary.close();
+        }
+    }
+
+    /**
+     * Parks and removes cars from several threads for a while. Each gate
+     * keeps its most recent cars parked, so that replicas have cars to compare.
+     *
+     * @param carPark     the primary car park
+     * @param gates       number of gate threads
+     * @param millis      how long to run
+     * @param rate        changes per second to offer across all gates, or 0 for as many as possible
+     * @param leaveParked true to leave each gate's recent cars parked at the end
+     * @param changes     counts the changes made
+     * @throws InterruptedException if interrupted while waiting for the gates
+     */
+    private static void runGates(CarPark carPark, int gates, long millis, long rate,
+                                 boolean leaveParked, LongAdder changes)
+        throws InterruptedException {
+        // Each iteration makes two changes once the gate's cars have filled their share.
+        long interval = rate == 0 ? 0 : 2_000_000_000L * gates / rate;
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] threads = new Thread[gates];
+        for (int g = 0; g < gates; g++) {
+            int base = g * REGISTRATIONS_PER_GATE;
+            String owner = "Owner " + g;
+            threads[g] = new Thread(() -> {
+                ParkingSlot[] parked = new ParkingSlot[SLOTS / 2 / gates];
+                int i = 0;
+                long start = System.nanoTime();
+                while (running.get()) {
+                    if (interval > 0) {
+                        long wait = start + i * interval - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    int oldest = i % parked.length;
+                    if (parked[oldest] != null) {
+                        parked[oldest].removeCar();
+                        changes.increment();
+                    }
+                    Car car = new Car(base + i % REGISTRATIONS_PER_GATE, owner, false,
+                        carPark.nowEpochSecond());
+                    parked[oldest] = carPark.parkAnywhere(car);
+                    if (parked[oldest] != null) {
+                        changes.increment();
+                    }
+                    i++;
+                }
+                for (ParkingSlot slot : parked) {
+                    if (slot != null && !leaveParked) {
+                        slot.removeCar();
+                        changes.increment();
+                    }
+                }
+            }, "gate-" + g);
+            threads[g].start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Waits until every replica has acknowledged every change made so far.
+     *
+     * @param primary the primary
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void awaitAcknowledged(ReplicationPrimary primary) throws InterruptedException {
+        long last = primary.getLastSequence();
+        while (primary.getAcknowledgedSequence() < last) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Starts a replica in a separate JVM running {@code Application --replica}.
+     *
+     * @param port the primary's replication port
+     * @return the replica process
+     * @throws IOException if the process cannot be started
+     */
+    private static Process startReplicaProcess(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "Application", "--replica", "localhost:" + port, "0")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
+    /**
+     * Compares two car parks slot by slot: IDs, types and parked cars.
+     *
+     * @param expected the primary car park
+     * @param actual   a replica car park
+     * @return true if they hold the same slots and cars
+     */
+    private static boolean sameState(CarPark expected, CarPark actual) {
+        List<ParkingSlot> a = expected.getAllSlots();
+        List<ParkingSlot> b = actual.getAllSlots();
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            ParkingSlot x = a.get(i);
+            ParkingSlot y = b.get(i);
+            Car carX = x.getParkedCar();
+            Car carY = y.getParkedCar();
+            if (!x.getId().equals(y.getId()) || x.getType() != y.getType()
+                || (carX == null) != (carY == null)
+                || (carX != null && (carX.getRegistrationCode() != carY.getRegistrationCode()
+                    || carX.getParkEpochSecond() != carY.getParkEpochSecond()
+                    || !carX.getOwner().equals(carY.getOwner())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,650 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Primary side of CarPark replication: streams every change of a car park to
+ * {@link ReplicationReplica}s in other processes over TCP, so that a replica
+ * can serve read-only traffic and take over if the primary is lost.
+ * <p>
+ * Registered as a {@link CarParkListener}, the primary encodes each change as a
+ * {@link CarParkJournal} record and gives it the next sequence number, which
+ * fixes one order of all changes. A batcher thread takes whatever has
+ * accumulated as one batch and queues it for every replica; each replica has
+ * its own sender thread, which writes its queued batches without waiting for
+ * the replica to acknowledge earlier ones, so while one batch is in flight the
+ * next one fills up and the batch size adapts to the load. A replica joining
+ * is first sent a {@link CarPark#snapshot()} of the whole car park, then every
+ * batch from the sequence number recorded just before the snapshot was taken.
+ * Gates keep running meanwhile, so the snapshot may already hold some of the
+ * first changes streamed after it; replicas apply each change as the slot's
+ * new state ({@link CarParkJournal#applyAsState(ByteBuffer, CarPark)}), which
+ * makes replaying those changes harmless.
+ * <p>
+ * The stream is a series of frames. The snapshot frame is
+ * {@code int magic, long nextSequence, int length} and a snapshot image;
+ * each batch frame is {@code int length, long firstSequence, int count} and
+ * {@code count} records. Replicas answer each batch with the {@code long}
+ * sequence number of its last record once applied. The time from a record
+ * being appended here to that acknowledgement is the replication lag, measured
+ * on this process's clock only.
+ * <p>
+ * A slow replica only holds up its own sender. Its queue is bounded by
+ * {@value #MAX_BACKLOG_BYTES} bytes of records; a replica that falls further
+ * behind than that, or fails, is dropped and must reconnect for a new snapshot.
+ */
+public final class ReplicationPrimary implements CarParkListener, Closeable {
+    /**
+     * Starts the replication stream ("CPR1").
+     */
+    static final int MAGIC = 0x43505231;
+
+    /**
+     * Initial size of the batch buffers; they grow as needed.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Most bytes of records queued for one replica before it is dropped.
+     */
+    static final long MAX_BACKLOG_BYTES = 64L << 20;
+
+    /**
+     * The car park replicated.
+     */
+    private final CarPark carPark;
+
+    /**
+     * The socket replicas connect to.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Guards {@link #pending}, {@link #nextSequence}, {@link #pendingFirst},
+     * {@link #pendingSince} and {@link #active}. Also signalled when records
+     * arrive.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Checksum calculator for records. Guarded by {@link #lock}.
+     */
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Records not yet taken by the batcher.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Sequence number of the next record.
+     */
+    private long nextSequence = 1;
+
+    /**
+     * Sequence number of the first pending record.
+     */
+    private long pendingFirst = 1;
+
+    /**
+     * {@link System#nanoTime()} when the first pending record was appended.
+     */
+    private long pendingSince;
+
+    /**
+     * Replicas batches are queued for.
+     */
+    private final List<Replica> active = new ArrayList<>();
+
+    /**
+     * Every connected replica, for statistics and {@link #close()}.
+     */
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+
+    /**
+     * Accepts replica connections.
+     */
+    private final Thread acceptor;
+
+    /**
+     * Queues batches for the replicas' senders.
+     */
+    private final Thread batcher;
+
+    /**
+     * True once {@link #close()} has been called.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Starts replicating a car park to replicas connecting on a port.
+     *
+     * @param carPark the car park to replicate
+     * @param port    the TCP port, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public ReplicationPrimary(CarPark carPark, int port) throws IOException {
+        this.carPark = carPark;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        carPark.addListener(this);
+        this.acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        this.batcher = new Thread(this::batchLoop, "replication-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+    /**
+     * Returns the port replicas connect to.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of replicas connected.
+     *
+     * @return the replica count
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * Returns the sequence number of the last change recorded.
+     *
+     * @return the last sequence number, or 0 if there has been no change
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return nextSequence - 1;
+        }
+    }
+
+    /**
+     * Returns the last sequence number every connected replica has applied.
+     *
+     * @return the lowest acknowledged sequence number, or
+     *         {@link #getLastSequence()} if no replica is connected
+     */
+    public long getAcknowledgedSequence() {
+        long acknowledged = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            synchronized (replica) {
+                acknowledged = Math.min(acknowledged, replica.acknowledged);
+            }
+        }
+        return acknowledged == Long.MAX_VALUE ? getLastSequence() : acknowledged;
+    }
+
+    /**
+     * Returns the mean replication lag over every acknowledged batch: the time
+     * from a batch's first record being recorded to a replica applying the batch.
+     *
+     * @return the mean lag in nanoseconds, or 0 if nothing has been acknowledged
+     */
+    public long getMeanLagNanos() {
+        long batches = 0;
+        long total = 0;
+        for (Replica replica : replicas) {
+            synchronized (replica) {
+                batches += replica.lagCount;
+                total += replica.lagTotal;
+            }
+        }
+        return batches == 0 ? 0 : total / batches;
+    }
+
+    /**
+     * Returns the longest replication lag of any acknowledged batch.
+     *
+     * @return the maximum lag in nanoseconds, or 0 if nothing has been acknowledged
+     */
+    public long getMaxLagNanos() {
+        long max = 0;
+        for (Replica replica : replicas) {
+            synchronized (replica) {
+                max = Math.max(max, replica.lagMax);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Clears the lag statistics, e.g. after a warm-up.
+     */
+    public void resetLagStatistics() {
+        for (Replica replica : replicas) {
+            synchronized (replica) {
+                replica.lagCount = 0;
+                replica.lagTotal = 0;
+                replica.lagMax = 0;
+            }
+        }
+    }
+
+    /**
+     * Stops replicating: closes the replica connections and stops listening.
+     *
+     * @throws IOException if the listening socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        carPark.removeListener(this);
+        serverSocket.close();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+    }
+
+    @Override
+    public void slotAdded(ParkingSlot slot) {
+        append(CarParkJournal.ADD_SLOT, slot, null);
+    }
+
+    @Override
+    public void slotDeleted(ParkingSlot slot) {
+        append(CarParkJournal.DELETE_SLOT, slot, null);
+    }
+
+    @Override
+    public void carParked(ParkingSlot slot, Car car) {
+        append(CarParkJournal.PARK, slot, car);
+    }
+
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        append(CarParkJournal.REMOVE, slot, null);
+    }
+
+    /**
+     * Encodes one change as the next record of the pending batch, waking the
+     * batcher if the batch was empty.
+     *
+     * @param type the record type
+     * @param slot the slot that changed
+     * @param car  the parked car for park records; otherwise null
+     */
+    private void append(byte type, ParkingSlot slot, Car car) {
+        byte[] owner = car == null ? null : CarParkJournal.ownerBytes(car);
+        int size = CarParkJournal.recordSize(owner);
+        synchronized (lock) {
+            if (pending.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                    pending.position() + size));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            if (pending.position() == 0) {
+                pendingSince = System.nanoTime();
+                lock.notifyAll();
+            }
+            CarParkJournal.putRecord(pending, crc, type, slot, car, owner);
+            nextSequence++;
+        }
+    }
+
+    /**
+     * Accepts replicas until closed, sending each a snapshot.
+     */
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                join(new Replica(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replica connection failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a new replica to receive batches from the next sequence number on
+     * and starts its sender, which first sends it a snapshot taken after that
+     * sequence number was fixed. Every change before it is therefore in the
+     * snapshot, and every change from it on is queued for the replica.
+     *
+     * @param replica the new replica
+     */
+    private void join(Replica replica) {
+        synchronized (lock) {
+            replica.startSequence = nextSequence;
+            replica.acknowledged = nextSequence - 1;
+            active.add(replica);
+        }
+        replicas.add(replica);
+        Thread sender = new Thread(() -> sendLoop(replica), "replication-sender");
+        sender.setDaemon(true);
+        sender.start();
+        Thread reader = new Thread(() -> readAcknowledgements(replica), "replication-acks");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Takes batches until closed: waits for records, takes everything pending
+     * and queues it for every replica, then repeats. Never waits for a replica.
+     */
+    private void batchLoop() {
+        List<Replica> targets = new ArrayList<>();
+        while (!closed) {
+            Batch batch;
+            synchronized (lock) {
+                while (!closed && pending.position() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                targets.clear();
+                targets.addAll(active);
+                batch = targets.isEmpty() ? null : new Batch(
+                    Arrays.copyOf(pending.array(), pending.position()), pendingFirst,
+                    (int) (nextSequence - pendingFirst), pendingSince);
+                pending.clear();
+                pendingFirst = nextSequence;
+            }
+            for (Replica replica : targets) {
+                if (!replica.enqueue(batch)) {
+                    System.err.println("Replica " + replica.socket.getRemoteSocketAddress()
+                        + " fell more than " + MAX_BACKLOG_BYTES
+                        + " bytes behind and was dropped.");
+                    replica.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes and writes a replica's snapshot, then writes its queued batches
+     * until it is closed or fails, flushing whenever the queue runs dry.
+     * Batches queue up meanwhile, so a snapshot that takes too long to send
+     * drops the replica like any other slow one.
+     *
+     * @param replica the replica
+     */
+    private void sendLoop(Replica replica) {
+        CRC32C check = new CRC32C();
+        try {
+            byte[] image = CarParkJournal.encodeSnapshot(carPark.snapshot());
+            replica.out.writeInt(MAGIC);
+            replica.out.writeLong(replica.startSequence);
+            replica.out.writeInt(image.length);
+            replica.out.write(image);
+            replica.out.flush();
+            while (true) {
+                Batch batch;
+                boolean more;
+                synchronized (replica) {
+                    while (!replica.closed && replica.queue.isEmpty()) {
+                        replica.wait();
+                    }
+                    if (replica.closed) {
+                        return;
+                    }
+                    batch = replica.queue.poll();
+                    replica.queuedBytes -= batch.records.length;
+                    more = !replica.queue.isEmpty();
+                }
+                send(replica, batch, check);
+                if (!more) {
+                    replica.out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            replica.close();
+        }
+    }
+
+    /**
+     * Writes one batch frame to a replica, leaving out any records from before
+     * the replica's snapshot.
+     *
+     * @param replica the replica
+     * @param batch   the batch
+     * @param check   checksum calculator used to skip records
+     * @throws IOException if the replica cannot be written to
+     */
+    private void send(Replica replica, Batch batch, CRC32C check) throws IOException {
+        long first = batch.first;
+        int count = batch.count;
+        long last = first + count - 1;
+        if (last < replica.startSequence) {
+            return;
+        }
+        ByteBuffer records = ByteBuffer.wrap(batch.records);
+        while (first < replica.startSequence) {
+            CarParkJournal.nextRecord(records, check);
+            first++;
+            count--;
+        }
+        synchronized (replica) {
+            replica.inFlight.add(new long[] {last, batch.since});
+        }
+        replica.out.writeInt(records.remaining());
+        replica.out.writeLong(first);
+        replica.out.writeInt(count);
+        replica.out.write(records.array(), records.position(), records.remaining());
+    }
+
+    /**
+     * Reads a replica's acknowledgements until it disconnects, recording the
+     * lag of each acknowledged batch.
+     *
+     * @param replica the replica
+     */
+    private void readAcknowledgements(Replica replica) {
+        try {
+            while (true) {
+                long sequence = replica.in.readLong();
+                long now = System.nanoTime();
+                synchronized (replica) {
+                    replica.acknowledged = sequence;
+                    long[] batch;
+                    while ((batch = replica.inFlight.peek()) != null && batch[0] <= sequence) {
+                        replica.inFlight.poll();
+                        long lag = now - batch[1];
+                        replica.lagCount++;
+                        replica.lagTotal += lag;
+                        replica.lagMax = Math.max(replica.lagMax, lag);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            replica.close();
+        }
+    }
+
+    /**
+     * Records taken together by the batcher.
+     */
+    private static final class Batch {
+        /**
+         * The encoded records.
+         */
+        final byte[] records;
+
+        /**
+         * Sequence number of the first record.
+         */
+        final long first;
+
+        /**
+         * Number of records.
+         */
+        final int count;
+
+        /**
+         * {@link System#nanoTime()} when the first record was appended.
+         */
+        final long since;
+
+        /**
+         * Creates a batch.
+         *
+         * @param records the encoded records
+         * @param first   the sequence number of the first record
+         * @param count   the number of records
+         * @param since   when the first record was appended
+         */
+        Batch(byte[] records, long first, int count, long since) {
+            this.records = records;
+            this.first = first;
+            this.count = count;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Connection to one replica.
+     */
+    private final class Replica {
+        /**
+         * The replica's socket.
+         */
+        final Socket socket;
+
+        /**
+         * Buffered stream of frames to the replica.
+         */
+        final DataOutputStream out;
+
+        /**
+         * Stream of acknowledgements from the replica.
+         */
+        final DataInputStream in;
+
+        /**
+         * Sequence number of the first record after the replica's snapshot.
+         * Set before the replica's threads start.
+         */
+        long startSequence;
+
+        /**
+         * Batches waiting for the replica's sender, oldest first. Guarded by
+         * this object.
+         */
+        final ArrayDeque<Batch> queue = new ArrayDeque<>();
+
+        /**
+         * Total size of the queued batches' records. Guarded by this object.
+         */
+        long queuedBytes;
+
+        /**
+         * True once the connection is closed. Guarded by this object.
+         */
+        boolean closed;
+
+        /**
+         * Last sequence number the replica has applied. Guarded by this object.
+         */
+        long acknowledged;
+
+        /**
+         * Last sequence number and append time of each batch sent but not yet
+         * acknowledged, oldest first. Guarded by this object.
+         */
+        final ArrayDeque<long[]> inFlight = new ArrayDeque<>();
+
+        /**
+         * Number of batches acknowledged. Guarded by this object.
+         */
+        long lagCount;
+
+        /**
+         * Total lag of the acknowledged batches, in nanoseconds. Guarded by this object.
+         */
+        long lagTotal;
+
+        /**
+         * Longest lag of an acknowledged batch, in nanoseconds. Guarded by this object.
+         */
+        long lagMax;
+
+        /**
+         * Wraps a replica's socket.
+         *
+         * @param socket the connected socket
+         * @throws IOException if the socket's streams cannot be opened
+         */
+        Replica(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Queues a batch for the sender and wakes it.
+         *
+         * @param batch the batch
+         * @return false if the batch would take the queue past
+         *         {@link #MAX_BACKLOG_BYTES}; it is not queued
+         */
+        synchronized boolean enqueue(Batch batch) {
+            if (closed) {
+                return true;
+            }
+            if (queuedBytes + batch.records.length > MAX_BACKLOG_BYTES) {
+                return false;
+            }
+            queue.add(batch);
+            queuedBytes += batch.records.length;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Closes the connection and forgets the replica, discarding its queue.
+         */
+        void close() {
+            replicas.remove(this);
+            synchronized (lock) {
+                active.remove(this);
+            }
+            synchronized (this) {
+                closed = true;
+                queue.clear();
+                queuedBytes = 0;
+                notifyAll();
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
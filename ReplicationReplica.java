@@ -0,0 +1,256 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Replica side of CarPark replication: a copy of a {@link ReplicationPrimary}'s
+ * car park, kept up to date from its change stream.
+ * <pre>
+ * ReplicationReplica replica = ReplicationReplica.connect("localhost", 7070, null);
+ * CommandProcessor reads = new CommandProcessor(replica.getCarPark());
+ * reads.setReadOnly(true);
+ * ...
+ * CarPark carPark = replica.promote();   // on failover
+ * reads.setReadOnly(false);
+ * </pre>
+ * Connecting receives a snapshot of the primary's car park; an applier thread
+ * then applies each batch of changes in sequence order and acknowledges it.
+ * Each change is applied as its slot's new state, as the snapshot may already
+ * hold the first few changes streamed after it.
+ * The replica's car park can be read concurrently, e.g. by a
+ * {@link CarParkServer} with a read-only {@link CommandProcessor}, and shows
+ * the primary's state as of {@link #getAppliedSequence()}. It must not be
+ * changed other than by the applier until the replica is promoted.
+ * <p>
+ * If the primary is lost the stream ends, the applier stops and the handler
+ * given to {@link #connect(String, int, Runnable)} is called. {@link #promote()}
+ * then detaches the car park from the primary for good, so it can take writes
+ * and, with a new {@link ReplicationPrimary}, feed replicas of its own.
+ */
+public class ReplicationReplica implements Closeable {
+    /**
+     * The socket connected to the primary.
+     */
+    private final Socket socket;
+
+    /**
+     * Stream of frames from the primary.
+     */
+    private final DataInputStream in;
+
+    /**
+     * Stream of acknowledgements to the primary.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * The replicated car park.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Called once when the stream from the primary ends, unless promoted or closed first.
+     */
+    private final Runnable onPrimaryLost;
+
+    /**
+     * Applies batches as they arrive.
+     */
+    private final Thread applier;
+
+    /**
+     * Sequence number of the last change applied.
+     */
+    private volatile long appliedSequence;
+
+    /**
+     * Number of batches applied.
+     */
+    private volatile long appliedBatches;
+
+    /**
+     * True once the stream from the primary has ended.
+     */
+    private volatile boolean disconnected;
+
+    /**
+     * True once the replica has been promoted or closed.
+     */
+    private volatile boolean detached;
+
+    /**
+     * Reads the snapshot from a connected primary and starts applying its changes.
+     *
+     * @param socket        the connected socket
+     * @param onPrimaryLost called when the stream ends, or null
+     * @throws IOException if the snapshot cannot be read
+     */
+    private ReplicationReplica(Socket socket, Runnable onPrimaryLost) throws IOException {
+        this.socket = socket;
+        this.onPrimaryLost = onPrimaryLost;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != ReplicationPrimary.MAGIC) {
+            throw new IOException("Not a car park replication stream.");
+        }
+        long nextSequence = in.readLong();
+        byte[] image = new byte[in.readInt()];
+        in.readFully(image);
+        this.carPark = CarParkJournal.readSnapshot(new ByteArrayInputStream(image), "primary");
+        this.appliedSequence = nextSequence - 1;
+        this.applier = new Thread(this::applyLoop, "replication-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * Connects to a primary and starts replicating its car park.
+     *
+     * @param host          the primary's host
+     * @param port          the primary's replication port
+     * @param onPrimaryLost called on the applier thread if the stream from the
+     *                      primary ends, e.g. to promote this replica; may be null
+     * @return the replica, holding the primary's state as of connecting
+     * @throws IOException if the primary cannot be reached or its snapshot read
+     */
+    public static ReplicationReplica connect(String host, int port, Runnable onPrimaryLost)
+        throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port));
+            socket.setTcpNoDelay(true);
+            return new ReplicationReplica(socket, onPrimaryLost);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the replicated car park.
+     *
+     * @return the car park
+     */
+    public CarPark getCarPark() {
+        return carPark;
+    }
+
+    /**
+     * Returns the sequence number of the last change applied.
+     *
+     * @return the applied sequence number
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns the number of batches applied.
+     *
+     * @return the batch count
+     */
+    public long getAppliedBatches() {
+        return appliedBatches;
+    }
+
+    /**
+     * Indicates whether changes are still arriving from the primary.
+     *
+     * @return true until the stream ends or the replica is promoted or closed
+     */
+    public boolean isConnected() {
+        return !disconnected && !detached;
+    }
+
+    /**
+     * Stops replicating and makes the car park this process's own, to take
+     * writes in place of a lost primary. Changes the primary made after
+     * {@link #getAppliedSequence()} are not applied.
+     *
+     * @return the car park, now independent of the primary
+     * @throws InterruptedException if interrupted while the applier finishes its batch
+     */
+    public CarPark promote() throws InterruptedException {
+        close();
+        if (Thread.currentThread() != applier) {
+            applier.join();
+        }
+        return carPark;
+    }
+
+    /**
+     * Stops replicating and disconnects from the primary.
+     */
+    @Override
+    public void close() {
+        detached = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Applies batches until the stream ends, acknowledging each.
+     */
+    private void applyLoop() {
+        CRC32C check = new CRC32C();
+        ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+        try {
+            while (!detached) {
+                int length = in.readInt();
+                long first = in.readLong();
+                int count = in.readInt();
+                if (first != appliedSequence + 1) {
+                    throw new IOException("Replication stream skipped from "
+                        + appliedSequence + " to " + first + ".");
+                }
+                if (batch.capacity() < length) {
+                    batch = ByteBuffer.allocate(Math.max(length, batch.capacity() * 2));
+                }
+                batch.clear().limit(length);
+                in.readFully(batch.array(), 0, length);
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer record = CarParkJournal.nextRecord(batch, check);
+                    if (record == null) {
+                        throw new IOException("Corrupt replication record " + (first + i) + ".");
+                    }
+                    CarParkJournal.applyAsState(record, carPark);
+                }
+                appliedSequence = first + count - 1;
+                appliedBatches++;
+                out.writeLong(appliedSequence);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // The primary closed the stream.
+        } catch (IOException | RuntimeException e) {
+            if (!detached) {
+                System.err.println("Replication stopped: " + e.getMessage());
+            }
+        }
+        disconnected = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        if (!detached && onPrimaryLost != null) {
+            onPrimaryLost.run();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures {@link ReportExporter} export time against slot count and the
+ * number of threads rendering, for CSV and JSON slot exports and summaries.
+ * <p>
+ * Each site is half occupied, or as near as the registration space allows.
+ * As a baseline, the console listing's {@code String.format} table is written
+ * to a file row by row on one thread.
+ * Thread counts default to 1, 2, 4 and so on up to the number of available
+ * processors. Run with
+ * {@code java ReportExportBenchmark [slotCounts... [--threads counts...]]}.
+ */
+public class ReportExportBenchmark {
+    /**
+     * Slot counts measured when none are given.
+     */
+    private static final int[] DEFAULT_SLOTS = {10_000, 100_000, 1_000_000};
+
+    /**
+     * Number of timed runs of each export; the fastest is reported.
+     */
+    private static final int RUNS = 3;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args slot counts, then {@code --threads} and thread counts
+     * @throws IOException if the temporary export file cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        List<Integer> slotCounts = new ArrayList<>();
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        boolean threads = false;
+        for (String arg : args) {
+            if ("--threads".equals(arg)) {
+                threads = true;
+            } else {
+                (threads ? threadCounts : slotCounts).add(Integer.parseInt(arg));
+            }
+        }
+        if (slotCounts.isEmpty()) {
+            for (int slots : DEFAULT_SLOTS) {
+                slotCounts.add(slots);
+            }
+        }
+        if (threadCounts.isEmpty()) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n < processors; n *= 2) {
+                threadCounts.add(n);
+            }
+            threadCounts.add(processors);
+        }
+        System.out.printf("%d available processors%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-9s %-16s %-8s %-10s %-8s %-8s%n",
+            "Slots", "Export", "Threads", "Ms", "MB", "MB/s");
+        Path file = Files.createTempFile("carpark-export", ".out");
+        try {
+            for (int slots : slotCounts) {
+                CarPark carPark = createCarPark(slots);
+                report(slots, "listing", 1, file, () -> writeListing(carPark, file));
+                for (int n : threadCounts) {
+                    ForkJoinPool pool = new ForkJoinPool(n);
+                    try {
+                        ReportExporter exporter = new ReportExporter(pool);
+                        for (ReportExporter.Format format : ReportExporter.Format.values()) {
+                            report(slots, format.name().toLowerCase() + " slots", n, file,
+                                () -> exporter.exportSlots(carPark, file, format));
+                        }
+                        report(slots, "csv summary", n, file,
+                            () -> exporter.exportSummary(carPark, file, ReportExporter.Format.CSV));
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Creates a car park of visitor slots with every other slot occupied by
+     * a car parked up to a day ago, or fewer on sites with more slots than
+     * there are registrations.
+     *
+     * @param slots the number of slots
+     * @return the car park
+     */
+    private static CarPark createCarPark(int slots) {
+        List<ParkingSlot> created = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            created.add(new ParkingSlot(SlotAddress.fromCode(ParkingSlot.ID_SPACE + i),
+                ParkingSlot.SlotType.VISITOR));
+        }
+        CarPark carPark = new CarPark(0, 0);
+        carPark.addSlots(created);
+        long now = carPark.nowEpochSecond();
+        int stride = Math.max(2, (slots + Car.REGISTRATION_SPACE - 1) / Car.REGISTRATION_SPACE);
+        for (int i = 0; i < slots; i += stride) {
+            created.get(i).parkCar(new Car(i / stride, "Owner " + i % 100, i % 3 == 0,
+                now - i % 86_400));
+        }
+        return carPark;
+    }
+
+    /**
+     * Times an export and prints its row.
+     *
+     * @param slots   the slot count
+     * @param name    names the export
+     * @param threads the number of rendering threads
+     * @param file    the file written
+     * @param export  writes the file
+     * @throws IOException if the file cannot be written
+     */
+    private static void report(int slots, String name, int threads, Path file, Export export)
+        throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            export.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double megabytes = Files.size(file) / 1e6;
+        System.out.printf("%-9d %-16s %-8d %-10.1f %-8.1f %-8.0f%n", slots, name, threads,
+            best / 1e6, megabytes, megabytes * 1e9 / best);
+    }
+
+    /**
+     * Writes the console listing's table to a file, one {@code String.format}
+     * row per slot.
+     *
+     * @param carPark the car park
+     * @param file    the file to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeListing(CarPark carPark, Path file) throws IOException {
+        long now = carPark.nowEpochSecond();
+        Tariff tariff = carPark.getTariff();
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(file),
+            1 << 16))) {
+            for (CarParkSnapshot.SlotState slot : carPark.snapshot()) {
+                String reg = "-", owner = "-", parkTime = "-", fee = "-";
+                if (slot.isOccupied()) {
+                    reg = slot.getRegistrationNumber();
+                    owner = slot.getOwner();
+                    parkTime = slot.getParkTime().toString();
+                    fee = Tariff.formatCents(tariff.fee(slot.getType(), slot.getParkEpochSecond(), now));
+                }
+                out.printf("%-5s %-7s %-9s %-10s %-8s %-20s %-6s%n", slot.getId(),
+                    slot.getType().name().toLowerCase(), slot.isOccupied() ? "Yes" : "No",
+                    reg, owner, parkTime, fee);
+            }
+        }
+    }
+
+    /**
+     * An export that may fail with an I/O error.
+     */
+    private interface Export {
+        /**
+         * Writes the export.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        void run() throws IOException;
+    }
+}
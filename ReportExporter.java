@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Exports slot status, current fees and occupancy summaries of a CarPark to
+ * CSV or JSON files, for sites too large for the console listing.
+ * <p>
+ * An export reads one {@link CarParkSnapshot}, so it is consistent even while
+ * cars come and go, and prices every stay at the same instant. The snapshot is
+ * divided into slot ID ranges (see {@link CarParkSnapshot#splitPoints(int)})
+ * of about {@value #ROWS_PER_PARTITION} slots, which tasks on a
+ * {@link ForkJoinPool} render to bytes in parallel. The rendered ranges are
+ * written in order through a direct buffer to a {@link FileChannel} as they
+ * complete, with only a few ranges per worker thread rendered ahead of the
+ * writer, so memory use does not grow with the size of the site.
+ * <p>
+ * CSV slot exports have one row per slot:
+ * <pre>
+ * id,type,occupied,registration,owner,staff_owner,park_time,fee_cents
+ * L01-A-0001,staff,true,T1234,Ann Lee,true,2025-10-14T09:30:00,1200
+ * L01-A-0002,staff,false,,,,,
+ * </pre>
+ * JSON slot exports hold the same fields in a {@code slots} array, followed by
+ * the occupancy summary. Summary exports give each slot type's total,
+ * occupied and free slots, occupancy and accrued fees, and a total row.
+ */
+public class ReportExporter {
+    /**
+     * Formats of exported files.
+     */
+    public enum Format { CSV, JSON }
+
+    /**
+     * Approximate number of slots rendered by one task.
+     */
+    private static final int ROWS_PER_PARTITION = 4096;
+
+    /**
+     * Number of rendered ranges that may wait for the writer, per worker thread.
+     */
+    private static final int AHEAD_PER_THREAD = 2;
+
+    /**
+     * Size of the direct buffer files are written through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Format of park times and of the export time, to the second.
+     */
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * Header row of CSV slot exports.
+     */
+    private static final String CSV_SLOT_HEADER =
+        "id,type,occupied,registration,owner,staff_owner,park_time,fee_cents\n";
+
+    /**
+     * Header row of CSV summary exports.
+     */
+    private static final String CSV_SUMMARY_HEADER =
+        "type,total,occupied,free,occupancy_percent,fee_cents\n";
+
+    /**
+     * Renders slot ranges.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs an exporter that renders on the common fork-join pool.
+     */
+    public ReportExporter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an exporter that renders on a given pool.
+     *
+     * @param pool the pool to render slot ranges on
+     */
+    public ReportExporter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Exports every slot's status and current fee, replacing any existing file.
+     * JSON exports end with the occupancy summary.
+     *
+     * @param carPark the car park
+     * @param file    the file to write
+     * @param format  the file format
+     * @return the occupancy summary of the exported slots
+     * @throws IOException if the file cannot be written
+     */
+    public Summary exportSlots(CarPark carPark, Path file, Format format) throws IOException {
+        CarParkSnapshot snapshot = carPark.snapshot();
+        long now = carPark.nowEpochSecond();
+        Tariff tariff = carPark.getTariff();
+        long[] fees = new long[ParkingSlot.SlotType.values().length];
+        try (Output out = new Output(file)) {
+            if (format == Format.CSV) {
+                out.write(CSV_SLOT_HEADER);
+            } else {
+                out.write("{\"generatedAt\":\"" + formatTime(now) + "\",\"slots\":[\n");
+            }
+            boolean first = true;
+            Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            try {
+                for (Iterable<CarParkSnapshot.SlotState> range : ranges(snapshot)) {
+                    pending.add(pool.submit(() -> render(range, format, tariff, now)));
+                    if (pending.size() >= pool.getParallelism() * AHEAD_PER_THREAD) {
+                        first = write(out, pending.remove().join(), format, first, fees);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    first = write(out, pending.remove().join(), format, first, fees);
+                }
+            } finally {
+                for (ForkJoinTask<Chunk> task : pending) {
+                    task.cancel(false);
+                }
+            }
+            Summary summary = new Summary(snapshot, fees);
+            if (format == Format.JSON) {
+                out.write(first ? "]," : "\n],");
+                out.write("\"summary\":" + summary.toJson() + "}\n");
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Exports the occupancy summary, replacing any existing file. The fees
+     * are summed over slot ranges in parallel.
+     *
+     * @param carPark the car park
+     * @param file    the file to write
+     * @param format  the file format
+     * @return the summary
+     * @throws IOException if the file cannot be written
+     */
+    public Summary exportSummary(CarPark carPark, Path file, Format format) throws IOException {
+        CarParkSnapshot snapshot = carPark.snapshot();
+        long now = carPark.nowEpochSecond();
+        Tariff tariff = carPark.getTariff();
+        List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+        for (Iterable<CarParkSnapshot.SlotState> range : ranges(snapshot)) {
+            tasks.add(pool.submit(() -> sumFees(range, tariff, now)));
+        }
+        long[] fees = new long[ParkingSlot.SlotType.values().length];
+        for (ForkJoinTask<long[]> task : tasks) {
+            long[] part = task.join();
+            for (int t = 0; t < fees.length; t++) {
+                fees[t] += part[t];
+            }
+        }
+        Summary summary = new Summary(snapshot, fees);
+        try (Output out = new Output(file)) {
+            if (format == Format.CSV) {
+                out.write(summary.toCsv());
+            } else {
+                out.write("{\"generatedAt\":\"" + formatTime(now) + "\",\"summary\":"
+                    + summary.toJson() + "}\n");
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Divides a snapshot into slot ID ranges for rendering, with several
+     * ranges per worker thread and about {@value #ROWS_PER_PARTITION} slots each.
+     *
+     * @param snapshot the snapshot
+     * @return the ranges, in slot ID order
+     */
+    private List<Iterable<CarParkSnapshot.SlotState>> ranges(CarParkSnapshot snapshot) {
+        int parts = Math.max(pool.getParallelism() * AHEAD_PER_THREAD * 2,
+            snapshot.size() / ROWS_PER_PARTITION);
+        List<String> points = snapshot.splitPoints(parts);
+        List<Iterable<CarParkSnapshot.SlotState>> ranges = new ArrayList<>(points.size() + 1);
+        String from = null;
+        for (String to : points) {
+            ranges.add(snapshot.range(from, to));
+            from = to;
+        }
+        ranges.add(snapshot.range(from, null));
+        return ranges;
+    }
+
+    /**
+     * Writes a rendered range, separating it from the previous one in JSON,
+     * and adds its fees to the running totals.
+     *
+     * @param out    the output
+     * @param chunk  the rendered range
+     * @param format the file format
+     * @param first  true if no slot has been written yet
+     * @param fees   running fee totals per slot type ordinal
+     * @return true if still no slot has been written
+     * @throws IOException if the file cannot be written
+     */
+    private static boolean write(Output out, Chunk chunk, Format format, boolean first,
+                                 long[] fees) throws IOException {
+        for (int t = 0; t < fees.length; t++) {
+            fees[t] += chunk.fees[t];
+        }
+        if (chunk.bytes.length == 0) {
+            return first;
+        }
+        if (format == Format.JSON && !first) {
+            out.write(",\n");
+        }
+        out.write(chunk.bytes);
+        return false;
+    }
+
+    /**
+     * Renders the slots of a range and sums their fees. JSON rows are
+     * separated by commas, without one before the first or after the last.
+     *
+     * @param range  the slots
+     * @param format the file format
+     * @param tariff the tariff to price stays with
+     * @param now    the end of the stays, in local epoch seconds
+     * @return the rendered range
+     */
+    private static Chunk render(Iterable<CarParkSnapshot.SlotState> range, Format format,
+                                Tariff tariff, long now) {
+        StringBuilder text = new StringBuilder(ROWS_PER_PARTITION * 64);
+        long[] fees = new long[ParkingSlot.SlotType.values().length];
+        tariff.priceAll(range, now, fees, (slot, fee) -> {
+            if (format == Format.CSV) {
+                appendCsvRow(text, slot, fee);
+            } else {
+                if (text.length() > 0) {
+                    text.append(",\n");
+                }
+                appendJsonRow(text, slot, fee);
+            }
+        });
+        return new Chunk(text.toString().getBytes(StandardCharsets.UTF_8), fees);
+    }
+
+    /**
+     * Sums the fees of the cars parked in a range of slots.
+     *
+     * @param range  the slots
+     * @param tariff the tariff to price stays with
+     * @param now    the end of the stays, in local epoch seconds
+     * @return the fees in cents, per slot type ordinal
+     */
+    private static long[] sumFees(Iterable<CarParkSnapshot.SlotState> range, Tariff tariff,
+                                  long now) {
+        long[] fees = new long[ParkingSlot.SlotType.values().length];
+        tariff.priceAll(range, now, fees);
+        return fees;
+    }
+
+    /**
+     * Appends a slot's CSV row.
+     *
+     * @param text the text to append to
+     * @param slot the slot
+     * @param fee  the current fee in cents, or -1 if the slot is free
+     */
+    private static void appendCsvRow(StringBuilder text, CarParkSnapshot.SlotState slot, long fee) {
+        text.append(slot.getId()).append(',')
+            .append(slot.getType().name().toLowerCase()).append(',')
+            .append(slot.isOccupied()).append(',');
+        if (slot.isOccupied()) {
+            text.append(slot.getRegistrationNumber()).append(',');
+            appendCsvField(text, slot.getOwner());
+            text.append(',').append(slot.isStaffOwner())
+                .append(',').append(formatTime(slot.getParkEpochSecond()))
+                .append(',').append(fee);
+        } else {
+            text.append(",,,,");
+        }
+        text.append('\n');
+    }
+
+    /**
+     * Appends a slot's JSON object; free slots omit the car's fields.
+     *
+     * @param text the text to append to
+     * @param slot the slot
+     * @param fee  the current fee in cents, or -1 if the slot is free
+     */
+    private static void appendJsonRow(StringBuilder text, CarParkSnapshot.SlotState slot, long fee) {
+        text.append("{\"id\":\"").append(slot.getId())
+            .append("\",\"type\":\"").append(slot.getType().name().toLowerCase())
+            .append("\",\"occupied\":").append(slot.isOccupied());
+        if (slot.isOccupied()) {
+            text.append(",\"registration\":\"").append(slot.getRegistrationNumber())
+                .append("\",\"owner\":");
+            appendJsonString(text, slot.getOwner());
+            text.append(",\"staffOwner\":").append(slot.isStaffOwner())
+                .append(",\"parkTime\":\"").append(formatTime(slot.getParkEpochSecond()))
+                .append("\",\"feeCents\":").append(fee);
+        }
+        text.append('}');
+    }
+
+    /**
+     * Appends a CSV field, quoting it if it holds a comma, quote or line break.
+     *
+     * @param text  the text to append to
+     * @param value the field value
+     */
+    private static void appendCsvField(StringBuilder text, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            text.append(value);
+            return;
+        }
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                text.append('"');
+            }
+            text.append(c);
+        }
+        text.append('"');
+    }
+
+    /**
+     * Appends a JSON string literal.
+     *
+     * @param text  the text to append to
+     * @param value the string
+     */
+    private static void appendJsonString(StringBuilder text, String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                text.append('\\').append(c);
+            } else if (c < 0x20) {
+                text.append(String.format("\\u%04x", (int) c));
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+    }
+
+    /**
+     * Formats local epoch seconds as an ISO local date-time to the second.
+     *
+     * @param epochSecond local epoch seconds
+     * @return the formatted time
+     */
+    private static String formatTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).format(TIME_FORMAT);
+    }
+
+    /**
+     * Occupancy of each slot type, and the fees accrued by the cars parked,
+     * as of an export.
+     */
+    public static final class Summary {
+        /**
+         * Number of slots of each type, indexed by slot type ordinal.
+         */
+        private final int[] totals;
+
+        /**
+         * Number of occupied slots of each type, indexed by slot type ordinal.
+         */
+        private final int[] occupied;
+
+        /**
+         * Fees accrued in cents in slots of each type, indexed by slot type ordinal.
+         */
+        private final long[] fees;
+
+        /**
+         * Constructs a summary from a snapshot's counts and summed fees.
+         *
+         * @param snapshot the exported snapshot
+         * @param fees     fees per slot type ordinal; not copied
+         */
+        Summary(CarParkSnapshot snapshot, long[] fees) {
+            ParkingSlot.SlotType[] types = ParkingSlot.SlotType.values();
+            this.totals = new int[types.length];
+            this.occupied = new int[types.length];
+            for (ParkingSlot.SlotType type : types) {
+                totals[type.ordinal()] = snapshot.getTotal(type);
+                occupied[type.ordinal()] = snapshot.getOccupied(type);
+            }
+            this.fees = fees;
+        }
+
+        /**
+         * Returns the number of slots of a type.
+         *
+         * @param type the slot type
+         * @return the slot count
+         */
+        public int getTotal(ParkingSlot.SlotType type) {
+            return totals[type.ordinal()];
+        }
+
+        /**
+         * Returns the number of occupied slots of a type.
+         *
+         * @param type the slot type
+         * @return the occupied count
+         */
+        public int getOccupied(ParkingSlot.SlotType type) {
+            return occupied[type.ordinal()];
+        }
+
+        /**
+         * Returns the fees accrued by the cars parked in slots of a type.
+         *
+         * @param type the slot type
+         * @return the fees in cents
+         */
+        public long getFeeCents(ParkingSlot.SlotType type) {
+            return fees[type.ordinal()];
+        }
+
+        /**
+         * Returns the fees accrued by every parked car.
+         *
+         * @return the fees in cents
+         */
+        public long getFeeCents() {
+            long total = 0;
+            for (long fee : fees) {
+                total += fee;
+            }
+            return total;
+        }
+
+        /**
+         * Renders the summary as CSV: a header, a row per slot type and an
+         * {@code all} row.
+         *
+         * @return the CSV text
+         */
+        String toCsv() {
+            StringBuilder text = new StringBuilder(CSV_SUMMARY_HEADER);
+            int allTotal = 0;
+            int allOccupied = 0;
+            for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                appendCsvLine(text, type.name().toLowerCase(), getTotal(type), getOccupied(type),
+                    getFeeCents(type));
+                allTotal += getTotal(type);
+                allOccupied += getOccupied(type);
+            }
+            appendCsvLine(text, "all", allTotal, allOccupied, getFeeCents());
+            return text.toString();
+        }
+
+        /**
+         * Renders the summary as a JSON array with an object per slot type
+         * and one for all slots.
+         *
+         * @return the JSON text
+         */
+        String toJson() {
+            StringBuilder text = new StringBuilder("[");
+            int allTotal = 0;
+            int allOccupied = 0;
+            for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                appendJsonObject(text, type.name().toLowerCase(), getTotal(type), getOccupied(type),
+                    getFeeCents(type));
+                text.append(',');
+                allTotal += getTotal(type);
+                allOccupied += getOccupied(type);
+            }
+            appendJsonObject(text, "all", allTotal, allOccupied, getFeeCents());
+            return text.append(']').toString();
+        }
+
+        /**
+         * Appends a CSV summary row.
+         *
+         * @param text     the text to append to
+         * @param type     the row's type name
+         * @param total    the slot count
+         * @param occupied the occupied count
+         * @param fees     the fees in cents
+         */
+        private static void appendCsvLine(StringBuilder text, String type, int total, int occupied,
+                                         long fees) {
+            text.append(type).append(',').append(total).append(',').append(occupied)
+                .append(',').append(total - occupied).append(',')
+                .append(percent(occupied, total)).append(',').append(fees).append('\n');
+        }
+
+        /**
+         * Appends a JSON summary object.
+         *
+         * @param text     the text to append to
+         * @param type     the object's type name
+         * @param total    the slot count
+         * @param occupied the occupied count
+         * @param fees     the fees in cents
+         */
+        private static void appendJsonObject(StringBuilder text, String type, int total, int occupied,
+                                          long fees) {
+            text.append("{\"type\":\"").append(type)
+                .append("\",\"total\":").append(total)
+                .append(",\"occupied\":").append(occupied)
+                .append(",\"free\":").append(total - occupied)
+                .append(",\"occupancyPercent\":").append(percent(occupied, total))
+                .append(",\"feeCents\":").append(fees).append('}');
+        }
+
+        /**
+         * Formats an occupancy percentage to one decimal place.
+         *
+         * @param occupied the occupied count
+         * @param total    the slot count
+         * @return the percentage, e.g. "62.5"
+         */
+        private static String percent(int occupied, int total) {
+            long tenths = total == 0 ? 0 : Math.round(occupied * 1000.0 / total);
+            return tenths / 10 + "." + tenths % 10;
+        }
+    }
+
+    /**
+     * A rendered slot range and the fees of its parked cars.
+     */
+    private static final class Chunk {
+        /**
+         * The rendered rows, UTF-8 encoded.
+         */
+        final byte[] bytes;
+
+        /**
+         * Fees in cents per slot type ordinal.
+         */
+        final long[] fees;
+
+        /**
+         * Constructs a chunk.
+         *
+         * @param bytes the rendered rows
+         * @param fees  the fees per slot type ordinal
+         */
+        Chunk(byte[] bytes, long[] fees) {
+            this.bytes = bytes;
+            this.fees = fees;
+        }
+    }
+
+    /**
+     * A file written through a direct buffer, flushed to its channel when full.
+     */
+    private static final class Output implements AutoCloseable {
+        /**
+         * The file's channel.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Bytes not yet written to the channel.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * Opens a file for writing, replacing its contents.
+         *
+         * @param file the file
+         * @throws IOException if the file cannot be opened
+         */
+        Output(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Writes text, UTF-8 encoded.
+         *
+         * @param text the text
+         * @throws IOException if the file cannot be written
+         */
+        void write(String text) throws IOException {
+            write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Writes bytes.
+         *
+         * @param bytes the bytes
+         * @throws IOException if the file cannot be written
+         */
+        void write(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * Writes the buffered bytes to the channel.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes the buffered bytes and closes the file.
+         *
+         * @throws IOException if the file cannot be written or closed
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Measures {@link ReservationBook} as the number of bookings grows.
+ * <p>
+ * For each size, books that many random windows of 30 minutes to 6 hours
+ * over the next 90 days across 10,000 visitor bays, then times single-slot
+ * availability checks, the parking-rule check made on every park,
+ * free-slot searches for a two-hour window, and booking any free slot.
+ * Run with {@code java ReservationBenchmark [bookings...]}.
+ */
+public class ReservationBenchmark {
+    /**
+     * Booking counts measured when no arguments are given.
+     */
+    private static final int[] DEFAULT_BOOKINGS = {10_000, 100_000, 500_000};
+
+    /**
+     * Number of bays booked.
+     */
+    private static final int SLOTS = 10_000;
+
+    /**
+     * Length of the booking horizon, in seconds.
+     */
+    private static final int HORIZON_SECONDS = 90 * 86_400;
+
+    /**
+     * Number of timed calls per query benchmark.
+     */
+    private static final int QUERIES = 200_000;
+
+    /**
+     * Accumulates results so the JIT cannot discard benchmarked work.
+     */
+    private static long sink;
+
+    /**
+     * Benchmark entry point.
+     *
+     * @param args booking counts to measure; defaults if empty
+     */
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_BOOKINGS;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-10s %-16s %-12s %-14s%n", "Bookings", "Benchmark", "ns/op", "ops/s");
+        for (int bookings : sizes) {
+            run(bookings);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Builds a book of the given size and runs every benchmark on it.
+     *
+     * @param bookings the number of bookings to hold
+     */
+    private static void run(int bookings) {
+        CarPark carPark = new CarPark(0, 0);
+        List<ParkingSlot> slots = new ArrayList<>(SLOTS);
+        String[] ids = new String[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            ids[i] = SlotAddress.fromCode(ParkingSlot.ID_SPACE + i);
+            slots.add(new ParkingSlot(ids[i], ParkingSlot.SlotType.VISITOR));
+        }
+        carPark.addSlots(slots);
+        ReservationBook book = new ReservationBook(carPark);
+        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        SplittableRandom random = new SplittableRandom(42);
+
+        long start = System.nanoTime();
+        int made = 0;
+        int attempts = 0;
+        while (made < bookings) {
+            long from = now + 3600 + random.nextInt(HORIZON_SECONDS);
+            long to = from + 1800 + random.nextInt(6 * 3600 - 1800);
+            attempts++;
+            try {
+                book.reserve(ids[random.nextInt(SLOTS)], Car.decodeRegistration(made % 200_000),
+                    from, to);
+                made++;
+            } catch (IllegalStateException e) {
+                // Clashes with an existing booking; try another window.
+            }
+        }
+        report(bookings, "reserve", attempts, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            long from = now + random.nextInt(HORIZON_SECONDS);
+            sink += book.isFree(ids[random.nextInt(SLOTS)], from, from + 7200) ? 1 : 0;
+        }
+        report(bookings, "isFree", QUERIES, System.nanoTime() - start);
+
+        Car car = new Car("Z9999", "Bench", false, LocalDateTime.now());
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            sink += book.allows(slots.get(random.nextInt(SLOTS)), car) ? 1 : 0;
+        }
+        report(bookings, "parkRuleCheck", QUERIES, System.nanoTime() - start);
+
+        int searches = QUERIES / 1000;
+        start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            long from = now + 3600 + random.nextInt(HORIZON_SECONDS);
+            sink += book.findFreeSlots(ParkingSlot.SlotType.VISITOR, from, from + 7200).size();
+        }
+        report(bookings, "findFreeSlots", searches, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            long from = now + 3600 + random.nextInt(HORIZON_SECONDS);
+            ReservationBook.Reservation reservation = book.reserveAny(
+                ParkingSlot.SlotType.VISITOR, "Y0001", from, from + 7200);
+            if (reservation != null) {
+                book.cancel(reservation);
+            }
+        }
+        report(bookings, "reserveAny", searches, System.nanoTime() - start);
+    }
+
+    /**
+     * Prints one result row.
+     *
+     * @param bookings the number of bookings held
+     * @param name     the benchmark name
+     * @param ops      the number of operations timed
+     * @param nanos    the total time taken
+     */
+    private static void report(int bookings, String name, long ops, long nanos) {
+        System.out.printf("%-10d %-16s %-12.1f %-14.0f%n",
+            bookings, name, (double) nanos / ops, ops * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,724 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Advance bookings of slots in a CarPark for future time windows.
+ * <p>
+ * Bookings are indexed twice: per slot, in start order, so whether one slot
+ * is free for a window takes O(log k) for k bookings of that slot; and per
+ * slot type, in an interval tree, so all bookings of a type overlapping a
+ * window are found in O(log n + m). Windows are half-open, {@code [from, to)},
+ * in epoch seconds of the local date-time.
+ * <p>
+ * The book installs itself as the car park's {@link ParkingRule}: while a
+ * booking is active, only the car it was made for may park in the slot, and
+ * {@link CarPark#parkAnywhere(Car)} passes over it. {@link #checkIn(Car)}
+ * parks an arriving car in the slot it booked. Bookings of deleted slots
+ * are dropped.
+ */
+public final class ReservationBook implements ParkingRule, CarParkListener {
+    /**
+     * The car park whose slots are booked.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Bookings of each slot by start time. Bookings of one slot never overlap.
+     */
+    private final Map<String, NavigableMap<Long, Reservation>> bySlot = new HashMap<>();
+
+    /**
+     * Bookings of each slot type, by window.
+     */
+    private final Map<ParkingSlot.SlotType, IntervalTree> byType =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Bookings by registration number, for check-in.
+     */
+    private final Map<String, List<Reservation>> byRegistration = new HashMap<>();
+
+    /**
+     * Guards all indexes; bookings take the write lock, queries the read lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Source of booking numbers.
+     */
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * Number of bookings held.
+     */
+    private int size;
+
+    /**
+     * Creates an empty book for a car park and installs it as the car park's
+     * parking rule.
+     *
+     * @param carPark the car park whose slots are booked
+     */
+    public ReservationBook(CarPark carPark) {
+        this.carPark = carPark;
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            byType.put(type, new IntervalTree());
+        }
+        carPark.addListener(this);
+        carPark.setParkingRule(this);
+    }
+
+    /**
+     * Books a slot for a window.
+     *
+     * @param slotId       the slot to book
+     * @param registration the registration number of the car it is for
+     * @param from         start of the window, in local epoch seconds
+     * @param to           end of the window, exclusive
+     * @return the booking
+     * @throws IllegalArgumentException if the slot does not exist or the window is empty
+     * @throws IllegalStateException    if the slot is already booked during the window
+     */
+    public Reservation reserve(String slotId, String registration, long from, long to) {
+        if (to <= from) {
+            throw new IllegalArgumentException("Reservation must end after it starts.");
+        }
+        ParkingSlot slot = carPark.findSlotById(slotId);
+        if (slot == null) {
+            throw new IllegalArgumentException("Slot " + slotId + " not found.");
+        }
+        lock.writeLock().lock();
+        try {
+            if (overlapping(slotId, from, to) != null) {
+                throw new IllegalStateException("Slot is already reserved for that time.");
+            }
+            return add(slot, registration, from, to);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Books the lowest-numbered slot of a type that is free for a window.
+     *
+     * @param type         the slot type
+     * @param registration the registration number of the car it is for
+     * @param from         start of the window, in local epoch seconds
+     * @param to           end of the window, exclusive
+     * @return the booking, or null if no slot of the type is free for the window
+     * @throws IllegalArgumentException if the window is empty
+     */
+    public Reservation reserveAny(ParkingSlot.SlotType type, String registration,
+                                  long from, long to) {
+        if (to <= from) {
+            throw new IllegalArgumentException("Reservation must end after it starts.");
+        }
+        lock.writeLock().lock();
+        try {
+            // Checking slots one by one stops at the first free one, which is
+            // cheaper than collecting every overlapping booking of the type.
+            ParkingSlot free = carPark.querySlots(slotFilter(type, from))
+                .filter(slot -> overlapping(slot.getId(), from, to) == null)
+                .findFirst()
+                .orElse(null);
+            return free == null ? null : add(free, registration, from, to);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cancels a booking.
+     *
+     * @param reservation the booking to cancel
+     * @return true if cancelled; false if it was not held
+     */
+    public boolean cancel(Reservation reservation) {
+        lock.writeLock().lock();
+        try {
+            return removeLocked(reservation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops bookings that ended at or before a time.
+     *
+     * @param time the cut-off, in local epoch seconds
+     * @return the number of bookings dropped
+     */
+    public int purgeEndedBefore(long time) {
+        lock.writeLock().lock();
+        try {
+            List<Reservation> ended = new ArrayList<>();
+            for (IntervalTree tree : byType.values()) {
+                tree.forEachOverlapping(Long.MIN_VALUE, time, reservation -> {
+                    if (reservation.getEnd() <= time) {
+                        ended.add(reservation);
+                    }
+                });
+            }
+            for (Reservation reservation : ended) {
+                removeLocked(reservation);
+            }
+            return ended.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indicates whether a slot has no booking overlapping a window.
+     *
+     * @param slotId the slot ID
+     * @param from   start of the window, in local epoch seconds
+     * @param to     end of the window, exclusive
+     * @return true if the slot is not booked at any time in the window
+     */
+    public boolean isFree(String slotId, long from, long to) {
+        lock.readLock().lock();
+        try {
+            return overlapping(slotId, from, to) == null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the booking of a slot active at a time.
+     *
+     * @param slotId the slot ID
+     * @param time   the time, in local epoch seconds
+     * @return the booking, or null if the slot is not booked then
+     */
+    public Reservation findActive(String slotId, long time) {
+        lock.readLock().lock();
+        try {
+            return overlapping(slotId, time, time + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the slots of a type with no booking overlapping a window, in
+     * slot ID order. If the window has already started, slots occupied now
+     * are left out too.
+     *
+     * @param type the slot type
+     * @param from start of the window, in local epoch seconds
+     * @param to   end of the window, exclusive
+     * @return the free slots
+     */
+    public List<ParkingSlot> findFreeSlots(ParkingSlot.SlotType type, long from, long to) {
+        lock.readLock().lock();
+        try {
+            Set<String> booked = new HashSet<>();
+            byType.get(type).forEachOverlapping(from, to,
+                reservation -> booked.add(reservation.getSlotId()));
+            return carPark.querySlots(slotFilter(type, from))
+                .filter(slot -> !booked.contains(slot.getId()))
+                .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Parks an arriving car in the slot it has booked for the current time.
+     *
+     * @param arriving the arriving car; if it has no park time, it is parked as
+     *                 of now
+     * @return the slot the car was parked in, or null if it has no active booking
+     * @throws IllegalStateException if the booked slot is occupied
+     */
+    public ParkingSlot checkIn(Car arriving) {
+        Car car = arriving.hasParkTime() ? arriving : arriving.parkedAt(carPark.nowEpochSecond());
+        long now = car.getParkEpochSecond();
+        ParkingSlot slot = null;
+        lock.readLock().lock();
+        try {
+            for (Reservation reservation : byRegistration.getOrDefault(
+                car.getRegistrationNumber(), List.of())) {
+                if (reservation.getStart() <= now && now < reservation.getEnd()) {
+                    slot = carPark.findSlotById(reservation.getSlotId());
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (slot != null) {
+            slot.parkCar(car);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the number of bookings held.
+     *
+     * @return the booking count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Allows a car into a slot unless another car's booking is active at the
+     * car's park time (or now, if it has none).
+     *
+     * @param slot the free slot
+     * @param car  the car about to be parked
+     * @return true if the slot is not booked now, or is booked for this car
+     */
+    @Override
+    public boolean allows(ParkingSlot slot, Car car) {
+        long now = car.hasParkTime() ? car.getParkEpochSecond() : carPark.nowEpochSecond();
+        lock.readLock().lock();
+        try {
+            Reservation active = overlapping(slot.getId(), now, now + 1);
+            return active == null || active.getRegistration().equals(car.getRegistrationNumber());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the bookings of a deleted slot.
+     *
+     * @param slot the deleted slot
+     */
+    @Override
+    public void slotDeleted(ParkingSlot slot) {
+        lock.writeLock().lock();
+        try {
+            NavigableMap<Long, Reservation> bookings = bySlot.get(slot.getId());
+            if (bookings != null) {
+                for (Reservation reservation : new ArrayList<>(bookings.values())) {
+                    removeLocked(reservation);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the booking of a slot overlapping a window. Callers hold the lock.
+     *
+     * @param slotId the slot ID
+     * @param from   start of the window
+     * @param to     end of the window, exclusive
+     * @return the overlapping booking, or null if none
+     */
+    private Reservation overlapping(String slotId, long from, long to) {
+        NavigableMap<Long, Reservation> bookings = bySlot.get(slotId);
+        if (bookings == null) {
+            return null;
+        }
+        Map.Entry<Long, Reservation> before = bookings.lowerEntry(to);
+        return before != null && before.getValue().getEnd() > from ? before.getValue() : null;
+    }
+
+    /**
+     * Returns the filter for slots that may be booked for a window starting
+     * at a time: slots of the type, and unoccupied if the window has started.
+     *
+     * @param type the slot type
+     * @param from start of the window
+     * @return the slot filter
+     */
+    private SlotFilter slotFilter(ParkingSlot.SlotType type, long from) {
+        SlotFilter filter = SlotFilter.all().withType(type);
+        if (from <= carPark.nowEpochSecond()) {
+            filter = filter.withOccupied(false);
+        }
+        return filter;
+    }
+
+    /**
+     * Adds a booking to every index. Callers hold the write lock.
+     *
+     * @param slot         the slot booked
+     * @param registration the car it is for
+     * @param from         start of the window
+     * @param to           end of the window, exclusive
+     * @return the booking
+     */
+    private Reservation add(ParkingSlot slot, String registration, long from, long to) {
+        Reservation reservation = new Reservation(nextId.getAndIncrement(),
+            slot.getId(), slot.getType(), registration, from, to);
+        bySlot.computeIfAbsent(slot.getId(), id -> new TreeMap<>()).put(from, reservation);
+        byType.get(slot.getType()).insert(reservation);
+        byRegistration.computeIfAbsent(registration, r -> new ArrayList<>(1)).add(reservation);
+        size++;
+        return reservation;
+    }
+
+    /**
+     * Removes a booking from every index. Callers hold the write lock.
+     *
+     * @param reservation the booking
+     * @return true if it was held
+     */
+    private boolean removeLocked(Reservation reservation) {
+        NavigableMap<Long, Reservation> bookings = bySlot.get(reservation.getSlotId());
+        if (bookings == null || !bookings.remove(reservation.getStart(), reservation)) {
+            return false;
+        }
+        if (bookings.isEmpty()) {
+            bySlot.remove(reservation.getSlotId());
+        }
+        byType.get(reservation.getSlotType()).delete(reservation);
+        List<Reservation> mine = byRegistration.get(reservation.getRegistration());
+        mine.remove(reservation);
+        if (mine.isEmpty()) {
+            byRegistration.remove(reservation.getRegistration());
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * A booking of one slot for one car over a window.
+     */
+    public static final class Reservation {
+        /**
+         * Booking number, unique within the book.
+         */
+        private final long id;
+
+        /**
+         * The slot booked.
+         */
+        private final String slotId;
+
+        /**
+         * Type of the slot booked.
+         */
+        private final ParkingSlot.SlotType slotType;
+
+        /**
+         * Registration number of the car it is for.
+         */
+        private final String registration;
+
+        /**
+         * Start of the window, in local epoch seconds.
+         */
+        private final long start;
+
+        /**
+         * End of the window, exclusive.
+         */
+        private final long end;
+
+        /**
+         * Constructs a booking.
+         *
+         * @param id           booking number
+         * @param slotId       the slot booked
+         * @param slotType     type of the slot
+         * @param registration the car it is for
+         * @param start        start of the window
+         * @param end          end of the window, exclusive
+         */
+        private Reservation(long id, String slotId, ParkingSlot.SlotType slotType,
+                            String registration, long start, long end) {
+            this.id = id;
+            this.slotId = slotId;
+            this.slotType = slotType;
+            this.registration = registration;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the booking number.
+         *
+         * @return the booking number
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Returns the slot booked.
+         *
+         * @return the slot ID
+         */
+        public String getSlotId() {
+            return slotId;
+        }
+
+        /**
+         * Returns the type of the slot booked.
+         *
+         * @return the slot type
+         */
+        public ParkingSlot.SlotType getSlotType() {
+            return slotType;
+        }
+
+        /**
+         * Returns the registration number of the car the booking is for.
+         *
+         * @return the registration number
+         */
+        public String getRegistration() {
+            return registration;
+        }
+
+        /**
+         * Returns the start of the window.
+         *
+         * @return the start, in local epoch seconds
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end of the window.
+         *
+         * @return the end, exclusive, in local epoch seconds
+         */
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Interval tree of bookings: a treap ordered by start time (then booking
+     * number), where each node also holds the latest end time in its subtree,
+     * so subtrees that end before a window can be skipped.
+     */
+    private static final class IntervalTree {
+        /**
+         * A tree node.
+         */
+        private static final class Node {
+            /** The booking held. */
+            private final Reservation reservation;
+            /** Heap priority, random. */
+            private final int priority;
+            /** Latest end time in this subtree. */
+            private long maxEnd;
+            /** Subtree of earlier bookings. */
+            private Node left;
+            /** Subtree of later bookings. */
+            private Node right;
+
+            /**
+             * Constructs a leaf.
+             *
+             * @param reservation the booking
+             * @param priority    the heap priority
+             */
+            private Node(Reservation reservation, int priority) {
+                this.reservation = reservation;
+                this.priority = priority;
+                this.maxEnd = reservation.getEnd();
+            }
+        }
+
+        /**
+         * Source of node priorities.
+         */
+        private final SplittableRandom random = new SplittableRandom();
+
+        /**
+         * The root, or null when empty.
+         */
+        private Node root;
+
+        /**
+         * Adds a booking.
+         *
+         * @param reservation the booking
+         */
+        void insert(Reservation reservation) {
+            root = insert(root, new Node(reservation, random.nextInt()));
+        }
+
+        /**
+         * Removes a booking.
+         *
+         * @param reservation the booking
+         */
+        void delete(Reservation reservation) {
+            root = delete(root, reservation);
+        }
+
+        /**
+         * Visits every booking overlapping a window.
+         *
+         * @param from    start of the window
+         * @param to      end of the window, exclusive
+         * @param visitor receives each overlapping booking
+         */
+        void forEachOverlapping(long from, long to, Consumer<Reservation> visitor) {
+            visit(root, from, to, visitor);
+        }
+
+        /**
+         * Visits the overlapping bookings of a subtree.
+         *
+         * @param node    the subtree root
+         * @param from    start of the window
+         * @param to      end of the window, exclusive
+         * @param visitor receives each overlapping booking
+         */
+        private static void visit(Node node, long from, long to, Consumer<Reservation> visitor) {
+            while (node != null && node.maxEnd > from) {
+                visit(node.left, from, to, visitor);
+                if (node.reservation.getStart() >= to) {
+                    return;
+                }
+                if (node.reservation.getEnd() > from) {
+                    visitor.accept(node.reservation);
+                }
+                node = node.right;
+            }
+        }
+
+        /**
+         * Inserts a node into a subtree.
+         *
+         * @param node  the subtree root
+         * @param added the new node
+         * @return the new subtree root
+         */
+        private static Node insert(Node node, Node added) {
+            if (node == null) {
+                return added;
+            }
+            if (compare(added.reservation, node.reservation) < 0) {
+                node.left = insert(node.left, added);
+                if (node.left.priority > node.priority) {
+                    node = rotateRight(node);
+                }
+            } else {
+                node.right = insert(node.right, added);
+                if (node.right.priority > node.priority) {
+                    node = rotateLeft(node);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        /**
+         * Deletes a booking from a subtree.
+         *
+         * @param node        the subtree root
+         * @param reservation the booking
+         * @return the new subtree root
+         */
+        private static Node delete(Node node, Reservation reservation) {
+            if (node == null) {
+                return null;
+            }
+            int order = compare(reservation, node.reservation);
+            if (order < 0) {
+                node.left = delete(node.left, reservation);
+            } else if (order > 0) {
+                node.right = delete(node.right, reservation);
+            } else if (node.left == null) {
+                return node.right;
+            } else if (node.right == null) {
+                return node.left;
+            } else if (node.left.priority > node.right.priority) {
+                node = rotateRight(node);
+                node.right = delete(node.right, reservation);
+            } else {
+                node = rotateLeft(node);
+                node.left = delete(node.left, reservation);
+            }
+            update(node);
+            return node;
+        }
+
+        /**
+         * Orders bookings by start time, then booking number.
+         *
+         * @param a a booking
+         * @param b another booking
+         * @return negative, zero or positive as {@code a} sorts before, with or after {@code b}
+         */
+        private static int compare(Reservation a, Reservation b) {
+            int order = Long.compare(a.getStart(), b.getStart());
+            return order != 0 ? order : Long.compare(a.getId(), b.getId());
+        }
+
+        /**
+         * Rotates a subtree right, lifting its left child.
+         *
+         * @param node the subtree root
+         * @return the new subtree root
+         */
+        private static Node rotateRight(Node node) {
+            Node top = node.left;
+            node.left = top.right;
+            top.right = node;
+            update(node);
+            update(top);
+            return top;
+        }
+
+        /**
+         * Rotates a subtree left, lifting its right child.
+         *
+         * @param node the subtree root
+         * @return the new subtree root
+         */
+        private static Node rotateLeft(Node node) {
+            Node top = node.right;
+            node.right = top.left;
+            top.left = node;
+            update(node);
+            update(top);
+            return top;
+        }
+
+        /**
+         * Recomputes a node's latest end time from its children.
+         *
+         * @param node the node
+         */
+        private static void update(Node node) {
+            long maxEnd = node.reservation.getEnd();
+            if (node.left != null) {
+                maxEnd = Math.max(maxEnd, node.left.maxEnd);
+            }
+            if (node.right != null) {
+                maxEnd = Math.max(maxEnd, node.right.maxEnd);
+            }
+            node.maxEnd = maxEnd;
+        }
+    }
+}
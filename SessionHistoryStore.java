@@ -0,0 +1,622 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Append-only, on-disk history of completed parking sessions, for revenue and
+ * utilisation reports. Registered as a {@link CarParkListener}, it records a
+ * session (slot, slot type, registration, entry, exit and fee) each time a
+ * car is removed.
+ * <p>
+ * Sessions are stored column by column, one fixed-width file per field, so
+ * a report reads only the columns it needs. Rows are appended in exit-time
+ * order, which lets a time range be located by binary search on the exit
+ * column. Reports memory-map the rows in range a chunk at a time, so months
+ * of history can be aggregated without loading it into the heap.
+ * <p>
+ * Rows are buffered, and every {@value #ROWS_PER_FLUSH} sessions the full
+ * buffers are handed to a background writer thread, so a gate removing a car
+ * does not wait for the disk unless {@value #WRITE_BUFFERS} batches are
+ * already waiting to be written. {@link #flush()}, {@link #close()} and the
+ * reports first wait until every session recorded so far is written; reports
+ * then scan the files without holding the lock that recording takes. After a
+ * crash, columns are cut back to the last row written to every column. Times
+ * are epoch seconds of the local date-time, and fees are in cents.
+ * <p>
+ * Recording never throws, since the car has already left when the store
+ * hears of it and later listeners must still hear of the removal. Once a
+ * write has failed, later sessions are counted as dropped instead of
+ * recorded, and {@link #flush()}, {@link #close()} and the reports throw the
+ * failure.
+ */
+public class SessionHistoryStore implements CarParkListener, Closeable {
+    /**
+     * Columns of the store, each held in its own file.
+     */
+    private enum Column {
+        /** Slot ID, packed with {@link SlotAddress#toCode(String)}. */
+        SLOT(4),
+        /** Slot type ordinal. */
+        TYPE(1),
+        /** Registration, packed with {@link Car#encodeRegistration(String)}. */
+        REGISTRATION(4),
+        /** Entry time. */
+        ENTRY(8),
+        /** Exit time. */
+        EXIT(8),
+        /** Fee charged, in cents. */
+        FEE(8);
+
+        /**
+         * Bytes per row.
+         */
+        private final int width;
+
+        /**
+         * Constructs a column.
+         *
+         * @param width bytes per row
+         */
+        Column(int width) {
+            this.width = width;
+        }
+
+        /**
+         * Returns the column's file name.
+         *
+         * @return the file name, e.g. "exit.col"
+         */
+        private String fileName() {
+            return name().toLowerCase() + ".col";
+        }
+    }
+
+    /**
+     * Number of rows buffered before they are written.
+     */
+    private static final int ROWS_PER_FLUSH = 4096;
+
+    /**
+     * Number of sets of column buffers: the one being filled plus those
+     * waiting for the writer thread.
+     */
+    private static final int WRITE_BUFFERS = 4;
+
+    /**
+     * Most rows mapped at once while scanning.
+     */
+    private static final int ROWS_PER_CHUNK = 1 << 20;
+
+    /**
+     * Open channel of each column, indexed by ordinal.
+     */
+    private final FileChannel[] channels = new FileChannel[Column.values().length];
+
+    /**
+     * Rows not yet handed to the writer, per column. Guarded by {@link #lock}.
+     */
+    private ByteBuffer[] buffers;
+
+    /**
+     * Empty sets of column buffers, returned by the writer once written.
+     */
+    private final BlockingQueue<ByteBuffer[]> freeBuffers = new ArrayBlockingQueue<>(WRITE_BUFFERS);
+
+    /**
+     * Thread appending full buffers to the column files, in the order handed over.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "session-history-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Guards the buffers being filled and the counters below.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Number of rows, written or buffered.
+     */
+    private long rows;
+
+    /**
+     * Number of rows in {@link #buffers}.
+     */
+    private int bufferedRows;
+
+    /**
+     * Number of rows written to every column file. Only the writer thread
+     * changes it.
+     */
+    private volatile long writtenRows;
+
+    /**
+     * First error of the writer thread, after which nothing more is written.
+     */
+    private volatile IOException writeFailure;
+
+    /**
+     * Number of sessions not recorded because a write had already failed.
+     */
+    private long droppedRows;
+
+    /**
+     * Exit time of the last row, used to keep the exit column sorted.
+     */
+    private long lastExit = Long.MIN_VALUE;
+
+    /**
+     * Number of rows in the files when the store was opened.
+     */
+    private final long openedRows;
+
+    /**
+     * Longest session among the rows present when the store was opened,
+     * found by the first {@link #peakOccupancy(long, long)}; -1 until then.
+     */
+    private volatile long openedLongestDwell = -1;
+
+    /**
+     * Longest session recorded since the store was opened, in seconds.
+     */
+    private long longestDwell;
+
+    /**
+     * Opens the store in a directory, creating it if missing.
+     *
+     * @param directory the history directory
+     * @throws IOException if the column files cannot be opened
+     */
+    private SessionHistoryStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long complete = Long.MAX_VALUE;
+        for (Column column : Column.values()) {
+            FileChannel channel = FileChannel.open(directory.resolve(column.fileName()),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channels[column.ordinal()] = channel;
+            complete = Math.min(complete, channel.size() / column.width);
+        }
+        for (Column column : Column.values()) {
+            FileChannel channel = channels[column.ordinal()];
+            channel.truncate(complete * column.width);
+            channel.position(complete * column.width);
+        }
+        rows = complete;
+        writtenRows = complete;
+        openedRows = complete;
+        if (complete > 0) {
+            lastExit = readLong(Column.EXIT, complete - 1);
+        }
+        buffers = newBuffers();
+        for (int i = 1; i < WRITE_BUFFERS; i++) {
+            freeBuffers.add(newBuffers());
+        }
+    }
+
+    /**
+     * Allocates one set of column buffers, each holding {@value #ROWS_PER_FLUSH} rows.
+     *
+     * @return the buffers, indexed by column ordinal
+     */
+    private static ByteBuffer[] newBuffers() {
+        ByteBuffer[] set = new ByteBuffer[Column.values().length];
+        for (Column column : Column.values()) {
+            set[column.ordinal()] = ByteBuffer.allocateDirect(ROWS_PER_FLUSH * column.width);
+        }
+        return set;
+    }
+
+    /**
+     * Opens the store in a directory, keeping any history already there.
+     *
+     * @param directory the history directory, created if missing
+     * @return the open store
+     * @throws IOException if the column files cannot be opened
+     */
+    public static SessionHistoryStore open(Path directory) throws IOException {
+        return new SessionHistoryStore(directory);
+    }
+
+    /**
+     * Records the session of a car leaving, priced with its car park's tariff
+     * at the car park's current time.
+     *
+     * @param slot the slot the car left
+     * @param car  the car removed
+     */
+    @Override
+    public void carRemoved(ParkingSlot slot, Car car) {
+        CarPark owner = slot.getCarPark();
+        LocalDateTime now = owner == null ? LocalDateTime.now() : owner.now();
+        long exit = now.toEpochSecond(ZoneOffset.UTC);
+        Tariff tariff = owner == null ? Tariff.standard() : owner.getTariff();
+        long entry = car.getParkEpochSecond();
+        record(slot.getId(), slot.getType(), car.getRegistrationNumber(), entry, exit,
+            tariff.fee(slot.getType(), entry, exit));
+    }
+
+    /**
+     * Appends one completed session. An exit time earlier than the last one
+     * recorded, e.g. after the clock was set back, is raised to it so the
+     * exit column stays sorted. Once a write has failed, the session is
+     * dropped and counted by {@link #getDroppedSessionCount()}.
+     *
+     * @param slotId       the slot ID
+     * @param type         the slot type
+     * @param registration the car's registration number
+     * @param entry        the entry time, in local epoch seconds
+     * @param exit         the exit time, in local epoch seconds
+     * @param feeCents     the fee charged, in cents
+     */
+    public void record(String slotId, ParkingSlot.SlotType type, String registration,
+                       long entry, long exit, long feeCents) {
+        synchronized (lock) {
+            if (writeFailure != null) {
+                droppedRows++;
+                return;
+            }
+            exit = Math.max(exit, lastExit);
+            buffers[Column.SLOT.ordinal()].putInt(SlotAddress.toCode(slotId));
+            buffers[Column.TYPE.ordinal()].put((byte) type.ordinal());
+            buffers[Column.REGISTRATION.ordinal()].putInt(Car.encodeRegistration(registration));
+            buffers[Column.ENTRY.ordinal()].putLong(entry);
+            buffers[Column.EXIT.ordinal()].putLong(exit);
+            buffers[Column.FEE.ordinal()].putLong(feeCents);
+            lastExit = exit;
+            longestDwell = Math.max(longestDwell, exit - entry);
+            rows++;
+            if (++bufferedRows == ROWS_PER_FLUSH) {
+                handOff();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions recorded.
+     *
+     * @return the session count, excluding sessions dropped after a failed write
+     */
+    public long getSessionCount() {
+        synchronized (lock) {
+            return rows;
+        }
+    }
+
+    /**
+     * Returns the number of sessions dropped because an earlier write failed.
+     *
+     * @return the dropped session count; 0 while every write has succeeded
+     */
+    public long getDroppedSessionCount() {
+        synchronized (lock) {
+            return droppedRows;
+        }
+    }
+
+    /**
+     * Writes buffered sessions to the column files and forces them to disk.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    public void flush() throws IOException {
+        writeAll();
+        for (FileChannel channel : channels) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Flushes buffered sessions and closes the column files.
+     *
+     * @throws IOException if the files cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Sums fees by the hour the car left, over sessions ending in a time range.
+     *
+     * @param from start of the range, inclusive, in local epoch seconds
+     * @param to   end of the range, exclusive, in local epoch seconds
+     * @return revenue in cents for each hour from {@code from}
+     * @throws IOException if the column files cannot be read
+     */
+    public long[] revenuePerHour(long from, long to) throws IOException {
+        long[] revenue = new long[(int) Math.max(0, (to - from + 3599) / 3600)];
+        long written = writeAll();
+        long first = firstRowEndingAtOrAfter(from, written);
+        long end = firstRowEndingAtOrAfter(to, written);
+        for (long chunk = first; chunk < end; chunk += ROWS_PER_CHUNK) {
+            int count = (int) Math.min(ROWS_PER_CHUNK, end - chunk);
+            MappedByteBuffer exits = map(Column.EXIT, chunk, count);
+            MappedByteBuffer fees = map(Column.FEE, chunk, count);
+            for (int i = 0; i < count; i++) {
+                revenue[(int) ((exits.getLong(i * 8) - from) / 3600)] += fees.getLong(i * 8);
+            }
+        }
+        return revenue;
+    }
+
+    /**
+     * Averages the time parked per slot type, over sessions ending in a time range.
+     *
+     * @param from start of the range, inclusive, in local epoch seconds
+     * @param to   end of the range, exclusive, in local epoch seconds
+     * @return the average dwell in seconds for each type with at least one session
+     * @throws IOException if the column files cannot be read
+     */
+    public Map<ParkingSlot.SlotType, Long> averageDwellSeconds(long from, long to)
+        throws IOException {
+        ParkingSlot.SlotType[] types = ParkingSlot.SlotType.values();
+        long[] totals = new long[types.length];
+        long[] counts = new long[types.length];
+        long written = writeAll();
+        long first = firstRowEndingAtOrAfter(from, written);
+        long end = firstRowEndingAtOrAfter(to, written);
+        for (long chunk = first; chunk < end; chunk += ROWS_PER_CHUNK) {
+            int count = (int) Math.min(ROWS_PER_CHUNK, end - chunk);
+            MappedByteBuffer typeColumn = map(Column.TYPE, chunk, count);
+            MappedByteBuffer entries = map(Column.ENTRY, chunk, count);
+            MappedByteBuffer exits = map(Column.EXIT, chunk, count);
+            for (int i = 0; i < count; i++) {
+                int type = typeColumn.get(i);
+                totals[type] += exits.getLong(i * 8) - entries.getLong(i * 8);
+                counts[type]++;
+            }
+        }
+        Map<ParkingSlot.SlotType, Long> averages = new EnumMap<>(ParkingSlot.SlotType.class);
+        for (ParkingSlot.SlotType type : types) {
+            if (counts[type.ordinal()] > 0) {
+                averages.put(type, totals[type.ordinal()] / counts[type.ordinal()]);
+            }
+        }
+        return averages;
+    }
+
+    /**
+     * Returns the most cars present during any one minute of a time range,
+     * counting completed sessions only. Sessions still open when the report
+     * runs are not included. Sessions ending after {@code to} are read only
+     * as far as the longest session recorded could reach back into the range.
+     *
+     * @param from start of the range, inclusive, in local epoch seconds
+     * @param to   end of the range, exclusive, in local epoch seconds
+     * @return the peak number of cars parked at once
+     * @throws IOException if the column files cannot be read
+     */
+    public int peakOccupancy(long from, long to) throws IOException {
+        if (to <= from) {
+            return 0;
+        }
+        int[] delta = new int[(int) ((to - from - 1) / 60) + 2];
+        long written = writeAll();
+        // A session ending at or after to plus the longest session entered
+        // at or after to, so it cannot overlap the range.
+        long longest;
+        synchronized (lock) {
+            longest = longestDwell;
+        }
+        longest = Math.max(longest, openedLongestDwell());
+        long last = firstRowEndingAtOrAfter(to + longest, written);
+        for (long chunk = firstRowEndingAtOrAfter(from + 1, written); chunk < last;
+             chunk += ROWS_PER_CHUNK) {
+            int count = (int) Math.min(ROWS_PER_CHUNK, last - chunk);
+            MappedByteBuffer entries = map(Column.ENTRY, chunk, count);
+            MappedByteBuffer exits = map(Column.EXIT, chunk, count);
+            for (int i = 0; i < count; i++) {
+                long start = Math.max(entries.getLong(i * 8), from);
+                long end = Math.min(exits.getLong(i * 8), to);
+                if (start < end) {
+                    delta[(int) ((start - from) / 60)]++;
+                    delta[(int) ((end - 1 - from) / 60) + 1]--;
+                }
+            }
+        }
+        int present = 0;
+        int peak = 0;
+        for (int change : delta) {
+            present += change;
+            peak = Math.max(peak, present);
+        }
+        return peak;
+    }
+
+    /**
+     * Returns the longest session among the rows present when the store was
+     * opened, scanning them the first time it is needed.
+     *
+     * @return the longest session in seconds, or 0 if there were none
+     * @throws IOException if the column files cannot be read
+     */
+    private long openedLongestDwell() throws IOException {
+        long longest = openedLongestDwell;
+        if (longest >= 0) {
+            return longest;
+        }
+        longest = 0;
+        for (long chunk = 0; chunk < openedRows; chunk += ROWS_PER_CHUNK) {
+            int count = (int) Math.min(ROWS_PER_CHUNK, openedRows - chunk);
+            MappedByteBuffer entries = map(Column.ENTRY, chunk, count);
+            MappedByteBuffer exits = map(Column.EXIT, chunk, count);
+            for (int i = 0; i < count; i++) {
+                longest = Math.max(longest, exits.getLong(i * 8) - entries.getLong(i * 8));
+            }
+        }
+        openedLongestDwell = longest;
+        return longest;
+    }
+
+    /**
+     * Hands the buffered rows to the writer thread and continues with an
+     * empty set of buffers, waiting for one only if every set is still
+     * queued for writing. Callers hold {@link #lock}.
+     */
+    private void handOff() {
+        ByteBuffer[] full = buffers;
+        long end = rows;
+        writer.execute(() -> write(full, end));
+        boolean interrupted = false;
+        ByteBuffer[] empty = null;
+        while (empty == null) {
+            try {
+                empty = freeBuffers.take();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        buffers = empty;
+        bufferedRows = 0;
+    }
+
+    /**
+     * Appends a set of full buffers to the column files, on the writer
+     * thread, and returns the set for reuse. After a failed write nothing
+     * more is written, so the files never skip rows.
+     *
+     * @param full the buffers, indexed by column ordinal
+     * @param end  the row count once they are written
+     */
+    private void write(ByteBuffer[] full, long end) {
+        try {
+            if (writeFailure == null) {
+                for (Column column : Column.values()) {
+                    ByteBuffer buffer = full[column.ordinal()];
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channels[column.ordinal()].write(buffer);
+                    }
+                }
+                writtenRows = end;
+            }
+        } catch (IOException e) {
+            writeFailure = e;
+        } finally {
+            for (ByteBuffer buffer : full) {
+                buffer.clear();
+            }
+            freeBuffers.add(full);
+        }
+    }
+
+    /**
+     * Hands any buffered rows to the writer thread and waits until every row
+     * recorded so far has been written to the column files.
+     *
+     * @return the number of rows written, all of which may now be read
+     * @throws IOException if the rows could not be written
+     */
+    private long writeAll() throws IOException {
+        Future<?> written;
+        synchronized (lock) {
+            if (bufferedRows > 0) {
+                handOff();
+            }
+            written = writer.submit(() -> { });
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for session history writes.");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        IOException failure = writeFailure;
+        if (failure != null) {
+            throw new IOException("Session history could not be written.", failure);
+        }
+        return writtenRows;
+    }
+
+    /**
+     * Finds the first row whose exit time is at or after a time, by binary
+     * search on the exit column.
+     *
+     * @param time the time, in local epoch seconds
+     * @param rows the number of rows written, all of which are searched
+     * @return the row index, or {@code rows} if every session ended earlier
+     * @throws IOException if the exit column cannot be read
+     */
+    private long firstRowEndingAtOrAfter(long time, long rows) throws IOException {
+        long low = 0;
+        long high = rows;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (readLong(Column.EXIT, mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads one long value from a column file.
+     *
+     * @param column the column, 8 bytes wide
+     * @param row    the row index
+     * @return the value
+     * @throws IOException if the file cannot be read
+     */
+    private long readLong(Column column, long row) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(8);
+        FileChannel channel = channels[column.ordinal()];
+        while (probe.hasRemaining()) {
+            if (channel.read(probe, row * column.width + probe.position()) < 0) {
+                throw new IOException("Unexpected end of " + column.fileName());
+            }
+        }
+        return probe.getLong(0);
+    }
+
+    /**
+     * Maps a run of rows of a column read-only.
+     *
+     * @param column the column
+     * @param row    the first row
+     * @param count  the number of rows
+     * @return the mapped rows, positioned at the first
+     * @throws IOException if the file cannot be mapped
+     */
+    private MappedByteBuffer map(Column column, long row, int count) throws IOException {
+        return channels[column.ordinal()].map(FileChannel.MapMode.READ_ONLY,
+            row * column.width, (long) count * column.width);
+    }
+}
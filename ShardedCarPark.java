@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * A multi-level site split into partitions, each an independent {@link CarPark}
+ * with its own lock, indexes and metrics. Slots addressed as
+ * {@link SlotAddress level/zone/bay} are partitioned by level and zone
+ * (e.g. all of "L02-B"), and [A-Z][0-9]{2} slots by their letter, so gates
+ * working different zones never contend.
+ * <p>
+ * Lookups by slot ID go straight to the owning shard. Queries that span the
+ * site (finding a car, occupancy totals, listings) fan out over the shards in
+ * parallel. A registration number may only be parked once across the whole
+ * site: every shard claims a car's registration in a set shared by the site
+ * as the car parks, so this holds however the car is parked, including
+ * through {@link ParkingSlot#parkCar(Car)} on a slot found here.
+ */
+public class ShardedCarPark {
+    /**
+     * Shards by shard key, in key order so that {@link #parkAnywhere(Car)}
+     * fills the lowest level and zone first.
+     */
+    private final NavigableMap<String, CarPark> shards = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registration numbers parked anywhere on the site, shared by every shard
+     * (see {@link CarPark#CarPark(Set)}), which claims each one as its car
+     * parks so that two shards can never accept the same car.
+     */
+    private final Set<String> parkedRegistrations = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the shard for a shard key, creating an empty one if needed.
+     *
+     * @param key the shard key, see {@link SlotAddress#shardKeyOf(String)}
+     * @return the shard
+     */
+    private CarPark shard(String key) {
+        return shards.computeIfAbsent(key, k -> new CarPark(parkedRegistrations));
+    }
+
+    /**
+     * Adds a slot to the shard for its ID.
+     *
+     * @param slot the slot to add
+     * @return true if added; false if a slot with the same ID already exists
+     * @throws IllegalStateException if the slot holds a car parked elsewhere on the site
+     */
+    public boolean addSlot(ParkingSlot slot) {
+        Car car = slot.getParkedCar();
+        if (car != null && parkedRegistrations.contains(car.getRegistrationNumber())) {
+            throw new IllegalStateException("Car is already parked.");
+        }
+        return shard(SlotAddress.shardKeyOf(slot.getId())).addSlot(slot);
+    }
+
+    /**
+     * Adds a run of empty bays to one zone, e.g. bays 1-500 of L02-B.
+     *
+     * @param level    the level, 0-99
+     * @param zone     the zone letter, A-Z
+     * @param type     the type of every new slot
+     * @param firstBay the first bay number
+     * @param count    the number of bays
+     * @return the number of slots added; bays that already exist are skipped
+     * @throws IllegalArgumentException if the bays fall outside 0000-9999
+     */
+    public int addZone(int level, char zone, ParkingSlot.SlotType type, int firstBay, int count) {
+        String key = SlotAddress.shardKeyOf(new SlotAddress(level, zone, firstBay).toString());
+        List<ParkingSlot> batch = new ArrayList<>(count);
+        for (int bay = firstBay; bay < firstBay + count; bay++) {
+            batch.add(new ParkingSlot(new SlotAddress(level, zone, bay).toString(), type));
+        }
+        return shard(key).addSlots(batch);
+    }
+
+    /**
+     * Deletes an unoccupied slot.
+     *
+     * @param id the ID of the slot to delete
+     * @return true if deleted; false if not found or occupied
+     */
+    public boolean deleteSlot(String id) {
+        CarPark carPark = shards.get(SlotAddress.shardKeyOf(id));
+        return carPark != null && carPark.deleteSlot(id);
+    }
+
+    /**
+     * Finds a slot by its ID, searching only the shard that owns it. A car
+     * parked in it directly is still checked against the whole site.
+     *
+     * @param id the slot ID
+     * @return the slot, or null if none exists
+     */
+    public ParkingSlot findSlotById(String id) {
+        CarPark carPark = shards.get(SlotAddress.shardKeyOf(id));
+        return carPark == null ? null : carPark.findSlotById(id);
+    }
+
+    /**
+     * Looks up the slot holding a car, asking every shard in parallel.
+     *
+     * @param registrationNumber the registration number of the car to find
+     * @return the slot where the car is parked, or null if it is not on the site
+     */
+    public ParkingSlot findCar(String registrationNumber) {
+        if (!parkedRegistrations.contains(registrationNumber)) {
+            return null;
+        }
+        return shards.values().parallelStream()
+            .map(carPark -> carPark.findCar(registrationNumber))
+            .filter(slot -> slot != null)
+            .findAny()
+            .orElse(null);
+    }
+
+    /**
+     * Parks a car in a particular slot.
+     *
+     * @param slotId the slot ID
+     * @param car    the car to park
+     * @throws IllegalArgumentException if the slot does not exist
+     * @throws IllegalStateException    if the slot is occupied or the car is
+     *                                  already parked anywhere on the site
+     */
+    public void park(String slotId, Car car) {
+        ParkingSlot slot = findSlotById(slotId);
+        if (slot == null) {
+            throw new IllegalArgumentException("Slot " + slotId + " not found.");
+        }
+        slot.parkCar(car);
+    }
+
+    /**
+     * Parks a car in the first free slot of the matching type, trying shards
+     * in level and zone order.
+     *
+     * @param car the car to park
+     * @return the slot the car was parked in, or null if no matching slot is free
+     * @throws IllegalStateException if the car is already parked anywhere on the site
+     */
+    public ParkingSlot parkAnywhere(Car car) {
+        if (parkedRegistrations.contains(car.getRegistrationNumber())) {
+            throw new IllegalStateException("Car is already parked.");
+        }
+        ParkingSlot.SlotType type = car.isStaffOwner()
+            ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+        for (CarPark carPark : shards.values()) {
+            if (carPark.getFreeCount(type) > 0) {
+                ParkingSlot slot = carPark.parkAnywhere(car);
+                if (slot != null) {
+                    return slot;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the matching slots of every shard. Shards are queried in
+     * parallel and their results concatenated in shard key order, each in
+     * slot ID order.
+     *
+     * @param filter the criteria slots must meet
+     * @return the matching slots
+     */
+    public List<ParkingSlot> querySlots(SlotFilter filter) {
+        return shards.values().parallelStream()
+            .flatMap(carPark -> carPark.querySlots(filter))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of slots and occupied slots of each type across the
+     * site, summing each shard's counters in parallel.
+     *
+     * @return a map from each slot type to {total, occupied}
+     */
+    public Map<ParkingSlot.SlotType, int[]> getTotals() {
+        return shards.values().parallelStream()
+            .map(carPark -> carPark.getMetrics().snapshot())
+            .collect(() -> newTotals(), (totals, snapshot) -> {
+                for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                    totals.get(type)[0] += snapshot.getTotal(type);
+                    totals.get(type)[1] += snapshot.getOccupied(type);
+                }
+            }, (left, right) -> {
+                for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+                    left.get(type)[0] += right.get(type)[0];
+                    left.get(type)[1] += right.get(type)[1];
+                }
+            });
+    }
+
+    /**
+     * Creates a zeroed totals map.
+     *
+     * @return a map from each slot type to {0, 0}
+     */
+    private static Map<ParkingSlot.SlotType, int[]> newTotals() {
+        Map<ParkingSlot.SlotType, int[]> totals = new EnumMap<>(ParkingSlot.SlotType.class);
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            totals.put(type, new int[2]);
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the shard keys in use, in order.
+     *
+     * @return the shard keys
+     */
+    public Collection<String> getShardKeys() {
+        return List.copyOf(shards.keySet());
+    }
+
+    /**
+     * Returns the car park holding one shard, e.g. to attach a listener or journal.
+     *
+     * @param key the shard key, e.g. "L02-B"
+     * @return the shard, or null if none exists
+     */
+    public CarPark getShard(String key) {
+        return shards.get(key);
+    }
+
+    /**
+     * Returns every slot on the site, shard by shard in shard key order.
+     *
+     * @return a stream of all slots
+     */
+    public Stream<ParkingSlot> allSlots() {
+        return shards.values().stream().flatMap(carPark -> carPark.getAllSlots().stream());
+    }
+}
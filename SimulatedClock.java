@@ -0,0 +1,101 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * A {@link Clock} that only moves when told to, for replaying or speeding up
+ * time, e.g. with {@link CarPark#setClock(Clock)}. Time is kept in whole
+ * seconds and the zone is UTC, so the local date-time it gives has the same
+ * epoch second as the clock itself.
+ */
+public class SimulatedClock extends Clock {
+    /**
+     * Current time in epoch seconds, shared with clocks made by {@link #withZone(ZoneId)}.
+     */
+    private final AtomicLong epochSecond;
+
+    /**
+     * Zone reported by this clock.
+     */
+    private final ZoneId zone;
+
+    /**
+     * Constructs a clock showing a date-time.
+     *
+     * @param start the initial time
+     */
+    public SimulatedClock(LocalDateTime start) {
+        this(new AtomicLong(start.toEpochSecond(ZoneOffset.UTC)), ZoneOffset.UTC);
+    }
+
+    /**
+     * Constructs a view of a shared time in a zone.
+     *
+     * @param epochSecond the shared time
+     * @param zone        the zone
+     */
+    private SimulatedClock(AtomicLong epochSecond, ZoneId zone) {
+        this.epochSecond = epochSecond;
+        this.zone = zone;
+    }
+
+    /**
+     * Returns the current time.
+     *
+     * @return the time in epoch seconds
+     */
+    public long getEpochSecond() {
+        return epochSecond.get();
+    }
+
+    /**
+     * Sets the current time.
+     *
+     * @param epochSecond the time in epoch seconds
+     */
+    public void setEpochSecond(long epochSecond) {
+        this.epochSecond.set(epochSecond);
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param seconds the number of seconds to advance, not negative
+     * @throws IllegalArgumentException if {@code seconds} is negative
+     */
+    public void advance(long seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Cannot move the clock backwards.");
+        }
+        epochSecond.addAndGet(seconds);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new SimulatedClock(epochSecond, zone);
+    }
+
+    @Override
+    public long millis() {
+        return epochSecond.get() * 1000;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochSecond(epochSecond.get());
+    }
+}
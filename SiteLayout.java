@@ -0,0 +1,424 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * The bays of a site, as ranges of consecutive slot IDs of one type, from
+ * which {@link CarPark#CarPark(SiteLayout)} builds a car park without
+ * creating a slot object per bay up front.
+ * <p>
+ * A layout file has one range per line, {@code <fromId>-<toId> <staff|visitor>},
+ * with blank lines and {@code #} comments ignored:
+ * <pre>
+ * # Level 1: staff in zone A, visitors in zone B
+ * L01-A-0001-L01-A-0500 staff
+ * L01-B-0001-L01-B-2000 visitor
+ * S01-S20 staff
+ * </pre>
+ * Both ends of a range have the same form, and lie in the same level and zone
+ * for addresses or share the letter for [A-Z][0-9]{2} IDs. Ranges must not overlap.
+ * <p>
+ * {@link #writeImage(Path)} saves a layout as a binary image of a few bytes
+ * per range, which {@link #read(Path)} loads without parsing any text.
+ */
+public final class SiteLayout {
+    /**
+     * Marks the start of a layout image ("CPL1").
+     */
+    private static final int IMAGE_MAGIC = 0x43504C31;
+
+    /**
+     * Size of one range in a layout image: first slot code, bay count and type.
+     */
+    private static final int IMAGE_RANGE_BYTES = 4 + 4 + 1;
+
+    /**
+     * Most ranges a layout image may hold, so that its ranges fit one array.
+     */
+    private static final int MAX_IMAGE_RANGES = Integer.MAX_VALUE / IMAGE_RANGE_BYTES;
+
+    /**
+     * The ranges, in slot code order.
+     */
+    private final List<BayRange> ranges;
+
+    /**
+     * Number of bays of each type.
+     */
+    private final Map<ParkingSlot.SlotType, Integer> counts = new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Creates a layout from ranges, checking that they do not overlap.
+     *
+     * @param ranges the ranges, in any order
+     * @throws IllegalArgumentException if two ranges overlap
+     */
+    public SiteLayout(List<BayRange> ranges) {
+        List<BayRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingInt(BayRange::getFirstCode));
+        for (int i = 1; i < sorted.size(); i++) {
+            BayRange previous = sorted.get(i - 1);
+            if (sorted.get(i).getFirstCode() < previous.getFirstCode() + previous.getCount()) {
+                throw new IllegalArgumentException("Ranges " + previous + " and "
+                    + sorted.get(i) + " overlap.");
+            }
+        }
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            counts.put(type, 0);
+        }
+        for (BayRange range : sorted) {
+            counts.merge(range.getType(), range.getCount(), Integer::sum);
+        }
+        this.ranges = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Reads a layout from a text layout file or a binary layout image,
+     * whichever the file holds.
+     *
+     * @param file the layout file or image
+     * @return the layout
+     * @throws IOException if the file cannot be read or an image is corrupt
+     * @throws IllegalArgumentException if a text layout is malformed
+     */
+    public static SiteLayout read(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            in.mark(4);
+            byte[] start = in.readNBytes(4);
+            in.reset();
+            if (start.length == 4 && ByteBuffer.wrap(start).getInt() == IMAGE_MAGIC) {
+                return readImage(in, file.toString());
+            }
+            return parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Parses a text layout.
+     *
+     * @param in the layout text
+     * @return the layout
+     * @throws IOException if the text cannot be read
+     * @throws IllegalArgumentException if a line is malformed or ranges overlap
+     */
+    public static SiteLayout parse(BufferedReader in) throws IOException {
+        List<BayRange> ranges = new ArrayList<>();
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            try {
+                ranges.add(parseRange(trimmed));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage());
+            }
+        }
+        return new SiteLayout(ranges);
+    }
+
+    /**
+     * Writes this layout as a binary image: the magic number, the number of
+     * ranges, each range's first slot code, bay count and type, and a CRC32C.
+     *
+     * @param file the image file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeImage(Path file) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+            CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(IMAGE_MAGIC);
+            out.writeInt(ranges.size());
+            for (BayRange range : ranges) {
+                out.writeInt(range.getFirstCode());
+                out.writeInt(range.getCount());
+                out.writeByte(range.getType().ordinal());
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+        }
+    }
+
+    /**
+     * Returns the ranges in slot code order.
+     *
+     * @return an unmodifiable list of ranges
+     */
+    public List<BayRange> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Indicates whether a slot code is one of this layout's bays.
+     *
+     * @param code the slot code, as from {@link SlotAddress#toCode(String)}
+     * @return true if a range holds the code
+     */
+    public boolean contains(int code) {
+        int low = 0;
+        int high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            BayRange range = ranges.get(mid);
+            if (code < range.getFirstCode()) {
+                high = mid - 1;
+            } else if (code >= range.getFirstCode() + range.getCount()) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of bays of a type.
+     *
+     * @param type the slot type
+     * @return the bay count
+     */
+    public int getSlotCount(ParkingSlot.SlotType type) {
+        return counts.get(type);
+    }
+
+    /**
+     * Returns the number of bays of every type.
+     *
+     * @return the total bay count
+     */
+    public int getSlotCount() {
+        int total = 0;
+        for (int count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Reads a layout image written by {@link #writeImage(Path)}. The range
+     * count is checked against the bytes actually present and the checksum
+     * against the whole image before any range is built, so a damaged image
+     * is reported as corrupt rather than read as a different layout.
+     *
+     * @param input  the image
+     * @param source names the image in error messages
+     * @return the layout
+     * @throws IOException if the image cannot be read or is corrupt
+     */
+    private static SiteLayout readImage(InputStream input, String source) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != IMAGE_MAGIC) {
+            throw new IOException("Not a layout image: " + source);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > MAX_IMAGE_RANGES) {
+            throw corruptImage(source, "range count " + count);
+        }
+        // Read in chunks, so a damaged count cannot allocate more than the image holds.
+        byte[] body = in.readNBytes(count * IMAGE_RANGE_BYTES);
+        byte[] trailer = in.readNBytes(4);
+        if (body.length < count * IMAGE_RANGE_BYTES || trailer.length < 4) {
+            throw corruptImage(source, "truncated");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(8).putInt(IMAGE_MAGIC).putInt(count).flip());
+        crc.update(body);
+        if (ByteBuffer.wrap(trailer).getInt() != (int) crc.getValue()) {
+            throw corruptImage(source, "checksum mismatch");
+        }
+        ParkingSlot.SlotType[] types = ParkingSlot.SlotType.values();
+        ByteBuffer data = ByteBuffer.wrap(body);
+        List<BayRange> ranges = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int firstCode = data.getInt();
+                int bays = data.getInt();
+                int type = data.get();
+                if (type < 0 || type >= types.length) {
+                    throw corruptImage(source, "slot type " + type);
+                }
+                ranges.add(new BayRange(firstCode, bays, types[type]));
+            }
+            return new SiteLayout(ranges);
+        } catch (IllegalArgumentException e) {
+            throw corruptImage(source, e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the error for a damaged layout image.
+     *
+     * @param source names the image
+     * @param detail what is wrong with it
+     * @return the error to throw
+     */
+    private static IOException corruptImage(String source, String detail) {
+        return new IOException("Corrupt layout image: " + source + " (" + detail + ")");
+    }
+
+    /**
+     * Parses one {@code <fromId>-<toId> <staff|visitor>} line.
+     *
+     * @param line the trimmed line
+     * @return the range
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    private static BayRange parseRange(String line) {
+        String[] words = line.split("\\s+");
+        if (words.length != 2) {
+            throw new IllegalArgumentException("expected <fromId>-<toId> <staff|visitor>");
+        }
+        String range = words[0];
+        int dash = range.length() > 10 && SlotAddress.isAddress(range.substring(0, 10))
+            ? 10 : range.indexOf('-');
+        if (dash <= 0 || dash >= range.length() - 1 || range.charAt(dash) != '-') {
+            throw new IllegalArgumentException("range must be <fromId>-<toId>");
+        }
+        String from = range.substring(0, dash);
+        String to = range.substring(dash + 1);
+        boolean address = SlotAddress.isAddress(from);
+        if (address != SlotAddress.isAddress(to)
+            || !from.regionMatches(0, to, 0, address ? 6 : 1)) {
+            throw new IllegalArgumentException(
+                "range must stay within one level and zone, or one letter");
+        }
+        int firstCode = SlotAddress.toCode(from);
+        int lastCode = SlotAddress.toCode(to);
+        if (lastCode < firstCode) {
+            throw new IllegalArgumentException("range ends before it starts");
+        }
+        ParkingSlot.SlotType type;
+        if ("staff".equalsIgnoreCase(words[1])) {
+            type = ParkingSlot.SlotType.STAFF;
+        } else if ("visitor".equalsIgnoreCase(words[1])) {
+            type = ParkingSlot.SlotType.VISITOR;
+        } else {
+            throw new IllegalArgumentException("type must be staff or visitor");
+        }
+        return new BayRange(firstCode, lastCode - firstCode + 1, type);
+    }
+
+    /**
+     * Consecutive bays of one type: slot codes (see {@link SlotAddress#toCode(String)})
+     * {@code firstCode} to {@code firstCode + count - 1}.
+     */
+    public static final class BayRange {
+        /**
+         * Code of the first bay.
+         */
+        private final int firstCode;
+
+        /**
+         * Number of bays.
+         */
+        private final int count;
+
+        /**
+         * Type of every bay.
+         */
+        private final ParkingSlot.SlotType type;
+
+        /**
+         * Constructs a range.
+         *
+         * @param firstCode code of the first bay
+         * @param count     number of bays, at least 1
+         * @param type      type of every bay
+         * @throws IllegalArgumentException if the bays do not all lie in one
+         *                                  level and zone, or share one letter
+         */
+        public BayRange(int firstCode, int count, ParkingSlot.SlotType type) {
+            int lastCode = firstCode + count - 1;
+            boolean valid = count > 0 && firstCode >= 0 && lastCode >= firstCode;
+            if (valid && firstCode < ParkingSlot.ID_SPACE) {
+                valid = lastCode < ParkingSlot.ID_SPACE && firstCode / 100 == lastCode / 100;
+            } else if (valid) {
+                valid = (firstCode - ParkingSlot.ID_SPACE) / 10_000
+                    == (lastCode - ParkingSlot.ID_SPACE) / 10_000
+                    && (firstCode - ParkingSlot.ID_SPACE) / 10_000 < 100 * 26;
+            }
+            if (!valid) {
+                throw new IllegalArgumentException("Bay range must be non-empty and stay "
+                    + "within one level and zone, or one letter.");
+            }
+            this.firstCode = firstCode;
+            this.count = count;
+            this.type = type;
+        }
+
+        /**
+         * Returns the code of the first bay.
+         *
+         * @return the first slot code
+         */
+        public int getFirstCode() {
+            return firstCode;
+        }
+
+        /**
+         * Returns the number of bays.
+         *
+         * @return the bay count
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the type of every bay.
+         *
+         * @return the slot type
+         */
+        public ParkingSlot.SlotType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the slot ID of a bay.
+         *
+         * @param index the bay's position in the range, from 0
+         * @return the slot ID
+         */
+        public String getId(int index) {
+            return SlotAddress.fromCode(firstCode + index);
+        }
+
+        /**
+         * Returns the range in layout file form, e.g. {@code L01-A-0001-L01-A-0500 staff}.
+         *
+         * @return the range as text
+         */
+        @Override
+        public String toString() {
+            return getId(0) + "-" + getId(count - 1) + " " + type.name().toLowerCase();
+        }
+    }
+}
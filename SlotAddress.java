@@ -0,0 +1,201 @@
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Hierarchical address of a bay in a multi-level site, written as
+ * {@code L<level>-<zone>-<bay>}, e.g. {@code L02-B-0345} for bay 345 of zone B
+ * on level 2. Levels run 00-99, zones A-Z and bays 0000-9999, so a site can
+ * hold 26 million bays, compared with 99 per prefix for [A-Z][0-9]{2} IDs.
+ * <p>
+ * Both forms of slot ID can be packed into one int with {@link #toCode(String)}:
+ * [A-Z][0-9]{2} IDs keep their {@link ParkingSlot#encodeId(String)} value and
+ * addresses follow after them.
+ */
+public final class SlotAddress {
+    /**
+     * Length of an address string, e.g. "L02-B-0345".
+     */
+    private static final int LENGTH = 10;
+
+    /**
+     * Number of bays per zone.
+     */
+    private static final int BAYS_PER_ZONE = 10_000;
+
+    /**
+     * Number of zones per level.
+     */
+    private static final int ZONES_PER_LEVEL = 26;
+
+    /**
+     * The level, 0-99.
+     */
+    private final int level;
+
+    /**
+     * The zone letter, A-Z.
+     */
+    private final char zone;
+
+    /**
+     * The bay number, 0-9999.
+     */
+    private final int bay;
+
+    /**
+     * Constructs an address.
+     *
+     * @param level the level, 0-99
+     * @param zone  the zone letter, A-Z
+     * @param bay   the bay number, 0-9999
+     * @throws IllegalArgumentException if any part is out of range
+     */
+    public SlotAddress(int level, char zone, int bay) {
+        if (level < 0 || level > 99 || zone < 'A' || zone > 'Z' || bay < 0 || bay > 9999) {
+            throw new IllegalArgumentException(
+                "Address must have a level 00-99, a zone A-Z and a bay 0000-9999.");
+        }
+        this.level = level;
+        this.zone = zone;
+        this.bay = bay;
+    }
+
+    /**
+     * Parses an address string.
+     *
+     * @param id the address, e.g. "L02-B-0345"
+     * @return the parsed address
+     * @throws IllegalArgumentException if {@code id} is not a valid address
+     */
+    public static SlotAddress parse(String id) {
+        if (!isAddress(id)) {
+            throw new IllegalArgumentException(
+                "Address must look like L01-A-0001 (level, zone, bay).");
+        }
+        return new SlotAddress(digits(id, 1, 3), id.charAt(4), digits(id, 6, 10));
+    }
+
+    /**
+     * Indicates whether a slot ID is a hierarchical address, L[0-9]{2}-[A-Z]-[0-9]{4}.
+     *
+     * @param id the slot ID
+     * @return true if it is an address
+     */
+    public static boolean isAddress(String id) {
+        if (id.length() != LENGTH || id.charAt(0) != 'L' || id.charAt(3) != '-'
+            || id.charAt(5) != '-' || id.charAt(4) < 'A' || id.charAt(4) > 'Z') {
+            return false;
+        }
+        for (int i = 1; i < LENGTH; i++) {
+            if (i != 3 && i != 4 && i != 5 && (id.charAt(i) < '0' || id.charAt(i) > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shard a slot belongs to in a {@link ShardedCarPark}: the
+     * level and zone of an address (e.g. "L02-B"), or the letter of an
+     * [A-Z][0-9]{2} ID.
+     *
+     * @param id the slot ID
+     * @return the shard key
+     */
+    public static String shardKeyOf(String id) {
+        return isAddress(id) ? id.substring(0, 5) : id.substring(0, 1);
+    }
+
+    /**
+     * Packs either form of slot ID into an int.
+     *
+     * @param id a slot ID, [A-Z][0-9]{2} or an address
+     * @return the code; below {@link ParkingSlot#ID_SPACE} for [A-Z][0-9]{2} IDs
+     * @throws IllegalArgumentException if {@code id} is neither form
+     */
+    public static int toCode(String id) {
+        if (!isAddress(id)) {
+            return ParkingSlot.encodeId(id);
+        }
+        return ParkingSlot.ID_SPACE
+            + (digits(id, 1, 3) * ZONES_PER_LEVEL + (id.charAt(4) - 'A')) * BAYS_PER_ZONE
+            + digits(id, 6, 10);
+    }
+
+    /**
+     * Unpacks a slot ID packed by {@link #toCode(String)}.
+     *
+     * @param code the packed ID
+     * @return the slot ID string
+     */
+    public static String fromCode(int code) {
+        if (code < ParkingSlot.ID_SPACE) {
+            return ParkingSlot.decodeId((short) code);
+        }
+        int value = code - ParkingSlot.ID_SPACE;
+        int bay = value % BAYS_PER_ZONE;
+        int zone = value / BAYS_PER_ZONE % ZONES_PER_LEVEL;
+        int level = value / BAYS_PER_ZONE / ZONES_PER_LEVEL;
+        return new SlotAddress(level, (char) ('A' + zone), bay).toString();
+    }
+
+    /**
+     * Returns the level.
+     *
+     * @return the level, 0-99
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the zone letter.
+     *
+     * @return the zone, A-Z
+     */
+    public char getZone() {
+        return zone;
+    }
+
+    /**
+     * Returns the bay number.
+     *
+     * @return the bay, 0-9999
+     */
+    public int getBay() {
+        return bay;
+    }
+
+    /**
+     * Returns the address string, e.g. "L02-B-0345".
+     *
+     * @return the slot ID for this address
+     */
+    @Override
+    public String toString() {
+        return new String(new char[] {
+            'L', (char) ('0' + level / 10), (char) ('0' + level % 10), '-', zone, '-',
+            (char) ('0' + bay / 1000), (char) ('0' + bay / 100 % 10),
+            (char) ('0' + bay / 10 % 10), (char) ('0' + bay % 10)
+        });
+    }
+
+    /**
+     * Reads a run of decimal digits.
+     *
+     * @param s     the string
+     * @param from  index of the first digit
+     * @param to    index after the last digit
+     * @return the number
+     */
+    private static int digits(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Criteria for selecting slots in {@link CarPark#querySlots(SlotFilter)}.
+ * A filter is immutable; each {@code with} method returns a narrowed copy.
+ * Unset criteria match every slot.
+ */
+public class SlotFilter {
+    /**
+     * Filter matching every slot.
+     */
+    private static final SlotFilter ALL = new SlotFilter(null, null, null, null);
+
+    /**
+     * Required slot type, or null for any.
+     */
+    private final ParkingSlot.SlotType type;
+
+    /**
+     * Required occupancy, or null for any.
+     */
+    private final Boolean occupied;
+
+    /**
+     * Lowest slot ID to include, or null for no lower bound.
+     */
+    private final String fromId;
+
+    /**
+     * Highest slot ID to include, or null for no upper bound.
+     */
+    private final String toId;
+
+    /**
+     * Constructs a filter from its criteria.
+     *
+     * @param type     required slot type, or null for any
+     * @param occupied required occupancy, or null for any
+     * @param fromId   lowest slot ID to include, or null
+     * @param toId     highest slot ID to include, or null
+     */
+    private SlotFilter(ParkingSlot.SlotType type, Boolean occupied, String fromId, String toId) {
+        this.type = type;
+        this.occupied = occupied;
+        this.fromId = fromId;
+        this.toId = toId;
+    }
+
+    /**
+     * Returns a filter matching every slot.
+     *
+     * @return the unrestricted filter
+     */
+    public static SlotFilter all() {
+        return ALL;
+    }
+
+    /**
+     * Returns a copy of this filter that only matches slots of a type.
+     *
+     * @param type the required slot type
+     * @return the narrowed filter
+     */
+    public SlotFilter withType(ParkingSlot.SlotType type) {
+        return new SlotFilter(type, occupied, fromId, toId);
+    }
+
+    /**
+     * Returns a copy of this filter that only matches occupied or only free slots.
+     *
+     * @param occupied true for occupied slots; false for free slots
+     * @return the narrowed filter
+     */
+    public SlotFilter withOccupied(boolean occupied) {
+        return new SlotFilter(type, occupied, fromId, toId);
+    }
+
+    /**
+     * Returns a copy of this filter that only matches slot IDs in a range.
+     *
+     * @param fromId lowest slot ID to include, or null for no lower bound
+     * @param toId   highest slot ID to include, or null for no upper bound
+     * @return the narrowed filter
+     */
+    public SlotFilter withIdRange(String fromId, String toId) {
+        return new SlotFilter(type, occupied, fromId, toId);
+    }
+
+    /**
+     * Returns the slot type to include.
+     *
+     * @return the required type, or null for any
+     */
+    public ParkingSlot.SlotType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the occupancy to include.
+     *
+     * @return true for occupied slots only, false for free slots only, or null for any
+     */
+    public Boolean getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * Returns the lowest slot ID to include.
+     *
+     * @return the lower bound, or null if none
+     */
+    public String getFromId() {
+        return fromId;
+    }
+
+    /**
+     * Returns the highest slot ID to include.
+     *
+     * @return the upper bound, or null if none
+     */
+    public String getToId() {
+        return toId;
+    }
+
+    /**
+     * Tests whether a slot meets all criteria of this filter.
+     *
+     * @param slot the slot to test
+     * @return true if the slot matches
+     */
+    public boolean matches(ParkingSlot slot) {
+        return (type == null || slot.getType() == type)
+            && (occupied == null || slot.isOccupied() == occupied)
+            && (fromId == null || slot.getId().compareTo(fromId) >= 0)
+            && (toId == null || slot.getId().compareTo(toId) <= 0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Computes parking fees. Every started hour is charged at the hourly rate of
+ * the time-of-day band the hour starts in, with separate rate tables per
+ * {@link ParkingSlot.SlotType} and an optional cap per 24 hours parked.
+ * <p>
+ * Times are epoch seconds of the local date-time (see
+ * {@link Car#getParkEpochSecond()}), so a second-of-day is simply the epoch
+ * second modulo 86,400. Fee calculation uses only primitive arithmetic and
+ * does not allocate. Amounts are in cents.
+ * <p>
+ * A Tariff should be fully configured before it is shared between threads.
+ */
+public class Tariff {
+    /**
+     * Seconds in one hour.
+     */
+    private static final int HOUR = 3600;
+
+    /**
+     * Seconds in one day.
+     */
+    private static final int DAY = 24 * HOUR;
+
+    /**
+     * Value of a daily cap meaning no cap applies.
+     */
+    public static final long NO_CAP = Long.MAX_VALUE;
+
+    /**
+     * Start second-of-day of each band per slot type, in ascending order;
+     * the first band always starts at 0.
+     */
+    private final Map<ParkingSlot.SlotType, int[]> bandStarts =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Hourly rate in cents of each band per slot type, parallel to {@link #bandStarts}.
+     */
+    private final Map<ParkingSlot.SlotType, long[]> bandRates =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Maximum charge in cents per 24 hours parked, per slot type.
+     */
+    private final Map<ParkingSlot.SlotType, Long> dailyCaps =
+        new EnumMap<>(ParkingSlot.SlotType.class);
+
+    /**
+     * Constructs a Tariff charging the same hourly rate all day for every
+     * slot type, with no daily cap.
+     *
+     * @param centsPerHour the hourly rate in cents
+     */
+    public Tariff(long centsPerHour) {
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            bandStarts.put(type, new int[] {0});
+            bandRates.put(type, new long[] {centsPerHour});
+            dailyCaps.put(type, NO_CAP);
+        }
+    }
+
+    /**
+     * Returns the car park's standard tariff: $6 per started hour, no cap.
+     *
+     * @return a new standard Tariff
+     */
+    public static Tariff standard() {
+        return new Tariff(600);
+    }
+
+    /**
+     * Sets the hourly rate for a slot type from a time of day until the
+     * start of the next band (or midnight). Replaces any band starting at the same time.
+     *
+     * @param type           the slot type
+     * @param startHour      hour of day the band starts, 0-23
+     * @param startMinute    minute of the hour the band starts, 0-59
+     * @param centsPerHour   the hourly rate in cents
+     * @throws IllegalArgumentException if the time of day is out of range or the rate negative
+     */
+    public void setBand(ParkingSlot.SlotType type, int startHour, int startMinute,
+                        long centsPerHour) {
+        if (startHour < 0 || startHour > 23 || startMinute < 0 || startMinute > 59
+            || centsPerHour < 0) {
+            throw new IllegalArgumentException("Invalid tariff band.");
+        }
+        int start = startHour * HOUR + startMinute * 60;
+        int[] starts = bandStarts.get(type);
+        long[] rates = bandRates.get(type);
+        int pos = Arrays.binarySearch(starts, start);
+        if (pos >= 0) {
+            rates[pos] = centsPerHour;
+            return;
+        }
+        int insert = -pos - 1;
+        int[] newStarts = new int[starts.length + 1];
+        long[] newRates = new long[rates.length + 1];
+        System.arraycopy(starts, 0, newStarts, 0, insert);
+        System.arraycopy(rates, 0, newRates, 0, insert);
+        newStarts[insert] = start;
+        newRates[insert] = centsPerHour;
+        System.arraycopy(starts, insert, newStarts, insert + 1, starts.length - insert);
+        System.arraycopy(rates, insert, newRates, insert + 1, rates.length - insert);
+        bandStarts.put(type, newStarts);
+        bandRates.put(type, newRates);
+    }
+
+    /**
+     * Sets the maximum charge per 24 hours parked for a slot type.
+     *
+     * @param type      the slot type
+     * @param capCents  the cap in cents, or {@link #NO_CAP}
+     */
+    public void setDailyCap(ParkingSlot.SlotType type, long capCents) {
+        dailyCaps.put(type, capCents);
+    }
+
+    /**
+     * Computes the fee for a stay.
+     *
+     * @param type           the type of slot parked in
+     * @param parkEpochSecond the park time, in local epoch seconds
+     * @param nowEpochSecond  the end of the stay, in local epoch seconds
+     * @return the fee in cents; 0 if the stay has not started
+     */
+    public long fee(ParkingSlot.SlotType type, long parkEpochSecond, long nowEpochSecond) {
+        long seconds = nowEpochSecond - parkEpochSecond;
+        if (seconds <= 0) {
+            return 0;
+        }
+        long hours = (seconds + HOUR - 1) / HOUR;
+        int[] starts = bandStarts.get(type);
+        long[] rates = bandRates.get(type);
+        long cap = dailyCaps.get(type);
+        int startOfDay = (int) Math.floorMod(parkEpochSecond, (long) DAY);
+        long fullDays = hours / 24;
+        long fee = 0;
+        if (fullDays > 0) {
+            fee = fullDays * Math.min(cap, charge(starts, rates, startOfDay, 24));
+        }
+        return fee + Math.min(cap, charge(starts, rates, startOfDay, (int) (hours % 24)));
+    }
+
+    /**
+     * Computes the fee of the car parked in a slot.
+     *
+     * @param slot           an occupied slot
+     * @param nowEpochSecond the end of the stay, in local epoch seconds
+     * @return the fee in cents
+     */
+    public long fee(ParkingSlot slot, long nowEpochSecond) {
+        return fee(slot.getType(), slot.getParkedCar().getParkEpochSecond(), nowEpochSecond);
+    }
+
+    /**
+     * Prices every occupied slot of a snapshot, or a range of one, in one pass.
+     *
+     * @param slots          the slots to price
+     * @param nowEpochSecond the end of the stays, in local epoch seconds
+     * @param perTypeCents   receives the fees, added to the total of each slot
+     *                       type ordinal; at least as long as the slot types
+     * @return the total of all fees, in cents
+     */
+    public long priceAll(Iterable<CarParkSnapshot.SlotState> slots, long nowEpochSecond,
+                         long[] perTypeCents) {
+        return priceAll(slots, nowEpochSecond, perTypeCents, null);
+    }
+
+    /**
+     * Prices every occupied slot of a snapshot, or a range of one, in one
+     * pass, handing each slot and its fee to a consumer as it goes, e.g. to
+     * render a listing row.
+     *
+     * @param slots          the slots to price
+     * @param nowEpochSecond the end of the stays, in local epoch seconds
+     * @param perTypeCents   receives the fees, added to the total of each slot
+     *                       type ordinal; at least as long as the slot types
+     * @param each           given every slot in order with its fee in cents,
+     *                       or -1 for a free slot; may be null
+     * @return the total of all fees, in cents
+     */
+    public long priceAll(Iterable<CarParkSnapshot.SlotState> slots, long nowEpochSecond,
+                         long[] perTypeCents, ObjLongConsumer<CarParkSnapshot.SlotState> each) {
+        long total = 0;
+        for (CarParkSnapshot.SlotState slot : slots) {
+            long fee = -1;
+            if (slot.isOccupied()) {
+                fee = fee(slot.getType(), slot.getParkEpochSecond(), nowEpochSecond);
+                perTypeCents[slot.getType().ordinal()] += fee;
+                total += fee;
+            }
+            if (each != null) {
+                each.accept(slot, fee);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Formats an amount in cents as dollars, e.g. "$6" or "$7.50".
+     *
+     * @param cents the amount in cents
+     * @return the formatted amount
+     */
+    public static String formatCents(long cents) {
+        return cents % 100 == 0
+            ? "$" + cents / 100
+            : String.format("$%d.%02d", cents / 100, cents % 100);
+    }
+
+    /**
+     * Sums the charges of consecutive started hours.
+     *
+     * @param starts     band start seconds-of-day
+     * @param rates      band hourly rates
+     * @param startOfDay second-of-day the first hour starts at
+     * @param hours      number of hours, at most 24
+     * @return the total charge in cents
+     */
+    private static long charge(int[] starts, long[] rates, int startOfDay, int hours) {
+        long total = 0;
+        int second = startOfDay;
+        for (int h = 0; h < hours; h++) {
+            total += rates[bandAt(starts, second)];
+            second += HOUR;
+            if (second >= DAY) {
+                second -= DAY;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Finds the band in effect at a second-of-day.
+     *
+     * @param starts     band start seconds-of-day, ascending from 0
+     * @param secondOfDay the second-of-day
+     * @return the band index
+     */
+    private static int bandAt(int[] starts, int secondOfDay) {
+        int band = 0;
+        while (band + 1 < starts.length && starts[band + 1] <= secondOfDay) {
+            band++;
+        }
+        return band;
+    }
+}
\ No newline at end of file
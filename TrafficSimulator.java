@@ -0,0 +1,461 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * @author Tung Tran <103432596>
+ * @version JDK 21
+ * Class COS70006 Tuesday 18:30
+ */
+
+/**
+ * Discrete-event simulator driving a CarPark with synthetic traffic, for
+ * sizing sites and catching throughput regressions offline.
+ * <p>
+ * Staff and visitor cars arrive as Poisson processes whose hourly rate
+ * follows a daily profile (busy mornings for staff, busy middays for
+ * visitors). Each arrival parks anywhere; a car that finds no free slot of
+ * its type is rejected. Staff stay about a working day and visitors an
+ * exponentially distributed time. Events run in time order from a binary
+ * heap, with the car park on a {@link SimulatedClock} advanced to each
+ * event, so park times and fees follow simulated time.
+ * <p>
+ * Run with {@code java TrafficSimulator [days] [staffSlots visitorSlots]
+ * [staffPerDay visitorPerDay] [seed]}. The report gives wall-clock events
+ * per second, arrivals and rejections per type, visitor overstays counted
+ * by an {@link OverstayMonitor}, revenue and an occupancy timeline.
+ */
+public class TrafficSimulator {
+    /**
+     * Relative staff arrival rate for each hour of the day.
+     */
+    private static final double[] STAFF_PROFILE = {
+        0.1, 0.1, 0.1, 0.1, 0.2, 0.5, 2.0, 5.0, 6.0, 3.0, 1.0, 0.5,
+        0.5, 0.5, 0.3, 0.2, 0.2, 0.2, 0.1, 0.1, 0.1, 0.1, 0.1, 0.1
+    };
+
+    /**
+     * Relative visitor arrival rate for each hour of the day.
+     */
+    private static final double[] VISITOR_PROFILE = {
+        0.1, 0.1, 0.1, 0.1, 0.1, 0.2, 0.4, 0.8, 1.5, 2.5, 3.0, 3.0,
+        3.0, 2.5, 2.5, 2.0, 1.5, 1.0, 0.8, 0.6, 0.4, 0.3, 0.2, 0.1
+    };
+
+    /**
+     * Mean staff stay, in seconds.
+     */
+    private static final double STAFF_MEAN_STAY = 8.5 * 3600;
+
+    /**
+     * Standard deviation of the staff stay, in seconds.
+     */
+    private static final double STAFF_STAY_DEVIATION = 1.5 * 3600;
+
+    /**
+     * Mean visitor stay, in seconds.
+     */
+    private static final double VISITOR_MEAN_STAY = 2 * 3600;
+
+    /**
+     * Longest visitor stay before it counts as an overstay, in seconds.
+     */
+    private static final long VISITOR_LIMIT = 4 * 3600;
+
+    /**
+     * Shortest stay of any car, in seconds.
+     */
+    private static final long MIN_STAY = 300;
+
+    /**
+     * Interval between occupancy samples, in simulated seconds.
+     */
+    private static final long SAMPLE_INTERVAL = 3600;
+
+    /**
+     * Number of rows printed in the occupancy timeline.
+     */
+    private static final int TIMELINE_ROWS = 24;
+
+    /**
+     * Payload marking a staff arrival event.
+     */
+    private static final int STAFF_ARRIVAL = -1;
+
+    /**
+     * Payload marking a visitor arrival event.
+     */
+    private static final int VISITOR_ARRIVAL = -2;
+
+    /**
+     * Payload marking an occupancy sample event.
+     */
+    private static final int SAMPLE = -3;
+
+    /**
+     * The car park simulated.
+     */
+    private final CarPark carPark;
+
+    /**
+     * Clock of the car park, advanced to each event.
+     */
+    private final SimulatedClock clock;
+
+    /**
+     * Counts visitors staying past {@link #VISITOR_LIMIT}.
+     */
+    private final OverstayMonitor overstayMonitor;
+
+    /**
+     * Random source for arrivals and stays.
+     */
+    private final SplittableRandom random;
+
+    /**
+     * Mean staff arrivals per day.
+     */
+    private final double staffPerDay;
+
+    /**
+     * Mean visitor arrivals per day.
+     */
+    private final double visitorPerDay;
+
+    /**
+     * Event times of the heap, in epoch seconds.
+     */
+    private long[] heapTimes = new long[1024];
+
+    /**
+     * Event payloads of the heap: a packed registration for a departure,
+     * or one of the arrival and sample markers.
+     */
+    private int[] heapPayloads = new int[1024];
+
+    /**
+     * Number of events in the heap.
+     */
+    private int heapSize;
+
+    /**
+     * Slot of each parked car, by packed registration.
+     */
+    private final ParkingSlot[] parkedSlots = new ParkingSlot[Car.REGISTRATION_SPACE];
+
+    /**
+     * Next packed registration to hand out.
+     */
+    private int nextRegistration;
+
+    /**
+     * Arrivals of each type, indexed by slot type ordinal.
+     */
+    private final long[] arrivals = new long[2];
+
+    /**
+     * Rejected arrivals of each type, indexed by slot type ordinal.
+     */
+    private final long[] rejected = new long[2];
+
+    /**
+     * Number of events processed.
+     */
+    private long events;
+
+    /**
+     * Fees charged on departure, in cents.
+     */
+    private long revenue;
+
+    /**
+     * Time of the first occupancy sample, in epoch seconds.
+     */
+    private long firstSample;
+
+    /**
+     * Occupied staff slots at each sample.
+     */
+    private final List<Integer> staffSamples = new ArrayList<>();
+
+    /**
+     * Occupied visitor slots at each sample.
+     */
+    private final List<Integer> visitorSamples = new ArrayList<>();
+
+    /**
+     * Constructs a simulator for a car park.
+     *
+     * @param carPark       the car park to drive; its clock is replaced
+     * @param start         the simulated start time
+     * @param staffPerDay   mean staff arrivals per day
+     * @param visitorPerDay mean visitor arrivals per day
+     * @param seed          seed for the random source, for repeatable runs
+     * @throws IllegalArgumentException if either arrival rate is negative or not a number
+     */
+    public TrafficSimulator(CarPark carPark, LocalDateTime start,
+                            double staffPerDay, double visitorPerDay, long seed) {
+        if (!(staffPerDay >= 0) || !(visitorPerDay >= 0)) {
+            throw new IllegalArgumentException("Arrival rates must not be negative.");
+        }
+        this.carPark = carPark;
+        this.clock = new SimulatedClock(start);
+        this.random = new SplittableRandom(seed);
+        this.staffPerDay = staffPerDay;
+        this.visitorPerDay = visitorPerDay;
+        carPark.setClock(clock);
+        this.overstayMonitor = new OverstayMonitor(carPark, (slot, car, limit) -> { });
+        overstayMonitor.setLimit(ParkingSlot.SlotType.VISITOR, VISITOR_LIMIT);
+    }
+
+    /**
+     * Simulator entry point.
+     *
+     * @param args {@code [days] [staffSlots visitorSlots] [staffPerDay visitorPerDay] [seed]}
+     */
+    public static void main(String[] args) {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 365;
+        int staffSlots = args.length > 2 ? Integer.parseInt(args[1]) : 500;
+        int visitorSlots = args.length > 2 ? Integer.parseInt(args[2]) : 1500;
+        double staffPerDay = args.length > 4 ? Double.parseDouble(args[3]) : 450;
+        double visitorPerDay = args.length > 4 ? Double.parseDouble(args[4]) : 6000;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+
+        CarPark carPark = new CarPark(0, 0);
+        carPark.addSlots(zone('S', ParkingSlot.SlotType.STAFF, staffSlots));
+        carPark.addSlots(zone('V', ParkingSlot.SlotType.VISITOR, visitorSlots));
+        TrafficSimulator simulator = new TrafficSimulator(carPark,
+            LocalDateTime.of(2025, 1, 1, 0, 0), staffPerDay, visitorPerDay, seed);
+        long start = System.nanoTime();
+        simulator.run(days * 86_400L);
+        simulator.report(System.nanoTime() - start);
+    }
+
+    /**
+     * Creates the slots of one zone of level 0.
+     *
+     * @param zone  the zone letter
+     * @param type  the slot type
+     * @param count the number of bays
+     * @return the slots
+     */
+    private static List<ParkingSlot> zone(char zone, ParkingSlot.SlotType type, int count) {
+        List<ParkingSlot> slots = new ArrayList<>(count);
+        for (int bay = 1; bay <= count; bay++) {
+            slots.add(new ParkingSlot(new SlotAddress(0, zone, bay).toString(), type));
+        }
+        return slots;
+    }
+
+    /**
+     * Runs the simulation for a length of simulated time.
+     *
+     * @param seconds the simulated duration
+     */
+    public void run(long seconds) {
+        long now = clock.getEpochSecond();
+        long end = now + seconds;
+        schedule(nextArrival(now, staffPerDay, STAFF_PROFILE), STAFF_ARRIVAL);
+        schedule(nextArrival(now, visitorPerDay, VISITOR_PROFILE), VISITOR_ARRIVAL);
+        firstSample = now;
+        schedule(now, SAMPLE);
+        while (heapSize > 0 && heapTimes[0] < end) {
+            long time = heapTimes[0];
+            int payload = heapPayloads[0];
+            pop();
+            clock.setEpochSecond(time);
+            overstayMonitor.advanceTo(time);
+            events++;
+            if (payload == STAFF_ARRIVAL) {
+                arrive(time, true);
+                schedule(nextArrival(time, staffPerDay, STAFF_PROFILE), STAFF_ARRIVAL);
+            } else if (payload == VISITOR_ARRIVAL) {
+                arrive(time, false);
+                schedule(nextArrival(time, visitorPerDay, VISITOR_PROFILE), VISITOR_ARRIVAL);
+            } else if (payload == SAMPLE) {
+                CarParkMetrics metrics = carPark.getMetrics();
+                staffSamples.add(metrics.getOccupied(ParkingSlot.SlotType.STAFF));
+                visitorSamples.add(metrics.getOccupied(ParkingSlot.SlotType.VISITOR));
+                schedule(time + SAMPLE_INTERVAL, SAMPLE);
+            } else {
+                depart(time, payload);
+            }
+        }
+        clock.setEpochSecond(end);
+    }
+
+    /**
+     * Handles an arrival: parks a new car anywhere and schedules its
+     * departure, or counts it as rejected.
+     *
+     * @param time  the arrival time
+     * @param staff true for a staff car
+     */
+    private void arrive(long time, boolean staff) {
+        ParkingSlot.SlotType type = staff ? ParkingSlot.SlotType.STAFF : ParkingSlot.SlotType.VISITOR;
+        arrivals[type.ordinal()]++;
+        int registration = nextRegistration;
+        while (parkedSlots[registration] != null) {
+            registration = (registration + 1) % Car.REGISTRATION_SPACE;
+        }
+        nextRegistration = (registration + 1) % Car.REGISTRATION_SPACE;
+        ParkingSlot slot = carPark.parkAnywhere(
+            new Car(Car.decodeRegistration(registration), "Simulated", staff));
+        if (slot == null) {
+            rejected[type.ordinal()]++;
+            return;
+        }
+        parkedSlots[registration] = slot;
+        long stay = staff
+            ? (long) (STAFF_MEAN_STAY + random.nextGaussian() * STAFF_STAY_DEVIATION)
+            : (long) (-Math.log(1 - random.nextDouble()) * VISITOR_MEAN_STAY);
+        schedule(time + Math.max(MIN_STAY, stay), registration);
+    }
+
+    /**
+     * Handles a departure: removes the car and charges its fee.
+     *
+     * @param time         the departure time
+     * @param registration the packed registration of the car leaving
+     */
+    private void depart(long time, int registration) {
+        ParkingSlot slot = parkedSlots[registration];
+        parkedSlots[registration] = null;
+        Car car = slot.getParkedCar();
+        slot.removeCar();
+        revenue += carPark.getTariff().fee(slot.getType(), car.getParkEpochSecond(), time);
+    }
+
+    /**
+     * Draws the time of the next arrival of a Poisson process whose rate is
+     * constant within each hour. Since the process is memoryless, a draw that
+     * runs past the end of the hour restarts at the next hour with its rate.
+     *
+     * @param time      the time of the previous arrival
+     * @param perDay    mean arrivals per day
+     * @param profile   relative rate for each hour of the day
+     * @return the time of the next arrival, or {@link Long#MAX_VALUE} if there
+     *         are no arrivals
+     */
+    private long nextArrival(long time, double perDay, double[] profile) {
+        if (perDay == 0) {
+            return Long.MAX_VALUE;
+        }
+        double profileSum = 0;
+        for (double weight : profile) {
+            profileSum += weight;
+        }
+        double t = time;
+        while (true) {
+            long hourStart = (long) t / 3600 * 3600;
+            double ratePerSecond = perDay * profile[(int) (hourStart / 3600 % 24)] / profileSum / 3600;
+            double gap = ratePerSecond > 0
+                ? -Math.log(1 - random.nextDouble()) / ratePerSecond : Double.MAX_VALUE;
+            if (t + gap < hourStart + 3600) {
+                return (long) Math.ceil(t + gap);
+            }
+            t = hourStart + 3600;
+        }
+    }
+
+    /**
+     * Adds an event to the heap.
+     *
+     * @param time    the event time
+     * @param payload the event payload
+     */
+    private void schedule(long time, int payload) {
+        if (heapSize == heapTimes.length) {
+            heapTimes = Arrays.copyOf(heapTimes, heapSize * 2);
+            heapPayloads = Arrays.copyOf(heapPayloads, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapTimes[parent] <= time) {
+                break;
+            }
+            heapTimes[i] = heapTimes[parent];
+            heapPayloads[i] = heapPayloads[parent];
+            i = parent;
+        }
+        heapTimes[i] = time;
+        heapPayloads[i] = payload;
+    }
+
+    /**
+     * Removes the earliest event from the heap.
+     */
+    private void pop() {
+        long time = heapTimes[--heapSize];
+        int payload = heapPayloads[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapTimes[child + 1] < heapTimes[child]) {
+                child++;
+            }
+            if (heapTimes[child] >= time) {
+                break;
+            }
+            heapTimes[i] = heapTimes[child];
+            heapPayloads[i] = heapPayloads[child];
+            i = child;
+        }
+        heapTimes[i] = time;
+        heapPayloads[i] = payload;
+    }
+
+    /**
+     * Prints the simulation report.
+     *
+     * @param wallNanos the wall-clock time the run took
+     */
+    public void report(long wallNanos) {
+        System.out.printf("Events %d in %.2f s (%.0f events/s)%n",
+            events, wallNanos / 1e9, events * 1e9 / wallNanos);
+        for (ParkingSlot.SlotType type : ParkingSlot.SlotType.values()) {
+            long total = arrivals[type.ordinal()];
+            System.out.printf("%-8s arrivals %-9d rejected %-9d (%.2f%%)%n",
+                type.name().toLowerCase(), total, rejected[type.ordinal()],
+                total == 0 ? 0.0 : 100.0 * rejected[type.ordinal()] / total);
+        }
+        System.out.printf("Visitor overstays over %d h: %d%n",
+            VISITOR_LIMIT / 3600, overstayMonitor.getOverstayCount());
+        System.out.println("Revenue " + Tariff.formatCents(revenue));
+        System.out.printf("%-20s %-16s %-16s%n", "Period from", "Staff avg/peak", "Visitor avg/peak");
+        int samples = staffSamples.size();
+        int perRow = Math.max(1, (samples + TIMELINE_ROWS - 1) / TIMELINE_ROWS);
+        for (int row = 0; row * perRow < samples; row++) {
+            int from = row * perRow;
+            int to = Math.min(samples, from + perRow);
+            System.out.printf("%-20s %-16s %-16s%n",
+                LocalDateTime.ofEpochSecond(firstSample + from * SAMPLE_INTERVAL, 0, ZoneOffset.UTC),
+                summarise(staffSamples, from, to), summarise(visitorSamples, from, to));
+        }
+    }
+
+    /**
+     * Formats the average and peak of a run of samples.
+     *
+     * @param samples the samples
+     * @param from    the first sample, inclusive
+     * @param to      the last sample, exclusive
+     * @return the summary, e.g. "312/498"
+     */
+    private static String summarise(List<Integer> samples, int from, int to) {
+        long sum = 0;
+        int peak = 0;
+        for (int i = from; i < to; i++) {
+            sum += samples.get(i);
+            peak = Math.max(peak, samples.get(i));
+        }
+        return sum / (to - from) + "/" + peak;
+    }
+}